@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Peak metrics of a chromatogram which can be computed in a single pass over its data points: the
+ * RT and height of the apex, the RT range, the duration and the area. An instance is reused for
+ * many chromatograms, so it must not be shared between threads.
+ *
+ * The metrics are computed like the methods of the MSDK ChromatogramUtil: the area is summed in
+ * float arithmetic, and a chromatogram without any positive intensity has the RT -1 and the height
+ * 0.
+ */
+final class ChromatogramMetrics {
+
+  private int numOfDataPoints;
+  private float rt, rtStart, rtEnd, height, area;
+
+  /**
+   * Computes the metrics of the given data points, replacing the previous values.
+   *
+   * @param rtValues the retention times of the data points, in increasing order.
+   * @param intensityValues the intensities of the data points.
+   * @param size the number of data points, which must be at least 1.
+   */
+  void compute(@Nonnull float rtValues[], @Nonnull float intensityValues[], int size) {
+    Preconditions.checkArgument(size > 0);
+
+    float rt = -1, height = 0, area = 0;
+    for (int i = 0; i < size; i++) {
+      final float intensity = intensityValues[i];
+      if (intensity > height) {
+        height = intensity;
+        rt = rtValues[i];
+      }
+
+      // Trapezoid between this and the previous data point
+      if (i > 0) {
+        final float rtDifference = rtValues[i] - rtValues[i - 1];
+        area += rtDifference * (intensity + intensityValues[i - 1]) / 2;
+      }
+    }
+
+    this.numOfDataPoints = size;
+    this.rt = rt;
+    this.height = height;
+    this.rtStart = rtValues[0];
+    this.rtEnd = rtValues[size - 1];
+    this.area = area;
+  }
+
+  int getNumberOfDataPoints() {
+    return numOfDataPoints;
+  }
+
+  float getRt() {
+    return rt;
+  }
+
+  float getHeight() {
+    return height;
+  }
+
+  float getRtStart() {
+    return rtStart;
+  }
+
+  float getRtEnd() {
+    return rtEnd;
+  }
+
+  float getDuration() {
+    return rtEnd - rtStart;
+  }
+
+  double getArea() {
+    return area;
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChromatogramMetricsTest {
+
+  @Test
+  public void testCompute() {
+    float rtValues[] = {10f, 11f, 12f, 13f, 14f, 0f};
+    float intensityValues[] = {0f, 100f, 300f, 100f, 0f, 999f};
+
+    // Only the first 5 data points of the buffers are used
+    ChromatogramMetrics metrics = new ChromatogramMetrics();
+    metrics.compute(rtValues, intensityValues, 5);
+    Assert.assertEquals(5, metrics.getNumberOfDataPoints());
+    Assert.assertEquals(12f, metrics.getRt(), 0.00001);
+    Assert.assertEquals(300f, metrics.getHeight(), 0.00001);
+    Assert.assertEquals(10f, metrics.getRtStart(), 0.00001);
+    Assert.assertEquals(14f, metrics.getRtEnd(), 0.00001);
+    Assert.assertEquals(4f, metrics.getDuration(), 0.00001);
+    Assert.assertEquals(500.0, metrics.getArea(), 0.00001);
+
+    // The instance can be reused
+    metrics.compute(new float[] {5f}, new float[] {42f}, 1);
+    Assert.assertEquals(5f, metrics.getRt(), 0.00001);
+    Assert.assertEquals(0.0, metrics.getArea(), 0.00001);
+
+    // Like MSDK, there is no apex without a positive intensity
+    metrics.compute(new float[] {5f, 6f}, new float[] {0f, 0f}, 2);
+    Assert.assertEquals(-1f, metrics.getRt(), 0.00001);
+    Assert.assertEquals(0f, metrics.getHeight(), 0.00001);
+
+    // The area is summed in float like MSDK
+    float largeRtValues[] = new float[1000];
+    float largeIntensityValues[] = new float[1000];
+    float expectedArea = 0;
+    for (int i = 0; i < 1000; i++) {
+      largeRtValues[i] = 100f + i * 0.37f;
+      largeIntensityValues[i] = 12345.678f + (i % 7) * 1000.1f;
+      if (i > 0)
+        expectedArea += (largeRtValues[i] - largeRtValues[i - 1])
+            * (largeIntensityValues[i] + largeIntensityValues[i - 1]) / 2;
+    }
+    metrics.compute(largeRtValues, largeIntensityValues, 1000);
+    Assert.assertEquals(expectedArea, metrics.getArea(), 0.0);
+  }
+
+}
@@ -14,10 +14,16 @@
 package io.github.mzmine.datamodel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -34,26 +40,39 @@ import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.rawdata.IsolationInfo;
 import io.github.msdk.util.ChromatogramUtil;
-import io.github.msdk.util.FeatureTableUtil;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * This class adds a list of chromatograms to a feature table.
  */
 public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable> {
 
+  // Minimum number of chromatograms which are converted in parallel
+  private static final int PARALLEL_THRESHOLD = 1000;
+
+  // Largest buffer which is kept for reuse, larger buffers are released after use
+  private static final int MAX_KEPT_BUFFER_SIZE = 100000;
+
+  // Reusable buffers of each thread
+  private static final ThreadLocal<float[]> intensityBuffers =
+      ThreadLocal.withInitial(() -> new float[10000]);
+  private static final ThreadLocal<ChromatogramMetrics> chromatogramMetrics =
+      ThreadLocal.withInitial(ChromatogramMetrics::new);
+
   private final @Nonnull List<Chromatogram> chromatograms;
   private final @Nonnull FeatureTable featureTable;
   private final @Nonnull Sample sample;
+  private final boolean keepChromatograms;
   private final @Nonnull FeatureTableColumn<Double> q1Column =
       MSDKObjectBuilder.getFeatureTableColumn(ColumnName.Q1, null);
   private final @Nonnull FeatureTableColumn<Double> q3Column =
       MSDKObjectBuilder.getFeatureTableColumn(ColumnName.Q3, null);
   private final @Nonnull FeatureTableColumn<Integer> groupIdColumn =
       MSDKObjectBuilder.getFeatureTableColumn(ColumnName.GROUPID, null);
-  Map<Double, Integer> srmGroups = new HashMap<Double, Integer>();
 
-  private boolean canceled = false;
-  private int processedChromatograms = 0, totalChromatograms = 0;
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedChromatograms = new AtomicInteger();
+  private int totalChromatograms = 0;
 
   /**
    * <p>
@@ -67,9 +86,27 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
    */
   public ChromatogramToFeatureTableMethod(@Nonnull List<Chromatogram> chromatograms,
       @Nonnull FeatureTable featureTable, @Nonnull Sample sample) {
+    this(chromatograms, featureTable, sample, true);
+  }
+
+  /**
+   * <p>
+   * Constructor for ChromatogramToFeatureTableMethod.
+   * </p>
+   *
+   * @param chromatograms a list of {@link io.github.msdk.datamodel.chromatograms.Chromatogram}
+   *        objects.
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param sample a {@link io.github.msdk.datamodel.featuretables.Sample} object.
+   * @param keepChromatograms whether the chromatograms are stored in the chromatogram column of
+   *        the sample. Otherwise the rows only keep the values computed from the chromatograms.
+   */
+  public ChromatogramToFeatureTableMethod(@Nonnull List<Chromatogram> chromatograms,
+      @Nonnull FeatureTable featureTable, @Nonnull Sample sample, boolean keepChromatograms) {
     this.chromatograms = chromatograms;
     this.featureTable = featureTable;
     this.sample = sample;
+    this.keepChromatograms = keepChromatograms;
   }
 
   /** {@inheritDoc} */
@@ -82,87 +119,49 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
 
     // Add the sample columns to the table if needed
     Map<ColumnName, FeatureTableColumn<Object>> tableColumns =
-        addSampleColumns(featureTable, sample);
+        addSampleColumns(featureTable, sample, keepChromatograms);
 
     // Check if cancel is requested
     if (canceled)
       return null;
 
-    // Id of last row in feature table
-    int lastID = 0;
-    List<FeatureTableRow> rows = featureTable.getRows();
-    if (!rows.isEmpty()) {
-      lastID = featureTable.getRows().get(featureTable.getRows().size()).getId();
-    }
+    // Group the SRM chromatograms before the rows are created and add the
+    // SRM columns to the table if needed
+    final Map<Double, Integer> srmGroups = getSrmGroups(chromatograms);
+    if (!srmGroups.isEmpty())
+      addSrmColumns(featureTable);
 
-    // Loop through all chromatograms and add values to the feature table
-    FeatureTableColumn<Object> column;
-    for (Chromatogram chromatogram : chromatograms) {
-      lastID++;
-      FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(featureTable, lastID);
-      column = featureTable.getColumn(ColumnName.ID, null);
-      newRow.setData(column, lastID);
+    // Reserve the IDs of the new rows
+    final int firstID = FeatureTableUtil.allocateRowIds(featureTable, chromatograms.size());
 
-      // Add the data to the feature table row
+    // Create a row for each chromatogram, the rows are not part of the table
+    // yet so each row is only modified by one thread
+    final FeatureTableColumn<Object> idColumn = featureTable.getColumn(ColumnName.ID, null);
+    final FeatureTableRow newRows[] = new FeatureTableRow[chromatograms.size()];
+    parallelRange(chromatograms.size()).forEach(i -> {
+      if (canceled)
+        return;
+      final Chromatogram chromatogram = chromatograms.get(i);
+      final int rowID = firstID + i;
+      final FeatureTableRow newRow = FeatureTableUtil.createRow(featureTable, rowID);
+      newRow.setData(idColumn, rowID);
       addDataToRow(newRow, chromatogram, tableColumns);
+      if (chromatogram.getChromatogramType() == ChromatogramType.MRM_SRM)
+        addSrmDataToRow(newRow, chromatogram, tableColumns, srmGroups, firstID, i);
+      newRows[i] = newRow;
+      processedChromatograms.incrementAndGet();
+    });
 
-      // Add Q3 column and data for SRM chromatograms
-      if (chromatogram.getChromatogramType() == ChromatogramType.MRM_SRM) {
-
-        // Get Q1 and Q3 values
-        List<IsolationInfo> isolations = chromatogram.getIsolations();
-        Double mzQ1 = isolations.get(0).getPrecursorMz();
-        Double mzQ3 = isolations.get(1).getPrecursorMz();
-
-        // m/z column
-        column = featureTable.getColumn(ColumnName.MZ, sample);
-        newRow.setData(column, mzQ1);
-
-        // SRM Q1 column
-        column = featureTable.getColumn(ColumnName.Q1, null);
-        if (column == null)
-          featureTable.addColumn(q1Column);
-        column = featureTable.getColumn(ColumnName.Q1, null);
-        newRow.setData(column, mzQ1);
-
-        // SRM Q3 column
-        column = featureTable.getColumn(ColumnName.Q3, null);
-        if (column == null)
-          featureTable.addColumn(q3Column);
-        column = featureTable.getColumn(ColumnName.Q3, null);
-        newRow.setData(column, mzQ3);
-
-        // Group ID column
-        column = featureTable.getColumn(ColumnName.GROUPID, null);
-        if (column == null)
-          featureTable.addColumn(groupIdColumn);
-        column = featureTable.getColumn(ColumnName.GROUPID, null);
-
-        // Group ID
-        Integer groupID = srmGroups.get(mzQ1);
-        if (groupID == null) {
-          srmGroups.put(mzQ1, processedChromatograms + 1);
-
-          // Assign the first row to the 0 ID
-          newRow.setData(column, 0);
-        } else {
-          newRow.setData(column, groupID);
-        }
-      }
-
-      // Add row to feature table
-      featureTable.addRow(newRow);
-
-      // Increase counter
-      processedChromatograms++;
+    // Check if cancel is requested
+    if (canceled)
+      return null;
 
-      // Check if cancel is requested
-      if (canceled)
-        return null;
-    }
+    // Add all new rows to the feature table at once
+    final List<FeatureTableRow> rowList = Arrays.asList(newRows);
+    FeatureTableUtil.addRows(featureTable, rowList);
 
-    // Re-calculate average row m/z and RT values
-    FeatureTableUtil.recalculateAverages(featureTable);
+    // Re-calculate average row m/z and RT values of the new rows
+    FeatureTableUtil.recalculateAverages(featureTable, rowList);
 
     return featureTable;
   }
@@ -187,72 +186,68 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
 
     }
 
-    // Data structures
+    // Load data into the buffer of this thread, keeping the buffer if it had to grow
+    // up to a limited size
     float rtBuffer[];
-    float intensityBuffer[] = new float[10000];
-
-    // Load data
+    float intensityBuffer[];
     rtBuffer = chromatogram.getRetentionTimes();
-    intensityBuffer = chromatogram.getIntensityValues(intensityBuffer);
+    intensityBuffer = chromatogram.getIntensityValues(intensityBuffers.get());
+    if (intensityBuffer.length <= MAX_KEPT_BUFFER_SIZE)
+      intensityBuffers.set(intensityBuffer);
     int numOfDataPoints = chromatogram.getNumberOfDataPoints();
 
     FeatureTableColumn<Object> column;
 
     if (chromatogram.getIonAnnotation() != null) {
       column = featureTable.getColumn(ColumnName.IONANNOTATION, null);
+      // The list may be shared with a copy-on-write clone, so a new list is stored
       List<IonAnnotation> ionAnnotations = (List<IonAnnotation>) row.getData(column);
       if (ionAnnotations == null)
         ionAnnotations = new ArrayList<IonAnnotation>();
+      else
+        ionAnnotations = new ArrayList<IonAnnotation>(ionAnnotations);
       ionAnnotations.add(chromatogram.getIonAnnotation());
       row.setData(column, ionAnnotations);
     }
 
     column = tableColumns.get(ColumnName.CHROMATOGRAM);
-    row.setData(column, chromatogram);
+    if (column != null)
+      row.setData(column, chromatogram);
 
     Double mz = chromatogram.getMz();
     column = tableColumns.get(ColumnName.MZ);
     if (mz != null)
       row.setData(column, mz);
 
-    Float rt = ChromatogramUtil.getRt(rtBuffer, intensityBuffer, numOfDataPoints);
+    column = tableColumns.get(ColumnName.NUMBEROFDATAPOINTS);
+    row.setData(column, numOfDataPoints);
+
+    if (numOfDataPoints == 0)
+      return;
+
+    // RT, height, duration and area in one pass over the data points
+    final ChromatogramMetrics metrics = chromatogramMetrics.get();
+    metrics.compute(rtBuffer, intensityBuffer, numOfDataPoints);
+
     column = tableColumns.get(ColumnName.RT);
-    row.setData(column, rt);
+    row.setData(column, metrics.getRt());
 
-    Float rtStart = ChromatogramUtil.getRtStart(rtBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.RTSTART);
-    if (rtStart != null) {
-      double doubleVal = rtStart;
-      row.setData(column, doubleVal);
-    }
+    row.setData(column, (double) metrics.getRtStart());
 
-    Float rtEnd = ChromatogramUtil.getRtEnd(rtBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.RTEND);
-    if (rtEnd != null) {
-      double doubleVal = rtEnd;
-      row.setData(column, doubleVal);
-    }
+    row.setData(column, (double) metrics.getRtEnd());
 
-    Float duration = ChromatogramUtil.getDuration(rtBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.DURATION);
-    if (duration != null) {
-      double doubleVal = duration;
-      row.setData(column, doubleVal);
-    }
+    row.setData(column, (double) metrics.getDuration());
 
-    Double area = ChromatogramUtil.getArea(rtBuffer, intensityBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.AREA);
-    if (area != null)
-      row.setData(column, area);
+    row.setData(column, metrics.getArea());
 
-    Float height = ChromatogramUtil.getMaxHeight(intensityBuffer, numOfDataPoints);
     column = tableColumns.get(ColumnName.HEIGHT);
-    if (height != null)
-      row.setData(column, height);
-
-    column = tableColumns.get(ColumnName.NUMBEROFDATAPOINTS);
-    row.setData(column, numOfDataPoints);
+    row.setData(column, metrics.getHeight());
 
+    // The shape factors interpolate the RTs at fractions of the height
     Double fwhm = ChromatogramUtil.getFwhm(rtBuffer, intensityBuffer, numOfDataPoints);
     if (fwhm != null) {
       column = tableColumns.get(ColumnName.FWHM);
@@ -275,6 +270,89 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
 
   }
 
+  /**
+   * Groups the SRM chromatograms of a list by their Q1 value.
+   *
+   * @param chromatograms a list of {@link io.github.msdk.datamodel.chromatograms.Chromatogram}
+   *        objects.
+   * @return the position of the first chromatogram of each group, by Q1 value.
+   */
+  public static @Nonnull Map<Double, Integer> getSrmGroups(
+      @Nonnull List<Chromatogram> chromatograms) {
+    final List<Integer> positions = new ArrayList<>();
+    for (int i = 0; i < chromatograms.size(); i++) {
+      if (chromatograms.get(i).getChromatogramType() == ChromatogramType.MRM_SRM)
+        positions.add(i);
+    }
+    final Map<Double, Integer> srmGroups = new HashMap<>();
+    getSrmGroups(positions, i -> chromatograms.get(i).getIsolations())
+        .forEach((q1, group) -> srmGroups.put(q1, group.get(0)));
+    return srmGroups;
+  }
+
+  /**
+   * Groups SRM scans or chromatograms by their Q1 value, which is the precursor m/z of their first
+   * isolation. Items without a Q1 value are skipped.
+   *
+   * @param items the SRM scans or chromatograms.
+   * @param isolations returns the isolations of an item.
+   * @return the items of each Q1 value in their order in the list, in order of Q1.
+   */
+  public static @Nonnull <T> SortedMap<Double, List<T>> getSrmGroups(@Nonnull List<T> items,
+      @Nonnull Function<T, List<IsolationInfo>> isolations) {
+    final SortedMap<Double, List<T>> srmGroups = new TreeMap<>();
+    for (T item : items) {
+      final List<IsolationInfo> itemIsolations = isolations.apply(item);
+      if (itemIsolations.isEmpty() || itemIsolations.get(0).getPrecursorMz() == null)
+        continue;
+      srmGroups.computeIfAbsent(itemIsolations.get(0).getPrecursorMz(), q1 -> new ArrayList<>())
+          .add(item);
+    }
+    return srmGroups;
+  }
+
+  /**
+   * Sets the Q1, Q3 and group ID values of an SRM chromatogram. The group ID refers to the row ID
+   * of the first row of the group, which itself gets the 0 group ID.
+   */
+  private void addSrmDataToRow(@Nonnull FeatureTableRow row, @Nonnull Chromatogram chromatogram,
+      @Nonnull Map<ColumnName, FeatureTableColumn<Object>> tableColumns,
+      @Nonnull Map<Double, Integer> srmGroups, int firstID, int position) {
+
+    // Get Q1 and Q3 values
+    List<IsolationInfo> isolations = chromatogram.getIsolations();
+    Double mzQ1 = isolations.get(0).getPrecursorMz();
+    Double mzQ3 = isolations.get(1).getPrecursorMz();
+
+    // m/z column
+    row.setData(tableColumns.get(ColumnName.MZ), mzQ1);
+
+    // SRM Q1 and Q3 columns
+    row.setData(featureTable.getColumn(ColumnName.Q1, null), mzQ1);
+    row.setData(featureTable.getColumn(ColumnName.Q3, null), mzQ3);
+
+    // SRM group ID
+    final int groupPosition = srmGroups.get(mzQ1);
+    row.setData(featureTable.getColumn(ColumnName.GROUPID, null),
+        groupPosition == position ? 0 : firstID + groupPosition);
+  }
+
+  private void addSrmColumns(@Nonnull FeatureTable featureTable) {
+    if (featureTable.getColumn(ColumnName.Q1, null) == null)
+      featureTable.addColumn(q1Column);
+    if (featureTable.getColumn(ColumnName.Q3, null) == null)
+      featureTable.addColumn(q3Column);
+    if (featureTable.getColumn(ColumnName.GROUPID, null) == null)
+      featureTable.addColumn(groupIdColumn);
+  }
+
+  private static IntStream parallelRange(int size) {
+    IntStream indexes = IntStream.range(0, size);
+    if (size >= PARALLEL_THRESHOLD)
+      indexes = indexes.parallel();
+    return indexes;
+  }
+
   private void addCommonColumns(@Nonnull FeatureTable featureTable) {
     // Common columns
     // Only add common columns if the feature table is empty
@@ -306,12 +384,27 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
    */
   public static Map<ColumnName, FeatureTableColumn<Object>> addSampleColumns(
       @Nonnull FeatureTable featureTable, @Nonnull Sample sample) {
+    return addSampleColumns(featureTable, sample, true);
+  }
+
+  /**
+   * Adds the sample columns to the feature table if needed. The chromatogram column is only added
+   * and returned if the chromatograms are kept.
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param sample a {@link io.github.msdk.datamodel.featuretables.Sample} object.
+   * @param keepChromatograms whether the chromatogram column is added.
+   * @return the columns of the sample by name.
+   */
+  public static Map<ColumnName, FeatureTableColumn<Object>> addSampleColumns(
+      @Nonnull FeatureTable featureTable, @Nonnull Sample sample, boolean keepChromatograms) {
     final Map<ColumnName, FeatureTableColumn<Object>> tableColumns =
         new EnumMap<>(ColumnName.class);
 
     // Sample columns
     ArrayList<ColumnName> sampleColumns = new ArrayList<>();
-    sampleColumns.add(ColumnName.CHROMATOGRAM);
+    if (keepChromatograms)
+      sampleColumns.add(ColumnName.CHROMATOGRAM);
     sampleColumns.add(ColumnName.MZ);
     sampleColumns.add(ColumnName.RT);
     sampleColumns.add(ColumnName.RTSTART);
@@ -340,7 +433,9 @@ public class ChromatogramToFeatureTableMethod implements MSDKMethod<FeatureTable
   @Override
   @Nullable
   public Float getFinishedPercentage() {
-    return totalChromatograms == 0 ? null : (float) processedChromatograms / totalChromatograms;
+    if (totalChromatograms == 0)
+      return null;
+    return (float) processedChromatograms.get() / totalChromatograms;
   }
 
   /** {@inheritDoc} */
@@ -0,0 +1,522 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Storage of the values of one feature table column, used by {@link ColumnarFeatureTable}. The
+ * values are kept in pages of {@value #PAGE_SIZE} rows, and a page is only allocated when a value
+ * is written to it. Double, Float and Integer columns are backed by primitive arrays, all other
+ * data types by Object arrays. Missing values are tracked in a null bitmap per page. The bitmap is
+ * updated atomically, so different rows may be written concurrently as long as the table is not
+ * structurally modified at the same time.
+ *
+ * The pages of a storage can be shared with a new storage, see {@link #share()}. A shared page is
+ * copied by the first storage which writes to it, so a write to one storage is never visible in
+ * the other one.
+ */
+abstract class ColumnStorage {
+
+  private static final int PAGE_SHIFT = 8;
+  static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private AtomicReferenceArray<Page> pages;
+
+  ColumnStorage(int capacity) {
+    this.pages = new AtomicReferenceArray<>(pageCount(capacity));
+  }
+
+  /**
+   * Creates a storage suitable for the given data type class.
+   */
+  static @Nonnull ColumnStorage create(@Nonnull Class<?> dataTypeClass, int capacity) {
+    if (dataTypeClass == Double.class)
+      return new DoubleStorage(capacity);
+    if (dataTypeClass == Float.class)
+      return new FloatStorage(capacity);
+    if (dataTypeClass == Integer.class)
+      return new IntegerStorage(capacity);
+    return new ObjectStorage(capacity);
+  }
+
+  private static int pageCount(int capacity) {
+    return (capacity + PAGE_MASK) >>> PAGE_SHIFT;
+  }
+
+  /**
+   * Returns the page of the given row index, or null if no value has been written to it.
+   */
+  final @Nullable Page page(int index) {
+    return pages.get(index >>> PAGE_SHIFT);
+  }
+
+  /**
+   * Returns the page of the given row index for writing. A missing page is allocated, and a page
+   * which is not owned by this storage is copied first.
+   */
+  final @Nonnull Page writablePage(int index) {
+    final int pageIndex = index >>> PAGE_SHIFT;
+    Page page = pages.get(pageIndex);
+    if (page != null && page.owner == this)
+      return page;
+    synchronized (this) {
+      page = pages.get(pageIndex);
+      if (page == null) {
+        page = newPage();
+        pages.set(pageIndex, page);
+      } else if (page.owner != this) {
+        page = page.copy(this);
+        pages.set(pageIndex, page);
+      }
+      return page;
+    }
+  }
+
+  /**
+   * Returns true if a value is stored at the given row index.
+   */
+  final boolean isPresent(int index) {
+    final Page page = page(index);
+    return page != null && page.isPresent(index & PAGE_MASK);
+  }
+
+  /**
+   * Makes sure that at least the given number of rows can be stored.
+   */
+  final void ensureCapacity(int minCapacity) {
+    final int minPages = pageCount(minCapacity);
+    if (minPages <= pages.length())
+      return;
+    final int newLength = Math.max(minPages, pages.length() + (pages.length() >> 1));
+    final AtomicReferenceArray<Page> newPages = new AtomicReferenceArray<>(newLength);
+    for (int i = 0; i < pages.length(); i++)
+      newPages.set(i, pages.get(i));
+    pages = newPages;
+  }
+
+  /**
+   * Moves the values at the given ascending indexes to the leading positions, in order, and
+   * removes all other values of the first size rows. Pages which are left empty are released.
+   */
+  final void compact(@Nonnull int liveIndexes[], int size) {
+    for (int i = 0; i < liveIndexes.length; i++) {
+      final int from = liveIndexes[i];
+      if (from == i)
+        continue;
+      if (isPresent(from)) {
+        final Page target = writablePage(i);
+        page(from).copyValue(from & PAGE_MASK, target, i & PAGE_MASK);
+        target.setPresent(i & PAGE_MASK);
+      } else {
+        clear(i);
+      }
+    }
+    final int usedPages = pageCount(liveIndexes.length);
+    for (int i = liveIndexes.length; i < Math.min(size, usedPages << PAGE_SHIFT); i++)
+      clear(i);
+    for (int i = usedPages; i < pages.length(); i++)
+      pages.set(i, null);
+  }
+
+  /**
+   * Returns the value at the given index as a boxed object, or null if no value is present.
+   */
+  final @Nullable Object get(int index) {
+    final Page page = page(index);
+    if (page == null || !page.isPresent(index & PAGE_MASK))
+      return null;
+    return page.getValue(index & PAGE_MASK);
+  }
+
+  /**
+   * Stores the given value, or removes the current value if the given value is null.
+   */
+  final void set(int index, @Nullable Object value) {
+    if (value == null) {
+      clear(index);
+      return;
+    }
+    final Page page = writablePage(index);
+    page.setValue(index & PAGE_MASK, value);
+    page.setPresent(index & PAGE_MASK);
+  }
+
+  /**
+   * Removes the value at the given index.
+   */
+  final void clear(int index) {
+    if (!isPresent(index))
+      return;
+    final Page page = writablePage(index);
+    page.clearPresent(index & PAGE_MASK);
+    page.clearValue(index & PAGE_MASK);
+  }
+
+  /**
+   * Creates a new storage of the same type which shares all pages with this storage. The storage
+   * must not be written while it is shared.
+   */
+  final synchronized @Nonnull ColumnStorage share() {
+    final ColumnStorage copy = newStorage();
+    copy.pages = new AtomicReferenceArray<>(pages.length());
+    for (int i = 0; i < pages.length(); i++) {
+      final Page page = pages.get(i);
+      if (page == null)
+        continue;
+      page.owner = null;
+      copy.pages.set(i, page);
+    }
+    return copy;
+  }
+
+  protected abstract @Nonnull Page newPage();
+
+  protected abstract @Nonnull ColumnStorage newStorage();
+
+  /**
+   * Values and null bitmap of {@value #PAGE_SIZE} rows. A page is only written by the storage which
+   * owns it, shared pages have no owner.
+   */
+  abstract static class Page {
+
+    volatile ColumnStorage owner;
+    private final AtomicLongArray present;
+
+    Page(@Nonnull ColumnStorage owner) {
+      this.owner = owner;
+      this.present = new AtomicLongArray(PAGE_SIZE >>> 6);
+    }
+
+    Page(@Nonnull ColumnStorage owner, @Nonnull Page source) {
+      this(owner);
+      for (int i = 0; i < present.length(); i++)
+        present.set(i, source.present.get(i));
+    }
+
+    final boolean isPresent(int offset) {
+      return (present.get(offset >>> 6) & (1L << offset)) != 0;
+    }
+
+    final void setPresent(int offset) {
+      final int word = offset >>> 6;
+      final long mask = 1L << offset;
+      long current;
+      do {
+        current = present.get(word);
+        if ((current & mask) != 0)
+          return;
+      } while (!present.compareAndSet(word, current, current | mask));
+    }
+
+    final void clearPresent(int offset) {
+      final int word = offset >>> 6;
+      final long mask = 1L << offset;
+      long current;
+      do {
+        current = present.get(word);
+        if ((current & mask) == 0)
+          return;
+      } while (!present.compareAndSet(word, current, current & ~mask));
+    }
+
+    abstract @Nonnull Page copy(@Nonnull ColumnStorage owner);
+
+    abstract @Nonnull Object getValue(int offset);
+
+    abstract void setValue(int offset, @Nonnull Object value);
+
+    abstract void copyValue(int offset, @Nonnull Page target, int targetOffset);
+
+    void clearValue(int offset) {}
+  }
+
+  /**
+   * Storage backed by double[] arrays.
+   */
+  static final class DoubleStorage extends ColumnStorage {
+
+    DoubleStorage(int capacity) {
+      super(capacity);
+    }
+
+    /**
+     * Returns the value at the given index, which must be present.
+     */
+    double getDouble(int index) {
+      return ((DoublePage) page(index)).values[index & PAGE_MASK];
+    }
+
+    void setDouble(int index, double value) {
+      final DoublePage page = (DoublePage) writablePage(index);
+      page.values[index & PAGE_MASK] = value;
+      page.setPresent(index & PAGE_MASK);
+    }
+
+    @Override
+    protected @Nonnull Page newPage() {
+      return new DoublePage(this);
+    }
+
+    @Override
+    protected @Nonnull ColumnStorage newStorage() {
+      return new DoubleStorage(0);
+    }
+  }
+
+  private static final class DoublePage extends Page {
+
+    private final double values[];
+
+    DoublePage(@Nonnull ColumnStorage owner) {
+      super(owner);
+      values = new double[PAGE_SIZE];
+    }
+
+    DoublePage(@Nonnull ColumnStorage owner, @Nonnull DoublePage source) {
+      super(owner, source);
+      values = source.values.clone();
+    }
+
+    @Override
+    @Nonnull
+    Page copy(@Nonnull ColumnStorage owner) {
+      return new DoublePage(owner, this);
+    }
+
+    @Override
+    @Nonnull
+    Object getValue(int offset) {
+      return values[offset];
+    }
+
+    @Override
+    void setValue(int offset, @Nonnull Object value) {
+      values[offset] = ((Number) value).doubleValue();
+    }
+
+    @Override
+    void copyValue(int offset, @Nonnull Page target, int targetOffset) {
+      ((DoublePage) target).values[targetOffset] = values[offset];
+    }
+  }
+
+  /**
+   * Storage backed by float[] arrays.
+   */
+  static final class FloatStorage extends ColumnStorage {
+
+    FloatStorage(int capacity) {
+      super(capacity);
+    }
+
+    /**
+     * Returns the value at the given index, which must be present.
+     */
+    float getFloat(int index) {
+      return ((FloatPage) page(index)).values[index & PAGE_MASK];
+    }
+
+    void setFloat(int index, float value) {
+      final FloatPage page = (FloatPage) writablePage(index);
+      page.values[index & PAGE_MASK] = value;
+      page.setPresent(index & PAGE_MASK);
+    }
+
+    @Override
+    protected @Nonnull Page newPage() {
+      return new FloatPage(this);
+    }
+
+    @Override
+    protected @Nonnull ColumnStorage newStorage() {
+      return new FloatStorage(0);
+    }
+  }
+
+  private static final class FloatPage extends Page {
+
+    private final float values[];
+
+    FloatPage(@Nonnull ColumnStorage owner) {
+      super(owner);
+      values = new float[PAGE_SIZE];
+    }
+
+    FloatPage(@Nonnull ColumnStorage owner, @Nonnull FloatPage source) {
+      super(owner, source);
+      values = source.values.clone();
+    }
+
+    @Override
+    @Nonnull
+    Page copy(@Nonnull ColumnStorage owner) {
+      return new FloatPage(owner, this);
+    }
+
+    @Override
+    @Nonnull
+    Object getValue(int offset) {
+      return values[offset];
+    }
+
+    @Override
+    void setValue(int offset, @Nonnull Object value) {
+      values[offset] = ((Number) value).floatValue();
+    }
+
+    @Override
+    void copyValue(int offset, @Nonnull Page target, int targetOffset) {
+      ((FloatPage) target).values[targetOffset] = values[offset];
+    }
+  }
+
+  /**
+   * Storage backed by int[] arrays.
+   */
+  static final class IntegerStorage extends ColumnStorage {
+
+    IntegerStorage(int capacity) {
+      super(capacity);
+    }
+
+    /**
+     * Returns the value at the given index, which must be present.
+     */
+    int getInt(int index) {
+      return ((IntegerPage) page(index)).values[index & PAGE_MASK];
+    }
+
+    void setInt(int index, int value) {
+      final IntegerPage page = (IntegerPage) writablePage(index);
+      page.values[index & PAGE_MASK] = value;
+      page.setPresent(index & PAGE_MASK);
+    }
+
+    @Override
+    protected @Nonnull Page newPage() {
+      return new IntegerPage(this);
+    }
+
+    @Override
+    protected @Nonnull ColumnStorage newStorage() {
+      return new IntegerStorage(0);
+    }
+  }
+
+  private static final class IntegerPage extends Page {
+
+    private final int values[];
+
+    IntegerPage(@Nonnull ColumnStorage owner) {
+      super(owner);
+      values = new int[PAGE_SIZE];
+    }
+
+    IntegerPage(@Nonnull ColumnStorage owner, @Nonnull IntegerPage source) {
+      super(owner, source);
+      values = source.values.clone();
+    }
+
+    @Override
+    @Nonnull
+    Page copy(@Nonnull ColumnStorage owner) {
+      return new IntegerPage(owner, this);
+    }
+
+    @Override
+    @Nonnull
+    Object getValue(int offset) {
+      return values[offset];
+    }
+
+    @Override
+    void setValue(int offset, @Nonnull Object value) {
+      values[offset] = ((Number) value).intValue();
+    }
+
+    @Override
+    void copyValue(int offset, @Nonnull Page target, int targetOffset) {
+      ((IntegerPage) target).values[targetOffset] = values[offset];
+    }
+  }
+
+  /**
+   * Storage for all other data types, backed by Object[] arrays.
+   */
+  static final class ObjectStorage extends ColumnStorage {
+
+    ObjectStorage(int capacity) {
+      super(capacity);
+    }
+
+    @Override
+    protected @Nonnull Page newPage() {
+      return new ObjectPage(this);
+    }
+
+    @Override
+    protected @Nonnull ColumnStorage newStorage() {
+      return new ObjectStorage(0);
+    }
+  }
+
+  private static final class ObjectPage extends Page {
+
+    private final Object values[];
+
+    ObjectPage(@Nonnull ColumnStorage owner) {
+      super(owner);
+      values = new Object[PAGE_SIZE];
+    }
+
+    ObjectPage(@Nonnull ColumnStorage owner, @Nonnull ObjectPage source) {
+      super(owner, source);
+      values = source.values.clone();
+    }
+
+    @Override
+    @Nonnull
+    Page copy(@Nonnull ColumnStorage owner) {
+      return new ObjectPage(owner, this);
+    }
+
+    @Override
+    @Nonnull
+    Object getValue(int offset) {
+      return values[offset];
+    }
+
+    @Override
+    void setValue(int offset, @Nonnull Object value) {
+      values[offset] = value;
+    }
+
+    @Override
+    void copyValue(int offset, @Nonnull Page target, int targetOffset) {
+      ((ObjectPage) target).values[targetOffset] = values[offset];
+    }
+
+    @Override
+    void clearValue(int offset) {
+      values[offset] = null;
+    }
+  }
+
+}
@@ -0,0 +1,551 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoublePredicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.mzmine.util.FeatureTableUtil;
+
+/**
+ * Column oriented implementation of the FeatureTable interface. The values of each column are
+ * stored in a contiguous primitive array (double[], float[] or int[] for Double, Float and Integer
+ * columns) with a null bitmap, instead of one map of boxed values per row. The rows returned by
+ * this table are thin views on a row index.
+ *
+ * As with {@link SimpleFeatureTableRow}, a row keeps the values of columns which are not part of
+ * the table, and removing a column does not remove its values from the rows. Such values are
+ * stored like the values of the other columns, the columns are not added to the table.
+ *
+ * A removed row only leaves an empty slot in the column storage. The slots are compacted in one
+ * pass once more than half of them are empty, so a removal costs O(columns) amortized.
+ */
+public class ColumnarFeatureTable implements MZmineFeatureTable {
+
+  // Minimum number of empty slots before the column storage is compacted
+  private static final int COMPACTION_THRESHOLD = 64;
+
+  private @Nonnull String name;
+  private @Nonnull DataPointStore dataPointStore;
+  private final @Nonnull ArrayList<ColumnarFeatureTableRow> featureTableRows;
+  private final @Nonnull ArrayList<FeatureTableColumn<?>> featureTableColumns;
+  private final @Nonnull FeatureTableColumnIndex columnIndex;
+  private final @Nonnull Map<FeatureTableColumn<?>, ColumnStorage> columnStorages;
+  private final @Nonnull AtomicLong version = new AtomicLong();
+  private final @Nonnull AtomicInteger lastRowId = new AtomicInteger();
+  private volatile List<FeatureTableRow> rowsSnapshot;
+  private volatile List<FeatureTableColumn<?>> columnsSnapshot;
+  private volatile MzRtIndex mzRtIndex;
+  private int removedRows = 0;
+
+  public ColumnarFeatureTable(@Nonnull String name, @Nonnull DataPointStore dataPointStore) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkNotNull(dataPointStore);
+    this.name = name;
+    this.dataPointStore = dataPointStore;
+    featureTableRows = new ArrayList<ColumnarFeatureTableRow>();
+    featureTableColumns = new ArrayList<FeatureTableColumn<?>>();
+    columnIndex = new FeatureTableColumnIndex();
+    columnStorages = new HashMap<FeatureTableColumn<?>, ColumnStorage>();
+  }
+
+  /**
+   * Creates a new row which belongs to this table. Values set on the row before it is added with
+   * {@link #addRow(FeatureTableRow)} are kept in the row and moved into the column storage when
+   * the row is added.
+   *
+   * @param rowId the ID of the new row.
+   * @return a new {@link ColumnarFeatureTableRow}.
+   */
+  public @Nonnull ColumnarFeatureTableRow createRow(int rowId) {
+    return new ColumnarFeatureTableRow(this, rowId);
+  }
+
+  /**
+   * Creates a copy-on-write clone of this table. The clone has copies of the columns of this table
+   * and rows with the same IDs, and shares the column storage with this table page by page. A
+   * shared page is copied by the first table which writes to it, so the changes of either table
+   * are not visible in the other one. This table must not be written while the clone is created.
+   *
+   * @param newName the name of the clone.
+   * @param dataPointStore the {@link DataPointStore} of the clone.
+   * @return the clone.
+   */
+  public @Nonnull ColumnarFeatureTable copyOnWriteClone(@Nonnull String newName,
+      @Nonnull DataPointStore dataPointStore) {
+    final ColumnarFeatureTable clone = new ColumnarFeatureTable(newName, dataPointStore);
+    synchronized (featureTableRows) {
+      synchronized (featureTableColumns) {
+        synchronized (columnStorages) {
+          final Map<FeatureTableColumn<?>, FeatureTableColumn<?>> newColumns = new HashMap<>();
+          for (FeatureTableColumn<?> column : featureTableColumns) {
+            final FeatureTableColumn<?> newColumn = FeatureTableUtil.copyColumn(column);
+            newColumns.put(column, newColumn);
+            clone.featureTableColumns.add(newColumn);
+            clone.columnIndex.add(newColumn);
+          }
+
+          // Values of columns which are not part of the table are kept by their column
+          for (Map.Entry<FeatureTableColumn<?>, ColumnStorage> entry : columnStorages
+              .entrySet()) {
+            final FeatureTableColumn<?> newColumn = newColumns.get(entry.getKey());
+            clone.columnStorages.put(newColumn != null ? newColumn : entry.getKey(),
+                entry.getValue().share());
+          }
+        }
+      }
+
+      // Rows at the same storage indexes, including the empty slots of removed rows
+      clone.featureTableRows.ensureCapacity(featureTableRows.size());
+      for (ColumnarFeatureTableRow row : featureTableRows) {
+        ColumnarFeatureTableRow newRow = null;
+        if (row != null) {
+          newRow = new ColumnarFeatureTableRow(clone, row.getId());
+          newRow.attach(clone.featureTableRows.size());
+        }
+        clone.featureTableRows.add(newRow);
+      }
+      clone.removedRows = removedRows;
+      clone.lastRowId.set(lastRowId.get());
+    }
+    return clone;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull String getName() {
+    return name;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setName(@Nonnull String name) {
+    Preconditions.checkNotNull(name);
+    this.name = name;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list is an immutable snapshot which is shared by all callers until the rows of
+   * the table are modified.
+   */
+  @Override
+  public @Nonnull List<FeatureTableRow> getRows() {
+    List<FeatureTableRow> snapshot = rowsSnapshot;
+    if (snapshot != null)
+      return snapshot;
+    synchronized (featureTableRows) {
+      if (rowsSnapshot == null) {
+        ImmutableList.Builder<FeatureTableRow> builder = ImmutableList.builder();
+        for (ColumnarFeatureTableRow row : featureTableRows) {
+          if (row != null)
+            builder.add(row);
+        }
+        rowsSnapshot = builder.build();
+      }
+      return rowsSnapshot;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Rows of other FeatureTable implementations are accepted as well. Their values are copied into
+   * the column storage and the table keeps its own view of the row.
+   */
+  @Override
+  public void addRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    synchronized (featureTableRows) {
+      appendRow(row);
+      rowsModified();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addRows(@Nonnull Collection<? extends FeatureTableRow> rows) {
+    Preconditions.checkNotNull(rows);
+    if (rows.isEmpty())
+      return;
+    synchronized (featureTableRows) {
+      final int capacity = featureTableRows.size() + rows.size();
+      synchronized (columnStorages) {
+        for (ColumnStorage storage : columnStorages.values())
+          storage.ensureCapacity(capacity);
+      }
+      featureTableRows.ensureCapacity(capacity);
+      for (FeatureTableRow row : rows)
+        appendRow(Preconditions.checkNotNull(row));
+      rowsModified();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Rows of other FeatureTable implementations are matched by their ID, which takes a scan over
+   * the rows.
+   */
+  @Override
+  public void removeRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    synchronized (featureTableRows) {
+      int index = -1;
+      if (row instanceof ColumnarFeatureTableRow) {
+        final int rowIndex = ((ColumnarFeatureTableRow) row).getIndex();
+        if (rowIndex >= 0 && rowIndex < featureTableRows.size()
+            && featureTableRows.get(rowIndex) == row)
+          index = rowIndex;
+      } else {
+        for (int i = 0; i < featureTableRows.size(); i++) {
+          final ColumnarFeatureTableRow tableRow = featureTableRows.get(i);
+          if (tableRow != null && tableRow.getId().equals(row.getId())) {
+            index = i;
+            break;
+          }
+        }
+      }
+      if (index < 0)
+        return;
+
+      // The removed row keeps a copy of its values and leaves an empty slot
+      featureTableRows.get(index).detach();
+      synchronized (columnStorages) {
+        for (ColumnStorage storage : columnStorages.values())
+          storage.clear(index);
+      }
+      featureTableRows.set(index, null);
+      removedRows++;
+      if (removedRows >= COMPACTION_THRESHOLD && removedRows * 2 > featureTableRows.size())
+        compact();
+      rowsModified();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list is an immutable snapshot which is shared by all callers until the columns of
+   * the table are modified.
+   */
+  @Override
+  public @Nonnull List<FeatureTableColumn<?>> getColumns() {
+    List<FeatureTableColumn<?>> snapshot = columnsSnapshot;
+    if (snapshot != null)
+      return snapshot;
+    synchronized (featureTableColumns) {
+      if (columnsSnapshot == null)
+        columnsSnapshot = ImmutableList.copyOf(featureTableColumns);
+      return columnsSnapshot;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  @Override
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull String columnName,
+      Sample sample, Class<? extends DATATYPE> dtClass) {
+    synchronized (featureTableColumns) {
+      FeatureTableColumn<?> column = columnIndex.get(columnName, sample);
+
+      // A column has been renamed since it was indexed, re-index all columns
+      if (column == null && columnIndex.isStale()) {
+        columnIndex.rebuild(featureTableColumns);
+        column = columnIndex.get(columnName, sample);
+      }
+      return (FeatureTableColumn<DATATYPE>) column;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  @Override
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull ColumnName columnName,
+      Sample sample) {
+    FeatureTableColumn<?> column =
+        getColumn(columnName.getName(), sample, columnName.getDataTypeClass());
+    if (column != null) {
+      return (FeatureTableColumn<DATATYPE>) column;
+    }
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    getOrCreateStorage(col);
+    synchronized (featureTableColumns) {
+      featureTableColumns.add(col);
+      columnIndex.add(col);
+      columnsSnapshot = null;
+      version.incrementAndGet();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The values of the column are kept in the rows.
+   */
+  @Override
+  public void removeColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    synchronized (featureTableColumns) {
+      featureTableColumns.remove(col);
+      columnIndex.rebuild(featureTableColumns);
+      columnsSnapshot = null;
+      version.incrementAndGet();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull List<Sample> getSamples() {
+    synchronized (featureTableColumns) {
+      return columnIndex.getSamples();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void dispose() {
+    dataPointStore.dispose();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<FeatureTableRow> getRowsInsideRange(Range<Float> rtRange, Range<Double> mzRange) {
+    return getMzRtIndex().getRowsInsideRange(rtRange, mzRange);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull MzRtIndex getMzRtIndex() {
+    MzRtIndex index = mzRtIndex;
+    if (index != null)
+      return index;
+    synchronized (featureTableRows) {
+      if (mzRtIndex == null)
+        mzRtIndex = new MzRtIndex(getRows());
+      return mzRtIndex;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int allocateRowIds(int count) {
+    Preconditions.checkArgument(count >= 0);
+    return lastRowId.getAndAdd(count) + 1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Returns the value of the given column at the given row index, or null if no value is present.
+   */
+  @Nullable
+  Object getValue(@Nonnull FeatureTableColumn<?> column, int index) {
+    ColumnStorage storage;
+    synchronized (columnStorages) {
+      storage = columnStorages.get(column);
+    }
+    if (storage == null)
+      return null;
+    return storage.get(index);
+  }
+
+  /**
+   * Tests the value of a numeric column at the given row index without boxing it, or returns
+   * missingResult if no value is present.
+   */
+  boolean testDouble(@Nonnull FeatureTableColumn<?> column, int index,
+      @Nonnull DoublePredicate predicate, boolean missingResult) {
+    final ColumnStorage storage = getStorage(column);
+    if (storage == null || !storage.isPresent(index))
+      return missingResult;
+    if (storage instanceof ColumnStorage.DoubleStorage)
+      return predicate.test(((ColumnStorage.DoubleStorage) storage).getDouble(index));
+    if (storage instanceof ColumnStorage.FloatStorage)
+      return predicate.test(((ColumnStorage.FloatStorage) storage).getFloat(index));
+    if (storage instanceof ColumnStorage.IntegerStorage)
+      return predicate.test(((ColumnStorage.IntegerStorage) storage).getInt(index));
+    return predicate.test(((Number) storage.get(index)).doubleValue());
+  }
+
+  /**
+   * Sets the value of the given column at the given row index.
+   */
+  void setValue(@Nonnull FeatureTableColumn<?> column, int index, @Nullable Object value) {
+    ColumnStorage storage;
+    synchronized (columnStorages) {
+      storage = columnStorages.get(column);
+    }
+    if (storage == null) {
+      if (value == null)
+        return;
+      storage = getOrCreateStorage(column);
+    }
+    storage.set(index, value);
+    if ((column == MSDKObjectBuilder.getMzFeatureTableColumn())
+        || (column == MSDKObjectBuilder.getRetentionTimeFeatureTableColumn())) {
+      // An index which is being built from the old values must not be kept
+      synchronized (featureTableRows) {
+        mzRtIndex = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the storage of the given column, or null if no value of the column has been stored.
+   * The storage must not be used across structural modifications of the table.
+   */
+  @Nullable
+  ColumnStorage getStorage(@Nonnull FeatureTableColumn<?> column) {
+    synchronized (columnStorages) {
+      return columnStorages.get(column);
+    }
+  }
+
+  /**
+   * Returns the values of all columns at the given row index, including the values of columns
+   * which are not part of the table.
+   */
+  @Nonnull
+  Map<FeatureTableColumn<?>, Object> getValues(int index) {
+    final Map<FeatureTableColumn<?>, Object> values = new HashMap<>();
+    synchronized (columnStorages) {
+      for (Map.Entry<FeatureTableColumn<?>, ColumnStorage> entry : columnStorages.entrySet()) {
+        Object value = entry.getValue().get(index);
+        if (value != null)
+          values.put(entry.getKey(), value);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the storage of a column, creating it if needed. The lock on the row list makes sure
+   * that a new storage covers all row indexes, including the index of a row which is being added.
+   */
+  private @Nonnull ColumnStorage getOrCreateStorage(@Nonnull FeatureTableColumn<?> column) {
+    synchronized (featureTableRows) {
+      synchronized (columnStorages) {
+        ColumnStorage storage = columnStorages.get(column);
+        if (storage == null) {
+          storage = ColumnStorage.create(column.getDataTypeClass(), featureTableRows.size() + 1);
+          columnStorages.put(column, storage);
+        }
+        return storage;
+      }
+    }
+  }
+
+  /**
+   * Appends a row to the table, must be called holding the lock on the row list.
+   */
+  private void appendRow(@Nonnull FeatureTableRow row) {
+    ColumnarFeatureTableRow newRow;
+    if (row instanceof ColumnarFeatureTableRow
+        && ((ColumnarFeatureTableRow) row).getFeatureTable() == this
+        && !((ColumnarFeatureTableRow) row).isAttached()) {
+      newRow = (ColumnarFeatureTableRow) row;
+      newRow.attach(allocateIndex());
+    } else {
+      newRow = new ColumnarFeatureTableRow(this, row.getId());
+      newRow.attach(allocateIndex());
+      for (FeatureTableColumn<?> column : row.getFeatureTable().getColumns()) {
+        Object value = row.getData(column);
+        if (value != null)
+          setValue(column, newRow.getIndex(), value);
+      }
+    }
+    featureTableRows.add(newRow);
+    rowIdUsed(newRow.getId());
+  }
+
+  /**
+   * Drops the snapshot and index of the rows, must be called holding the lock on the row list.
+   */
+  private void rowsModified() {
+    rowsSnapshot = null;
+    mzRtIndex = null;
+    version.incrementAndGet();
+  }
+
+  /**
+   * Moves the rows into the leading slots of the column storage, in order, and drops the empty
+   * slots. Must be called holding the lock on the row list.
+   */
+  private void compact() {
+    final int size = featureTableRows.size();
+    final int liveIndexes[] = new int[size - removedRows];
+    int liveCount = 0;
+    for (int i = 0; i < size; i++) {
+      if (featureTableRows.get(i) != null)
+        liveIndexes[liveCount++] = i;
+    }
+    synchronized (columnStorages) {
+      for (ColumnStorage storage : columnStorages.values())
+        storage.compact(liveIndexes, size);
+    }
+    for (int i = 0; i < liveCount; i++) {
+      final ColumnarFeatureTableRow row = featureTableRows.get(liveIndexes[i]);
+      row.setIndex(i);
+      featureTableRows.set(i, row);
+    }
+    featureTableRows.subList(liveCount, size).clear();
+    removedRows = 0;
+  }
+
+  private int allocateIndex() {
+    final int index = featureTableRows.size();
+    synchronized (columnStorages) {
+      for (ColumnStorage storage : columnStorages.values())
+        storage.ensureCapacity(index + 1);
+    }
+    return index;
+  }
+
+  /**
+   * Keeps the ID of an added row out of the range of IDs returned by {@link #allocateRowIds(int)}.
+   */
+  private void rowIdUsed(int rowId) {
+    lastRowId.accumulateAndGet(rowId, Math::max);
+  }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+
+/**
+ * Row of a {@link ColumnarFeatureTable}. Once added to the table, the row is only a view on a row
+ * index of the table's column storage. Before that, values are kept in a small map.
+ */
+public class ColumnarFeatureTableRow implements FeatureTableRow {
+
+  private final int rowId;
+  private final @Nonnull ColumnarFeatureTable featureTable;
+  private volatile int index = -1;
+  private Map<FeatureTableColumn<?>, Object> pendingData = new HashMap<>();
+
+  ColumnarFeatureTableRow(@Nonnull ColumnarFeatureTable featureTable, int rowId) {
+    Preconditions.checkNotNull(featureTable);
+    this.featureTable = featureTable;
+    this.rowId = rowId;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull FeatureTable getFeatureTable() {
+    return featureTable;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull Integer getId() {
+    return rowId;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Double getMz() {
+    return getData(MSDKObjectBuilder.getMzFeatureTableColumn());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getRT() {
+    return getData(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> void setData(FeatureTableColumn<? extends DATATYPE> column,
+      @Nonnull DATATYPE data) {
+    Preconditions.checkNotNull(column);
+    Preconditions.checkNotNull(data);
+    int currentIndex = index;
+    if (currentIndex < 0) {
+      synchronized (this) {
+        currentIndex = index;
+        if (currentIndex < 0) {
+          pendingData.put(column, data);
+          return;
+        }
+      }
+    }
+    featureTable.setValue(column, currentIndex, data);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> DATATYPE getData(@Nonnull FeatureTableColumn<? extends DATATYPE> column) {
+    Preconditions.checkNotNull(column);
+    int currentIndex = index;
+    if (currentIndex < 0) {
+      synchronized (this) {
+        currentIndex = index;
+        if (currentIndex < 0)
+          return column.getDataTypeClass().cast(pendingData.get(column));
+      }
+    }
+    return column.getDataTypeClass().cast(featureTable.getValue(column, currentIndex));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> void copyData(FeatureTableColumn<? extends DATATYPE> sourceColumn,
+      FeatureTableRow targetRow, FeatureTableColumn<? extends DATATYPE> targetColumn,
+      FeatureTableDataConverter<DATATYPE> featureTableDataConverter) {
+    featureTableDataConverter.apply(this, sourceColumn, targetRow, targetColumn);
+  }
+
+  /**
+   * Tests the value of a numeric column without boxing it.
+   *
+   * @param column a {@link io.github.msdk.datamodel.featuretables.FeatureTableColumn} with numeric
+   *        values.
+   * @param predicate the predicate to test the value with.
+   * @param missingResult the result if the row has no value of the column.
+   * @return the result of the predicate, or missingResult.
+   */
+  public boolean testDouble(@Nonnull FeatureTableColumn<? extends Number> column,
+      @Nonnull DoublePredicate predicate, boolean missingResult) {
+    Preconditions.checkNotNull(column);
+    final int currentIndex = index;
+    if (currentIndex < 0) {
+      final Number value = getData(column);
+      return value == null ? missingResult : predicate.test(value.doubleValue());
+    }
+    return featureTable.testDouble(column, currentIndex, predicate, missingResult);
+  }
+
+  /**
+   * Returns the index of this row in the column storage, or -1 if the row has not been added to
+   * the table.
+   */
+  int getIndex() {
+    return index;
+  }
+
+  boolean isAttached() {
+    return index >= 0;
+  }
+
+  /**
+   * Binds the row to the given storage index and moves the pending values into the table.
+   */
+  synchronized void attach(int index) {
+    this.index = index;
+    for (Map.Entry<FeatureTableColumn<?>, Object> entry : pendingData.entrySet())
+      featureTable.setValue(entry.getKey(), index, entry.getValue());
+    pendingData = null;
+  }
+
+  /**
+   * Called when the row is removed from the table. The row keeps a copy of its values.
+   */
+  synchronized void detach() {
+    pendingData = featureTable.getValues(index);
+    index = -1;
+  }
+
+  synchronized void setIndex(int index) {
+    this.index = index;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    List<FeatureTableColumn<?>> columns = featureTable.getColumns();
+    List<String> contents = new ArrayList<String>();
+    for (FeatureTableColumn<?> column : columns) {
+      contents.add(column.getName() + "=" + getData(column));
+    }
+
+    return contents.toString();
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.mzmine.util.FeatureTableUtil;
+
+public class ColumnarFeatureTableTest {
+
+  @Test
+  public void testRowsAndColumns() {
+
+    // Create the data structures
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    Sample sample = new SimpleSample("sample");
+
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+    FeatureTableColumn<Float> heightColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.HEIGHT.getName(), Float.class, sample);
+    FeatureTableColumn<String> commentColumn =
+        new SimpleFeatureTableColumn<>("Comment", String.class, null);
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(areaColumn);
+    featureTable.addColumn(heightColumn);
+    featureTable.addColumn(commentColumn);
+
+    // Add more rows than the initial capacity of the column storage
+    for (int i = 1; i <= 200; i++) {
+      FeatureTableRow row = featureTable.createRow(i);
+      row.setData(idColumn, i);
+      row.setData(mzColumn, 100.0 + i);
+      if (i % 2 == 0)
+        row.setData(areaColumn, i * 1000.0);
+      row.setData(heightColumn, i * 10f);
+      if (i % 10 == 0)
+        row.setData(commentColumn, "Row " + i);
+      featureTable.addRow(row);
+    }
+
+    // Rows of other implementations are copied into the table
+    FeatureTableRow simpleRow = new SimpleFeatureTableRow(featureTable, 201);
+    simpleRow.setData(idColumn, 201);
+    simpleRow.setData(mzColumn, 301.0);
+    featureTable.addRow(simpleRow);
+
+    List<FeatureTableRow> rows = featureTable.getRows();
+    Assert.assertEquals(201, rows.size());
+    Assert.assertEquals(1, featureTable.getSamples().size());
+    Assert.assertEquals(areaColumn, featureTable.getColumn(ColumnName.AREA, sample));
+
+    FeatureTableRow row = rows.get(9);
+    Assert.assertEquals(10, row.getId(), 0);
+    Assert.assertEquals(110.0, row.getMz(), 0.00001);
+    Assert.assertEquals(10000.0, row.getData(areaColumn), 0.00001);
+    Assert.assertEquals(100f, row.getData(heightColumn), 0.00001);
+    Assert.assertEquals("Row 10", row.getData(commentColumn));
+    Assert.assertNull(rows.get(0).getData(areaColumn));
+    Assert.assertNull(rows.get(0).getData(commentColumn));
+    Assert.assertEquals(301.0, rows.get(200).getMz(), 0.00001);
+
+    // Remove a row and verify that the following rows are shifted
+    featureTable.removeRow(rows.get(4));
+    rows = featureTable.getRows();
+    Assert.assertEquals(200, rows.size());
+    row = rows.get(4);
+    Assert.assertEquals(6, row.getId(), 0);
+    Assert.assertEquals(106.0, row.getMz(), 0.00001);
+    Assert.assertEquals(6000.0, row.getData(areaColumn), 0.00001);
+    Assert.assertEquals(199, rows.get(197).getData(idColumn), 0);
+    Assert.assertNull(rows.get(197).getData(areaColumn));
+
+    // Overwrite values of an existing row
+    row.setData(areaColumn, 1.0);
+    Assert.assertEquals(1.0, featureTable.getRows().get(4).getData(areaColumn), 0.00001);
+
+    // The row list snapshot is shared until rows are added
+    rows = featureTable.getRows();
+    Assert.assertSame(rows, featureTable.getRows());
+    final long version = featureTable.getVersion();
+    List<FeatureTableRow> newRows = new ArrayList<>();
+    for (int i = 202; i <= 301; i++) {
+      FeatureTableRow newRow = featureTable.createRow(i);
+      newRow.setData(idColumn, i);
+      newRows.add(newRow);
+    }
+    featureTable.addRows(newRows);
+    Assert.assertEquals(version + 1, featureTable.getVersion());
+    Assert.assertNotSame(rows, featureTable.getRows());
+    Assert.assertEquals(300, featureTable.getRows().size());
+    Assert.assertEquals(301, featureTable.getRows().get(299).getData(idColumn), 0);
+
+    // Reserved row IDs follow the highest added and previously reserved IDs
+    Assert.assertEquals(302, featureTable.allocateRowIds(10));
+    Assert.assertEquals(312, featureTable.allocateRowIds(1));
+    featureTable.addRow(featureTable.createRow(500));
+    Assert.assertEquals(501, featureTable.allocateRowIds(1));
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testUnknownColumn() {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<String> commentColumn =
+        new SimpleFeatureTableColumn<>("Comment", String.class, null);
+    featureTable.addColumn(idColumn);
+
+    FeatureTableRow row = featureTable.createRow(1);
+    row.setData(idColumn, 1);
+    featureTable.addRow(row);
+
+    // Writing a column which is not part of the table keeps the value but does not add the column
+    row.setData(commentColumn, "Comment 1");
+    Assert.assertEquals(1, featureTable.getColumns().size());
+    Assert.assertEquals("Comment 1", row.getData(commentColumn));
+
+    // The values are kept when a row holding such a value is added
+    FeatureTableRow newRow = featureTable.createRow(2);
+    newRow.setData(idColumn, 2);
+    newRow.setData(commentColumn, "Comment 2");
+    featureTable.addRow(newRow);
+    Assert.assertEquals(2, featureTable.getRows().size());
+    Assert.assertEquals("Comment 2", featureTable.getRows().get(1).getData(commentColumn));
+    Assert.assertNull(featureTable.getColumn("Comment", null, String.class));
+
+    // A removed column keeps its values in the rows
+    featureTable.removeColumn(idColumn);
+    Assert.assertTrue(featureTable.getColumns().isEmpty());
+    Assert.assertEquals(2, featureTable.getRows().get(1).getData(idColumn), 0);
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testRemoveRows() {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Float> rtColumn = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+
+    List<FeatureTableRow> newRows = new ArrayList<>();
+    for (int i = 1; i <= 300; i++) {
+      FeatureTableRow row = featureTable.createRow(i);
+      row.setData(idColumn, i);
+      row.setData(rtColumn, 1f);
+      if (i % 5 != 0)
+        row.setData(mzColumn, 100.0 + i);
+      newRows.add(row);
+    }
+    featureTable.addRows(newRows);
+
+    // Remove two of three rows, the column storage is compacted on the way
+    FeatureTableRow removedRow = null;
+    for (FeatureTableRow row : newRows) {
+      if (row.getId() % 3 != 0) {
+        featureTable.removeRow(row);
+        removedRow = row;
+      }
+    }
+    List<FeatureTableRow> rows = featureTable.getRows();
+    Assert.assertEquals(100, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      final int rowId = (i + 1) * 3;
+      Assert.assertSame(newRows.get(rowId - 1), rows.get(i));
+      Assert.assertEquals(rowId, rows.get(i).getData(idColumn), 0);
+      if (rowId % 5 == 0)
+        Assert.assertNull(rows.get(i).getMz());
+      else
+        Assert.assertEquals(100.0 + rowId, rows.get(i).getMz(), 0.00001);
+    }
+    Assert.assertEquals(80, featureTable.getMzRtIndex().size());
+
+    // A removed row keeps its values, removing it again does nothing
+    Assert.assertEquals(399.0, removedRow.getMz(), 0.00001);
+    final long version = featureTable.getVersion();
+    featureTable.removeRow(removedRow);
+    Assert.assertEquals(version, featureTable.getVersion());
+
+    // A removed row can be added again
+    removedRow.setData(mzColumn, 500.0);
+    featureTable.addRow(removedRow);
+    rows = featureTable.getRows();
+    Assert.assertEquals(101, rows.size());
+    Assert.assertSame(removedRow, rows.get(100));
+    Assert.assertEquals(299, removedRow.getData(idColumn), 0);
+    Assert.assertEquals(500.0, removedRow.getMz(), 0.00001);
+    Assert.assertEquals(118.0, rows.get(5).getMz(), 0.00001);
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testCopyOnWriteClone() {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    Sample sample = new SimpleSample("sample");
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(areaColumn);
+
+    // Rows on several storage pages
+    List<FeatureTableRow> newRows = new ArrayList<>();
+    for (int i = 1; i <= 1000; i++) {
+      FeatureTableRow row = featureTable.createRow(i);
+      row.setData(idColumn, i);
+      row.setData(mzColumn, 100.0 + i);
+      if (i % 2 == 0)
+        row.setData(areaColumn, i * 10.0);
+      newRows.add(row);
+    }
+    featureTable.addRows(newRows);
+    featureTable.removeRow(newRows.get(0));
+
+    ColumnarFeatureTable clone =
+        FeatureTableUtil.copyOnWriteClone(dataStore, featureTable, "clone");
+    FeatureTableColumn<Double> cloneAreaColumn = clone.getColumn(ColumnName.AREA, sample);
+    Assert.assertNotSame(areaColumn, cloneAreaColumn);
+    Assert.assertEquals(999, clone.getRows().size());
+    Assert.assertEquals(1001, clone.allocateRowIds(1));
+
+    // Changes of the source table are not visible in the clone
+    FeatureTableRow sourceRow = featureTable.getRows().get(9);
+    FeatureTableRow cloneRow = clone.getRows().get(9);
+    Assert.assertEquals(11, cloneRow.getId(), 0);
+    sourceRow.setData(mzColumn, 1.0);
+    sourceRow.setData(areaColumn, 2.0);
+    featureTable.getRows().get(500).setData(areaColumn, 3.0);
+    featureTable.removeRow(featureTable.getRows().get(1));
+    Assert.assertEquals(111.0, cloneRow.getMz(), 0.00001);
+    Assert.assertNull(cloneRow.getData(cloneAreaColumn));
+    Assert.assertEquals(5020.0, clone.getRows().get(500).getData(cloneAreaColumn), 0.00001);
+    Assert.assertEquals(999, clone.getRows().size());
+    Assert.assertEquals(3, clone.getRows().get(1).getId(), 0);
+
+    // Changes of the clone are not visible in the source table
+    cloneRow.setData(cloneAreaColumn, 4.0);
+    clone.getRows().get(998).setData(mzColumn, 5.0);
+    Assert.assertEquals(2.0, sourceRow.getData(areaColumn), 0.00001);
+    Assert.assertEquals(1100.0, featureTable.getRows().get(997).getMz(), 0.00001);
+    Assert.assertEquals(4.0, cloneRow.getData(cloneAreaColumn), 0.00001);
+    Assert.assertEquals(5.0, clone.getRows().get(998).getMz(), 0.00001);
+
+    // Other tables are copied into a new columnar table
+    SimpleFeatureTable simpleTable = new SimpleFeatureTable("simple", dataStore);
+    simpleTable.addColumn(idColumn);
+    simpleTable.addColumn(mzColumn);
+    FeatureTableRow simpleRow = new SimpleFeatureTableRow(simpleTable, 7);
+    simpleRow.setData(idColumn, 7);
+    simpleRow.setData(mzColumn, 107.0);
+    simpleTable.addRow(simpleRow);
+    ColumnarFeatureTable simpleClone =
+        FeatureTableUtil.copyOnWriteClone(dataStore, simpleTable, "simple clone");
+    simpleRow.setData(mzColumn, 1.0);
+    Assert.assertEquals(1, simpleClone.getRows().size());
+    Assert.assertEquals(7, simpleClone.getRows().get(0).getId(), 0);
+    Assert.assertEquals(107.0, simpleClone.getRows().get(0).getMz(), 0.00001);
+
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testRenamedColumn() {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ColumnarFeatureTable featureTable = new ColumnarFeatureTable("columnar", dataStore);
+    Sample sample = new SimpleSample("sample");
+    FeatureTableColumn<Double> areaColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+    FeatureTableColumn<Float> heightColumn =
+        new SimpleFeatureTableColumn<>(ColumnName.HEIGHT.getName(), Float.class, sample);
+    featureTable.addColumn(areaColumn);
+    featureTable.addColumn(heightColumn);
+    Assert.assertEquals(areaColumn, featureTable.getColumn(ColumnName.AREA, sample));
+
+    // A renamed column is found by its new name only
+    areaColumn.setName("Corrected area");
+    Assert.assertEquals(areaColumn,
+        featureTable.getColumn("Corrected area", sample, Double.class));
+    Assert.assertNull(featureTable.getColumn(ColumnName.AREA, sample));
+
+    // A column can take over the name of another renamed column
+    heightColumn.setName(ColumnName.AREA.getName());
+    Assert.assertEquals(heightColumn, featureTable.getColumn(ColumnName.AREA, sample));
+    Assert.assertNull(featureTable.getColumn(ColumnName.HEIGHT, sample));
+    Assert.assertEquals(areaColumn,
+        featureTable.getColumn("Corrected area", sample, Double.class));
+
+    featureTable.dispose();
+  }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+/**
+ * Hash index of the columns of a feature table by (column name, sample), together with the list
+ * of samples of the table. The index is not thread safe, the owning table has to synchronize
+ * access to it together with its column list.
+ */
+final class FeatureTableColumnIndex {
+
+  private final @Nonnull Map<ColumnKey, FeatureTableColumn<?>> columnsByKey = new HashMap<>();
+  private @Nonnull List<Sample> samples = ImmutableList.of();
+
+  // All indexed columns and their names at the time they were indexed, to detect renames
+  private final @Nonnull List<FeatureTableColumn<?>> indexedColumns = new ArrayList<>();
+  private final @Nonnull List<String> indexedNames = new ArrayList<>();
+
+  // Rename count of SimpleFeatureTableColumn when no indexed column was found renamed, valid only
+  // if all indexed columns are SimpleFeatureTableColumns
+  private long checkedRenameCount = -1;
+
+  /**
+   * Adds a column to the index. If another column with the same name and sample has been added
+   * before, that column stays in the index, as it would be found first by a linear search.
+   */
+  void add(@Nonnull FeatureTableColumn<?> column) {
+    columnsByKey.putIfAbsent(new ColumnKey(column.getName(), column.getSample()), column);
+    indexedColumns.add(column);
+    indexedNames.add(column.getName());
+    checkedRenameCount = -1;
+    Sample sample = column.getSample();
+    if (sample != null && !samples.contains(sample)) {
+      samples = ImmutableList.<Sample>builder().addAll(samples).add(sample).build();
+    }
+  }
+
+  /**
+   * Rebuilds the index from the given columns, in table order.
+   */
+  void rebuild(@Nonnull List<FeatureTableColumn<?>> columns) {
+    columnsByKey.clear();
+    indexedColumns.clear();
+    indexedNames.clear();
+    checkedRenameCount = -1;
+    samples = ImmutableList.of();
+    List<Sample> sampleList = new ArrayList<>();
+    for (FeatureTableColumn<?> column : columns) {
+      columnsByKey.putIfAbsent(new ColumnKey(column.getName(), column.getSample()), column);
+      indexedColumns.add(column);
+      indexedNames.add(column.getName());
+      Sample sample = column.getSample();
+      if (sample != null && !sampleList.contains(sample))
+        sampleList.add(sample);
+    }
+    samples = ImmutableList.copyOf(sampleList);
+  }
+
+  /**
+   * Returns the first column with the given name and sample, or null. Returns null as well if the
+   * indexed column has been renamed since it was added, in which case the caller should rebuild
+   * the index and try again.
+   */
+  @Nullable
+  FeatureTableColumn<?> get(@Nonnull String columnName, @Nullable Sample sample) {
+    FeatureTableColumn<?> column = columnsByKey.get(new ColumnKey(columnName, sample));
+    if (column != null && !column.getName().equals(columnName))
+      return null;
+    return column;
+  }
+
+  /**
+   * Returns true if any indexed column has been renamed since it was indexed. A column can then be
+   * missing under its new name, so the caller should rebuild the index when a lookup fails.
+   */
+  boolean isStale() {
+    final long renameCount = SimpleFeatureTableColumn.getRenameCount();
+    if (renameCount == checkedRenameCount)
+      return false;
+    boolean allSimpleColumns = true;
+    for (int i = 0; i < indexedColumns.size(); i++) {
+      FeatureTableColumn<?> column = indexedColumns.get(i);
+      if (!column.getName().equals(indexedNames.get(i)))
+        return true;
+      allSimpleColumns &= column instanceof SimpleFeatureTableColumn;
+    }
+
+    // Other column classes are checked on every call, as their renames are not counted
+    if (allSimpleColumns)
+      checkedRenameCount = renameCount;
+    return false;
+  }
+
+  /**
+   * Returns the samples of all indexed columns, in the order in which they were added.
+   */
+  @Nonnull
+  List<Sample> getSamples() {
+    return samples;
+  }
+
+  private static final class ColumnKey {
+
+    private final @Nonnull String name;
+    private final @Nullable Sample sample;
+
+    ColumnKey(@Nonnull String name, @Nullable Sample sample) {
+      this.name = name;
+      this.sample = sample;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * name.hashCode() + Objects.hashCode(sample);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ColumnKey))
+        return false;
+      ColumnKey other = (ColumnKey) obj;
+      return name.equals(other.name) && Objects.equals(sample, other.sample);
+    }
+  }
+
+}
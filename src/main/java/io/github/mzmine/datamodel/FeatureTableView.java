@@ -0,0 +1,439 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.mzmine.util.ColumnMappingPlan;
+import io.github.mzmine.util.FeatureTableUtil;
+
+/**
+ * Feature table which is a view on the rows of a parent table. The view does not copy any values:
+ * a row bit set defines which rows of the parent are visible and a bit set per sample defines
+ * which features of the visible rows are visible. Values written to the rows of the view are kept
+ * in the view and do not change the parent table.
+ *
+ * The view is based on the rows of the parent table at the time the view was created. Rows added
+ * to or removed from the parent afterwards are not reflected in the view.
+ */
+public class FeatureTableView implements MZmineFeatureTable {
+
+  private @Nonnull String name;
+  private final @Nonnull FeatureTable parent;
+  private final @Nonnull DataPointStore dataPointStore;
+  private final @Nonnull List<FeatureTableRow> parentRows;
+  private final @Nonnull FeatureTableViewRow viewRows[];
+  private final @Nonnull BitSet visibleRows;
+  private final @Nonnull Map<Sample, BitSet> hiddenFeatures;
+  private final @Nonnull ArrayList<FeatureTableRow> addedRows;
+  private final @Nonnull ArrayList<FeatureTableColumn<?>> featureTableColumns;
+  private final @Nonnull FeatureTableColumnIndex columnIndex;
+  private final @Nonnull AtomicLong version = new AtomicLong();
+  private final @Nonnull AtomicInteger lastRowId = new AtomicInteger();
+  private volatile List<FeatureTableRow> rowsSnapshot;
+  private volatile List<FeatureTableColumn<?>> columnsSnapshot;
+  private volatile MzRtIndex mzRtIndex;
+
+  /**
+   * Creates a new view on which all rows and features of the parent table are visible.
+   *
+   * @param name the name of the view.
+   * @param parent the parent table.
+   * @param dataPointStore the data store of the view.
+   */
+  public FeatureTableView(@Nonnull String name, @Nonnull FeatureTable parent,
+      @Nonnull DataPointStore dataPointStore) {
+    Preconditions.checkNotNull(name);
+    Preconditions.checkNotNull(parent);
+    Preconditions.checkNotNull(dataPointStore);
+    this.name = name;
+    this.parent = parent;
+    this.dataPointStore = dataPointStore;
+    parentRows = parent.getRows();
+    viewRows = new FeatureTableViewRow[parentRows.size()];
+    visibleRows = new BitSet(parentRows.size());
+    visibleRows.set(0, parentRows.size());
+    hiddenFeatures = new HashMap<Sample, BitSet>();
+    addedRows = new ArrayList<FeatureTableRow>();
+    featureTableColumns = new ArrayList<FeatureTableColumn<?>>(parent.getColumns());
+    columnIndex = new FeatureTableColumnIndex();
+    columnIndex.rebuild(featureTableColumns);
+    for (FeatureTableRow row : parentRows)
+      rowIdUsed(row.getId());
+  }
+
+  /**
+   * Returns the parent table of this view.
+   *
+   * @return the parent {@link FeatureTable}.
+   */
+  public @Nonnull FeatureTable getParent() {
+    return parent;
+  }
+
+  /**
+   * Returns the rows of the parent table this view is based on. The position of a row in this list
+   * is used to change its visibility.
+   *
+   * @return an immutable list of the parent rows.
+   */
+  public @Nonnull List<FeatureTableRow> getParentRows() {
+    return parentRows;
+  }
+
+  /**
+   * Shows or hides a row of the parent table.
+   *
+   * @param position the position of the row in {@link #getParentRows()}.
+   * @param visible true if the row should be part of the view.
+   */
+  public void setRowVisible(int position, boolean visible) {
+    Preconditions.checkElementIndex(position, parentRows.size());
+    synchronized (visibleRows) {
+      if (visibleRows.get(position) == visible)
+        return;
+      visibleRows.set(position, visible);
+      rowsModified();
+    }
+  }
+
+  /**
+   * Shows or hides the feature of a sample in a row of the parent table. The values of all columns
+   * of a hidden feature are null.
+   *
+   * @param position the position of the row in {@link #getParentRows()}.
+   * @param sample the sample of the feature.
+   * @param visible true if the values of the feature should be part of the view.
+   */
+  public void setFeatureVisible(int position, @Nonnull Sample sample, boolean visible) {
+    Preconditions.checkElementIndex(position, parentRows.size());
+    Preconditions.checkNotNull(sample);
+    synchronized (hiddenFeatures) {
+      BitSet hidden = hiddenFeatures.get(sample);
+      if (hidden == null) {
+        if (visible)
+          return;
+        hidden = new BitSet(parentRows.size());
+        hiddenFeatures.put(sample, hidden);
+      }
+      hidden.set(position, !visible);
+    }
+  }
+
+  /**
+   * Returns true if the feature of the given sample in the row at the given position is visible.
+   */
+  boolean isFeatureVisible(int position, @Nonnull Sample sample) {
+    synchronized (hiddenFeatures) {
+      BitSet hidden = hiddenFeatures.get(sample);
+      return hidden == null || !hidden.get(position);
+    }
+  }
+
+  /**
+   * Copies the visible rows and values of this view into a new, independent feature table. The
+   * columns are copied as well, except the common columns which all tables share.
+   *
+   * @param newName the name of the new table.
+   * @param dataStore the data store of the new table.
+   * @return a new {@link FeatureTable}.
+   */
+  public @Nonnull FeatureTable materialize(@Nonnull String newName,
+      @Nonnull DataPointStore dataStore) {
+    Preconditions.checkNotNull(newName);
+    Preconditions.checkNotNull(dataStore);
+
+    FeatureTable newFeatureTable = MSDKObjectBuilder.getFeatureTable(newName, dataStore);
+    for (FeatureTableColumn<?> column : getColumns())
+      newFeatureTable.addColumn(FeatureTableUtil.copyColumn(column));
+
+    final ColumnMappingPlan mappingPlan = new ColumnMappingPlan(this, newFeatureTable);
+    List<FeatureTableRow> rows = getRows();
+    List<FeatureTableRow> newRows = new ArrayList<FeatureTableRow>(rows.size());
+    for (FeatureTableRow row : rows) {
+      FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(newFeatureTable, row.getId());
+      mappingPlan.copyRow(row, newRow);
+      newRows.add(newRow);
+    }
+    FeatureTableUtil.addRows(newFeatureTable, newRows);
+
+    return newFeatureTable;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull String getName() {
+    return name;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setName(@Nonnull String name) {
+    Preconditions.checkNotNull(name);
+    this.name = name;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list contains the visible rows of the parent table followed by the rows which
+   * were added to the view.
+   */
+  @Override
+  public @Nonnull List<FeatureTableRow> getRows() {
+    List<FeatureTableRow> snapshot = rowsSnapshot;
+    if (snapshot != null)
+      return snapshot;
+    synchronized (visibleRows) {
+      if (rowsSnapshot == null) {
+        ImmutableList.Builder<FeatureTableRow> builder = ImmutableList.builder();
+        for (int i = visibleRows.nextSetBit(0); i >= 0; i = visibleRows.nextSetBit(i + 1)) {
+          if (viewRows[i] == null)
+            viewRows[i] = new FeatureTableViewRow(this, parentRows.get(i), i);
+          builder.add(viewRows[i]);
+        }
+        builder.addAll(addedRows);
+        rowsSnapshot = builder.build();
+      }
+      return rowsSnapshot;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Rows of other tables are added to the view as they are, after the rows of the parent table.
+   */
+  @Override
+  public void addRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    synchronized (visibleRows) {
+      if (!showViewRow(row))
+        addedRows.add(row);
+      rowIdUsed(row.getId());
+      rowsModified();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addRows(@Nonnull Collection<? extends FeatureTableRow> rows) {
+    Preconditions.checkNotNull(rows);
+    if (rows.isEmpty())
+      return;
+    synchronized (visibleRows) {
+      for (FeatureTableRow row : rows) {
+        if (!showViewRow(Preconditions.checkNotNull(row)))
+          addedRows.add(row);
+        rowIdUsed(row.getId());
+      }
+      rowsModified();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Removing a row of the parent table only hides it in the view.
+   */
+  @Override
+  public void removeRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    synchronized (visibleRows) {
+      if (row instanceof FeatureTableViewRow && ((FeatureTableViewRow) row).getView() == this) {
+        final int position = ((FeatureTableViewRow) row).getPosition();
+        if (visibleRows.get(position)) {
+          visibleRows.clear(position);
+          rowsModified();
+        }
+      } else if (addedRows.remove(row)) {
+        rowsModified();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The columns of the view are the columns of the parent table at the time the view was created.
+   */
+  @Override
+  public @Nonnull List<FeatureTableColumn<?>> getColumns() {
+    List<FeatureTableColumn<?>> snapshot = columnsSnapshot;
+    if (snapshot != null)
+      return snapshot;
+    synchronized (featureTableColumns) {
+      if (columnsSnapshot == null)
+        columnsSnapshot = ImmutableList.copyOf(featureTableColumns);
+      return columnsSnapshot;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  @Override
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull String columnName,
+      Sample sample, Class<? extends DATATYPE> dtClass) {
+    synchronized (featureTableColumns) {
+      FeatureTableColumn<?> column = columnIndex.get(columnName, sample);
+
+      // A column has been renamed since it was indexed, re-index all columns
+      if (column == null && columnIndex.isStale()) {
+        columnIndex.rebuild(featureTableColumns);
+        column = columnIndex.get(columnName, sample);
+      }
+      return (FeatureTableColumn<DATATYPE>) column;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  @Override
+  public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull ColumnName columnName,
+      Sample sample) {
+    FeatureTableColumn<?> column =
+        getColumn(columnName.getName(), sample, columnName.getDataTypeClass());
+    if (column != null) {
+      return (FeatureTableColumn<DATATYPE>) column;
+    }
+    return null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    synchronized (featureTableColumns) {
+      featureTableColumns.add(col);
+      columnIndex.add(col);
+      columnsSnapshot = null;
+      version.incrementAndGet();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeColumn(@Nonnull FeatureTableColumn<?> col) {
+    Preconditions.checkNotNull(col);
+    synchronized (featureTableColumns) {
+      featureTableColumns.remove(col);
+      columnIndex.rebuild(featureTableColumns);
+      columnsSnapshot = null;
+      version.incrementAndGet();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull List<Sample> getSamples() {
+    synchronized (featureTableColumns) {
+      return columnIndex.getSamples();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Only the data store of the view is disposed, the parent table is not changed.
+   */
+  @Override
+  public void dispose() {
+    dataPointStore.dispose();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<FeatureTableRow> getRowsInsideRange(Range<Float> rtRange, Range<Double> mzRange) {
+    return getMzRtIndex().getRowsInsideRange(rtRange, mzRange);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull MzRtIndex getMzRtIndex() {
+    MzRtIndex index = mzRtIndex;
+    if (index != null)
+      return index;
+    synchronized (visibleRows) {
+      if (mzRtIndex == null)
+        mzRtIndex = new MzRtIndex(getRows());
+      return mzRtIndex;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int allocateRowIds(int count) {
+    Preconditions.checkArgument(count >= 0);
+    return lastRowId.getAndAdd(count) + 1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Called by the rows of this view when their m/z or RT value has changed.
+   */
+  void invalidateMzRtIndex() {
+    mzRtIndex = null;
+  }
+
+  /**
+   * Makes a hidden row of this view visible again. Returns false if the row does not belong to the
+   * parent rows of this view. Must be called holding the lock on the visible rows.
+   */
+  private boolean showViewRow(@Nonnull FeatureTableRow row) {
+    if (!(row instanceof FeatureTableViewRow) || ((FeatureTableViewRow) row).getView() != this)
+      return false;
+    visibleRows.set(((FeatureTableViewRow) row).getPosition());
+    return true;
+  }
+
+  /**
+   * Drops the snapshot and index of the rows, must be called holding the lock on the visible rows.
+   */
+  private void rowsModified() {
+    rowsSnapshot = null;
+    mzRtIndex = null;
+    version.incrementAndGet();
+  }
+
+  /**
+   * Keeps the ID of an added row out of the range of IDs returned by {@link #allocateRowIds(int)}.
+   */
+  private void rowIdUsed(int rowId) {
+    lastRowId.accumulateAndGet(rowId, Math::max);
+  }
+
+}
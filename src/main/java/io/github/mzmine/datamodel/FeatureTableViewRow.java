@@ -0,0 +1,143 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+/**
+ * Row of a {@link FeatureTableView}. Values are read from the row of the parent table, unless they
+ * have been written to this row or belong to a hidden feature.
+ */
+public class FeatureTableViewRow implements FeatureTableRow {
+
+  private final @Nonnull FeatureTableView view;
+  private final @Nonnull FeatureTableRow parentRow;
+  private final int position;
+  private Map<FeatureTableColumn<?>, Object> writtenData;
+
+  FeatureTableViewRow(@Nonnull FeatureTableView view, @Nonnull FeatureTableRow parentRow,
+      int position) {
+    Preconditions.checkNotNull(view);
+    Preconditions.checkNotNull(parentRow);
+    this.view = view;
+    this.parentRow = parentRow;
+    this.position = position;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull FeatureTable getFeatureTable() {
+    return view;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull Integer getId() {
+    return parentRow.getId();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Double getMz() {
+    return getData(MSDKObjectBuilder.getMzFeatureTableColumn());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getRT() {
+    return getData(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn());
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The value is stored in this row, the row of the parent table is not changed.
+   */
+  @Override
+  public <DATATYPE> void setData(FeatureTableColumn<? extends DATATYPE> column,
+      @Nonnull DATATYPE data) {
+    Preconditions.checkNotNull(column);
+    Preconditions.checkNotNull(data);
+    synchronized (this) {
+      if (writtenData == null)
+        writtenData = new HashMap<>();
+      writtenData.put(column, data);
+    }
+    if ((column == MSDKObjectBuilder.getMzFeatureTableColumn())
+        || (column == MSDKObjectBuilder.getRetentionTimeFeatureTableColumn()))
+      view.invalidateMzRtIndex();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> DATATYPE getData(@Nonnull FeatureTableColumn<? extends DATATYPE> column) {
+    Preconditions.checkNotNull(column);
+    synchronized (this) {
+      if (writtenData != null && writtenData.containsKey(column))
+        return column.getDataTypeClass().cast(writtenData.get(column));
+    }
+    Sample sample = column.getSample();
+    if (sample != null && !view.isFeatureVisible(position, sample))
+      return null;
+    return parentRow.getData(column);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <DATATYPE> void copyData(FeatureTableColumn<? extends DATATYPE> sourceColumn,
+      FeatureTableRow targetRow, FeatureTableColumn<? extends DATATYPE> targetColumn,
+      FeatureTableDataConverter<DATATYPE> featureTableDataConverter) {
+    featureTableDataConverter.apply(this, sourceColumn, targetRow, targetColumn);
+  }
+
+  /**
+   * Returns the row of the parent table this row is a view of.
+   */
+  public @Nonnull FeatureTableRow getParentRow() {
+    return parentRow;
+  }
+
+  @Nonnull
+  FeatureTableView getView() {
+    return view;
+  }
+
+  int getPosition() {
+    return position;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    List<FeatureTableColumn<?>> columns = view.getColumns();
+    List<String> contents = new ArrayList<String>();
+    for (FeatureTableColumn<?> column : columns) {
+      contents.add(column.getName() + "=" + getData(column));
+    }
+
+    return contents.toString();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+
+public class FeatureTableViewTest {
+
+  @Test
+  public void testView() {
+
+    // Create the data structures
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    SimpleFeatureTable featureTable = new SimpleFeatureTable("parent", dataStore);
+    Sample sample1 = new SimpleSample("sample1");
+    Sample sample2 = new SimpleSample("sample2");
+
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Double> areaColumn1 =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample1);
+    FeatureTableColumn<Double> areaColumn2 =
+        new SimpleFeatureTableColumn<>(ColumnName.AREA.getName(), Double.class, sample2);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(areaColumn1);
+    featureTable.addColumn(areaColumn2);
+
+    for (int i = 1; i <= 10; i++) {
+      FeatureTableRow row = new SimpleFeatureTableRow(featureTable, i);
+      row.setData(mzColumn, 100.0 + i);
+      row.setData(areaColumn1, i * 10.0);
+      row.setData(areaColumn2, i * 20.0);
+      featureTable.addRow(row);
+    }
+
+    // Hide the first row and the feature of sample 2 in the second row
+    FeatureTableView view = new FeatureTableView("view", featureTable, dataStore);
+    Assert.assertEquals(10, view.getRows().size());
+    Assert.assertEquals(2, view.getSamples().size());
+    view.setRowVisible(0, false);
+    view.setFeatureVisible(1, sample2, false);
+
+    List<FeatureTableRow> rows = view.getRows();
+    Assert.assertEquals(9, rows.size());
+    Assert.assertEquals(2, rows.get(0).getId(), 0);
+    Assert.assertEquals(20.0, rows.get(0).getData(areaColumn1), 0.00001);
+    Assert.assertNull(rows.get(0).getData(areaColumn2));
+    Assert.assertEquals(60.0, rows.get(1).getData(areaColumn2), 0.00001);
+
+    // Values written to the view do not change the parent table
+    rows.get(1).setData(mzColumn, 500.0);
+    Assert.assertEquals(500.0, rows.get(1).getMz(), 0.00001);
+    Assert.assertEquals(103.0, featureTable.getRows().get(2).getMz(), 0.00001);
+
+    // Removing a row only hides it in the view
+    view.removeRow(rows.get(2));
+    Assert.assertEquals(8, view.getRows().size());
+    Assert.assertEquals(10, featureTable.getRows().size());
+
+    // A view of a view
+    FeatureTableView view2 = new FeatureTableView("view2", view, dataStore);
+    view2.setRowVisible(0, false);
+    Assert.assertEquals(7, view2.getRows().size());
+    Assert.assertEquals(500.0, view2.getRows().get(0).getMz(), 0.00001);
+
+    // Materialize the view
+    FeatureTable materialized = view.materialize("materialized", dataStore);
+    rows = materialized.getRows();
+    Assert.assertEquals(8, rows.size());
+    Assert.assertEquals(3, materialized.getColumns().size());
+    FeatureTableColumn<Double> materializedAreaColumn2 =
+        materialized.getColumn(ColumnName.AREA, sample2);
+    Assert.assertNotSame(areaColumn2, materializedAreaColumn2);
+    Assert.assertNull(rows.get(0).getData(materializedAreaColumn2));
+    Assert.assertEquals(60.0, rows.get(1).getData(materializedAreaColumn2), 0.00001);
+    Assert.assertEquals(500.0, rows.get(1).getMz(), 0.00001);
+
+    // Renaming a column of the materialized table does not rename the column of the parent table
+    materializedAreaColumn2.setName("Corrected area");
+    Assert.assertEquals(ColumnName.AREA.getName(), areaColumn2.getName());
+    Assert.assertEquals(areaColumn2, featureTable.getColumn(ColumnName.AREA, sample2));
+
+    featureTable.dispose();
+  }
+
+}
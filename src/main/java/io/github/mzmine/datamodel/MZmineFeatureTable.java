@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+
+/**
+ * Feature table with additional operations provided by the MZmine feature table
+ * implementations.
+ */
+public interface MZmineFeatureTable extends FeatureTable {
+
+  /**
+   * Adds all given rows to this table as a single modification, so the row list snapshot and the
+   * indexes of the table are only rebuilt once.
+   *
+   * @param rows the rows to add.
+   */
+  void addRows(@Nonnull Collection<? extends FeatureTableRow> rows);
+
+  /**
+   * Reserves a block of consecutive row IDs which are higher than the IDs of all rows in this
+   * table and all previously reserved IDs. Reserving IDs is thread safe, so rows can be created
+   * concurrently and added later with {@link #addRows(Collection)}.
+   *
+   * @param count the number of IDs to reserve.
+   * @return the first reserved ID.
+   */
+  int allocateRowIds(int count);
+
+  /**
+   * Returns the version of this table, which is incremented every time rows or columns are added
+   * or removed. Lists returned by {@link #getRows()} and {@link #getColumns()} are shared between
+   * callers as long as the version does not change.
+   *
+   * @return the current version.
+   */
+  long getVersion();
+
+  /**
+   * Returns an index of the rows of this table by their m/z and RT values. The index is built on
+   * first use and rebuilt after rows have been added or removed, or after the m/z or RT value of a
+   * row has been changed.
+   *
+   * @return the current {@link MzRtIndex} of this table.
+   */
+  @Nonnull
+  MzRtIndex getMzRtIndex();
+
+}
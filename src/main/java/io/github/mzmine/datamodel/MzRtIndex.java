@@ -0,0 +1,204 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+
+/**
+ * Immutable index of feature table rows by their average m/z and RT values. The rows are kept in
+ * an array sorted by m/z, so a range query is a binary search for the lower m/z bound followed by
+ * a scan of the m/z window in which the RT values are checked. Rows without m/z or RT value are
+ * not indexed.
+ *
+ * Only the m/z values are indexed. A query with a wide m/z range checks the RT value of every row
+ * inside that range, however narrow the RT range is.
+ *
+ * The index reflects the m/z and RT values of the rows at the time it was built.
+ */
+public final class MzRtIndex {
+
+  private final @Nonnull FeatureTableRow rows[];
+  private final @Nonnull double mzValues[];
+  private final @Nonnull float rtValues[];
+
+  /**
+   * Builds a new index of the given rows.
+   *
+   * @param featureTableRows the rows to index.
+   */
+  public MzRtIndex(@Nonnull Collection<? extends FeatureTableRow> featureTableRows) {
+    Preconditions.checkNotNull(featureTableRows);
+
+    List<IndexEntry> entries = new ArrayList<>(featureTableRows.size());
+    for (FeatureTableRow row : featureTableRows) {
+      Double mz = row.getMz();
+      Float rt = row.getRT();
+      if (mz == null || rt == null)
+        continue;
+      entries.add(new IndexEntry(row, mz, rt));
+    }
+    IndexEntry sortedEntries[] = entries.toArray(new IndexEntry[entries.size()]);
+    Arrays.sort(sortedEntries, Comparator.comparingDouble(e -> e.mz));
+
+    rows = new FeatureTableRow[sortedEntries.length];
+    mzValues = new double[sortedEntries.length];
+    rtValues = new float[sortedEntries.length];
+    for (int i = 0; i < sortedEntries.length; i++) {
+      rows[i] = sortedEntries[i].row;
+      mzValues[i] = sortedEntries[i].mz;
+      rtValues[i] = sortedEntries[i].rt;
+    }
+  }
+
+  /**
+   * Returns the index of the given feature table. For MZmine feature tables the index maintained
+   * by the table is returned, for other tables a new index is built.
+   *
+   * @param featureTable the feature table.
+   * @return an {@link MzRtIndex} of the rows of the table.
+   */
+  public static @Nonnull MzRtIndex forFeatureTable(@Nonnull FeatureTable featureTable) {
+    Preconditions.checkNotNull(featureTable);
+    if (featureTable instanceof MZmineFeatureTable)
+      return ((MZmineFeatureTable) featureTable).getMzRtIndex();
+    return new MzRtIndex(featureTable.getRows());
+  }
+
+  /**
+   * Returns the number of indexed rows.
+   *
+   * @return the number of rows with both m/z and RT value.
+   */
+  public int size() {
+    return rows.length;
+  }
+
+  /**
+   * Returns the row at the given position of the index. Positions are in order of increasing m/z.
+   *
+   * @param position a position between 0 and {@link #size()} - 1.
+   * @return the row at the position.
+   */
+  public @Nonnull FeatureTableRow getRow(int position) {
+    return rows[position];
+  }
+
+  /**
+   * Returns the m/z value of the row at the given position of the index.
+   *
+   * @param position a position between 0 and {@link #size()} - 1.
+   * @return the m/z value at the time the index was built.
+   */
+  public double getMz(int position) {
+    return mzValues[position];
+  }
+
+  /**
+   * Returns the RT value of the row at the given position of the index.
+   *
+   * @param position a position between 0 and {@link #size()} - 1.
+   * @return the RT value at the time the index was built.
+   */
+  public float getRT(int position) {
+    return rtValues[position];
+  }
+
+  /**
+   * Returns all indexed rows with m/z and RT values inside the given ranges, in order of
+   * increasing m/z.
+   *
+   * @param rtRange the RT range.
+   * @param mzRange the m/z range.
+   * @return a new list of matching rows.
+   */
+  public @Nonnull List<FeatureTableRow> getRowsInsideRange(@Nonnull Range<Float> rtRange,
+      @Nonnull Range<Double> mzRange) {
+    Preconditions.checkNotNull(rtRange);
+    Preconditions.checkNotNull(mzRange);
+
+    List<FeatureTableRow> result = new ArrayList<FeatureTableRow>();
+    int i = mzRange.hasLowerBound() ? lowerBound(mzRange.lowerEndpoint()) : 0;
+    for (; i < rows.length; i++) {
+      final double mz = mzValues[i];
+      if (mzRange.hasUpperBound()) {
+        final double upper = mzRange.upperEndpoint();
+        if (mz > upper || (mz == upper && mzRange.upperBoundType() == BoundType.OPEN))
+          break;
+      }
+      if (mzRange.contains(mz) && rtRange.contains(rtValues[i]))
+        result.add(rows[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns all indexed rows within the given tolerances of an m/z and RT value, in order of
+   * increasing m/z.
+   *
+   * @param mz the m/z value.
+   * @param mzTolerance the m/z tolerance.
+   * @param rt the RT value.
+   * @param rtTolerance the RT tolerance.
+   * @return a new list of matching rows.
+   */
+  public @Nonnull List<FeatureTableRow> getRowsNear(double mz, @Nonnull MzTolerance mzTolerance,
+      float rt, @Nonnull RTTolerance rtTolerance) {
+    return getRowsInsideRange(rtTolerance.getToleranceRange(rt),
+        mzTolerance.getToleranceRange(mz));
+  }
+
+  /**
+   * Returns the first position whose m/z value is not lower than the given value.
+   */
+  private int lowerBound(double mz) {
+    int low = 0, high = mzValues.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (mzValues[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private static final class IndexEntry {
+
+    private final FeatureTableRow row;
+    private final double mz;
+    private final float rt;
+
+    IndexEntry(FeatureTableRow row, double mz, float rt) {
+      this.row = row;
+      this.mz = mz;
+      this.rt = rt;
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.datamodel;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+
+public class MzRtIndexTest {
+
+  @Test
+  public void testRangeQueries() {
+
+    // Create the data structures
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    SimpleFeatureTable featureTable = new SimpleFeatureTable("indexed", dataStore);
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Float> rtColumn = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+
+    // Add the rows in descending m/z order, the last row has no RT
+    for (int i = 100; i >= 1; i--) {
+      FeatureTableRow row = new SimpleFeatureTableRow(featureTable, i);
+      row.setData(mzColumn, 100.0 + i);
+      if (i != 1)
+        row.setData(rtColumn, (float) (i % 10));
+      featureTable.addRow(row);
+    }
+
+    MzRtIndex index = featureTable.getMzRtIndex();
+    Assert.assertEquals(99, index.size());
+    Assert.assertSame(index, featureTable.getMzRtIndex());
+
+    List<FeatureTableRow> rows =
+        featureTable.getRowsInsideRange(Range.closed(2f, 3f), Range.closed(110.0, 130.0));
+    Assert.assertEquals(4, rows.size());
+    Assert.assertEquals(12, rows.get(0).getId(), 0);
+    Assert.assertEquals(23, rows.get(3).getId(), 0);
+
+    // Open upper bound
+    rows = featureTable.getRowsInsideRange(Range.all(), Range.closedOpen(190.0, 200.0));
+    Assert.assertEquals(10, rows.size());
+    Assert.assertEquals(99, rows.get(9).getId(), 0);
+
+    // The row without RT is not indexed
+    rows = featureTable.getRowsInsideRange(Range.all(), Range.atMost(101.0));
+    Assert.assertTrue(rows.isEmpty());
+
+    // Changing the m/z of a row or adding a row invalidates the index
+    featureTable.getRows().get(0).setData(mzColumn, 50.0);
+    Assert.assertNotSame(index, featureTable.getMzRtIndex());
+    rows = featureTable.getRowsInsideRange(Range.all(), Range.atMost(101.0));
+    Assert.assertEquals(1, rows.size());
+    Assert.assertEquals(100, rows.get(0).getId(), 0);
+
+    FeatureTableRow row = new SimpleFeatureTableRow(featureTable, 101);
+    row.setData(mzColumn, 60.0);
+    row.setData(rtColumn, 1f);
+    featureTable.addRow(row);
+    Assert.assertEquals(2,
+        featureTable.getRowsInsideRange(Range.all(), Range.atMost(101.0)).size());
+
+    featureTable.dispose();
+  }
+
+}
@@ -14,7 +14,10 @@
 package io.github.mzmine.datamodel;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 
@@ -23,7 +26,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Range;
 
 import io.github.msdk.datamodel.datastore.DataPointStore;
-import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
 import io.github.msdk.datamodel.featuretables.FeatureTableRow;
 import io.github.msdk.datamodel.featuretables.Sample;
@@ -31,12 +33,18 @@ import io.github.msdk.datamodel.featuretables.Sample;
 /**
  * Implementation of the FeatureTable interface.
  */
-public class SimpleFeatureTable implements FeatureTable {
+public class SimpleFeatureTable implements MZmineFeatureTable {
 
   private @Nonnull String name;
   private @Nonnull DataPointStore dataPointStore;
   private final @Nonnull ArrayList<FeatureTableRow> featureTableRows;
   private final @Nonnull ArrayList<FeatureTableColumn<?>> featureTableColumns;
+  private final @Nonnull FeatureTableColumnIndex columnIndex;
+  private final @Nonnull AtomicLong version = new AtomicLong();
+  private final @Nonnull AtomicInteger lastRowId = new AtomicInteger();
+  private volatile List<FeatureTableRow> rowsSnapshot;
+  private volatile List<FeatureTableColumn<?>> columnsSnapshot;
+  private volatile MzRtIndex mzRtIndex;
 
   SimpleFeatureTable(@Nonnull String name, @Nonnull DataPointStore dataPointStore) {
     Preconditions.checkNotNull(name);
@@ -45,6 +53,7 @@ public class SimpleFeatureTable implements FeatureTable {
     this.dataPointStore = dataPointStore;
     featureTableRows = new ArrayList<FeatureTableRow>();
     featureTableColumns = new ArrayList<FeatureTableColumn<?>>();
+    columnIndex = new FeatureTableColumnIndex();
   }
 
   /** {@inheritDoc} */
@@ -60,12 +69,22 @@ public class SimpleFeatureTable implements FeatureTable {
     this.name = name;
   }
 
-  /** {@inheritDoc} */
-
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list is an immutable snapshot which is shared by all callers until the rows of
+   * the table are modified.
+   */
   @Override
   public @Nonnull List<FeatureTableRow> getRows() {
-    List<FeatureTableRow> featureTableRowCopy = ImmutableList.copyOf(featureTableRows);
-    return featureTableRowCopy;
+    List<FeatureTableRow> snapshot = rowsSnapshot;
+    if (snapshot != null)
+      return snapshot;
+    synchronized (featureTableRows) {
+      if (rowsSnapshot == null)
+        rowsSnapshot = ImmutableList.copyOf(featureTableRows);
+      return rowsSnapshot;
+    }
   }
 
   /** {@inheritDoc} */
@@ -74,44 +93,68 @@ public class SimpleFeatureTable implements FeatureTable {
     Preconditions.checkNotNull(row);
     synchronized (featureTableRows) {
       featureTableRows.add(row);
+      rowIdUsed(row.getId());
+      rowsModified();
     }
   }
 
   /** {@inheritDoc} */
   @Override
-  public void removeRow(@Nonnull FeatureTableRow row) {
-    Preconditions.checkNotNull(row);
+  public void addRows(@Nonnull Collection<? extends FeatureTableRow> rows) {
+    Preconditions.checkNotNull(rows);
+    if (rows.isEmpty())
+      return;
     synchronized (featureTableRows) {
-      featureTableRows.remove(row);
+      for (FeatureTableRow row : rows) {
+        featureTableRows.add(Preconditions.checkNotNull(row));
+        rowIdUsed(row.getId());
+      }
+      rowsModified();
     }
   }
 
   /** {@inheritDoc} */
+  @Override
+  public void removeRow(@Nonnull FeatureTableRow row) {
+    Preconditions.checkNotNull(row);
+    synchronized (featureTableRows) {
+      if (featureTableRows.remove(row))
+        rowsModified();
+    }
+  }
 
+  /**
+   * {@inheritDoc}
+   *
+   * The returned list is an immutable snapshot which is shared by all callers until the columns of
+   * the table are modified.
+   */
   @Override
   public @Nonnull List<FeatureTableColumn<?>> getColumns() {
-    List<FeatureTableColumn<?>> featureTableColumnsCopy = ImmutableList.copyOf(featureTableColumns);
-    return featureTableColumnsCopy;
+    List<FeatureTableColumn<?>> snapshot = columnsSnapshot;
+    if (snapshot != null)
+      return snapshot;
+    synchronized (featureTableColumns) {
+      if (columnsSnapshot == null)
+        columnsSnapshot = ImmutableList.copyOf(featureTableColumns);
+      return columnsSnapshot;
+    }
   }
 
   /** {@inheritDoc} */
   @Override
   public <DATATYPE> FeatureTableColumn<DATATYPE> getColumn(@Nonnull String columnName,
       Sample sample, Class<? extends DATATYPE> dtClass) {
-    for (FeatureTableColumn<?> column : featureTableColumns) {
-      if (column.getName().equals(columnName)) {
-
-        if (column.getSample() == null) {
-          if (sample == null)
-            return (FeatureTableColumn<DATATYPE>) column;
-        } else if (column.getSample().equals(sample)) {
-          return (FeatureTableColumn<DATATYPE>) column;
-        }
+    synchronized (featureTableColumns) {
+      FeatureTableColumn<?> column = columnIndex.get(columnName, sample);
 
+      // A column has been renamed since it was indexed, re-index all columns
+      if (column == null && columnIndex.isStale()) {
+        columnIndex.rebuild(featureTableColumns);
+        column = columnIndex.get(columnName, sample);
       }
-
+      return (FeatureTableColumn<DATATYPE>) column;
     }
-    return null;
   }
 
   /** {@inheritDoc} */
@@ -132,6 +175,9 @@ public class SimpleFeatureTable implements FeatureTable {
     Preconditions.checkNotNull(col);
     synchronized (featureTableColumns) {
       featureTableColumns.add(col);
+      columnIndex.add(col);
+      columnsSnapshot = null;
+      version.incrementAndGet();
     }
   }
 
@@ -141,6 +187,9 @@ public class SimpleFeatureTable implements FeatureTable {
     Preconditions.checkNotNull(col);
     synchronized (featureTableColumns) {
       featureTableColumns.remove(col);
+      columnIndex.rebuild(featureTableColumns);
+      columnsSnapshot = null;
+      version.incrementAndGet();
     }
   }
 
@@ -148,15 +197,9 @@ public class SimpleFeatureTable implements FeatureTable {
 
   @Override
   public @Nonnull List<Sample> getSamples() {
-    ArrayList<Sample> sampleList = new ArrayList<Sample>();
     synchronized (featureTableColumns) {
-      for (FeatureTableColumn<?> col : featureTableColumns) {
-        Sample s = col.getSample();
-        if (s != null && !sampleList.contains(s))
-          sampleList.add(s);
-      }
+      return columnIndex.getSamples();
     }
-    return ImmutableList.copyOf(sampleList);
   }
 
   /** {@inheritDoc} */
@@ -168,14 +211,59 @@ public class SimpleFeatureTable implements FeatureTable {
   /** {@inheritDoc} */
   @Override
   public List<FeatureTableRow> getRowsInsideRange(Range<Float> rtRange, Range<Double> mzRange) {
-    List<FeatureTableRow> result = new ArrayList<FeatureTableRow>();
-    for (FeatureTableRow row : featureTableRows) {
-      Float rowRT = row.getRT();
-      if ((rowRT != null) && rtRange.contains(rowRT)
-          && mzRange.contains(row.getMz()))
-        result.add(row);
+    return getMzRtIndex().getRowsInsideRange(rtRange, mzRange);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public @Nonnull MzRtIndex getMzRtIndex() {
+    MzRtIndex index = mzRtIndex;
+    if (index != null)
+      return index;
+    synchronized (featureTableRows) {
+      if (mzRtIndex == null)
+        mzRtIndex = new MzRtIndex(featureTableRows);
+      return mzRtIndex;
     }
-    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int allocateRowIds(int count) {
+    Preconditions.checkArgument(count >= 0);
+    return lastRowId.getAndAdd(count) + 1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Called by the rows of this table when their m/z or RT value has changed. Takes the lock of the
+   * row list, so an index which is being built from the old values is not kept.
+   */
+  void invalidateMzRtIndex() {
+    synchronized (featureTableRows) {
+      mzRtIndex = null;
+    }
+  }
+
+  /**
+   * Drops the snapshot and index of the rows, must be called holding the lock on the row list.
+   */
+  private void rowsModified() {
+    rowsSnapshot = null;
+    mzRtIndex = null;
+    version.incrementAndGet();
+  }
+
+  /**
+   * Keeps the ID of an added row out of the range of IDs returned by {@link #allocateRowIds(int)}.
+   */
+  private void rowIdUsed(int rowId) {
+    lastRowId.accumulateAndGet(rowId, Math::max);
   }
 
 }
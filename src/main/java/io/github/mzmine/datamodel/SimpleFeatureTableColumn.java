@@ -13,6 +13,8 @@
 
 package io.github.mzmine.datamodel;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -26,6 +28,9 @@ import io.github.msdk.datamodel.featuretables.Sample;
  */
 public class SimpleFeatureTableColumn<DataType> implements FeatureTableColumn<DataType> {
 
+  // Number of renames of all columns, lets the column indexes skip checking for renamed columns
+  private static final AtomicLong renameCount = new AtomicLong();
+
   private @Nonnull String name;
   private @Nonnull Class<DataType> dataTypeClass;
   private @Nullable Sample simpleSample;
@@ -50,6 +55,7 @@ public class SimpleFeatureTableColumn<DataType> implements FeatureTableColumn<Da
   public void setName(@Nonnull String name) {
     Preconditions.checkNotNull(name);
     this.name = name;
+    renameCount.incrementAndGet();
   }
 
   /** {@inheritDoc} */
@@ -64,6 +70,13 @@ public class SimpleFeatureTableColumn<DataType> implements FeatureTableColumn<Da
     return simpleSample;
   }
 
+  /**
+   * Returns the number of times any column of this class has been renamed.
+   */
+  static long getRenameCount() {
+    return renameCount.get();
+  }
+
   /** {@inheritDoc} */
   @Override
   public String toString() {
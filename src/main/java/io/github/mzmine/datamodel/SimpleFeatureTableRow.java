@@ -72,6 +72,10 @@ public class SimpleFeatureTableRow implements FeatureTableRow {
     Preconditions.checkNotNull(column);
     Preconditions.checkNotNull(data);
     rowData.put(column, data);
+    if ((featureTable instanceof SimpleFeatureTable)
+        && ((column == MSDKObjectBuilder.getMzFeatureTableColumn())
+            || (column == MSDKObjectBuilder.getRetentionTimeFeatureTableColumn())))
+      ((SimpleFeatureTable) featureTable).invalidateMzRtIndex();
   }
 
   /** {@inheritDoc} */
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.alignment.joinaligner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.IntConsumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.util.FeatureTableUtil;
+
+/**
+ * Rows of an aligned feature table with running sums of the m/z and RT values of their features.
+ * The average m/z and RT of a row are updated from the sums when features are joined with the
+ * row, the same way {@link FeatureTableUtil#recalculateAverages(FeatureTable)} calculates them
+ * from all sample columns.
+ *
+ * The rows are found by an {@link MzRtGrid} of their averages at the time it was built. Rows which
+ * were added later are searched one by one, and the queries are widened by the largest change of
+ * an average since then. The grid is rebuilt when enough rows were added or the averages moved
+ * too far, so the cost of an alignment depends on the number of new features and not on the size
+ * of the aligned table.
+ *
+ * The master list of an aligned table is kept by the aligner for the next alignment into the same
+ * table, in a map which does not keep the table alive. A kept master list only holds the IDs of
+ * its rows. When it is reused, it is reconciled with the rows of the table: rows which were
+ * removed since are dropped and rows which were added are summed from their sample columns. If
+ * the samples of the table have changed, the master list is built again. Rows without any sample
+ * m/z or RT value have no average, and their average values in the table are left as they are.
+ */
+final class AlignedMasterList {
+
+  // Minimum number of rows outside the grid before it is rebuilt
+  private static final int MIN_REBUILD_ROWS = 1024;
+
+  // Master lists kept for the next alignment into their table
+  private static final Map<FeatureTable, AlignedMasterList> keptMasterLists =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private int size = 0;
+  private int rowIds[] = new int[16];
+  private double mzSums[] = new double[16];
+  private double rtSums[] = new double[16];
+  private int mzCounts[] = new int[16];
+  private int rtCounts[] = new int[16];
+  private double maxMz = 0, maxRt = 0;
+
+  // Names of the samples of the table, in order
+  private final @Nonnull List<String> sampleNames;
+
+  // Rows of the table by position, only set while the master list is in use
+  private final @Nonnull List<FeatureTableRow> rows = new ArrayList<>();
+
+  // Rows with new features since the last update of the averages
+  private boolean changed[] = new boolean[16];
+  private final @Nonnull List<Integer> changedPositions = new ArrayList<>();
+
+  // Rows with new features since the last update of the grid drift
+  private boolean moved[] = new boolean[16];
+  private final @Nonnull List<Integer> movedPositions = new ArrayList<>();
+
+  // Grid of the first gridSize rows and their averages when it was built
+  private MzRtGrid grid;
+  private int gridSize = 0;
+  private double gridMzValues[] = new double[0];
+  private float gridRtValues[] = new float[0];
+  private double mzCellWidth = 0, rtCellWidth = 0;
+  private double maxMzDrift = 0, maxRtDrift = 0;
+
+  private AlignedMasterList(@Nonnull List<String> sampleNames) {
+    this.sampleNames = sampleNames;
+  }
+
+  /**
+   * Returns the master list of an aligned feature table. The kept master list is reconciled with
+   * the rows of the table if the table has the same samples as when it was kept, otherwise the
+   * running sums are calculated from the sample columns of the table. The kept master list is
+   * released until {@link #keep(FeatureTable)} is called, so an unfinished alignment is never
+   * reused.
+   *
+   * @param featureTable the aligned feature table.
+   * @return the master list of the table.
+   */
+  static @Nonnull AlignedMasterList forFeatureTable(@Nonnull FeatureTable featureTable) {
+    final List<String> sampleNames = getSampleNames(featureTable);
+    final AlignedMasterList kept = keptMasterLists.remove(featureTable);
+    final AlignedMasterList masterList;
+    if (kept != null && kept.sampleNames.equals(sampleNames)) {
+      masterList = kept;
+      masterList.reconcile(featureTable);
+    } else {
+      masterList = new AlignedMasterList(sampleNames);
+      masterList.addTableRows(featureTable, featureTable.getRows());
+    }
+    masterList.changedPositions.clear();
+    Arrays.fill(masterList.changed, false);
+    masterList.movedPositions.clear();
+    Arrays.fill(masterList.moved, false);
+    return masterList;
+  }
+
+  /**
+   * Returns the master list which is kept for a feature table, without releasing it.
+   *
+   * @param featureTable the aligned feature table.
+   * @return the kept master list, or null.
+   */
+  static @Nullable AlignedMasterList getKept(@Nonnull FeatureTable featureTable) {
+    return keptMasterLists.get(featureTable);
+  }
+
+  /**
+   * Keeps this master list for the next alignment into its table and releases its rows. Must be
+   * called after all changes of the table, including its new samples.
+   *
+   * @param featureTable the aligned feature table of this master list.
+   */
+  void keep(@Nonnull FeatureTable featureTable) {
+    rows.clear();
+    sampleNames.clear();
+    sampleNames.addAll(getSampleNames(featureTable));
+    keptMasterLists.put(featureTable, this);
+  }
+
+  private static @Nonnull List<String> getSampleNames(@Nonnull FeatureTable featureTable) {
+    final List<String> sampleNames = new ArrayList<>();
+    for (Sample sample : featureTable.getSamples())
+      sampleNames.add(sample.getName());
+    return sampleNames;
+  }
+
+  /**
+   * Matches the kept row IDs with the rows of the table. Positions of removed rows are dropped,
+   * and rows which are not in the master list yet are added with the sums of their sample values.
+   */
+  private void reconcile(@Nonnull FeatureTable featureTable) {
+    final Map<Integer, Integer> positions = new HashMap<>(size * 2);
+    for (int position = 0; position < size; position++)
+      positions.put(rowIds[position], position);
+
+    final FeatureTableRow positionRows[] = new FeatureTableRow[size];
+    final List<FeatureTableRow> addedRows = new ArrayList<>();
+    for (FeatureTableRow row : featureTable.getRows()) {
+      final Integer position = positions.remove(row.getId());
+      if (position == null)
+        addedRows.add(row);
+      else
+        positionRows[position] = row;
+    }
+
+    // Drop the positions of removed rows, the grid is rebuilt on the next query
+    if (!positions.isEmpty()) {
+      int newSize = 0;
+      for (int position = 0; position < size; position++) {
+        if (positionRows[position] == null)
+          continue;
+        rowIds[newSize] = rowIds[position];
+        mzSums[newSize] = mzSums[position];
+        rtSums[newSize] = rtSums[position];
+        mzCounts[newSize] = mzCounts[position];
+        rtCounts[newSize] = rtCounts[position];
+        positionRows[newSize] = positionRows[position];
+        newSize++;
+      }
+      size = newSize;
+      grid = null;
+      gridSize = 0;
+    }
+
+    rows.clear();
+    rows.addAll(Arrays.asList(positionRows).subList(0, size));
+    addTableRows(featureTable, addedRows);
+  }
+
+  /**
+   * Adds rows of the table with the sums of their sample m/z and RT values.
+   */
+  private void addTableRows(@Nonnull FeatureTable featureTable,
+      @Nonnull List<FeatureTableRow> tableRows) {
+    final List<FeatureTableColumn<Double>> mzColumns = new ArrayList<>();
+    final List<FeatureTableColumn<Float>> rtColumns = new ArrayList<>();
+    for (Sample sample : featureTable.getSamples()) {
+      FeatureTableColumn<Double> mzColumn = featureTable.getColumn(ColumnName.MZ, sample);
+      if (mzColumn != null)
+        mzColumns.add(mzColumn);
+      FeatureTableColumn<Float> rtColumn = featureTable.getColumn(ColumnName.RT, sample);
+      if (rtColumn != null)
+        rtColumns.add(rtColumn);
+    }
+    for (FeatureTableRow row : tableRows) {
+      final int position = addRow(row);
+      for (FeatureTableColumn<Double> mzColumn : mzColumns)
+        addFeature(position, row.getData(mzColumn), null);
+      for (FeatureTableColumn<Float> rtColumn : rtColumns)
+        addFeature(position, null, row.getData(rtColumn));
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  @Nonnull
+  FeatureTableRow getRow(int position) {
+    return rows.get(position);
+  }
+
+  /**
+   * Returns the average m/z value of a row, or NaN if the row has no m/z values.
+   */
+  double getMz(int position) {
+    return mzCounts[position] == 0 ? Double.NaN : mzSums[position] / mzCounts[position];
+  }
+
+  /**
+   * Returns the average RT value of a row, or NaN if the row has no RT values.
+   */
+  float getRt(int position) {
+    return rtCounts[position] == 0 ? Float.NaN : (float) (rtSums[position] / rtCounts[position]);
+  }
+
+  /**
+   * Rebuilds the grid if needed before the master list is queried with the given tolerances.
+   *
+   * @param mzTolerance the m/z tolerance of the queries.
+   * @param rtTolerance the RT tolerance of the queries.
+   */
+  void prepare(@Nonnull MzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance) {
+
+    // Cells as wide as the widest tolerance ranges, so a query visits at
+    // most three cells in each dimension
+    final Range<Double> mzRange = mzTolerance.getToleranceRange(maxMz);
+    final Range<Float> rtRange = rtTolerance.getToleranceRange((float) maxRt);
+    final double newMzCellWidth = mzRange.upperEndpoint() - mzRange.lowerEndpoint();
+    final double newRtCellWidth = rtRange.upperEndpoint() - rtRange.lowerEndpoint();
+
+    final boolean rebuild = grid == null
+        || size() - gridSize > Math.max(MIN_REBUILD_ROWS, gridSize / 4)
+        || maxMzDrift > mzCellWidth / 2 || maxRtDrift > rtCellWidth / 2
+        || newMzCellWidth > mzCellWidth * 2 || newMzCellWidth < mzCellWidth / 2
+        || newRtCellWidth > rtCellWidth * 2 || newRtCellWidth < rtCellWidth / 2;
+    if (!rebuild)
+      return;
+
+    gridSize = size();
+    gridMzValues = new double[gridSize];
+    gridRtValues = new float[gridSize];
+    for (int i = 0; i < gridSize; i++) {
+      gridMzValues[i] = getMz(i);
+      gridRtValues[i] = getRt(i);
+    }
+    mzCellWidth = newMzCellWidth;
+    rtCellWidth = newRtCellWidth;
+    maxMzDrift = 0;
+    maxRtDrift = 0;
+    grid = new MzRtGrid(gridMzValues, gridRtValues, mzCellWidth, rtCellWidth);
+  }
+
+  /**
+   * Calls the consumer with the position of each row whose average m/z and RT values are inside
+   * the given ranges. Can be called by several threads as long as the master list is not changed.
+   *
+   * @param mzRange the m/z range.
+   * @param rtRange the RT range.
+   * @param consumer receives the positions of the rows.
+   */
+  void forEachInside(@Nonnull Range<Double> mzRange, @Nonnull Range<Float> rtRange,
+      @Nonnull IntConsumer consumer) {
+    final Range<Double> gridMzRange = Range.closed(mzRange.lowerEndpoint() - maxMzDrift,
+        mzRange.upperEndpoint() + maxMzDrift);
+    final Range<Float> gridRtRange = Range.closed((float) (rtRange.lowerEndpoint() - maxRtDrift),
+        (float) (rtRange.upperEndpoint() + maxRtDrift));
+    grid.forEachInside(gridMzRange, gridRtRange, position -> {
+      if (mzRange.contains(getMz(position)) && rtRange.contains(getRt(position)))
+        consumer.accept(position);
+    });
+    for (int position = gridSize; position < size(); position++) {
+      if (mzRange.contains(getMz(position)) && rtRange.contains(getRt(position)))
+        consumer.accept(position);
+    }
+  }
+
+  /**
+   * Adds a row without features.
+   *
+   * @param row the row of the aligned table.
+   * @return the position of the row.
+   */
+  int addRow(@Nonnull FeatureTableRow row) {
+    final int position = size;
+    if (position == mzSums.length) {
+      final int capacity = position * 2;
+      rowIds = Arrays.copyOf(rowIds, capacity);
+      mzSums = Arrays.copyOf(mzSums, capacity);
+      rtSums = Arrays.copyOf(rtSums, capacity);
+      mzCounts = Arrays.copyOf(mzCounts, capacity);
+      rtCounts = Arrays.copyOf(rtCounts, capacity);
+      changed = Arrays.copyOf(changed, capacity);
+      moved = Arrays.copyOf(moved, capacity);
+    }
+    rowIds[position] = row.getId();
+    rows.add(row);
+    size++;
+    return position;
+  }
+
+  /**
+   * Adds the m/z and RT values of a feature to the sums of a row.
+   *
+   * @param position the position of the row.
+   * @param mz the m/z value of the feature, or null.
+   * @param rt the RT value of the feature, or null.
+   */
+  void addFeature(int position, @Nullable Double mz, @Nullable Float rt) {
+    if (mz != null) {
+      mzSums[position] += mz;
+      mzCounts[position]++;
+      maxMz = Math.max(maxMz, mz);
+    }
+    if (rt != null) {
+      rtSums[position] += rt;
+      rtCounts[position]++;
+      maxRt = Math.max(maxRt, rt);
+    }
+    if (!changed[position]) {
+      changed[position] = true;
+      changedPositions.add(position);
+    }
+    if (!moved[position]) {
+      moved[position] = true;
+      movedPositions.add(position);
+    }
+  }
+
+  /**
+   * Widens the grid queries by the distance the averages of the rows with new features since the
+   * last call have moved from their cells. Must be called before the master list is queried
+   * again.
+   */
+  void updateDrift() {
+    for (int position : movedPositions) {
+      moved[position] = false;
+      if (position >= gridSize)
+        continue;
+      if (mzCounts[position] > 0 && !Double.isNaN(gridMzValues[position]))
+        maxMzDrift = Math.max(maxMzDrift, Math.abs(getMz(position) - gridMzValues[position]));
+      if (rtCounts[position] > 0 && !Float.isNaN(gridRtValues[position]))
+        maxRtDrift = Math.max(maxRtDrift, Math.abs(getRt(position) - gridRtValues[position]));
+    }
+    movedPositions.clear();
+  }
+
+  /**
+   * Sets the average m/z and RT values of the rows with new features in the aligned table. Rows
+   * without m/z or RT values keep their values.
+   *
+   * @param featureTable the aligned feature table of this master list.
+   */
+  void updateAverages(@Nonnull FeatureTable featureTable) {
+    updateDrift();
+    final List<FeatureTableRow> changedRows = new ArrayList<>(changedPositions.size());
+    final double mzValues[] = new double[changedPositions.size()];
+    final float rtValues[] = new float[changedPositions.size()];
+    for (int position : changedPositions) {
+      changed[position] = false;
+      if (mzCounts[position] == 0 && rtCounts[position] == 0)
+        continue;
+
+      // Averages without values are NaN and not written by setAverages
+      final int i = changedRows.size();
+      changedRows.add(rows.get(position));
+      mzValues[i] = getMz(position);
+      rtValues[i] = getRt(position);
+    }
+    changedPositions.clear();
+    FeatureTableUtil.setAverages(featureTable, changedRows, mzValues, rtValues);
+  }
+
+}
@@ -18,17 +18,18 @@
 
 package io.github.mzmine.modules.alignment.joinaligner;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.github.msdk.alignment.joinaligner.JoinAlignerMethod;
-import io.github.msdk.datamodel.FeatureTable;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
 import io.github.mzmine.modules.MZmineProcessingModule;
@@ -89,6 +90,8 @@ public class JoinAlignerModule implements MZmineProcessingModule {
     if (requireSameCharge == null)
       requireSameCharge = false;
 
+    final Boolean alignIntoExistingTable =
+        parameters.getParameter(JoinAlignerParameters.alignIntoExistingTable).getValue();
     final Boolean removeOldTable =
         parameters.getParameter(JoinAlignerParameters.removeOldTable).getValue();
 
@@ -96,7 +99,29 @@ public class JoinAlignerModule implements MZmineProcessingModule {
       logger.warn("Match aligner module started with no feature table selected");
       return;
     }
-    if (featureTables.getMatchingFeatureTables().size() == 1) {
+
+    // Existing aligned table
+    FeatureTable alignedFeatureTable = null;
+    if (alignIntoExistingTable != null && alignIntoExistingTable) {
+      for (FeatureTable featureTable : project.getFeatureTables()) {
+        if (featureTable.getName().equals(featureTableName))
+          alignedFeatureTable = featureTable;
+      }
+      if (alignedFeatureTable == null) {
+        logger.warn("Match aligner module started with no feature table named "
+            + featureTableName);
+        return;
+      }
+    }
+
+    // Tables to align, without the existing aligned table
+    final List<FeatureTable> tablesToAlign = new ArrayList<>();
+    for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
+      if (featureTable != alignedFeatureTable)
+        tablesToAlign.add(featureTable);
+    }
+    if (tablesToAlign.isEmpty()
+        || (alignedFeatureTable == null && tablesToAlign.size() == 1)) {
       logger.warn("Match aligner module started with less than two feature table");
       return;
     }
@@ -104,21 +129,30 @@ public class JoinAlignerModule implements MZmineProcessingModule {
     // Create the data structures
     DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
 
-    // New row filter method
-    JoinAlignerMethod method = new JoinAlignerMethod(featureTables.getMatchingFeatureTables(),
-        dataStore, mzTolerance, rtTolerance, mzWeight, rtWeight, requireSameCharge,
-        requireSameAnnotation, featureTableName);
+    // New join aligner method
+    final ParallelJoinAlignerMethod method;
+    if (alignedFeatureTable == null)
+      method = new ParallelJoinAlignerMethod(tablesToAlign, dataStore, mzTolerance, rtTolerance,
+          mzWeight, rtWeight, requireSameCharge, requireSameAnnotation, featureTableName);
+    else
+      method = new ParallelJoinAlignerMethod(tablesToAlign, alignedFeatureTable, mzTolerance,
+          rtTolerance, mzWeight, rtWeight, requireSameCharge, requireSameAnnotation);
+    final boolean newTable = alignedFeatureTable == null;
 
     MSDKTask newTask = new MSDKTask("Aligning feature tables", featureTableName, method);
 
-    // Add the feature table to the project
+    // Apply the alignment and add the feature table to the project
     newTask.setOnSucceeded(e -> {
-      FeatureTable newFeatureTable = method.getResult();
-      project.addFeatureTable(newFeatureTable);
+      if (!newTable && !method.commit())
+        return;
+      if (newTable) {
+        FeatureTable newFeatureTable = method.getResult();
+        project.addFeatureTable(newFeatureTable);
+      }
 
       // If selected, remove old feature table
       if (removeOldTable != null && removeOldTable) {
-        for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
+        for (FeatureTable featureTable : tablesToAlign) {
           project.removeFeatureTable(featureTable);
         }
       }
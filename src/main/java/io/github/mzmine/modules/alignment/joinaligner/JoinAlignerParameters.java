@@ -64,6 +64,12 @@ public class JoinAlignerParameters extends ParameterSet {
   public static final StringParameter featureTableName = new StringParameter("Feature table name",
       "Name of the aligned feature table.", "Output", "Aligned Feature Table");
 
+  public static final BooleanParameter alignIntoExistingTable = new BooleanParameter(
+      "Align into existing table?",
+      "If checked and the project has a feature table with the given name, the selected feature "
+          + "tables are added to that aligned table.",
+      "Output", false);
+
   public static final BooleanParameter removeOldTable =
       new BooleanParameter("Remove original tables?",
           "If checked, the original feature tables will be removed.", "Output", false);
@@ -73,7 +79,7 @@ public class JoinAlignerParameters extends ParameterSet {
    */
   public JoinAlignerParameters() {
     super(featureTables, mzTolerance, rtTolerance, mzWeight, rtWeight, requireSameAnnotation,
-        requireSameCharge, featureTableName, removeOldTable);
+        requireSameCharge, featureTableName, alignIntoExistingTable, removeOldTable);
   }
 
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.alignment.joinaligner;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Range;
+
+/**
+ * Grid of m/z and RT cells over a fixed set of points. The points of each cell are stored next to
+ * each other, and the cells are found by a binary search of their keys, so only the occupied cells
+ * use memory. A query visits the cells which overlap the query ranges. With cells about as wide as
+ * the tolerances, that is a few cells around the cell of the query.
+ *
+ * The grid is immutable and can be queried by several threads.
+ */
+final class MzRtGrid {
+
+  private final double mzCellWidth, rtCellWidth;
+  private final @Nonnull double mzValues[];
+  private final @Nonnull float rtValues[];
+
+  // Sorted keys of the occupied cells, the points of cell i are
+  // positions[cellStarts[i]] to positions[cellStarts[i + 1] - 1]
+  private final @Nonnull long cellKeys[];
+  private final @Nonnull int cellStarts[];
+  private final @Nonnull int positions[];
+
+  /**
+   * Builds a grid of the given points.
+   *
+   * @param mzValues the m/z values of the points.
+   * @param rtValues the RT values of the points.
+   * @param mzCellWidth the m/z width of a cell, values of 0 or less use a width of 1.
+   * @param rtCellWidth the RT width of a cell, values of 0 or less use a width of 1.
+   */
+  MzRtGrid(@Nonnull double mzValues[], @Nonnull float rtValues[], double mzCellWidth,
+      double rtCellWidth) {
+    this.mzValues = mzValues;
+    this.rtValues = rtValues;
+    this.mzCellWidth = mzCellWidth > 0 ? mzCellWidth : 1.0;
+    this.rtCellWidth = rtCellWidth > 0 ? rtCellWidth : 1.0;
+
+    // Keys of the occupied cells
+    final int size = mzValues.length;
+    final long pointKeys[] = new long[size];
+    for (int i = 0; i < size; i++)
+      pointKeys[i] = getKey(getMzCell(mzValues[i]), getRtCell(rtValues[i]));
+    final long sortedKeys[] = pointKeys.clone();
+    Arrays.sort(sortedKeys);
+    int cellCount = 0;
+    for (int i = 0; i < size; i++) {
+      if (i == 0 || sortedKeys[i] != sortedKeys[i - 1])
+        sortedKeys[cellCount++] = sortedKeys[i];
+    }
+    cellKeys = Arrays.copyOf(sortedKeys, cellCount);
+
+    // Count the points of each cell and place them in order of position
+    final int pointCells[] = new int[size];
+    cellStarts = new int[cellCount + 1];
+    for (int i = 0; i < size; i++) {
+      pointCells[i] = Arrays.binarySearch(cellKeys, pointKeys[i]);
+      cellStarts[pointCells[i] + 1]++;
+    }
+    for (int c = 0; c < cellCount; c++)
+      cellStarts[c + 1] += cellStarts[c];
+    final int next[] = Arrays.copyOf(cellStarts, cellCount);
+    positions = new int[size];
+    for (int i = 0; i < size; i++)
+      positions[next[pointCells[i]]++] = i;
+  }
+
+  /**
+   * Returns the number of points of the grid.
+   */
+  int size() {
+    return positions.length;
+  }
+
+  /**
+   * Calls the consumer with the position of each point inside the given ranges. The positions of
+   * a cell are visited in increasing order, the cells in order of m/z and then RT.
+   *
+   * @param mzRange the m/z range.
+   * @param rtRange the RT range.
+   * @param consumer receives the positions of the points.
+   */
+  void forEachInside(@Nonnull Range<Double> mzRange, @Nonnull Range<Float> rtRange,
+      @Nonnull IntConsumer consumer) {
+    final int firstMzCell = getMzCell(mzRange.lowerEndpoint());
+    final int lastMzCell = getMzCell(mzRange.upperEndpoint());
+    final int firstRtCell = getRtCell(rtRange.lowerEndpoint());
+    final int lastRtCell = getRtCell(rtRange.upperEndpoint());
+    for (int mzCell = firstMzCell; mzCell <= lastMzCell; mzCell++) {
+      for (int rtCell = firstRtCell; rtCell <= lastRtCell; rtCell++) {
+        final int cell = Arrays.binarySearch(cellKeys, getKey(mzCell, rtCell));
+        if (cell < 0)
+          continue;
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+          final int position = positions[i];
+          if (mzRange.contains(mzValues[position]) && rtRange.contains(rtValues[position]))
+            consumer.accept(position);
+        }
+      }
+    }
+  }
+
+  private int getMzCell(double mz) {
+    return (int) Math.floor(mz / mzCellWidth);
+  }
+
+  private int getRtCell(double rt) {
+    return (int) Math.floor(rt / rtCellWidth);
+  }
+
+  private static long getKey(int mzCell, int rtCell) {
+    return ((long) mzCell << 32) | (rtCell & 0xffffffffL);
+  }
+
+}
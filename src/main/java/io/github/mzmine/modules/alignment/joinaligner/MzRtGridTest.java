@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.alignment.joinaligner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+public class MzRtGridTest {
+
+  @Test
+  public void testForEachInside() {
+
+    // Points 0 and 3 share a cell, point 2 is on a cell border
+    double mzValues[] = {200.001, 200.02, 300.0, 200.002, 500.0};
+    float rtValues[] = {60f, 61f, 90f, 60.5f, 600f};
+    MzRtGrid grid = new MzRtGrid(mzValues, rtValues, 0.01, 10.0);
+    Assert.assertEquals(5, grid.size());
+
+    Assert.assertEquals("[0, 3]", query(grid, 200.0, 0.005, 60f, 5f));
+    Assert.assertEquals("[0, 1, 3]", query(grid, 200.0, 0.05, 60f, 5f));
+    Assert.assertEquals("[0]", query(grid, 200.0, 0.005, 59f, 1f));
+    Assert.assertEquals("[2]", query(grid, 300.0, 0.0, 90f, 0f));
+    Assert.assertEquals("[4]", query(grid, 500.0, 0.005, 500f, 200f));
+    Assert.assertEquals("[]", query(grid, 400.0, 0.005, 60f, 5f));
+  }
+
+  @Test
+  public void testMatchesLinearSearch() {
+    Random random = new Random(20);
+    final int size = 2000;
+    double mzValues[] = new double[size];
+    float rtValues[] = new float[size];
+    for (int i = 0; i < size; i++) {
+      mzValues[i] = 100.0 + random.nextDouble() * 50.0;
+      rtValues[i] = random.nextFloat() * 600f;
+    }
+    MzRtGrid grid = new MzRtGrid(mzValues, rtValues, 0.02, 20.0);
+
+    for (int q = 0; q < 200; q++) {
+      final double mz = 100.0 + random.nextDouble() * 50.0;
+      final float rt = random.nextFloat() * 600f;
+      final double mzTolerance = random.nextDouble() * 0.05;
+      final float rtTolerance = random.nextFloat() * 40f;
+      final Range<Double> mzRange = Range.closed(mz - mzTolerance, mz + mzTolerance);
+      final Range<Float> rtRange = Range.closed(rt - rtTolerance, rt + rtTolerance);
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        if (mzRange.contains(mzValues[i]) && rtRange.contains(rtValues[i]))
+          expected.add(i);
+      }
+      Assert.assertEquals(expected.toString(), query(grid, mz, mzTolerance, rt, rtTolerance));
+    }
+  }
+
+  private String query(MzRtGrid grid, double mz, double mzTolerance, float rt,
+      float rtTolerance) {
+    List<Integer> positions = new ArrayList<>();
+    grid.forEachInside(Range.closed(mz - mzTolerance, mz + mzTolerance),
+        Range.closed(rt - rtTolerance, rt + rtTolerance), positions::add);
+    Collections.sort(positions);
+    return positions.toString();
+  }
+
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.alignment.joinaligner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.impl.converter.IonAnnotationConverter;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.MZmineFeatureTable;
+import io.github.mzmine.util.ColumnMappingPlan;
+import io.github.mzmine.util.FeatureTableUtil;
+
+/**
+ * This class aligns feature tables with the join aligner algorithm. The tables are added to an
+ * aligned master table one after the other. The rows of a table are scored against the rows of
+ * the master table within the m/z and RT tolerances, and each row is joined with the master row
+ * of its best score which is not taken by a better score. Rows without such master row are added
+ * as new rows.
+ *
+ * The candidates of each row are found in an {@link MzRtGrid} of the master table, and the rows of
+ * a table are scored in parallel. Equal scores are resolved by the position of the row in its
+ * table and then by the position of the master row, so the result does not depend on the number
+ * of threads.
+ *
+ * The tables can also be aligned into an existing aligned table. Its rows are kept as they are,
+ * the new samples are added as new columns, and only the rows of the new tables are matched, using
+ * the {@link AlignedMasterList} kept from the previous alignment into that table. The alignment
+ * is prepared aside: {@link #execute()} only reads the existing table, and the new columns, the
+ * new rows and the feature values of the existing rows are applied by {@link #commit()}. A failed
+ * or canceled alignment leaves the table unchanged.
+ */
+public class ParallelJoinAlignerMethod implements MSDKMethod<FeatureTable> {
+
+  // Best score first, then the first row and the first master row
+  private static final Comparator<Score> SCORE_ORDER =
+      Comparator.comparingDouble((Score score) -> -score.score)
+          .thenComparingInt(score -> score.rowIndex)
+          .thenComparingInt(score -> score.masterPosition);
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull List<FeatureTable> featureTables;
+  private final @Nonnull MzTolerance mzTolerance;
+  private final @Nonnull RTTolerance rtTolerance;
+  private final int mzWeight, rtWeight;
+  private final boolean requireSameCharge, requireSameAnnotation;
+
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedFeatures = new AtomicInteger();
+  private int totalFeatures = 0;
+  private final @Nonnull FeatureTable result;
+  private final boolean newTable;
+
+  // Changes of the result which are applied by commit()
+  private AlignedMasterList masterList;
+  private final @Nonnull List<FeatureTableColumn<?>> targetColumns = new ArrayList<>();
+  private final @Nonnull List<FeatureTableColumn<?>> newColumns = new ArrayList<>();
+  private final @Nonnull List<FeatureTableRow> newRows = new ArrayList<>();
+  private final @Nonnull Map<Integer, FeatureTableRow> stagedRows = new HashMap<>();
+  private int existingRows = 0;
+  private long resultVersion = -1;
+
+  /**
+   * <p>
+   * Constructor for ParallelJoinAlignerMethod. The tables are aligned into a new
+   * {@link ColumnarFeatureTable}.
+   * </p>
+   *
+   * @param featureTables a {@link java.util.List} of
+   *        {@link io.github.msdk.datamodel.featuretables.FeatureTable} objects.
+   * @param dataStore a {@link io.github.msdk.datamodel.datastore.DataPointStore} object.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   * @param mzWeight the score for perfectly matching m/z values.
+   * @param rtWeight the score for perfectly matching RT values.
+   * @param requireSameCharge only rows with the same charge are aligned.
+   * @param requireSameAnnotation only rows with a common ion annotation are aligned.
+   * @param featureTableName the name of the aligned feature table.
+   */
+  public ParallelJoinAlignerMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull DataPointStore dataStore, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, int mzWeight, int rtWeight, boolean requireSameCharge,
+      boolean requireSameAnnotation, @Nonnull String featureTableName) {
+    Preconditions.checkNotNull(featureTables);
+    this.featureTables = featureTables;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.mzWeight = mzWeight;
+    this.rtWeight = rtWeight;
+    this.requireSameCharge = requireSameCharge;
+    this.requireSameAnnotation = requireSameAnnotation;
+
+    result = new ColumnarFeatureTable(featureTableName, dataStore);
+    newTable = true;
+  }
+
+  /**
+   * <p>
+   * Constructor for ParallelJoinAlignerMethod which aligns the feature tables into an existing
+   * aligned feature table. The existing table is changed by {@link #commit()} and returned as
+   * the result.
+   * </p>
+   *
+   * @param featureTables a {@link java.util.List} of
+   *        {@link io.github.msdk.datamodel.featuretables.FeatureTable} objects.
+   * @param alignedFeatureTable the aligned
+   *        {@link io.github.msdk.datamodel.featuretables.FeatureTable} to add the tables to.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   * @param mzWeight the score for perfectly matching m/z values.
+   * @param rtWeight the score for perfectly matching RT values.
+   * @param requireSameCharge only rows with the same charge are aligned.
+   * @param requireSameAnnotation only rows with a common ion annotation are aligned.
+   */
+  public ParallelJoinAlignerMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull FeatureTable alignedFeatureTable, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, int mzWeight, int rtWeight, boolean requireSameCharge,
+      boolean requireSameAnnotation) {
+    Preconditions.checkNotNull(featureTables);
+    Preconditions.checkNotNull(alignedFeatureTable);
+    this.featureTables = featureTables;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.mzWeight = mzWeight;
+    this.rtWeight = rtWeight;
+    this.requireSameCharge = requireSameCharge;
+    this.requireSameAnnotation = requireSameAnnotation;
+
+    result = alignedFeatureTable;
+    newTable = false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable execute() throws MSDKException {
+
+    // Each row is processed twice, for scoring and for joining
+    for (FeatureTable featureTable : featureTables)
+      totalFeatures += featureTable.getRows().size() * 2;
+
+    if (result instanceof MZmineFeatureTable)
+      resultVersion = ((MZmineFeatureTable) result).getVersion();
+    masterList = AlignedMasterList.forFeatureTable(result);
+    existingRows = masterList.size();
+    targetColumns.addAll(result.getColumns());
+    final Set<String> sampleNames = new HashSet<>();
+    for (Sample sample : result.getSamples())
+      sampleNames.add(sample.getName());
+
+    for (FeatureTable featureTable : featureTables) {
+
+      // Samples can only be added once
+      boolean alreadyAligned = false;
+      for (Sample sample : featureTable.getSamples())
+        alreadyAligned |= !sampleNames.add(sample.getName());
+      if (alreadyAligned) {
+        logger.warn("Feature table " + featureTable.getName()
+            + " is skipped, its samples are already in the aligned table");
+        processedFeatures.addAndGet(featureTable.getRows().size() * 2);
+        continue;
+      }
+
+      // The first table adds all its columns, the other tables their sample columns
+      final boolean firstFeatureTable = targetColumns.isEmpty();
+      for (FeatureTableColumn<?> column : featureTable.getColumns()) {
+        if (firstFeatureTable || column.getSample() != null) {
+          targetColumns.add(column);
+          newColumns.add(column);
+        }
+      }
+
+      alignFeatureTable(featureTable);
+
+      // Check if cancel is requested
+      if (canceled) {
+        masterList = null;
+        return null;
+      }
+    }
+
+    // Nobody else sees a new table, so its changes are applied right away
+    if (newTable)
+      commit();
+
+    return result;
+  }
+
+  /**
+   * Applies the prepared changes to the aligned table: adds the new columns, copies the feature
+   * values of the existing rows and adds the new rows. Must be called after {@link #execute()}
+   * has finished, on the thread which owns the aligned table. Nothing is applied if the table was
+   * changed since the alignment started, or if there is nothing to apply.
+   *
+   * @return true if the changes were applied.
+   */
+  public boolean commit() {
+    if (masterList == null)
+      return false;
+    final AlignedMasterList committedMasterList = masterList;
+    masterList = null;
+    if (result instanceof MZmineFeatureTable
+        && ((MZmineFeatureTable) result).getVersion() != resultVersion) {
+      logger.warn("Feature table " + result.getName()
+          + " was changed during the alignment, the alignment is discarded");
+      return false;
+    }
+
+    for (FeatureTableColumn<?> column : newColumns)
+      result.addColumn(column);
+
+    // Feature values and ion annotations of the existing rows
+    final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+        result.getColumn(ColumnName.IONANNOTATION, null);
+    for (Map.Entry<Integer, FeatureTableRow> entry : stagedRows.entrySet()) {
+      final FeatureTableRow row = committedMasterList.getRow(entry.getKey());
+      final FeatureTableRow stagedRow = entry.getValue();
+      for (FeatureTableColumn<?> column : newColumns)
+        copyValue(stagedRow, column, row);
+      if (ionAnnotationColumn != null)
+        copyValue(stagedRow, ionAnnotationColumn, row);
+    }
+    FeatureTableUtil.addRows(result, newRows);
+
+    // Update the average row m/z and RT values of the changed rows
+    committedMasterList.updateAverages(result);
+
+    // Keep the master list for the next alignment into the result
+    committedMasterList.keep(result);
+
+    newColumns.clear();
+    newRows.clear();
+    stagedRows.clear();
+    return true;
+  }
+
+  /**
+   * Joins the rows of a feature table with the master table.
+   */
+  private void alignFeatureTable(@Nonnull FeatureTable featureTable) {
+
+    masterList.prepare(mzTolerance, rtTolerance);
+
+    // Columns which are compared
+    final FeatureTableColumn<Integer> chargeColumn =
+        featureTable.getColumn(ColumnName.CHARGE, null);
+    final FeatureTableColumn<Integer> masterChargeColumn = getTargetColumn(ColumnName.CHARGE);
+    final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+        featureTable.getColumn(ColumnName.IONANNOTATION, null);
+    final FeatureTableColumn<List<IonAnnotation>> masterIonAnnotationColumn =
+        getTargetColumn(ColumnName.IONANNOTATION);
+
+    // Score the rows in parallel, each row only writes its own scores
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    final Score rowScores[][] = new Score[rows.size()][];
+    IntStream.range(0, rows.size()).parallel().forEach(rowIndex -> {
+      if (canceled)
+        return;
+      final FeatureTableRow row = rows.get(rowIndex);
+      final Double mz = row.getMz();
+      final Float rt = row.getRT();
+      processedFeatures.incrementAndGet();
+      if (mz == null || rt == null)
+        return;
+
+      final Range<Double> mzRange = mzTolerance.getToleranceRange(mz);
+      final Range<Float> rtRange = rtTolerance.getToleranceRange(rt);
+      final double mzMaxDiff = (mzRange.upperEndpoint() - mzRange.lowerEndpoint()) / 2.0;
+      final double rtMaxDiff = (rtRange.upperEndpoint() - rtRange.lowerEndpoint()) / 2.0;
+
+      final List<Score> scores = new ArrayList<>();
+      masterList.forEachInside(mzRange, rtRange, masterPosition -> {
+        final FeatureTableRow masterRow = masterList.getRow(masterPosition);
+        if (requireSameCharge && !hasSameCharge(row.getData(chargeColumn),
+            masterRow.getData(masterChargeColumn)))
+          return;
+        if (requireSameAnnotation && !hasCommonAnnotation(row.getData(ionAnnotationColumn),
+            getTargetRow(masterPosition).getData(masterIonAnnotationColumn)))
+          return;
+        final double mzDiff = Math.abs(mz - masterList.getMz(masterPosition));
+        final double rtDiff = Math.abs(rt - masterList.getRt(masterPosition));
+        final double score =
+            (1 - mzDiff / mzMaxDiff) * mzWeight + (1 - rtDiff / rtMaxDiff) * rtWeight;
+        scores.add(new Score(score, rowIndex, masterPosition));
+      });
+      rowScores[rowIndex] = scores.toArray(new Score[scores.size()]);
+    });
+
+    if (canceled)
+      return;
+
+    // Assign the master rows by descending score
+    int scoreCount = 0;
+    for (Score scores[] : rowScores)
+      scoreCount += scores == null ? 0 : scores.length;
+    final Score allScores[] = new Score[scoreCount];
+    scoreCount = 0;
+    for (Score scores[] : rowScores) {
+      if (scores == null)
+        continue;
+      System.arraycopy(scores, 0, allScores, scoreCount, scores.length);
+      scoreCount += scores.length;
+    }
+    Arrays.parallelSort(allScores, SCORE_ORDER);
+
+    final int targetPositions[] = new int[rows.size()];
+    Arrays.fill(targetPositions, -1);
+    final boolean masterUsed[] = new boolean[masterList.size()];
+    for (Score score : allScores) {
+      if (targetPositions[score.rowIndex] >= 0 || masterUsed[score.masterPosition])
+        continue;
+      targetPositions[score.rowIndex] = score.masterPosition;
+      masterUsed[score.masterPosition] = true;
+    }
+
+    // New rows for the rows without master row, added to the table by commit()
+    int newRowCount = 0;
+    for (int targetPosition : targetPositions)
+      newRowCount += targetPosition < 0 ? 1 : 0;
+    int newRowID = FeatureTableUtil.allocateRowIds(result, newRowCount);
+    final FeatureTableColumn<Integer> idColumn = getTargetColumn(ColumnName.ID);
+    for (int i = 0; i < targetPositions.length; i++) {
+      if (targetPositions[i] >= 0)
+        continue;
+      final FeatureTableRow newRow = FeatureTableUtil.createRow(result, newRowID);
+      if (idColumn != null)
+        newRow.setData(idColumn, newRowID);
+      newRows.add(newRow);
+      targetPositions[i] = masterList.addRow(newRow);
+      newRowID++;
+    }
+
+    // Feature m/z and RT columns of the samples
+    final List<FeatureTableColumn<Double>> mzColumns = new ArrayList<>();
+    final List<FeatureTableColumn<Float>> rtColumns = new ArrayList<>();
+    for (Sample sample : featureTable.getSamples()) {
+      FeatureTableColumn<Double> mzColumn = featureTable.getColumn(ColumnName.MZ, sample);
+      if (mzColumn != null)
+        mzColumns.add(mzColumn);
+      FeatureTableColumn<Float> rtColumn = featureTable.getColumn(ColumnName.RT, sample);
+      if (rtColumn != null)
+        rtColumns.add(rtColumn);
+    }
+
+    // Copy the feature values and combine the ion annotations, the values of existing rows are
+    // kept on staged rows until commit()
+    final ColumnMappingPlan mappingPlan = new ColumnMappingPlan(featureTable, targetColumns);
+    final IonAnnotationConverter ionAnnotationConverter = new IonAnnotationConverter();
+    for (int i = 0; i < rows.size(); i++) {
+      final FeatureTableRow row = rows.get(i);
+      final FeatureTableRow targetRow = getStagedRow(targetPositions[i], masterIonAnnotationColumn);
+      for (int s = 0; s < mappingPlan.getSamples().size(); s++)
+        mappingPlan.copyFeatureValues(row, targetRow, s);
+      if (ionAnnotationColumn != null && masterIonAnnotationColumn != null)
+        ionAnnotationConverter.apply(row, ionAnnotationColumn, targetRow,
+            masterIonAnnotationColumn);
+      for (FeatureTableColumn<Double> mzColumn : mzColumns)
+        masterList.addFeature(targetPositions[i], row.getData(mzColumn), null);
+      for (FeatureTableColumn<Float> rtColumn : rtColumns)
+        masterList.addFeature(targetPositions[i], null, row.getData(rtColumn));
+      processedFeatures.incrementAndGet();
+    }
+
+    // Widen the queries of the next table by the moved averages
+    masterList.updateDrift();
+  }
+
+  /**
+   * Returns the row which receives the values of a master position: new rows directly, existing
+   * rows through a staged row which starts with the ion annotations of the existing row.
+   */
+  private @Nonnull FeatureTableRow getStagedRow(int masterPosition,
+      @Nullable FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn) {
+    final FeatureTableRow row = masterList.getRow(masterPosition);
+    if (masterPosition >= existingRows)
+      return row;
+    return stagedRows.computeIfAbsent(masterPosition, position -> {
+      final FeatureTableRow stagedRow = FeatureTableUtil.createRow(result, row.getId());
+      if (ionAnnotationColumn != null) {
+        final List<IonAnnotation> ionAnnotations = row.getData(ionAnnotationColumn);
+        if (ionAnnotations != null)
+          stagedRow.setData(ionAnnotationColumn, new ArrayList<>(ionAnnotations));
+      }
+      return stagedRow;
+    });
+  }
+
+  /**
+   * Returns the row with the current values of a master position, including the staged ones.
+   */
+  private @Nonnull FeatureTableRow getTargetRow(int masterPosition) {
+    final FeatureTableRow stagedRow = stagedRows.get(masterPosition);
+    return stagedRow != null ? stagedRow : masterList.getRow(masterPosition);
+  }
+
+  /**
+   * Returns the common column of the aligned table with the given name, including the columns
+   * which are added by commit().
+   */
+  @SuppressWarnings("unchecked")
+  private @Nullable <DATATYPE> FeatureTableColumn<DATATYPE> getTargetColumn(
+      @Nonnull ColumnName columnName) {
+    for (FeatureTableColumn<?> column : targetColumns) {
+      if (column.getSample() == null && column.getName().equals(columnName.getName()))
+        return (FeatureTableColumn<DATATYPE>) column;
+    }
+    return null;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static void copyValue(@Nonnull FeatureTableRow sourceRow,
+      @Nonnull FeatureTableColumn column, @Nonnull FeatureTableRow targetRow) {
+    final Object value = sourceRow.getData(column);
+    if (value != null)
+      targetRow.setData(column, value);
+  }
+
+  private static boolean hasSameCharge(@Nullable Integer charge1, @Nullable Integer charge2) {
+    return charge1 != null && charge1.equals(charge2);
+  }
+
+  /**
+   * Checks if any ion annotation of the first list is also in the second list.
+   */
+  private static boolean hasCommonAnnotation(@Nullable List<IonAnnotation> ionAnnotations1,
+      @Nullable List<IonAnnotation> ionAnnotations2) {
+    if (ionAnnotations1 == null || ionAnnotations2 == null)
+      return false;
+    for (IonAnnotation ionAnnotation : ionAnnotations1) {
+      for (IonAnnotation targetIonAnnotation : ionAnnotations2) {
+        if (targetIonAnnotation.compareTo(ionAnnotation) == 0)
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Match score of a row with a master row.
+   */
+  private static final class Score {
+
+    final double score;
+    final int rowIndex;
+    final int masterPosition;
+
+    Score(double score, int rowIndex, int masterPosition) {
+      this.score = score;
+      this.rowIndex = rowIndex;
+      this.masterPosition = masterPosition;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    return totalFeatures == 0 ? null : (float) processedFeatures.get() / totalFeatures;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public FeatureTable getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.alignment.joinaligner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.alignment.joinaligner.JoinAlignerMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.MZmineFeatureTable;
+import io.github.mzmine.datamodel.SimpleSample;
+
+public class ParallelJoinAlignerMethodTest {
+
+  private static final int COMPOUNDS = 20;
+
+  private final MzTolerance mzTolerance = new MaximumMzTolerance(0.01, 10.0);
+  private final RTTolerance rtTolerance = new RTTolerance(5, false);
+
+  @Test
+  public void testSameRowsAsMsdk() throws MSDKException {
+
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    final List<FeatureTable> featureTables = createFeatureTables(dataStore);
+
+    // Rows of the MSDK method
+    JoinAlignerMethod msdkMethod = new JoinAlignerMethod(featureTables, dataStore, mzTolerance,
+        rtTolerance, 10, 10, false, false, "MSDK aligned");
+    final FeatureTable expectedTable = msdkMethod.execute();
+    Assert.assertNotNull(expectedTable);
+
+    ParallelJoinAlignerMethod method = new ParallelJoinAlignerMethod(featureTables, dataStore,
+        mzTolerance, rtTolerance, 10, 10, false, false, "Aligned");
+    final FeatureTable alignedTable = method.execute();
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+    Assert.assertNotNull(alignedTable);
+    Assert.assertEquals(3, alignedTable.getSamples().size());
+
+    // Each compound in one row, the weaker match of compound 7 and the
+    // unique feature of sample 2 in their own rows
+    Assert.assertEquals(COMPOUNDS + 2, alignedTable.getRows().size());
+    Assert.assertEquals(expectedTable.getRows().size(), alignedTable.getRows().size());
+
+    // The same features are joined into rows with the same averages
+    final Map<String, FeatureTableRow> expectedRows = getRowsByFeatures(expectedTable);
+    final Map<String, FeatureTableRow> alignedRows = getRowsByFeatures(alignedTable);
+    Assert.assertEquals(expectedRows.keySet(), alignedRows.keySet());
+    for (Map.Entry<String, FeatureTableRow> entry : expectedRows.entrySet()) {
+      final FeatureTableRow expectedRow = entry.getValue();
+      final FeatureTableRow row = alignedRows.get(entry.getKey());
+      Assert.assertEquals(expectedRow.getMz(), row.getMz(), 0.000001);
+      Assert.assertEquals(expectedRow.getRT(), row.getRT(), 0.0001);
+    }
+  }
+
+  @Test
+  public void testAlignIntoExistingTable() throws MSDKException {
+
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    final List<FeatureTable> featureTables = createFeatureTables(dataStore);
+
+    // Align the first two tables, then the third into the aligned table
+    ParallelJoinAlignerMethod method = new ParallelJoinAlignerMethod(featureTables.subList(0, 2),
+        dataStore, mzTolerance, rtTolerance, 10, 10, false, false, "Aligned");
+    final FeatureTable alignedTable = method.execute();
+    Assert.assertNotNull(alignedTable);
+    final List<FeatureTableRow> firstRows = new ArrayList<>(alignedTable.getRows());
+    final AlignedMasterList masterList = AlignedMasterList.getKept(alignedTable);
+    Assert.assertNotNull(masterList);
+
+    // The alignment is only applied to the table by commit
+    ParallelJoinAlignerMethod secondMethod =
+        new ParallelJoinAlignerMethod(featureTables.subList(2, 3), alignedTable, mzTolerance,
+            rtTolerance, 10, 10, false, false);
+    Assert.assertSame(alignedTable, secondMethod.execute());
+    Assert.assertEquals(1.0, secondMethod.getFinishedPercentage(), 0.0001);
+    Assert.assertEquals(2, alignedTable.getSamples().size());
+    Assert.assertEquals(firstRows, alignedTable.getRows());
+    Assert.assertNull(AlignedMasterList.getKept(alignedTable));
+    Assert.assertTrue(secondMethod.commit());
+    Assert.assertFalse(secondMethod.commit());
+    Assert.assertEquals(3, alignedTable.getSamples().size());
+
+    // The unchanged table reuses its master list
+    Assert.assertSame(masterList, AlignedMasterList.getKept(alignedTable));
+
+    // The rows of the first alignment are kept, new rows get new IDs
+    final List<FeatureTableRow> rows = alignedTable.getRows();
+    Assert.assertEquals(firstRows, rows.subList(0, firstRows.size()));
+    final Set<Integer> rowIDs = new HashSet<>();
+    int maxFirstRowID = 0;
+    for (FeatureTableRow row : firstRows)
+      maxFirstRowID = Math.max(maxFirstRowID, row.getId());
+    for (int i = 0; i < rows.size(); i++) {
+      Assert.assertTrue(rowIDs.add(rows.get(i).getId()));
+      if (i >= firstRows.size())
+        Assert.assertTrue(rows.get(i).getId() > maxFirstRowID);
+    }
+
+    // The rows are the same as if all tables were aligned at once
+    ParallelJoinAlignerMethod allMethod = new ParallelJoinAlignerMethod(featureTables, dataStore,
+        mzTolerance, rtTolerance, 10, 10, false, false, "All aligned");
+    final FeatureTable allAlignedTable = allMethod.execute();
+    Assert.assertEquals(getRowsByFeatures(allAlignedTable).keySet(),
+        getRowsByFeatures(alignedTable).keySet());
+    assertAverages(alignedTable);
+  }
+
+  @Test
+  public void testAlignIntoChangedTable() throws MSDKException {
+
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    final List<FeatureTable> featureTables = createFeatureTables(dataStore);
+
+    ParallelJoinAlignerMethod method = new ParallelJoinAlignerMethod(featureTables.subList(0, 2),
+        dataStore, mzTolerance, rtTolerance, 10, 10, false, false, "Aligned");
+    final FeatureTable alignedTable = method.execute();
+    Assert.assertNotNull(alignedTable);
+    final AlignedMasterList masterList = AlignedMasterList.getKept(alignedTable);
+    Assert.assertNotNull(masterList);
+
+    // A row without sample values changes the table
+    final int rowID = ((MZmineFeatureTable) alignedTable).allocateRowIds(1);
+    final FeatureTableRow emptyRow = MSDKObjectBuilder.getFeatureTableRow(alignedTable, rowID);
+    emptyRow.setData(alignedTable.getColumn(ColumnName.ID, null), rowID);
+    emptyRow.setData(alignedTable.getColumn(ColumnName.MZ, null), 1000.0);
+    emptyRow.setData(alignedTable.getColumn(ColumnName.RT, null), 50f);
+    alignedTable.addRow(emptyRow);
+
+    ParallelJoinAlignerMethod secondMethod =
+        new ParallelJoinAlignerMethod(featureTables.subList(2, 3), alignedTable, mzTolerance,
+            rtTolerance, 10, 10, false, false);
+    secondMethod.execute();
+    Assert.assertTrue(secondMethod.commit());
+
+    // The master list is reconciled with the new row, which keeps its values
+    Assert.assertSame(masterList, AlignedMasterList.getKept(alignedTable));
+    Assert.assertEquals(1000.0, emptyRow.getMz(), 0.0);
+    Assert.assertEquals(50f, emptyRow.getRT(), 0.0);
+    Assert.assertEquals(COMPOUNDS + 3, alignedTable.getRows().size());
+    assertAverages(alignedTable);
+  }
+
+  @Test
+  public void testAlignIntoTableChangedBeforeCommit() throws MSDKException {
+
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    final List<FeatureTable> featureTables = createFeatureTables(dataStore);
+
+    ParallelJoinAlignerMethod method = new ParallelJoinAlignerMethod(featureTables.subList(0, 2),
+        dataStore, mzTolerance, rtTolerance, 10, 10, false, false, "Aligned");
+    final FeatureTable alignedTable = method.execute();
+    Assert.assertNotNull(alignedTable);
+    final int rowCount = alignedTable.getRows().size();
+
+    ParallelJoinAlignerMethod secondMethod =
+        new ParallelJoinAlignerMethod(featureTables.subList(2, 3), alignedTable, mzTolerance,
+            rtTolerance, 10, 10, false, false);
+    secondMethod.execute();
+
+    // A row removed after the alignment discards the alignment
+    alignedTable.removeRow(alignedTable.getRows().get(0));
+    Assert.assertFalse(secondMethod.commit());
+    Assert.assertEquals(2, alignedTable.getSamples().size());
+    Assert.assertEquals(rowCount - 1, alignedTable.getRows().size());
+
+    // The next alignment reconciles the master list with the removed row
+    ParallelJoinAlignerMethod thirdMethod =
+        new ParallelJoinAlignerMethod(featureTables.subList(2, 3), alignedTable, mzTolerance,
+            rtTolerance, 10, 10, false, false);
+    thirdMethod.execute();
+    Assert.assertTrue(thirdMethod.commit());
+    Assert.assertEquals(3, alignedTable.getSamples().size());
+    assertAverages(alignedTable);
+  }
+
+  /**
+   * Checks that the m/z and RT values of the rows with features are the averages of their sample
+   * values.
+   */
+  private void assertAverages(FeatureTable featureTable) {
+    for (FeatureTableRow row : featureTable.getRows()) {
+      double mzSum = 0, rtSum = 0;
+      int count = 0;
+      for (Sample sample : featureTable.getSamples()) {
+        final Double mz = row.getData(featureTable.getColumn(ColumnName.MZ, sample));
+        final Float rt = row.getData(featureTable.getColumn(ColumnName.RT, sample));
+        if (mz == null)
+          continue;
+        mzSum += mz;
+        rtSum += rt;
+        count++;
+      }
+      if (count == 0)
+        continue;
+      Assert.assertEquals(mzSum / count, row.getMz(), 0.000001);
+      Assert.assertEquals(rtSum / count, row.getRT(), 0.0001);
+    }
+  }
+
+  /**
+   * Creates three sample tables of the same compounds with small shifts of their m/z and RT
+   * values. Sample 2 has an additional unique feature, and sample 3 has a second, weaker match of
+   * compound 7.
+   */
+  private List<FeatureTable> createFeatureTables(DataPointStore dataStore) {
+    final List<FeatureTable> featureTables = new ArrayList<>();
+    final List<double[]> features1 = new ArrayList<>();
+    final List<double[]> features2 = new ArrayList<>();
+    final List<double[]> features3 = new ArrayList<>();
+    for (int c = 0; c < COMPOUNDS; c++) {
+      final double mz = 200.0 + 10.0 * c, rt = 100.0 + 20.0 * c;
+      features1.add(new double[] {mz, rt});
+      if (c < 16)
+        features2.add(new double[] {mz + 0.001, rt + 0.5});
+      if (c >= 5)
+        features3.add(new double[] {mz - 0.001, rt - 0.3});
+      if (c == 7)
+        features3.add(new double[] {mz + 0.006, rt + 2.0});
+    }
+    features2.add(new double[] {900.0, 500.0});
+    featureTables.add(createFeatureTable("Sample 1", features1, dataStore));
+    featureTables.add(createFeatureTable("Sample 2", features2, dataStore));
+    featureTables.add(createFeatureTable("Sample 3", features3, dataStore));
+    return featureTables;
+  }
+
+  private FeatureTable createFeatureTable(String sampleName, List<double[]> features,
+      DataPointStore dataStore) {
+    final FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable(sampleName, dataStore);
+    final Sample sample = new SimpleSample(sampleName);
+    final FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    final FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    final FeatureTableColumn<Float> rtColumn =
+        MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    final FeatureTableColumn<Double> sampleMzColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.MZ, sample);
+    final FeatureTableColumn<Float> sampleRtColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.RT, sample);
+    final FeatureTableColumn<Double> sampleAreaColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.AREA, sample);
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    featureTable.addColumn(sampleMzColumn);
+    featureTable.addColumn(sampleRtColumn);
+    featureTable.addColumn(sampleAreaColumn);
+
+    int rowID = 1;
+    for (double feature[] : features) {
+      final FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, rowID);
+      row.setData(idColumn, rowID);
+      row.setData(mzColumn, feature[0]);
+      row.setData(rtColumn, (float) feature[1]);
+      row.setData(sampleMzColumn, feature[0]);
+      row.setData(sampleRtColumn, (float) feature[1]);
+      row.setData(sampleAreaColumn, 1E5 * rowID);
+      featureTable.addRow(row);
+      rowID++;
+    }
+    return featureTable;
+  }
+
+  /**
+   * Returns the rows of an aligned table by the sample m/z values of their features.
+   */
+  private Map<String, FeatureTableRow> getRowsByFeatures(FeatureTable featureTable) {
+    final Map<String, FeatureTableRow> rows = new HashMap<>();
+    for (FeatureTableRow row : featureTable.getRows()) {
+      final List<String> features = new ArrayList<>();
+      for (Sample sample : featureTable.getSamples()) {
+        final FeatureTableColumn<Double> mzColumn = featureTable.getColumn(ColumnName.MZ, sample);
+        final Double mz = row.getData(mzColumn);
+        if (mz != null)
+          features.add(sample.getName() + "=" + String.format("%.4f", mz));
+      }
+      Collections.sort(features);
+      Assert.assertNull(rows.put(String.join(" ", features), row));
+    }
+    return rows;
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.chromatograms.ChromatogramType;
+import io.github.msdk.datamodel.impl.SimpleChromatogram;
+
+/**
+ * Data points of a chromatogram which is being built, at most one for each scan. Chromatograms
+ * are ordered by their first scan and the m/z value of their first data point, which is the order
+ * of the chromatograms returned by the chromatogram builder.
+ */
+final class BuildingChromatogram implements Comparable<BuildingChromatogram> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int firstScan;
+  private float rtValues[] = new float[INITIAL_CAPACITY];
+  private double mzValues[] = new double[INITIAL_CAPACITY];
+  private float intensityValues[] = new float[INITIAL_CAPACITY];
+  private int size = 0;
+  private float height = 0f;
+
+  BuildingChromatogram(int firstScan) {
+    this.firstScan = firstScan;
+  }
+
+  void addDataPoint(float rt, double mz, float intensity) {
+    if (size == rtValues.length) {
+      final int capacity = size * 2;
+      rtValues = Arrays.copyOf(rtValues, capacity);
+      mzValues = Arrays.copyOf(mzValues, capacity);
+      intensityValues = Arrays.copyOf(intensityValues, capacity);
+    }
+    rtValues[size] = rt;
+    mzValues[size] = mz;
+    intensityValues[size] = intensity;
+    size++;
+    height = Math.max(height, intensity);
+  }
+
+  int getFirstScan() {
+    return firstScan;
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  double getLastMz() {
+    return mzValues[size - 1];
+  }
+
+  float getLastRt() {
+    return rtValues[size - 1];
+  }
+
+  float getLastIntensity() {
+    return intensityValues[size - 1];
+  }
+
+  float getDuration() {
+    return rtValues[size - 1] - rtValues[0];
+  }
+
+  float getHeight() {
+    return height;
+  }
+
+  float getRt(int index) {
+    return rtValues[index];
+  }
+
+  double getMz(int index) {
+    return mzValues[index];
+  }
+
+  float getIntensity(int index) {
+    return intensityValues[index];
+  }
+
+  /**
+   * Creates the final chromatogram. Its m/z value is the intensity weighted average of the m/z
+   * values of the data points.
+   */
+  @Nonnull
+  Chromatogram toChromatogram(int chromatogramNumber) {
+    double weightedMz = 0, totalIntensity = 0;
+    for (int i = 0; i < size; i++) {
+      weightedMz += mzValues[i] * intensityValues[i];
+      totalIntensity += intensityValues[i];
+    }
+
+    SimpleChromatogram chromatogram = new SimpleChromatogram();
+    chromatogram.setChromatogramNumber(chromatogramNumber);
+    chromatogram.setChromatogramType(ChromatogramType.XIC);
+    chromatogram.setMz(weightedMz / totalIntensity);
+    chromatogram.setDataPoints(Arrays.copyOf(rtValues, size), Arrays.copyOf(mzValues, size),
+        Arrays.copyOf(intensityValues, size), size);
+    return chromatogram;
+  }
+
+  @Override
+  public int compareTo(BuildingChromatogram other) {
+    if (firstScan != other.firstScan)
+      return Integer.compare(firstScan, other.firstScan);
+    return Double.compare(mzValues[0], other.mzValues[0]);
+  }
+
+}
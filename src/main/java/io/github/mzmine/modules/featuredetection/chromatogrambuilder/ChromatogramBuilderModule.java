@@ -71,6 +71,11 @@ public class ChromatogramBuilderModule implements MZmineProcessingModule {
         parameters.getParameter(ChromatogramBuilderParameters.minDuration).getValue();
     final Double minHeight =
         parameters.getParameter(ChromatogramBuilderParameters.minHeight).getValue();
+    final Boolean streaming =
+        parameters.getParameter(ChromatogramBuilderParameters.streamingRtGap).getValue();
+    final Double streamingRtGap = streaming != null && streaming ? parameters
+        .getParameter(ChromatogramBuilderParameters.streamingRtGap).getEmbeddedParameter()
+        .getValue() : null;
     final String nameSuffix =
         parameters.getParameter(ChromatogramBuilderParameters.nameSuffix).getValue();
 
@@ -86,11 +91,12 @@ public class ChromatogramBuilderModule implements MZmineProcessingModule {
 
       // New chromatogram builder task which runs the following two
       // methods:
-      // 1. ChromatogramBuilderMethod
+      // 1. ParallelChromatogramBuilderMethod
       // 2. ChromatogramToFeatureTableMethod
-      ChromatogramBuilderTask newTask =
-          new ChromatogramBuilderTask("Chromatogram builder", rawDataFile.getName(), rawDataFile,
-              dataStore, mzTolerance, noiseLevel, minDuration, minHeight, nameSuffix);
+      // or the StreamingChromatogramBuilderMethod if a streaming RT gap is set
+      ChromatogramBuilderTask newTask = new ChromatogramBuilderTask("Chromatogram builder",
+          rawDataFile.getName(), rawDataFile, dataStore, mzTolerance, noiseLevel, minDuration,
+          minHeight, streamingRtGap, nameSuffix);
 
       // Add the feature table to the project
       newTask.setOnSucceeded(e -> {
@@ -23,6 +23,7 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.ParameterValidator;
 import io.github.mzmine.parameters.parametertypes.DoubleParameter;
+import io.github.mzmine.parameters.parametertypes.OptionalParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZToleranceParameter;
@@ -53,6 +54,17 @@ public class ChromatogramBuilderParameters extends ParameterSet {
       "Algorithm Parameters", MZmineCore.getConfiguration().getIntensityFormat(),
       ParameterValidator.createNonEmptyValidator(), 5000d);
 
+  public static final OptionalParameter<DoubleParameter> streamingRtGap =
+      new OptionalParameter<DoubleParameter>(new DoubleParameter("Streaming RT gap",
+          "If selected, the scans are processed in one pass and each chromatogram is added to the\n"
+              + "feature table as soon as no data point was found for longer than this RT gap.\n"
+              + "This limits the memory use for long runs. With a gap of 0 the same chromatograms\n"
+              + "are found as without streaming, but they are numbered and added to the feature\n"
+              + "table in the order in which they are finished. The feature table does not keep\n"
+              + "the data points of the chromatograms.",
+          "Algorithm Parameters", MZmineCore.getConfiguration().getRTFormat(),
+          ParameterValidator.createNonEmptyValidator(), 0d));
+
   public static final StringParameter nameSuffix = new StringParameter("Name suffix",
       "Suffix to be added to the raw data file(s) when creating the feature table(s)", "Output",
       " chromatograms");
@@ -61,7 +73,8 @@ public class ChromatogramBuilderParameters extends ParameterSet {
    * Create the parameter set.
    */
   public ChromatogramBuilderParameters() {
-    super(rawDataFiles, mzTolerance, noiseLevel, minDuration, minHeight, nameSuffix);
+    super(rawDataFiles, mzTolerance, noiseLevel, minDuration, minHeight, streamingRtGap,
+        nameSuffix);
   }
 
 }
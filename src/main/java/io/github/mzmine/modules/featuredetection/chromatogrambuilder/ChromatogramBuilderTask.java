@@ -32,9 +32,8 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogrambuilder.ChromatogramBuilderMethod;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.taskcontrol.MZmineTask;
@@ -46,35 +45,48 @@ public class ChromatogramBuilderTask extends Task<Object> implements MZmineTask
 
   private Logger logger = LoggerFactory.getLogger(this.getClass());
 
-  private final @Nonnull RawDataFile rawDataFile;
-  private final @Nonnull DataPointStore dataStore;
-  private final @Nullable String nameSuffix;
   private String title, message;
-  private FeatureTable featureTable;
+  private final @Nonnull FeatureTable featureTable;
+  private final @Nonnull Sample sample;
 
   private MSDKMethod<List<Chromatogram>> chromatogramBuilderMethod;
-  private MSDKMethod<FeatureTable> chromatogramToFeatureTableMethod;
+  private MSDKMethod<FeatureTable> streamingBuilderMethod;
+  private volatile MSDKMethod<FeatureTable> chromatogramToFeatureTableMethod;
 
   public ChromatogramBuilderTask(String title, @Nullable String message,
       @Nonnull RawDataFile rawDataFile, @Nonnull DataPointStore dataStore,
       @Nonnull MaximumMzTolerance mzTolerance, @Nonnull Double noiseLevel,
-      @Nonnull Double minDuration, @Nonnull Double minHeight, @Nullable String nameSuffix) {
-    this.rawDataFile = rawDataFile;
-    this.dataStore = dataStore;
-    this.nameSuffix = nameSuffix;
+      @Nonnull Double minDuration, @Nonnull Double minHeight, @Nullable Double streamingRtGap,
+      @Nullable String nameSuffix) {
     this.title = title;
     this.message = message;
 
+    // Create a new feature table and sample
+    featureTable =
+        MSDKObjectBuilder.getFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
+    sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
+
     // Chromatogram builder method
-    chromatogramBuilderMethod = new ChromatogramBuilderMethod(dataStore, rawDataFile, noiseLevel,
-        minDuration, minHeight, mzTolerance);
+    if (streamingRtGap != null) {
+      streamingBuilderMethod = new StreamingChromatogramBuilderMethod(rawDataFile, featureTable,
+          sample, noiseLevel, minDuration, minHeight, mzTolerance, streamingRtGap);
+    } else {
+      chromatogramBuilderMethod = new ParallelChromatogramBuilderMethod(rawDataFile, noiseLevel,
+          minDuration, minHeight, mzTolerance, Runtime.getRuntime().availableProcessors());
+    }
 
     refreshStatus();
 
     EventHandler<WorkerStateEvent> cancelEvent = new EventHandler<WorkerStateEvent>() {
       @Override
       public void handle(WorkerStateEvent workerEvent) {
-        chromatogramBuilderMethod.cancel();
+        if (streamingBuilderMethod != null)
+          streamingBuilderMethod.cancel();
+        if (chromatogramBuilderMethod != null)
+          chromatogramBuilderMethod.cancel();
+        final MSDKMethod<FeatureTable> method = chromatogramToFeatureTableMethod;
+        if (method != null)
+          method.cancel();
       }
     };
 
@@ -87,14 +99,21 @@ public class ChromatogramBuilderTask extends Task<Object> implements MZmineTask
     // Progress
     Float finishedPercent = 0f;
 
-    final Float method1Percent = chromatogramBuilderMethod.getFinishedPercentage();
-    if (method1Percent != null)
-      finishedPercent = method1Percent * 0.95f;
-
-    if (chromatogramToFeatureTableMethod != null) {
-      final Float method2Percent = chromatogramToFeatureTableMethod.getFinishedPercentage();
-      if (method2Percent != null)
-        finishedPercent = finishedPercent + method2Percent * 0.05f;
+    if (streamingBuilderMethod != null) {
+      final Float streamingPercent = streamingBuilderMethod.getFinishedPercentage();
+      if (streamingPercent != null)
+        finishedPercent = streamingPercent;
+    } else {
+      final Float method1Percent = chromatogramBuilderMethod.getFinishedPercentage();
+      if (method1Percent != null)
+        finishedPercent = method1Percent * 0.95f;
+
+      final MSDKMethod<FeatureTable> method2 = chromatogramToFeatureTableMethod;
+      if (method2 != null) {
+        final Float method2Percent = method2.getFinishedPercentage();
+        if (method2Percent != null)
+          finishedPercent = finishedPercent + method2Percent * 0.05f;
+      }
     }
 
     updateProgress(finishedPercent.doubleValue(), 1.0);
@@ -107,15 +126,15 @@ public class ChromatogramBuilderTask extends Task<Object> implements MZmineTask
   @Override
   protected Object call() throws Exception {
     try {
-      List<Chromatogram> detectedChromatograms =
-          (List<Chromatogram>) chromatogramBuilderMethod.execute();
 
-      // Create a new feature table
-      featureTable =
-          MSDKObjectBuilder.getFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
+      // The streaming method adds the chromatograms to the table itself
+      if (streamingBuilderMethod != null)
+        return streamingBuilderMethod.execute();
 
-      // Create a new sample
-      Sample sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
+      List<Chromatogram> detectedChromatograms =
+          (List<Chromatogram>) chromatogramBuilderMethod.execute();
+      if (detectedChromatograms == null)
+        return null;
 
       // Add the chromatograms to the feature table
       this.chromatogramToFeatureTableMethod =
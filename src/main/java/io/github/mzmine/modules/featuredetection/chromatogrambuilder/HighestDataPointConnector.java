@@ -0,0 +1,199 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+
+/**
+ * Connects the data points of consecutive scans to chromatograms. The data points of a scan are
+ * processed from the highest to the lowest intensity, each one extends the chromatogram of the
+ * previous scan whose last m/z value is within the m/z tolerance and whose last intensity is
+ * highest. Data points without such chromatogram start a new one. A chromatogram which is not
+ * extended by a scan is finished once its last data point is more than the RT gap before the
+ * scan, and kept if it satisfies the minimum duration and height.
+ *
+ * Data points only compete for chromatograms within the m/z tolerance, so the m/z axis can be
+ * split into ranges which are connected independently as long as no data point of one range is
+ * within the tolerance of a data point of another range.
+ */
+final class HighestDataPointConnector {
+
+  private final @Nonnull MaximumMzTolerance mzTolerance;
+  private final double noiseLevel, minDuration, minHeight, rtGap;
+
+  private @Nonnull List<BuildingChromatogram> openChromatograms = new ArrayList<>();
+  private final @Nonnull List<BuildingChromatogram> finishedChromatograms = new ArrayList<>();
+  private long sortKeys[] = new long[0];
+
+  HighestDataPointConnector(@Nonnull MaximumMzTolerance mzTolerance, double noiseLevel,
+      double minDuration, double minHeight) {
+    this(mzTolerance, noiseLevel, minDuration, minHeight, 0.0);
+  }
+
+  /**
+   * @param rtGap the maximum RT between two data points of a chromatogram, a chromatogram is
+   *        finished by the first scan without a data point if the gap is 0.
+   */
+  HighestDataPointConnector(@Nonnull MaximumMzTolerance mzTolerance, double noiseLevel,
+      double minDuration, double minHeight, double rtGap) {
+    this.mzTolerance = mzTolerance;
+    this.noiseLevel = noiseLevel;
+    this.minDuration = minDuration;
+    this.minHeight = minHeight;
+    this.rtGap = rtGap;
+  }
+
+  /**
+   * Adds the data points of a scan. Scans must be added in order of RT.
+   *
+   * @param scanIndex the position of the scan.
+   * @param rt the RT of the scan.
+   * @param mzValues the m/z values of the scan, in increasing order.
+   * @param intensityValues the intensities of the scan.
+   * @param from the first data point to add.
+   * @param to the position after the last data point to add.
+   */
+  void addScan(int scanIndex, float rt, @Nonnull double mzValues[],
+      @Nonnull float intensityValues[], int from, int to) {
+
+    // Open chromatograms, sorted by their last m/z value
+    final BuildingChromatogram candidates[] =
+        openChromatograms.toArray(new BuildingChromatogram[openChromatograms.size()]);
+    Arrays.sort(candidates, Comparator.comparingDouble(BuildingChromatogram::getLastMz));
+    final double lastMzValues[] = new double[candidates.length];
+    for (int c = 0; c < candidates.length; c++)
+      lastMzValues[c] = candidates[c].getLastMz();
+    final boolean extended[] = new boolean[candidates.length];
+
+    // Data points above the noise level, by decreasing intensity and then
+    // increasing m/z. Positive float bits are ordered like the floats.
+    if (sortKeys.length < to - from)
+      sortKeys = new long[to - from];
+    int keyCount = 0;
+    for (int i = from; i < to; i++) {
+      final float intensity = intensityValues[i];
+      if (!(intensity >= noiseLevel) || intensity <= 0)
+        continue;
+      final long intensityKey = Integer.MAX_VALUE - Float.floatToIntBits(intensity);
+      sortKeys[keyCount++] = (intensityKey << 32) | i;
+    }
+    Arrays.sort(sortKeys, 0, keyCount);
+
+    final List<BuildingChromatogram> nextChromatograms = new ArrayList<>(keyCount);
+    for (int k = 0; k < keyCount; k++) {
+      final int i = (int) sortKeys[k];
+      final double mz = mzValues[i];
+      final float intensity = intensityValues[i];
+
+      // Find the best chromatogram within the tolerance
+      final Range<Double> mzRange = mzTolerance.getToleranceRange(mz);
+      int best = -1;
+      for (int c = lowerBound(lastMzValues, mzRange.lowerEndpoint()); c < candidates.length
+          && lastMzValues[c] <= mzRange.upperEndpoint(); c++) {
+        if (extended[c])
+          continue;
+        if (best < 0 || candidates[c].getLastIntensity() > candidates[best].getLastIntensity())
+          best = c;
+      }
+
+      final BuildingChromatogram chromatogram;
+      if (best >= 0) {
+        extended[best] = true;
+        chromatogram = candidates[best];
+      } else {
+        chromatogram = new BuildingChromatogram(scanIndex);
+      }
+      chromatogram.addDataPoint(rt, mz, intensity);
+      nextChromatograms.add(chromatogram);
+    }
+
+    // Finish the chromatograms which were not extended within the RT gap
+    for (int c = 0; c < candidates.length; c++) {
+      if (extended[c])
+        continue;
+      if (rtGap > 0 && rt - candidates[c].getLastRt() <= rtGap)
+        nextChromatograms.add(candidates[c]);
+      else
+        finishChromatogram(candidates[c]);
+    }
+    openChromatograms = nextChromatograms;
+  }
+
+  /**
+   * Finishes all chromatograms after the last scan.
+   */
+  void finish() {
+    for (BuildingChromatogram chromatogram : openChromatograms)
+      finishChromatogram(chromatogram);
+    openChromatograms = new ArrayList<>();
+  }
+
+  /**
+   * Returns the finished chromatograms which satisfy the minimum duration and height.
+   *
+   * @return the chromatograms in order of finishing.
+   */
+  @Nonnull
+  List<BuildingChromatogram> getChromatograms() {
+    return finishedChromatograms;
+  }
+
+  /**
+   * Returns the chromatograms which were finished since the last call and releases them from this
+   * connector.
+   *
+   * @return the chromatograms in order of finishing.
+   */
+  @Nonnull
+  List<BuildingChromatogram> takeChromatograms() {
+    final List<BuildingChromatogram> chromatograms = new ArrayList<>(finishedChromatograms);
+    finishedChromatograms.clear();
+    return chromatograms;
+  }
+
+  private void finishChromatogram(@Nonnull BuildingChromatogram chromatogram) {
+    if (chromatogram.getDuration() >= minDuration && chromatogram.getHeight() >= minHeight)
+      finishedChromatograms.add(chromatogram);
+  }
+
+  /**
+   * Returns the first position whose value is not lower than the given value.
+   */
+  private static int lowerBound(double values[], double value) {
+    int low = 0, high = values.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (values[mid] < value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
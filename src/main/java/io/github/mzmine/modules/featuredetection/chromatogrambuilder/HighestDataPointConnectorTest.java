@@ -0,0 +1,152 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+
+public class HighestDataPointConnectorTest {
+
+  private static final int SCANS = 300;
+  private static final int COMPOUNDS = 400;
+
+  @Test
+  public void testPartitionsMatchSingleRange() {
+
+    // Scans with drifting compound traces and random noise
+    final MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.002, 5.0);
+    final Random random = new Random(17);
+    final double compoundMz[] = new double[COMPOUNDS];
+    for (int c = 0; c < COMPOUNDS; c++)
+      compoundMz[c] = 100.0 + random.nextDouble() * 900.0;
+    final double mzValues[][] = new double[SCANS][];
+    final float intensityValues[][] = new float[SCANS][];
+    for (int s = 0; s < SCANS; s++) {
+      final int size = COMPOUNDS + 200;
+      double mz[] = new double[size];
+      for (int c = 0; c < COMPOUNDS; c++)
+        mz[c] = compoundMz[c] + (random.nextDouble() - 0.5) * 0.001;
+      for (int n = COMPOUNDS; n < size; n++)
+        mz[n] = 100.0 + random.nextDouble() * 900.0;
+      Arrays.sort(mz);
+      float intensity[] = new float[size];
+      for (int i = 0; i < size; i++)
+        intensity[i] = 100f + random.nextInt(10000);
+      mzValues[s] = mz;
+      intensityValues[s] = intensity;
+    }
+
+    // Borders in wide gaps of the data points
+    MzOccupancy occupancy = MzOccupancy.forTolerance(mzTolerance);
+    for (int s = 0; s < SCANS; s++) {
+      for (double mz : mzValues[s])
+        occupancy.add(mz);
+    }
+    final double borders[] = occupancy.findBorders(8, mzTolerance);
+    Assert.assertTrue(borders.length > 0);
+
+    List<BuildingChromatogram> single = connect(mzValues, intensityValues, mzTolerance,
+        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    List<BuildingChromatogram> partitioned = new ArrayList<>();
+    for (int r = 0; r <= borders.length; r++) {
+      final double lowerMz = r == 0 ? Double.NEGATIVE_INFINITY : borders[r - 1];
+      final double upperMz = r == borders.length ? Double.POSITIVE_INFINITY : borders[r];
+      partitioned.addAll(connect(mzValues, intensityValues, mzTolerance, lowerMz, upperMz));
+    }
+    Collections.sort(single);
+    Collections.sort(partitioned);
+
+    Assert.assertFalse(single.isEmpty());
+    Assert.assertEquals(single.size(), partitioned.size());
+    for (int i = 0; i < single.size(); i++) {
+      BuildingChromatogram expected = single.get(i);
+      BuildingChromatogram actual = partitioned.get(i);
+      Assert.assertEquals(expected.getFirstScan(), actual.getFirstScan());
+      Assert.assertEquals(expected.getSize(), actual.getSize());
+      for (int p = 0; p < expected.getSize(); p++) {
+        Assert.assertEquals(expected.getMz(p), actual.getMz(p), 0.0);
+        Assert.assertEquals(expected.getIntensity(p), actual.getIntensity(p), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testRtGap() {
+
+    // One trace at m/z 500 with scan 3 missing, 1 second between scans
+    final MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.002, 5.0);
+    final double mzValues[] = {500.0};
+    final float intensityValues[] = {5000f};
+    final double noMzValues[] = {};
+    final float noIntensityValues[] = {};
+
+    HighestDataPointConnector noGap =
+        new HighestDataPointConnector(mzTolerance, 500.0, 0.0, 1000.0);
+    HighestDataPointConnector gap =
+        new HighestDataPointConnector(mzTolerance, 500.0, 0.0, 1000.0, 1.5);
+    for (int s = 0; s < 8; s++) {
+      for (HighestDataPointConnector connector : new HighestDataPointConnector[] {noGap, gap}) {
+        if (s == 3)
+          connector.addScan(s, s, noMzValues, noIntensityValues, 0, 0);
+        else
+          connector.addScan(s, s, mzValues, intensityValues, 0, 1);
+      }
+    }
+
+    // Without a gap the trace is split at the missing scan
+    Assert.assertEquals(1, noGap.takeChromatograms().size());
+    Assert.assertTrue(noGap.takeChromatograms().isEmpty());
+    noGap.finish();
+    Assert.assertEquals(1, noGap.takeChromatograms().size());
+
+    // With a gap the trace stays open until the last scan
+    Assert.assertTrue(gap.takeChromatograms().isEmpty());
+    gap.finish();
+    List<BuildingChromatogram> chromatograms = gap.takeChromatograms();
+    Assert.assertEquals(1, chromatograms.size());
+    Assert.assertEquals(0, chromatograms.get(0).getFirstScan());
+    Assert.assertEquals(7, chromatograms.get(0).getSize());
+    Assert.assertEquals(7f, chromatograms.get(0).getDuration(), 0f);
+  }
+
+  private List<BuildingChromatogram> connect(double mzValues[][], float intensityValues[][],
+      MaximumMzTolerance mzTolerance, double lowerMz, double upperMz) {
+    HighestDataPointConnector connector =
+        new HighestDataPointConnector(mzTolerance, 500.0, 10.0, 1000.0);
+    for (int s = 0; s < mzValues.length; s++) {
+      int from = 0, to = mzValues[s].length;
+      while (from < to && mzValues[s][from] < lowerMz)
+        from++;
+      while (to > from && mzValues[s][to - 1] >= upperMz)
+        to--;
+      connector.addScan(s, s * 1.0f, mzValues[s], intensityValues[s], from, to);
+    }
+    connector.finish();
+    return connector.getChromatograms();
+  }
+
+}
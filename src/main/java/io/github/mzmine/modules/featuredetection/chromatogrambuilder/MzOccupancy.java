@@ -0,0 +1,162 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+
+/**
+ * Records which parts of the m/z axis contain data points of any scan, in bins of fixed width, to
+ * find borders between m/z ranges which can be connected to chromatograms independently. A border
+ * is placed in a run of empty bins which is wider than the m/z tolerance, so no data point on one
+ * side is within the tolerance of a data point on the other side. Values above {@link #MAX_MZ}
+ * are counted in the last bin.
+ */
+final class MzOccupancy {
+
+  static final double MAX_MZ = 5000.0;
+
+  // Maximum number of bins, the bin width is increased to stay below
+  private static final int MAX_BINS = 1 << 24;
+
+  // Number of bins used to balance the number of data points per range
+  private static final int COUNT_BINS = 4096;
+
+  private final double binWidth;
+  private final int binCount;
+  private final @Nonnull long occupiedBins[];
+  private final @Nonnull long dataPointCounts[];
+
+  /**
+   * Creates an empty occupancy with bins of the given width.
+   *
+   * @param binWidth the minimum width of a bin.
+   */
+  MzOccupancy(double binWidth) {
+    this.binWidth = Math.max(binWidth, MAX_MZ / MAX_BINS);
+    this.binCount = (int) Math.ceil(MAX_MZ / this.binWidth) + 1;
+    occupiedBins = new long[(binCount + 63) / 64];
+    dataPointCounts = new long[COUNT_BINS];
+  }
+
+  /**
+   * Creates an empty occupancy with bins of half the width of the given tolerance.
+   *
+   * @param mzTolerance the m/z tolerance of the chromatogram builder.
+   * @return a new {@link MzOccupancy}.
+   */
+  static @Nonnull MzOccupancy forTolerance(@Nonnull MaximumMzTolerance mzTolerance) {
+    return new MzOccupancy(getTolerance(mzTolerance, 0.0) / 2);
+  }
+
+  /**
+   * Marks the bin of a data point as occupied.
+   *
+   * @param mz the m/z value of the data point.
+   */
+  void add(double mz) {
+    final int bin = getBin(mz);
+    occupiedBins[bin >>> 6] |= 1L << bin;
+    dataPointCounts[(int) ((long) bin * COUNT_BINS / binCount)]++;
+  }
+
+  /**
+   * Adds the data points of another occupancy with the same bin width.
+   *
+   * @param other the other occupancy.
+   */
+  void addAll(@Nonnull MzOccupancy other) {
+    for (int i = 0; i < occupiedBins.length; i++)
+      occupiedBins[i] |= other.occupiedBins[i];
+    for (int i = 0; i < COUNT_BINS; i++)
+      dataPointCounts[i] += other.dataPointCounts[i];
+  }
+
+  /**
+   * Finds up to partitions - 1 borders which split the data points into ranges of similar size.
+   * Fewer borders are returned if there are not enough wide gaps between the data points.
+   *
+   * @param partitions the number of ranges.
+   * @param mzTolerance the m/z tolerance of the chromatogram builder.
+   * @return the borders in increasing order. Data points below a border belong to the range below.
+   */
+  @Nonnull
+  double[] findBorders(int partitions, @Nonnull MaximumMzTolerance mzTolerance) {
+    long total = 0;
+    for (long count : dataPointCounts)
+      total += count;
+
+    final double borders[] = new double[Math.max(0, partitions - 1)];
+    int borderCount = 0;
+    int bin = 0;
+    long counted = 0;
+    int countBin = 0;
+    for (int k = 1; k < partitions && bin < binCount; k++) {
+
+      // Skip to the first bin after the share of the previous ranges
+      final long target = total * k / partitions;
+      while (countBin < COUNT_BINS && counted + dataPointCounts[countBin] <= target)
+        counted += dataPointCounts[countBin++];
+      bin = Math.max(bin, (int) (((long) countBin * binCount + COUNT_BINS - 1) / COUNT_BINS));
+
+      // Find the next run of empty bins which is wider than the tolerance
+      // at its upper end. Runs which start before the search are skipped,
+      // they may contain the previous border.
+      while (bin < binCount && !isOccupied(bin))
+        bin++;
+      int gapStart = -1;
+      for (; bin < binCount; bin++) {
+        if (!isOccupied(bin)) {
+          if (gapStart < 0)
+            gapStart = bin;
+          continue;
+        }
+        if (gapStart >= 0) {
+          final double gapWidth = (bin - gapStart) * binWidth;
+          final double highestMz = (bin + 1) * binWidth;
+          if (gapWidth > getTolerance(mzTolerance, highestMz) + binWidth)
+            break;
+          gapStart = -1;
+        }
+      }
+      if (bin >= binCount)
+        break;
+      borders[borderCount++] = (gapStart + bin) * binWidth / 2;
+    }
+    return Arrays.copyOf(borders, borderCount);
+  }
+
+  private boolean isOccupied(int bin) {
+    return (occupiedBins[bin >>> 6] & (1L << bin)) != 0;
+  }
+
+  private int getBin(double mz) {
+    if (!(mz > 0))
+      return 0;
+    return (int) Math.min(binCount - 1, (long) (mz / binWidth));
+  }
+
+  private static double getTolerance(@Nonnull MaximumMzTolerance mzTolerance, double mz) {
+    return mzTolerance.getToleranceRange(mz).upperEndpoint() - mz;
+  }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+
+/**
+ * This class builds the chromatograms of the MS1 scans of a raw data file with a
+ * {@link HighestDataPointConnector}. The m/z axis is split into ranges whose chromatograms are
+ * built concurrently. The borders between the ranges are placed in gaps between the data points
+ * which are wider than the m/z tolerance, which are found in a first pass over the scans. No
+ * chromatogram can cross such a border, so the result is the same as building all chromatograms
+ * in one range.
+ *
+ * After the first pass each scan is read once more: its data points above the noise level are
+ * split at the borders and each range connects its own part of the scan. The scans are read in
+ * blocks, and the ranges connect the data points of a block concurrently.
+ *
+ * The chromatograms are returned in order of their first scan and the m/z value of their first
+ * data point.
+ */
+public class ParallelChromatogramBuilderMethod implements MSDKMethod<List<Chromatogram>> {
+
+  // Number of scans which are read before they are connected
+  private static final int SCAN_BLOCK_SIZE = 128;
+
+  // Reusable buffers of each thread
+  private static final ThreadLocal<double[]> mzBuffers =
+      ThreadLocal.withInitial(() -> new double[10000]);
+  private static final ThreadLocal<float[]> intensityBuffers =
+      ThreadLocal.withInitial(() -> new float[10000]);
+
+  private final @Nonnull RawDataFile rawDataFile;
+  private final @Nonnull Double noiseLevel;
+  private final @Nonnull Double minDuration;
+  private final @Nonnull Double minHeight;
+  private final @Nonnull MaximumMzTolerance mzTolerance;
+  private final int partitions;
+
+  private volatile boolean canceled = false;
+  private final AtomicLong processedScans = new AtomicLong();
+  private long totalScans = 0;
+  private List<Chromatogram> result;
+
+  /**
+   * <p>
+   * Constructor for ParallelChromatogramBuilderMethod.
+   * </p>
+   *
+   * @param rawDataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   * @param noiseLevel data points below this intensity are ignored.
+   * @param minDuration the minimum RT duration of a chromatogram.
+   * @param minHeight the minimum height of a chromatogram.
+   * @param mzTolerance a {@link io.github.msdk.util.tolerances.MaximumMzTolerance} object.
+   * @param partitions the maximum number of m/z ranges which are built concurrently.
+   */
+  public ParallelChromatogramBuilderMethod(@Nonnull RawDataFile rawDataFile,
+      @Nonnull Double noiseLevel, @Nonnull Double minDuration, @Nonnull Double minHeight,
+      @Nonnull MaximumMzTolerance mzTolerance, int partitions) {
+    Preconditions.checkNotNull(rawDataFile);
+    Preconditions.checkArgument(partitions > 0);
+    this.rawDataFile = rawDataFile;
+    this.noiseLevel = noiseLevel;
+    this.minDuration = minDuration;
+    this.minHeight = minHeight;
+    this.mzTolerance = mzTolerance;
+    this.partitions = partitions;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Chromatogram> execute() throws MSDKException {
+
+    final List<MsScan> scanList = getMs1Scans(rawDataFile);
+    final MsScan scans[] = scanList.toArray(new MsScan[scanList.size()]);
+
+    // The first pass is only needed if the m/z axis is split
+    final double borders[];
+    if (partitions > 1 && scans.length > 0) {
+      totalScans = 2L * scans.length;
+      borders = findBorders(scans);
+    } else {
+      totalScans = scans.length;
+      borders = new double[0];
+    }
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    final List<BuildingChromatogram> chromatograms = buildChromatograms(scans, borders);
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    Collections.sort(chromatograms);
+
+    result = new ArrayList<>(chromatograms.size());
+    for (int i = 0; i < chromatograms.size(); i++)
+      result.add(chromatograms.get(i).toChromatogram(i + 1));
+    return result;
+  }
+
+  /**
+   * Finds the borders of the m/z ranges in a first pass over the scans, in chunks of consecutive
+   * scans whose occupancies are merged.
+   */
+  private @Nonnull double[] findBorders(@Nonnull MsScan scans[]) {
+    final int chunkSize = (scans.length + partitions - 1) / partitions;
+    final MzOccupancy occupancy = IntStream.range(0, partitions).parallel().mapToObj(chunk -> {
+      final MzOccupancy chunkOccupancy = MzOccupancy.forTolerance(mzTolerance);
+      final int end = Math.min(scans.length, (chunk + 1) * chunkSize);
+      for (int s = chunk * chunkSize; s < end; s++) {
+        if (canceled)
+          break;
+        final MsScan scan = scans[s];
+        final int numOfDataPoints = scan.getNumberOfDataPoints();
+        final double mzValues[] = loadMzValues(scan);
+        final float intensityValues[] = loadIntensityValues(scan);
+        for (int i = 0; i < numOfDataPoints; i++) {
+          if (intensityValues[i] >= noiseLevel && intensityValues[i] > 0)
+            chunkOccupancy.add(mzValues[i]);
+        }
+        processedScans.incrementAndGet();
+      }
+      return chunkOccupancy;
+    }).reduce((o1, o2) -> {
+      o1.addAll(o2);
+      return o1;
+    }).get();
+    return occupancy.findBorders(partitions, mzTolerance);
+  }
+
+  /**
+   * Connects the data points of all scans in the m/z ranges between the borders. Each scan is read
+   * once and its data points are split at the borders.
+   */
+  private @Nonnull List<BuildingChromatogram> buildChromatograms(@Nonnull MsScan scans[],
+      @Nonnull double borders[]) {
+    final int rangeCount = borders.length + 1;
+    final HighestDataPointConnector connectors[] = new HighestDataPointConnector[rangeCount];
+    for (int r = 0; r < rangeCount; r++)
+      connectors[r] =
+          new HighestDataPointConnector(mzTolerance, noiseLevel, minDuration, minHeight);
+
+    final ScanPoints block[] = new ScanPoints[SCAN_BLOCK_SIZE];
+    for (int blockStart = 0; blockStart < scans.length; blockStart += SCAN_BLOCK_SIZE) {
+      if (canceled)
+        break;
+      final int start = blockStart;
+      final int end = Math.min(scans.length, start + SCAN_BLOCK_SIZE);
+
+      // Read the scans of the block
+      IntStream.range(start, end).parallel()
+          .forEach(s -> block[s - start] = new ScanPoints(scans[s], noiseLevel, borders));
+
+      // Connect the data points of each range, scans in order of RT
+      IntStream.range(0, rangeCount).parallel().forEach(r -> {
+        for (int s = start; s < end; s++) {
+          final ScanPoints points = block[s - start];
+          connectors[r].addScan(s, points.rt, points.mzValues, points.intensityValues,
+              points.rangeStarts[r], points.rangeStarts[r + 1]);
+        }
+      });
+      processedScans.addAndGet(end - start);
+    }
+
+    final List<BuildingChromatogram> chromatograms = new ArrayList<>();
+    for (HighestDataPointConnector connector : connectors) {
+      connector.finish();
+      chromatograms.addAll(connector.getChromatograms());
+    }
+    return chromatograms;
+  }
+
+  /**
+   * Returns the MS1 scans of a raw data file which have a RT, in order of RT.
+   */
+  static @Nonnull List<MsScan> getMs1Scans(@Nonnull RawDataFile rawDataFile) {
+    List<MsScan> scanList = new ArrayList<>();
+    for (MsScan scan : rawDataFile.getScans()) {
+      if (scan.getRetentionTime() == null)
+        continue;
+      if (scan.getMsLevel() != null && scan.getMsLevel() != 1)
+        continue;
+      scanList.add(scan);
+    }
+    scanList.sort((s1, s2) -> Float.compare(s1.getRetentionTime(), s2.getRetentionTime()));
+    return scanList;
+  }
+
+  private static @Nonnull double[] loadMzValues(@Nonnull MsScan scan) {
+    final double mzValues[] = scan.getMzValues(mzBuffers.get());
+    mzBuffers.set(mzValues);
+    return mzValues;
+  }
+
+  private static @Nonnull float[] loadIntensityValues(@Nonnull MsScan scan) {
+    final float intensityValues[] = scan.getIntensityValues(intensityBuffers.get());
+    intensityBuffers.set(intensityValues);
+    return intensityValues;
+  }
+
+  /**
+   * Returns the first position whose m/z value is not lower than the given value.
+   */
+  private static int lowerBound(double mzValues[], int size, double mz) {
+    int low = 0, high = size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (mzValues[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    return totalScans == 0 ? null : (float) processedScans.get() / totalScans;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public List<Chromatogram> getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * Data points of a scan above the noise level, in order of m/z, with the position of the first
+   * data point of each m/z range.
+   */
+  private static final class ScanPoints {
+
+    private final float rt;
+    private final @Nonnull double mzValues[];
+    private final @Nonnull float intensityValues[];
+    private final @Nonnull int rangeStarts[];
+
+    ScanPoints(@Nonnull MsScan scan, double noiseLevel, @Nonnull double borders[]) {
+      rt = scan.getRetentionTime();
+      final int numOfDataPoints = scan.getNumberOfDataPoints();
+      final double scanMzValues[] = loadMzValues(scan);
+      final float scanIntensityValues[] = loadIntensityValues(scan);
+
+      int size = 0;
+      for (int i = 0; i < numOfDataPoints; i++) {
+        if (scanIntensityValues[i] >= noiseLevel && scanIntensityValues[i] > 0)
+          size++;
+      }
+      mzValues = new double[size];
+      intensityValues = new float[size];
+      size = 0;
+      for (int i = 0; i < numOfDataPoints; i++) {
+        if (scanIntensityValues[i] >= noiseLevel && scanIntensityValues[i] > 0) {
+          mzValues[size] = scanMzValues[i];
+          intensityValues[size] = scanIntensityValues[i];
+          size++;
+        }
+      }
+
+      rangeStarts = new int[borders.length + 2];
+      for (int b = 0; b < borders.length; b++)
+        rangeStarts[b + 1] = lowerBound(mzValues, size, borders[b]);
+      rangeStarts[borders.length + 1] = size;
+    }
+  }
+
+}
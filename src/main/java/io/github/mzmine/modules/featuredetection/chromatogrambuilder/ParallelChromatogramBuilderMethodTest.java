@@ -0,0 +1,126 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.featdet.chromatogrambuilder.ChromatogramBuilderMethod;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+
+public class ParallelChromatogramBuilderMethodTest {
+
+  private static final String TEST_DATA_PATH = "src/test/resources/";
+
+  @Test
+  public void testOrbitrap() throws MSDKException {
+
+    // Import the file
+    File inputFile = new File(TEST_DATA_PATH + "orbitrap_300-600mz.mzML");
+    Assert.assertTrue("Cannot read test data", inputFile.canRead());
+    MzMLFileImportMethod importer = new MzMLFileImportMethod(inputFile);
+    RawDataFile rawFile = importer.execute();
+    Assert.assertNotNull(rawFile);
+
+    final MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.003, 5.0);
+    final Double noiseLevel = 5000d;
+    final Double minDuration = 0.1;
+    final Double minHeight = 10000d;
+
+    // Chromatograms of the MSDK method
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    ChromatogramBuilderMethod msdkMethod = new ChromatogramBuilderMethod(dataStore, rawFile,
+        noiseLevel, minDuration, minHeight, mzTolerance);
+    final List<Chromatogram> expectedChromatograms = msdkMethod.execute();
+    Assert.assertNotNull(expectedChromatograms);
+    Assert.assertFalse(expectedChromatograms.isEmpty());
+
+    // One m/z range
+    ParallelChromatogramBuilderMethod method = new ParallelChromatogramBuilderMethod(rawFile,
+        noiseLevel, minDuration, minHeight, mzTolerance, 1);
+    final List<Chromatogram> chromatograms = method.execute();
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+    Assert.assertNotNull(chromatograms);
+    assertSameChromatograms(expectedChromatograms, chromatograms);
+
+    // Split m/z axis, each scan is read once for all ranges
+    ParallelChromatogramBuilderMethod partitionedMethod = new ParallelChromatogramBuilderMethod(
+        rawFile, noiseLevel, minDuration, minHeight, mzTolerance, 8);
+    final List<Chromatogram> partitionedChromatograms = partitionedMethod.execute();
+    Assert.assertEquals(1.0, partitionedMethod.getFinishedPercentage(), 0.0001);
+    Assert.assertNotNull(partitionedChromatograms);
+    assertSameChromatograms(expectedChromatograms, partitionedChromatograms);
+
+    // The ranges do not change the chromatograms or their order
+    Assert.assertEquals(chromatograms.size(), partitionedChromatograms.size());
+    for (int i = 0; i < chromatograms.size(); i++) {
+      Assert.assertEquals(chromatograms.get(i).getChromatogramNumber(),
+          partitionedChromatograms.get(i).getChromatogramNumber());
+      Assert.assertEquals(chromatograms.get(i).getMz(), partitionedChromatograms.get(i).getMz(),
+          0.0);
+      Assert.assertEquals(chromatograms.get(i).getNumberOfDataPoints(),
+          partitionedChromatograms.get(i).getNumberOfDataPoints());
+    }
+  }
+
+  /**
+   * Compares the chromatograms in order of m/z and RT, as the methods number them differently.
+   */
+  private void assertSameChromatograms(List<Chromatogram> expectedChromatograms,
+      List<Chromatogram> chromatograms) {
+    Assert.assertEquals(expectedChromatograms.size(), chromatograms.size());
+    final List<Chromatogram> expected = sorted(expectedChromatograms);
+    final List<Chromatogram> actual = sorted(chromatograms);
+    for (int i = 0; i < actual.size(); i++) {
+      final Chromatogram expectedChromatogram = expected.get(i);
+      final Chromatogram chromatogram = actual.get(i);
+      Assert.assertEquals(expectedChromatogram.getMz(), chromatogram.getMz(), 0.0001);
+      Assert.assertEquals(expectedChromatogram.getNumberOfDataPoints(),
+          chromatogram.getNumberOfDataPoints());
+
+      final float expectedRts[] = expectedChromatogram.getRetentionTimes();
+      final float expectedIntensities[] = expectedChromatogram.getIntensityValues();
+      final float rts[] = chromatogram.getRetentionTimes();
+      final float intensities[] = chromatogram.getIntensityValues();
+      for (int p = 0; p < chromatogram.getNumberOfDataPoints(); p++) {
+        Assert.assertEquals(expectedRts[p], rts[p], 0.0001);
+        Assert.assertEquals(expectedIntensities[p], intensities[p], 0.0001);
+      }
+    }
+  }
+
+  private List<Chromatogram> sorted(List<Chromatogram> chromatograms) {
+    final List<Chromatogram> list = new ArrayList<>(chromatograms);
+    list.sort(Comparator.comparingDouble((Chromatogram c) -> c.getMz())
+        .thenComparingDouble(c -> c.getRetentionTimes()[0]));
+    return list;
+  }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.chromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
+
+/**
+ * This class builds the chromatograms of the MS1 scans of a raw data file in one pass in order of
+ * RT, and adds them to a feature table as soon as they are finished. A chromatogram is finished
+ * when no data point within the m/z tolerance was found for longer than the RT gap. Only the data
+ * points of one scan and the chromatograms which are still open are kept in memory, so the memory
+ * use depends on the RT window of the chromatograms rather than the length of the run.
+ *
+ * The chromatograms are added in batches of the chromatograms finished within
+ * {@link #FLUSH_SCANS} scans. Each batch is ordered by the first scan and the m/z value of the
+ * first data point of the chromatograms. The rows only keep the values computed from the
+ * chromatograms, the data points are released once a batch was added.
+ */
+public class StreamingChromatogramBuilderMethod implements MSDKMethod<FeatureTable> {
+
+  // Number of scans after which the finished chromatograms are added to the table
+  private static final int FLUSH_SCANS = 100;
+
+  private final @Nonnull RawDataFile rawDataFile;
+  private final @Nonnull FeatureTable featureTable;
+  private final @Nonnull Sample sample;
+  private final @Nonnull Double noiseLevel;
+  private final @Nonnull Double minDuration;
+  private final @Nonnull Double minHeight;
+  private final @Nonnull MaximumMzTolerance mzTolerance;
+  private final @Nonnull Double rtGap;
+
+  private volatile boolean canceled = false;
+  private volatile MSDKMethod<FeatureTable> chromatogramToFeatureTableMethod;
+  private final AtomicInteger processedScans = new AtomicInteger();
+  private volatile int totalScans = 0;
+  private int chromatogramCount = 0;
+  private FeatureTable result;
+
+  /**
+   * <p>
+   * Constructor for StreamingChromatogramBuilderMethod.
+   * </p>
+   *
+   * @param rawDataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} which
+   *        receives the chromatograms.
+   * @param sample the {@link io.github.msdk.datamodel.featuretables.Sample} of the chromatograms.
+   * @param noiseLevel data points below this intensity are ignored.
+   * @param minDuration the minimum RT duration of a chromatogram.
+   * @param minHeight the minimum height of a chromatogram.
+   * @param mzTolerance a {@link io.github.msdk.util.tolerances.MaximumMzTolerance} object.
+   * @param rtGap the maximum RT between two data points of a chromatogram.
+   */
+  public StreamingChromatogramBuilderMethod(@Nonnull RawDataFile rawDataFile,
+      @Nonnull FeatureTable featureTable, @Nonnull Sample sample, @Nonnull Double noiseLevel,
+      @Nonnull Double minDuration, @Nonnull Double minHeight,
+      @Nonnull MaximumMzTolerance mzTolerance, @Nonnull Double rtGap) {
+    Preconditions.checkNotNull(rawDataFile);
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkArgument(rtGap >= 0);
+    this.rawDataFile = rawDataFile;
+    this.featureTable = featureTable;
+    this.sample = sample;
+    this.noiseLevel = noiseLevel;
+    this.minDuration = minDuration;
+    this.minHeight = minHeight;
+    this.mzTolerance = mzTolerance;
+    this.rtGap = rtGap;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable execute() throws MSDKException {
+
+    final List<MsScan> scans = ParallelChromatogramBuilderMethod.getMs1Scans(rawDataFile);
+    totalScans = scans.size();
+
+    final HighestDataPointConnector connector =
+        new HighestDataPointConnector(mzTolerance, noiseLevel, minDuration, minHeight, rtGap);
+    double mzBuffer[] = new double[10000];
+    float intensityBuffer[] = new float[10000];
+
+    for (MsScan scan : scans) {
+
+      // Check if cancel is requested
+      if (canceled)
+        return null;
+
+      mzBuffer = scan.getMzValues(mzBuffer);
+      intensityBuffer = scan.getIntensityValues(intensityBuffer);
+      final int scanIndex = processedScans.getAndIncrement();
+      connector.addScan(scanIndex, scan.getRetentionTime(), mzBuffer, intensityBuffer, 0,
+          scan.getNumberOfDataPoints());
+
+      if ((scanIndex + 1) % FLUSH_SCANS == 0) {
+        final List<BuildingChromatogram> finished = connector.takeChromatograms();
+        if (!finished.isEmpty())
+          addChromatograms(finished);
+      }
+    }
+
+    // The last batch also adds the columns if no chromatogram was found
+    connector.finish();
+    addChromatograms(connector.takeChromatograms());
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    result = featureTable;
+    return result;
+  }
+
+  /**
+   * Adds a batch of finished chromatograms to the feature table.
+   */
+  private void addChromatograms(@Nonnull List<BuildingChromatogram> finished)
+      throws MSDKException {
+    Collections.sort(finished);
+    final List<Chromatogram> chromatograms = new ArrayList<>(finished.size());
+    for (BuildingChromatogram chromatogram : finished)
+      chromatograms.add(chromatogram.toChromatogram(++chromatogramCount));
+
+    chromatogramToFeatureTableMethod =
+        new ChromatogramToFeatureTableMethod(chromatograms, featureTable, sample, false);
+    if (canceled)
+      return;
+    chromatogramToFeatureTableMethod.execute();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    return totalScans == 0 ? null : (float) processedScans.get() / totalScans;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public FeatureTable getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+    final MSDKMethod<FeatureTable> method = chromatogramToFeatureTableMethod;
+    if (method != null)
+      method.cancel();
+  }
+
+}
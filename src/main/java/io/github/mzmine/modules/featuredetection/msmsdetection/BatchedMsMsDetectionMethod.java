@@ -0,0 +1,288 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.msmsdetection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.featdet.msmsdetection.MsMsDetectionMethod;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
+import io.github.mzmine.datamodel.MzRtIndex;
+import io.github.mzmine.modules.featuredetection.targeteddetection.MultiTargetDetectionMethod;
+
+/**
+ * This class detects the features of the precursors of MS/MS scans and adds them to a feature
+ * table. The MS/MS scans are processed in batches in a pipeline of three stages: the precursors of
+ * a batch are detected on a separate daemon thread while the chromatograms of the precursors of
+ * earlier batches are extracted and added to the feature table. The stages are connected by a
+ * bounded queue, so only a few batches of precursors are kept in memory. Precursors which are
+ * near a row added for an earlier batch are skipped.
+ */
+public class BatchedMsMsDetectionMethod implements MSDKMethod<FeatureTable> {
+
+  // Number of detected batches waiting for extraction
+  private static final int QUEUE_CAPACITY = 2;
+
+  // Time between checks whether the detection stage has finished, in milliseconds
+  private static final long POLL_INTERVAL = 100;
+
+  private final @Nonnull RawDataFile rawDataFile;
+  private final @Nonnull List<List<MsScan>> scanBatches;
+  private final @Nonnull DataPointStore dataStore;
+  private final @Nonnull FeatureTable featureTable;
+  private final @Nonnull Sample sample;
+  private final @Nonnull MaximumMzTolerance mzTolerance;
+  private final @Nonnull RTTolerance rtTolerance;
+  private final @Nonnull Double intensityTolerance;
+  private final @Nonnull Double minHeight = 0d;
+
+  private volatile MSDKMethod<List<IonAnnotation>> msMsDetectionMethod;
+  private volatile MSDKMethod<List<Chromatogram>> targetedDetectionMethod;
+  private volatile MSDKMethod<?> chromatogramToFeatureTableMethod;
+  private volatile int detectedBatches = 0, extractedBatches = 0, convertedBatches = 0;
+  private volatile boolean canceled = false;
+  private FeatureTable result;
+
+  /**
+   * <p>
+   * Constructor for BatchedMsMsDetectionMethod.
+   * </p>
+   *
+   * @param rawDataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   * @param msScans the MS/MS scans whose precursors are detected.
+   * @param dataStore the {@link io.github.msdk.datamodel.datastore.DataPointStore} of the MS/MS
+   *        detection.
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} the rows
+   *        are added to.
+   * @param sample the {@link io.github.msdk.datamodel.featuretables.Sample} of the raw data file.
+   * @param mzTolerance a {@link io.github.msdk.util.tolerances.MaximumMzTolerance} object.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   * @param intensityTolerance the allowed relative increase of the intensity at the sides of a
+   *        peak.
+   * @param batchSize the number of MS/MS scans in each batch.
+   */
+  public BatchedMsMsDetectionMethod(@Nonnull RawDataFile rawDataFile,
+      @Nonnull List<MsScan> msScans, @Nonnull DataPointStore dataStore,
+      @Nonnull FeatureTable featureTable, @Nonnull Sample sample,
+      @Nonnull MaximumMzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance,
+      @Nonnull Double intensityTolerance, int batchSize) {
+    Preconditions.checkNotNull(msScans);
+    Preconditions.checkArgument(batchSize > 0);
+    this.rawDataFile = rawDataFile;
+    this.scanBatches = Lists.partition(msScans, batchSize);
+    this.dataStore = dataStore;
+    this.featureTable = featureTable;
+    this.sample = sample;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.intensityTolerance = intensityTolerance;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable execute() throws MSDKException {
+
+    // Detect the precursors on a separate thread
+    final BlockingQueue<List<IonAnnotation>> detectedQueue =
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    final ExecutorService executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("msms-detection-%d").setDaemon(true).build());
+    final Future<?> detection = executor.submit(() -> {
+      detectPrecursors(detectedQueue);
+      return null;
+    });
+
+    try {
+      // Extract and convert the batches in the order they were detected, until the detection
+      // stage has finished and its last batch was taken
+      while (!canceled) {
+        List<IonAnnotation> ionAnnotations =
+            detectedQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        if (ionAnnotations == null) {
+          if (!detection.isDone())
+            continue;
+          ionAnnotations = detectedQueue.poll();
+          if (ionAnnotations == null)
+            break;
+        }
+        extractBatch(ionAnnotations);
+      }
+
+      // Report errors of the detection stage
+      if (!canceled)
+        detection.get();
+    } catch (InterruptedException e) {
+      // Interrupting the calling thread cancels the method
+      cancel();
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof MSDKException)
+        throw (MSDKException) cause;
+      throw new MSDKException(cause);
+    } finally {
+      // Interrupts the detection stage if it is waiting for space in the queue
+      executor.shutdownNow();
+    }
+
+    if (canceled)
+      return null;
+    result = featureTable;
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Float getFinishedPercentage() {
+
+    // Progress of each stage, weighted by its share of the work
+    float finishedPercent = 0f;
+    finishedPercent += getStagePercentage(detectedBatches, msMsDetectionMethod) * 0.1f;
+    finishedPercent += getStagePercentage(extractedBatches, targetedDetectionMethod) * 0.8f;
+    finishedPercent +=
+        getStagePercentage(convertedBatches, chromatogramToFeatureTableMethod) * 0.1f;
+    return finishedPercent;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public FeatureTable getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+    cancelMethod(msMsDetectionMethod);
+    cancelMethod(targetedDetectionMethod);
+    cancelMethod(chromatogramToFeatureTableMethod);
+  }
+
+  /**
+   * First stage: detects the precursors of each batch of MS/MS scans and passes them to the
+   * queue, which blocks while the later stages are behind. The calling thread stops reading the
+   * queue only after the executor was shut down, which interrupts the waiting put.
+   */
+  private void detectPrecursors(@Nonnull BlockingQueue<List<IonAnnotation>> detectedQueue)
+      throws MSDKException, InterruptedException {
+    for (List<MsScan> scans : scanBatches) {
+      if (canceled)
+        return;
+      final MSDKMethod<List<IonAnnotation>> method = new MsMsDetectionMethod(rawDataFile, scans,
+          dataStore, mzTolerance, rtTolerance, intensityTolerance);
+      msMsDetectionMethod = method;
+      final List<IonAnnotation> ionAnnotations = method.execute();
+      msMsDetectionMethod = null;
+      if (ionAnnotations == null)
+        return;
+      detectedBatches++;
+      detectedQueue.put(ionAnnotations);
+    }
+  }
+
+  /**
+   * Second and third stage: extracts the chromatograms of a batch of precursors and adds them to
+   * the feature table. Precursors which were already found in an earlier batch are skipped.
+   */
+  private void extractBatch(@Nonnull List<IonAnnotation> ionAnnotations) throws MSDKException {
+
+    final List<IonAnnotation> newIonAnnotations = new ArrayList<>(ionAnnotations.size());
+    final MzRtIndex index = MzRtIndex.forFeatureTable(featureTable);
+    for (IonAnnotation ion : ionAnnotations) {
+      final Double mz = ion.getExpectedMz();
+      final Float rt = ion.getExpectedRetentionTime();
+      if (mz != null && rt != null
+          && !index.getRowsNear(mz, mzTolerance, rt, rtTolerance).isEmpty())
+        continue;
+      newIonAnnotations.add(ion);
+    }
+    if (newIonAnnotations.isEmpty()) {
+      extractedBatches++;
+      convertedBatches++;
+      return;
+    }
+
+    // Extract the chromatograms of the batch
+    final MSDKMethod<List<Chromatogram>> extractionMethod = new MultiTargetDetectionMethod(
+        newIonAnnotations, rawDataFile, mzTolerance, rtTolerance, intensityTolerance, minHeight);
+    targetedDetectionMethod = extractionMethod;
+    final List<Chromatogram> detectedChromatograms = extractionMethod.execute();
+    targetedDetectionMethod = null;
+    extractedBatches++;
+    if (detectedChromatograms == null)
+      return;
+
+    // Add the chromatograms to the feature table
+    final MSDKMethod<?> conversionMethod =
+        new ChromatogramToFeatureTableMethod(detectedChromatograms, featureTable, sample);
+    chromatogramToFeatureTableMethod = conversionMethod;
+    conversionMethod.execute();
+    chromatogramToFeatureTableMethod = null;
+    convertedBatches++;
+  }
+
+  /**
+   * Returns the progress of a stage from its finished batches and the method running on the
+   * current batch.
+   */
+  private float getStagePercentage(int finishedBatches, @Nullable MSDKMethod<?> currentMethod) {
+    if (scanBatches.isEmpty())
+      return 1f;
+    float finished = finishedBatches;
+    if (currentMethod != null) {
+      final Float methodPercent = currentMethod.getFinishedPercentage();
+      if (methodPercent != null)
+        finished += methodPercent;
+    }
+    return Math.min(1f, finished / scanBatches.size());
+  }
+
+  private static void cancelMethod(@Nullable MSDKMethod<?> method) {
+    if (method != null)
+      method.cancel();
+  }
+
+}
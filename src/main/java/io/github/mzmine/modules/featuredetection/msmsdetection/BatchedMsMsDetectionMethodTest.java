@@ -0,0 +1,140 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.msmsdetection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.featdet.msmsdetection.MsMsDetectionMethod;
+import io.github.msdk.featdet.targeteddetection.TargetedDetectionMethod;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.MzRtIndex;
+
+public class BatchedMsMsDetectionMethodTest {
+
+  private static final String TEST_DATA_PATH = "src/test/resources/";
+
+  private final MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.003, 5.0);
+  private final RTTolerance rtTolerance = new RTTolerance(0.2f, false);
+  private final Double intensityTolerance = 0.10d;
+
+  @Test
+  public void testSameFeaturesAsMsdk() throws MSDKException {
+
+    // Import the file
+    File inputFile = new File(TEST_DATA_PATH + "msms.mzML");
+    Assert.assertTrue("Cannot read test data", inputFile.canRead());
+    MzMLFileImportMethod importer = new MzMLFileImportMethod(inputFile);
+    RawDataFile rawFile = importer.execute();
+    Assert.assertNotNull(rawFile);
+
+    final List<MsScan> msScans = new ArrayList<>();
+    for (MsScan scan : rawFile.getScans()) {
+      if (scan.getMsLevel() != null && scan.getMsLevel() == 2)
+        msScans.add(scan);
+    }
+    Assert.assertFalse(msScans.isEmpty());
+
+    // Features of the MSDK methods, which process all MS/MS scans at once
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    MsMsDetectionMethod msMsMethod = new MsMsDetectionMethod(rawFile, msScans, dataStore,
+        mzTolerance, rtTolerance, intensityTolerance);
+    final List<IonAnnotation> ionAnnotations = msMsMethod.execute();
+    Assert.assertNotNull(ionAnnotations);
+    TargetedDetectionMethod targetedMethod = new TargetedDetectionMethod(ionAnnotations, rawFile,
+        dataStore, mzTolerance, rtTolerance, intensityTolerance, 0d);
+    final List<Chromatogram> chromatograms = targetedMethod.execute();
+    Assert.assertNotNull(chromatograms);
+    final FeatureTable expectedTable = MSDKObjectBuilder.getFeatureTable("MSDK", dataStore);
+    final Sample expectedSample = MSDKObjectBuilder.getSample(rawFile.getName());
+    new ChromatogramToFeatureTableMethod(chromatograms, expectedTable, expectedSample).execute();
+    Assert.assertFalse(expectedTable.getRows().isEmpty());
+
+    // Batches as used by the task, and small batches whose precursors are found again
+    for (int batchSize : new int[] {500, 5}) {
+      final FeatureTable featureTable =
+          MSDKObjectBuilder.getFeatureTable("Batched " + batchSize, dataStore);
+      final Sample sample = MSDKObjectBuilder.getSample(rawFile.getName());
+      BatchedMsMsDetectionMethod method = new BatchedMsMsDetectionMethod(rawFile, msScans,
+          dataStore, featureTable, sample, mzTolerance, rtTolerance, intensityTolerance, batchSize);
+      Assert.assertSame(featureTable, method.execute());
+      Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+      assertSameFeatures(expectedTable, featureTable);
+    }
+  }
+
+  @Test
+  public void testCancel() throws MSDKException {
+
+    // Import the file
+    File inputFile = new File(TEST_DATA_PATH + "msms.mzML");
+    Assert.assertTrue("Cannot read test data", inputFile.canRead());
+    MzMLFileImportMethod importer = new MzMLFileImportMethod(inputFile);
+    RawDataFile rawFile = importer.execute();
+    Assert.assertNotNull(rawFile);
+
+    // A canceled method returns without waiting for the detection thread
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    final FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("Canceled", dataStore);
+    final Sample sample = MSDKObjectBuilder.getSample(rawFile.getName());
+    BatchedMsMsDetectionMethod method = new BatchedMsMsDetectionMethod(rawFile,
+        rawFile.getScans(), dataStore, featureTable, sample, mzTolerance, rtTolerance,
+        intensityTolerance, 1);
+    method.cancel();
+    Assert.assertNull(method.execute());
+    Assert.assertNull(method.getResult());
+  }
+
+  /**
+   * Every feature of one table has a feature of the other table within the tolerances. Precursors
+   * of later batches which are near an earlier row are not added again.
+   */
+  private void assertSameFeatures(FeatureTable expectedTable, FeatureTable featureTable) {
+    Assert.assertTrue(featureTable.getRows().size() <= expectedTable.getRows().size());
+    final MzRtIndex expectedIndex = MzRtIndex.forFeatureTable(expectedTable);
+    final MzRtIndex index = MzRtIndex.forFeatureTable(featureTable);
+    for (FeatureTableRow row : featureTable.getRows()) {
+      Assert.assertFalse(
+          expectedIndex.getRowsNear(row.getMz(), mzTolerance, row.getRT(), rtTolerance).isEmpty());
+    }
+    for (FeatureTableRow row : expectedTable.getRows()) {
+      Assert.assertFalse(
+          index.getRowsNear(row.getMz(), mzTolerance, row.getRT(), rtTolerance).isEmpty());
+    }
+  }
+
+}
@@ -98,9 +98,10 @@ public class MsMsDetectionModule implements MZmineProcessingModule {
       // Create the data structures
       DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
 
-      // New MS/MS detection task which runs the following three methods:
+      // New MS/MS detection task which runs the following three methods as
+      // a pipeline over batches of MS/MS scans:
       // 1. MsMsDetectionMethod
-      // 2. TargetedDetectionMethod
+      // 2. MultiTargetDetectionMethod
       // 3. ChromatogramToFeatureTableMethod
       MsMsDetectionTask newTask =
           new MsMsDetectionTask("MS/MS feature detection", rawDataFile.getName(), rawDataFile,
@@ -26,17 +26,11 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.github.msdk.MSDKMethod;
-import io.github.msdk.datamodel.chromatograms.Chromatogram;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.Sample;
-import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.rawdata.MsScan;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
-import io.github.msdk.featdet.msmsdetection.MsMsDetectionMethod;
-import io.github.msdk.featdet.targeteddetection.TargetedDetectionMethod;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
@@ -47,23 +41,31 @@ import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
 
+/**
+ * MS/MS feature detection task. The MS/MS scans are processed in batches by a
+ * {@link BatchedMsMsDetectionMethod}.
+ */
 public class MsMsDetectionTask extends Task<Object> implements MZmineTask {
 
+  // Number of MS/MS scans in each batch
+  private static final int BATCH_SIZE = 500;
+
   private Logger logger = LoggerFactory.getLogger(this.getClass());
 
   private final @Nonnull RawDataFile rawDataFile;
+
+  // Data store of the MS/MS detection and of the created feature table
   private final @Nonnull DataPointStore dataStore;
   private final @Nonnull MaximumMzTolerance mzTolerance;
   private final @Nonnull RTTolerance rtTolerance;
   private final @Nonnull Double intensityTolerance;
-  private final @Nonnull Double minHeight = 0d;
   private final @Nullable String nameSuffix;
+  private final @Nonnull List<MsScan> msScans;
   private String title, message;
   private FeatureTable featureTable;
 
-  private MSDKMethod<List<IonAnnotation>> msMsDetectionMethod;
-  private MSDKMethod<List<Chromatogram>> targetedDetectionMethod;
-  private MSDKMethod<?> chromatogramToFeatureTableMethod;
+  private volatile BatchedMsMsDetectionMethod msMsDetectionMethod;
+  private volatile boolean canceled = false;
 
   public MsMsDetectionTask(String title, @Nullable String message, @Nonnull RawDataFile rawDataFile,
       @Nonnull ScanSelection scanSelection, @Nonnull DataPointStore dataStore,
@@ -78,20 +80,17 @@ public class MsMsDetectionTask extends Task<Object> implements MZmineTask {
     this.title = title;
     this.message = message;
 
-    List<MsScan> msScans = scanSelection.getMatchingScans(rawDataFile);
-
-    // New feature filter task
-    msMsDetectionMethod = new MsMsDetectionMethod(rawDataFile, msScans, dataStore, mzTolerance,
-        rtTolerance, intensityTolerance);
+    msScans = scanSelection.getMatchingScans(rawDataFile);
 
     refreshStatus();
 
     EventHandler<WorkerStateEvent> cancelEvent = new EventHandler<WorkerStateEvent>() {
       @Override
       public void handle(WorkerStateEvent workerEvent) {
-        msMsDetectionMethod.cancel();
-        targetedDetectionMethod.cancel();
-        chromatogramToFeatureTableMethod.cancel();
+        canceled = true;
+        final BatchedMsMsDetectionMethod method = msMsDetectionMethod;
+        if (method != null)
+          method.cancel();
       }
     };
 
@@ -102,23 +101,10 @@ public class MsMsDetectionTask extends Task<Object> implements MZmineTask {
   public void refreshStatus() {
 
     // Progress
-    Float finishedPercent = 0f;
-
-    final Float method1Percent = msMsDetectionMethod.getFinishedPercentage();
-    if (method1Percent != null)
-      finishedPercent = method1Percent * 0.1f;
-
-    if (targetedDetectionMethod != null) {
-      final Float method2Percent = targetedDetectionMethod.getFinishedPercentage();
-      if (method2Percent != null)
-        finishedPercent = finishedPercent + method2Percent * 0.8f;
-    }
-
-    if (chromatogramToFeatureTableMethod != null) {
-      final Float method3Percent = chromatogramToFeatureTableMethod.getFinishedPercentage();
-      if (method3Percent != null)
-        finishedPercent = finishedPercent + method3Percent * 0.1f;
-    }
+    final BatchedMsMsDetectionMethod method = msMsDetectionMethod;
+    Float finishedPercent = method == null ? null : method.getFinishedPercentage();
+    if (finishedPercent == null)
+      finishedPercent = 0f;
 
     updateProgress(finishedPercent.doubleValue(), 1.0);
 
@@ -129,43 +115,26 @@ public class MsMsDetectionTask extends Task<Object> implements MZmineTask {
 
   @Override
   protected Object call() throws Exception {
+
+    // Create a new feature table
+    featureTable =
+        MSDKObjectBuilder.getFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
+
+    // Create a new sample
+    Sample sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
+
+    final BatchedMsMsDetectionMethod method = new BatchedMsMsDetectionMethod(rawDataFile, msScans,
+        dataStore, featureTable, sample, mzTolerance, rtTolerance, intensityTolerance, BATCH_SIZE);
+    msMsDetectionMethod = method;
+
+    // Run method
     try {
-      List<IonAnnotation> ionAnnotations = msMsDetectionMethod.execute();
-
-      // Run the targeted feature detection module
-      this.targetedDetectionMethod = new TargetedDetectionMethod(ionAnnotations, rawDataFile,
-          dataStore, mzTolerance, rtTolerance, intensityTolerance, minHeight);
-
-      // Run method
-      try {
-        List<Chromatogram> detectedChromatograms = targetedDetectionMethod.execute();
-
-        // Create a new feature table
-        featureTable =
-            MSDKObjectBuilder.getFeatureTable(rawDataFile.getName() + nameSuffix, dataStore);
-
-        // Create a new sample
-        Sample sample = MSDKObjectBuilder.getSample(rawDataFile.getName());
-
-        // Add the chromatograms to the feature table
-        this.chromatogramToFeatureTableMethod =
-            new ChromatogramToFeatureTableMethod(detectedChromatograms, featureTable, sample);
-
-        // Run method
-        try {
-          chromatogramToFeatureTableMethod.execute();
-        } catch (Throwable e) {
-          final String msg = "Error executing task " + title + ": " + e.getMessage();
-          logger.error(msg, e);
-          MZmineGUI.displayMessage(msg);
-        }
-
-      } catch (Throwable e) {
-        final String msg = "Error executing task " + title + ": " + e.getMessage();
-        logger.error(msg, e);
-        MZmineGUI.displayMessage(msg);
-      }
+      if (!canceled)
+        method.execute();
     } catch (Throwable e) {
+      // A canceled task is not an error
+      if (canceled || isCancelled())
+        return featureTable;
       final String msg = "Error executing task " + title + ": " + e.getMessage();
       logger.error(msg, e);
       MZmineGUI.displayMessage(msg);
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.srmdetection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.chromatograms.ChromatogramType;
+import io.github.msdk.datamodel.impl.SimpleChromatogram;
+import io.github.msdk.datamodel.impl.SimpleIsolationInfo;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.MsScanType;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
+
+/**
+ * This class extracts the SRM transitions of a raw data file. The SRM chromatograms stored in the
+ * raw data file are used as they are. The SRM scans are grouped by their Q1 value and the
+ * transitions of the groups are built concurrently, one chromatogram for each Q3 value found in
+ * the scans of a group.
+ *
+ * The chromatograms of a Q1 value are returned next to each other in order of Q3, so they form
+ * one SRM group when they are added to a feature table.
+ */
+public class ParallelSrmDetectionMethod implements MSDKMethod<List<Chromatogram>> {
+
+  // Reusable buffers of each thread
+  private static final ThreadLocal<double[]> mzBuffers =
+      ThreadLocal.withInitial(() -> new double[10000]);
+  private static final ThreadLocal<float[]> intensityBuffers =
+      ThreadLocal.withInitial(() -> new float[10000]);
+
+  private final @Nonnull RawDataFile rawDataFile;
+
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedScans = new AtomicInteger();
+  private int totalScans = 0;
+  private List<Chromatogram> result;
+
+  /**
+   * <p>
+   * Constructor for ParallelSrmDetectionMethod.
+   * </p>
+   *
+   * @param rawDataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   */
+  public ParallelSrmDetectionMethod(@Nonnull RawDataFile rawDataFile) {
+    Preconditions.checkNotNull(rawDataFile);
+    this.rawDataFile = rawDataFile;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Chromatogram> execute() throws MSDKException {
+
+    final List<Chromatogram> chromatograms = new ArrayList<>();
+
+    // SRM chromatograms of the raw data file
+    for (Chromatogram chromatogram : rawDataFile.getChromatograms()) {
+      if (chromatogram.getChromatogramType() == ChromatogramType.MRM_SRM)
+        chromatograms.add(chromatogram);
+    }
+
+    // SRM scans grouped by Q1, in the same way as the SRM groups of a feature table
+    final List<MsScan> srmScans = new ArrayList<>();
+    for (MsScan scan : rawDataFile.getScans()) {
+      if (scan.getMsScanType() == MsScanType.MRM_SRM && scan.getRetentionTime() != null)
+        srmScans.add(scan);
+    }
+    final Map<Double, List<MsScan>> q1Groups =
+        ChromatogramToFeatureTableMethod.getSrmGroups(srmScans, MsScan::getIsolations);
+    for (List<MsScan> scans : q1Groups.values())
+      totalScans += scans.size();
+
+    // Build the transitions of each Q1 value
+    final List<List<SimpleChromatogram>> transitions = q1Groups.entrySet().parallelStream()
+        .map(group -> buildTransitions(group.getKey(), group.getValue()))
+        .collect(Collectors.toList());
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    int chromatogramNumber = chromatograms.size();
+    for (List<SimpleChromatogram> q1Transitions : transitions) {
+      for (SimpleChromatogram chromatogram : q1Transitions) {
+        chromatogram.setChromatogramNumber(++chromatogramNumber);
+        chromatograms.add(chromatogram);
+      }
+    }
+
+    result = chromatograms;
+    return result;
+  }
+
+  /**
+   * Builds one chromatogram for each Q3 value of the scans of a Q1 value.
+   */
+  private @Nonnull List<SimpleChromatogram> buildTransitions(@Nonnull Double q1,
+      @Nonnull List<MsScan> scans) {
+
+    scans.sort((s1, s2) -> Float.compare(s1.getRetentionTime(), s2.getRetentionTime()));
+
+    final Map<Double, Transition> q3Transitions = new TreeMap<>();
+    for (MsScan scan : scans) {
+      if (canceled)
+        break;
+      final float rt = scan.getRetentionTime();
+      final int numOfDataPoints = scan.getNumberOfDataPoints();
+      final double mzValues[] = scan.getMzValues(mzBuffers.get());
+      mzBuffers.set(mzValues);
+      final float intensityValues[] = scan.getIntensityValues(intensityBuffers.get());
+      intensityBuffers.set(intensityValues);
+      for (int i = 0; i < numOfDataPoints; i++) {
+        q3Transitions.computeIfAbsent(mzValues[i], q3 -> new Transition())
+            .addDataPoint(rt, intensityValues[i]);
+      }
+      processedScans.incrementAndGet();
+    }
+
+    final List<SimpleChromatogram> chromatograms = new ArrayList<>(q3Transitions.size());
+    for (Map.Entry<Double, Transition> entry : q3Transitions.entrySet())
+      chromatograms.add(entry.getValue().toChromatogram(q1, entry.getKey()));
+    return chromatograms;
+  }
+
+  /**
+   * Data points of one Q1/Q3 transition, in order of RT.
+   */
+  private static final class Transition {
+
+    private float rtValues[] = new float[64];
+    private float intensityValues[] = new float[64];
+    private int size = 0;
+
+    void addDataPoint(float rt, float intensity) {
+      if (size == rtValues.length) {
+        rtValues = Arrays.copyOf(rtValues, size * 2);
+        intensityValues = Arrays.copyOf(intensityValues, size * 2);
+      }
+      rtValues[size] = rt;
+      intensityValues[size] = intensity;
+      size++;
+    }
+
+    @Nonnull
+    SimpleChromatogram toChromatogram(@Nonnull Double q1, @Nonnull Double q3) {
+      final double mzValues[] = new double[size];
+      Arrays.fill(mzValues, q3);
+
+      SimpleChromatogram chromatogram = new SimpleChromatogram();
+      chromatogram.setChromatogramType(ChromatogramType.MRM_SRM);
+      chromatogram.setMz(q3);
+      chromatogram.getIsolations()
+          .add(new SimpleIsolationInfo(Range.singleton(q1), null, q1, null, null));
+      chromatogram.getIsolations()
+          .add(new SimpleIsolationInfo(Range.singleton(q3), null, q3, null, null));
+      chromatogram.setDataPoints(Arrays.copyOf(rtValues, size), mzValues,
+          Arrays.copyOf(intensityValues, size), size);
+      return chromatogram;
+    }
+
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    return totalScans == 0 ? null : (float) processedScans.get() / totalScans;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public List<Chromatogram> getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.srmdetection;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.rawdata.IsolationInfo;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.featdet.srmdetection.SrmDetectionMethod;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+
+public class ParallelSrmDetectionMethodTest {
+
+  private static final String TEST_DATA_PATH = "src/test/resources/";
+
+  @Test
+  public void testSrm() throws MSDKException {
+
+    // Import the file
+    File inputFile = new File(TEST_DATA_PATH + "SRM.mzML");
+    Assert.assertTrue("Cannot read test data", inputFile.canRead());
+    MzMLFileImportMethod importer = new MzMLFileImportMethod(inputFile);
+    RawDataFile rawFile = importer.execute();
+    Assert.assertNotNull(rawFile);
+
+    // Chromatograms of the MSDK method
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    SrmDetectionMethod msdkMethod = new SrmDetectionMethod(rawFile, dataStore);
+    final List<Chromatogram> expectedChromatograms = msdkMethod.execute();
+    Assert.assertNotNull(expectedChromatograms);
+    Assert.assertFalse(expectedChromatograms.isEmpty());
+
+    ParallelSrmDetectionMethod method = new ParallelSrmDetectionMethod(rawFile);
+    final List<Chromatogram> chromatograms = method.execute();
+    Assert.assertNotNull(chromatograms);
+    Assert.assertEquals(expectedChromatograms.size(), chromatograms.size());
+
+    // Each Q1/Q3 transition is found once, with the data points of the MSDK method
+    final Map<String, Chromatogram> transitions = new HashMap<>();
+    for (Chromatogram chromatogram : chromatograms)
+      Assert.assertNull(transitions.put(getTransition(chromatogram), chromatogram));
+    for (Chromatogram expected : expectedChromatograms) {
+      final Chromatogram chromatogram = transitions.get(getTransition(expected));
+      Assert.assertNotNull("Missing transition " + getTransition(expected), chromatogram);
+      Assert.assertEquals(expected.getNumberOfDataPoints(), chromatogram.getNumberOfDataPoints());
+
+      final float expectedRts[] = expected.getRetentionTimes();
+      final float expectedIntensities[] = expected.getIntensityValues();
+      final float rts[] = chromatogram.getRetentionTimes();
+      final float intensities[] = chromatogram.getIntensityValues();
+      for (int p = 0; p < chromatogram.getNumberOfDataPoints(); p++) {
+        Assert.assertEquals(expectedRts[p], rts[p], 0.0001);
+        Assert.assertEquals(expectedIntensities[p], intensities[p], 0.0001);
+      }
+    }
+
+    // The transitions of the scans form one group for each Q1 value, in order of Q3
+    final int scanTransitions = chromatograms.size() - rawFile.getChromatograms().size();
+    Double lastQ1 = null, lastQ3 = null;
+    for (int i = chromatograms.size() - scanTransitions; i < chromatograms.size(); i++) {
+      final Chromatogram chromatogram = chromatograms.get(i);
+      Assert.assertEquals(i + 1, chromatogram.getChromatogramNumber().intValue());
+      final Double q1 = getQ1(chromatogram), q3 = getQ3(chromatogram);
+      if (lastQ1 != null && q1.equals(lastQ1))
+        Assert.assertTrue(q3 > lastQ3);
+      else if (lastQ1 != null)
+        Assert.assertTrue("Q1 " + q1 + " is split", q1 > lastQ1);
+      lastQ1 = q1;
+      lastQ3 = q3;
+    }
+  }
+
+  private String getTransition(Chromatogram chromatogram) {
+    return getQ1(chromatogram) + "/" + getQ3(chromatogram);
+  }
+
+  private Double getQ1(Chromatogram chromatogram) {
+    final List<IsolationInfo> isolations = chromatogram.getIsolations();
+    return isolations.isEmpty() ? null : isolations.get(0).getPrecursorMz();
+  }
+
+  private Double getQ3(Chromatogram chromatogram) {
+    final List<IsolationInfo> isolations = chromatogram.getIsolations();
+    return isolations.size() < 2 ? chromatogram.getMz() : isolations.get(1).getPrecursorMz();
+  }
+
+}
@@ -77,7 +77,7 @@ public class SrmDetectionModule implements MZmineProcessingModule {
 
       // New SRM builder task which runs the following two
       // methods:
-      // 1. SrmDetectionMethod
+      // 1. ParallelSrmDetectionMethod
       // 2. ChromatogramToFeatureTableMethod
       SrmDetectionTask newTask = new SrmDetectionTask("SRM feature detection",
           rawDataFile.getName(), rawDataFile, dataStore, nameSuffix);
@@ -32,8 +32,7 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
-import io.github.msdk.featdet.srmdetection.SrmDetectionMethod;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.taskcontrol.MZmineTask;
@@ -63,7 +62,7 @@ public class SrmDetectionTask extends Task<Object> implements MZmineTask {
     this.message = message;
 
     // SRM detection method
-    srmDetectionMethod = new SrmDetectionMethod(rawDataFile, dataStore);
+    srmDetectionMethod = new ParallelSrmDetectionMethod(rawDataFile);
 
     refreshStatus();
 
@@ -104,6 +103,8 @@ public class SrmDetectionTask extends Task<Object> implements MZmineTask {
   protected Object call() throws Exception {
     try {
       List<Chromatogram> detectedChromatograms = (List<Chromatogram>) srmDetectionMethod.execute();
+      if (detectedChromatograms == null)
+        return null;
 
       // Create a new feature table
       featureTable =
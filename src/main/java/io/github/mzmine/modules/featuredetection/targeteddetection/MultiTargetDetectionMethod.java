@@ -0,0 +1,338 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.targeteddetection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.chromatograms.ChromatogramType;
+import io.github.msdk.datamodel.impl.SimpleChromatogram;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+
+/**
+ * This class extracts the chromatograms of many targets from the MS1 scans of a raw data file in
+ * a single pass over the scans. The m/z windows of the targets are kept in a {@link TargetIndex}
+ * and every data point of a scan is looked up in the index, so a scan only costs work for the
+ * targets it contains. The RT window of each target is converted to a range of scan positions
+ * before the sweep, and only the scans inside the RT window of any target are read. Scans are
+ * processed in parallel, each scan writes to its own position of the target chromatograms.
+ *
+ * Each chromatogram is cropped to the peak around its most intense data point: the peak is
+ * extended to both sides as long as the intensity does not increase by more than the intensity
+ * tolerance. Targets whose peak is lower than the minimum height are not returned.
+ *
+ * Unlike the MSDK TargetedDetectionMethod this method takes no data point store: the data points
+ * of the chromatograms are kept in the arrays of the returned chromatograms.
+ */
+public class MultiTargetDetectionMethod implements MSDKMethod<List<Chromatogram>> {
+
+  // Reusable buffers of each thread
+  private static final ThreadLocal<double[]> mzBuffers =
+      ThreadLocal.withInitial(() -> new double[10000]);
+  private static final ThreadLocal<float[]> intensityBuffers =
+      ThreadLocal.withInitial(() -> new float[10000]);
+
+  private final @Nonnull List<IonAnnotation> ionAnnotations;
+  private final @Nonnull RawDataFile rawDataFile;
+  private final @Nonnull MzTolerance mzTolerance;
+  private final @Nonnull RTTolerance rtTolerance;
+  private final @Nonnull Double intensityTolerance;
+  private final @Nonnull Double minHeight;
+
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedScans = new AtomicInteger();
+  private int totalScans = 0;
+  private List<Chromatogram> result;
+
+  /**
+   * <p>
+   * Constructor for MultiTargetDetectionMethod.
+   * </p>
+   *
+   * @param ionAnnotations a list of {@link io.github.msdk.datamodel.ionannotations.IonAnnotation}
+   *        objects, one for each target.
+   * @param rawDataFile a {@link io.github.msdk.datamodel.rawdata.RawDataFile} object.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   * @param intensityTolerance the allowed relative increase of the intensity at the sides of a
+   *        peak.
+   * @param minHeight the minimum height of a detected peak.
+   */
+  public MultiTargetDetectionMethod(@Nonnull List<IonAnnotation> ionAnnotations,
+      @Nonnull RawDataFile rawDataFile, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, @Nonnull Double intensityTolerance,
+      @Nonnull Double minHeight) {
+    Preconditions.checkNotNull(ionAnnotations);
+    Preconditions.checkNotNull(rawDataFile);
+    this.ionAnnotations = ImmutableList.copyOf(ionAnnotations);
+    this.rawDataFile = rawDataFile;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.intensityTolerance = intensityTolerance;
+    this.minHeight = minHeight;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Chromatogram> execute() throws MSDKException {
+
+    // MS1 scans in order of RT
+    List<MsScan> scanList = new ArrayList<>();
+    for (MsScan scan : rawDataFile.getScans()) {
+      if (scan.getRetentionTime() == null)
+        continue;
+      if (scan.getMsLevel() != null && scan.getMsLevel() != 1)
+        continue;
+      scanList.add(scan);
+    }
+    scanList.sort((s1, s2) -> Float.compare(s1.getRetentionTime(), s2.getRetentionTime()));
+    final MsScan scans[] = scanList.toArray(new MsScan[scanList.size()]);
+    final float scanRts[] = new float[scans.length];
+    for (int i = 0; i < scans.length; i++)
+      scanRts[i] = scans[i].getRetentionTime();
+
+    // Windows of the targets
+    final int targetCount = ionAnnotations.size();
+    final Target targets[] = new Target[targetCount];
+    final double lowerMz[] = new double[targetCount];
+    final double upperMz[] = new double[targetCount];
+    for (int i = 0; i < targetCount; i++) {
+      final IonAnnotation ion = ionAnnotations.get(i);
+      final Double mz = ion.getExpectedMz();
+      if (mz == null) {
+        // Not indexed, the window never matches
+        lowerMz[i] = Double.POSITIVE_INFINITY;
+        upperMz[i] = Double.NEGATIVE_INFINITY;
+        continue;
+      }
+      final Range<Double> mzRange = mzTolerance.getToleranceRange(mz);
+      lowerMz[i] = mzRange.lowerEndpoint();
+      upperMz[i] = mzRange.upperEndpoint();
+
+      final Float rt = ion.getExpectedRetentionTime();
+      int firstScan = 0, lastScan = scans.length;
+      if (rt != null) {
+        final Range<Float> rtRange = rtTolerance.getToleranceRange(rt);
+        firstScan = firstScanAtOrAfter(scanRts, rtRange.lowerEndpoint());
+        lastScan = firstScanAfter(scanRts, rtRange.upperEndpoint());
+      }
+      if (firstScan < lastScan)
+        targets[i] = new Target(firstScan, lastScan);
+    }
+    final TargetIndex index = new TargetIndex(lowerMz, upperMz);
+
+    // Only the scans inside the RT window of any target are read
+    int firstSweepScan = scans.length, lastSweepScan = 0;
+    for (Target target : targets) {
+      if (target == null)
+        continue;
+      firstSweepScan = Math.min(firstSweepScan, target.firstScan);
+      lastSweepScan = Math.max(lastSweepScan, target.firstScan + target.intensityValues.length);
+    }
+    final int sweepStart = firstSweepScan;
+    totalScans = Math.max(0, lastSweepScan - firstSweepScan);
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    // Sweep each scan once, keeping the most intense data point of every
+    // target whose RT window contains the scan
+    IntStream.range(sweepStart, sweepStart + totalScans).parallel().forEach(s -> {
+      if (canceled)
+        return;
+      final MsScan scan = scans[s];
+      final int numOfDataPoints = scan.getNumberOfDataPoints();
+      final double mzValues[] = scan.getMzValues(mzBuffers.get());
+      mzBuffers.set(mzValues);
+      final float intensityValues[] = scan.getIntensityValues(intensityBuffers.get());
+      intensityBuffers.set(intensityValues);
+
+      for (int p = 0; p < numOfDataPoints; p++) {
+        final double mz = mzValues[p];
+        final float intensity = intensityValues[p];
+        if (intensity <= 0)
+          continue;
+        index.forEachContaining(mz, t -> {
+          final Target target = targets[t];
+          if (target != null)
+            target.addDataPoint(s, mz, intensity);
+        });
+      }
+      processedScans.incrementAndGet();
+    });
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    // Crop the chromatograms to their peaks
+    final Chromatogram chromatograms[] = new Chromatogram[targetCount];
+    IntStream.range(0, targetCount).parallel().forEach(t -> {
+      if (targets[t] != null)
+        chromatograms[t] = targets[t].buildChromatogram(ionAnnotations.get(t), t + 1, scanRts);
+    });
+
+    result = new ArrayList<>(targetCount);
+    for (Chromatogram chromatogram : chromatograms) {
+      if (chromatogram != null)
+        result.add(chromatogram);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the first position whose RT is not lower than the given value.
+   */
+  private static int firstScanAtOrAfter(float scanRts[], float rt) {
+    int low = 0, high = scanRts.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (scanRts[mid] < rt)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the first position whose RT is higher than the given value.
+   */
+  private static int firstScanAfter(float scanRts[], float rt) {
+    int low = 0, high = scanRts.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (scanRts[mid] <= rt)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    return totalScans == 0 ? null : (float) processedScans.get() / totalScans;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public List<Chromatogram> getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * Most intense data point of each scan in the RT window of a target. Every scan position is only
+   * written by the thread which processes that scan.
+   */
+  private final class Target {
+
+    private final int firstScan;
+    private final @Nonnull double mzValues[];
+    private final @Nonnull float intensityValues[];
+
+    Target(int firstScan, int lastScan) {
+      this.firstScan = firstScan;
+      this.mzValues = new double[lastScan - firstScan];
+      this.intensityValues = new float[lastScan - firstScan];
+    }
+
+    void addDataPoint(int scan, double mz, float intensity) {
+      final int position = scan - firstScan;
+      if (position < 0 || position >= intensityValues.length)
+        return;
+      if (intensity > intensityValues[position]) {
+        mzValues[position] = mz;
+        intensityValues[position] = intensity;
+      }
+    }
+
+    @Nullable
+    Chromatogram buildChromatogram(@Nonnull IonAnnotation ion, int chromatogramNumber,
+        @Nonnull float scanRts[]) {
+
+      // Most intense data point
+      int apex = 0;
+      for (int i = 1; i < intensityValues.length; i++) {
+        if (intensityValues[i] > intensityValues[apex])
+          apex = i;
+      }
+      if (intensityValues.length == 0 || intensityValues[apex] <= 0
+          || intensityValues[apex] < minHeight)
+        return null;
+
+      // Extend the peak while the intensity decreases within the tolerance
+      final double maxIncrease = 1 + intensityTolerance;
+      int start = apex, end = apex;
+      while (start > 0 && intensityValues[start - 1] > 0
+          && intensityValues[start - 1] <= intensityValues[start] * maxIncrease)
+        start--;
+      while (end < intensityValues.length - 1 && intensityValues[end + 1] > 0
+          && intensityValues[end + 1] <= intensityValues[end] * maxIncrease)
+        end++;
+
+      final int size = end - start + 1;
+      double weightedMz = 0, totalIntensity = 0;
+      for (int i = start; i <= end; i++) {
+        weightedMz += mzValues[i] * intensityValues[i];
+        totalIntensity += intensityValues[i];
+      }
+
+      SimpleChromatogram chromatogram = new SimpleChromatogram();
+      chromatogram.setChromatogramNumber(chromatogramNumber);
+      chromatogram.setChromatogramType(ChromatogramType.XIC);
+      chromatogram.setIonAnnotation(ion);
+      chromatogram.setMz(weightedMz / totalIntensity);
+      chromatogram.setDataPoints(
+          Arrays.copyOfRange(scanRts, firstScan + start, firstScan + end + 1),
+          Arrays.copyOfRange(mzValues, start, end + 1),
+          Arrays.copyOfRange(intensityValues, start, end + 1), size);
+      return chromatogram;
+    }
+  }
+
+}
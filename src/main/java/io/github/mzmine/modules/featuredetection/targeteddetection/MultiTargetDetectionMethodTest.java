@@ -0,0 +1,106 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.targeteddetection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.chromatograms.Chromatogram;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.featdet.targeteddetection.TargetedDetectionMethod;
+import io.github.msdk.io.mzml.MzMLFileImportMethod;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+
+public class MultiTargetDetectionMethodTest {
+
+  private static final String TEST_DATA_PATH = "src/test/resources/";
+
+  @Test
+  public void testOrbitrap() throws MSDKException {
+
+    // Import the file
+    File inputFile = new File(TEST_DATA_PATH + "orbitrap_300-600mz.mzML");
+    Assert.assertTrue("Cannot read test data", inputFile.canRead());
+    MzMLFileImportMethod importer = new MzMLFileImportMethod(inputFile);
+    RawDataFile rawFile = importer.execute();
+    Assert.assertNotNull(rawFile);
+
+    List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>();
+    ionAnnotations.add(createIon("Feature 332.56", 332.56, 772.8f));
+    ionAnnotations.add(createIon("Feature 508.004", 508.004, 868.8f));
+    ionAnnotations.add(createIon("Feature 362.102", 362.102, 643.2f));
+
+    final MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.003, 5.0);
+    final RTTolerance rtTolerance = new RTTolerance(3, false);
+    final Double intensityTolerance = 0.10d;
+    final Double noiseLevel = 5000d;
+
+    // Chromatograms of the MSDK method, which extracts one target after the other
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    TargetedDetectionMethod msdkMethod = new TargetedDetectionMethod(ionAnnotations, rawFile,
+        dataStore, mzTolerance, rtTolerance, intensityTolerance, noiseLevel);
+    final List<Chromatogram> expectedChromatograms = msdkMethod.execute();
+    Assert.assertNotNull(expectedChromatograms);
+
+    MultiTargetDetectionMethod method = new MultiTargetDetectionMethod(ionAnnotations, rawFile,
+        mzTolerance, rtTolerance, intensityTolerance, noiseLevel);
+    final List<Chromatogram> chromatograms = method.execute();
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+    Assert.assertNotNull(chromatograms);
+    Assert.assertEquals(3, chromatograms.size());
+    Assert.assertEquals(expectedChromatograms.size(), chromatograms.size());
+
+    // Both methods find the same peaks, in the order of the targets
+    for (int i = 0; i < chromatograms.size(); i++) {
+      final Chromatogram expected = expectedChromatograms.get(i);
+      final Chromatogram chromatogram = chromatograms.get(i);
+      Assert.assertSame(expected.getIonAnnotation(), chromatogram.getIonAnnotation());
+      Assert.assertEquals(expected.getMz(), chromatogram.getMz(), 0.001);
+      Assert.assertEquals(expected.getNumberOfDataPoints(), chromatogram.getNumberOfDataPoints());
+
+      final float expectedRts[] = expected.getRetentionTimes();
+      final float expectedIntensities[] = expected.getIntensityValues();
+      final float rts[] = chromatogram.getRetentionTimes();
+      final float intensities[] = chromatogram.getIntensityValues();
+      for (int p = 0; p < chromatogram.getNumberOfDataPoints(); p++) {
+        Assert.assertEquals(expectedRts[p], rts[p], 0.0001);
+        Assert.assertEquals(expectedIntensities[p], intensities[p], 0.0001);
+      }
+    }
+  }
+
+  private IonAnnotation createIon(String id, double mz, float rt) {
+    SimpleIonAnnotation ion = new SimpleIonAnnotation();
+    ion.setAnnotationId(id);
+    ion.setExpectedMz(mz);
+    ion.setExpectedRetentionTime(rt);
+    return ion;
+  }
+
+}
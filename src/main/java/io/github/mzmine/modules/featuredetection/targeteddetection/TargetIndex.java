@@ -0,0 +1,109 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.targeteddetection;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntConsumer;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable interval index of the m/z windows of targets. The windows are sorted by their lower
+ * bound and each position also stores the highest upper bound of all windows up to it, so a query
+ * is a binary search for the last window starting at or below the m/z value followed by a walk
+ * back which stops as soon as no earlier window can reach the value. For windows of similar width
+ * the cost of a query is proportional to the number of matching targets.
+ */
+final class TargetIndex {
+
+  private final @Nonnull int targets[];
+  private final @Nonnull double lowerBounds[];
+  private final @Nonnull double upperBounds[];
+  private final @Nonnull double maxUpperBounds[];
+
+  /**
+   * Builds a new index of m/z windows.
+   *
+   * @param lower the lower bound of the window of each target.
+   * @param upper the upper bound of the window of each target.
+   */
+  TargetIndex(@Nonnull double lower[], @Nonnull double upper[]) {
+    Preconditions.checkArgument(lower.length == upper.length);
+
+    Integer order[] = new Integer[lower.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingDouble(i -> lower[i]));
+
+    targets = new int[order.length];
+    lowerBounds = new double[order.length];
+    upperBounds = new double[order.length];
+    maxUpperBounds = new double[order.length];
+    double maxUpper = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < order.length; i++) {
+      targets[i] = order[i];
+      lowerBounds[i] = lower[order[i]];
+      upperBounds[i] = upper[order[i]];
+      maxUpper = Math.max(maxUpper, upperBounds[i]);
+      maxUpperBounds[i] = maxUpper;
+    }
+  }
+
+  /**
+   * Returns the number of indexed targets.
+   *
+   * @return the number of targets.
+   */
+  int size() {
+    return targets.length;
+  }
+
+  /**
+   * Calls the given action with the number of every target whose closed m/z window contains the
+   * given value. The targets are visited in order of decreasing lower bound.
+   *
+   * @param mz the m/z value.
+   * @param action the action which receives the target numbers.
+   */
+  void forEachContaining(double mz, @Nonnull IntConsumer action) {
+    for (int i = upperPosition(mz) - 1; i >= 0 && maxUpperBounds[i] >= mz; i--) {
+      if (upperBounds[i] >= mz)
+        action.accept(targets[i]);
+    }
+  }
+
+  /**
+   * Returns the first position whose lower bound is higher than the given value.
+   */
+  private int upperPosition(double mz) {
+    int low = 0, high = lowerBounds.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (lowerBounds[mid] <= mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
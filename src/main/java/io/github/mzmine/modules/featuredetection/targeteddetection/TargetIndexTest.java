@@ -0,0 +1,55 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.featuredetection.targeteddetection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TargetIndexTest {
+
+  @Test
+  public void testForEachContaining() {
+
+    // Target 3 has a wide window which covers targets 0 and 1
+    double lower[] = {200.0, 100.0, 300.0, 99.0, 150.0};
+    double upper[] = {200.01, 100.01, 300.01, 200.5, 150.01};
+    TargetIndex index = new TargetIndex(lower, upper);
+    Assert.assertEquals(5, index.size());
+
+    Assert.assertEquals("[1, 3]", query(index, 100.005));
+    Assert.assertEquals("[0, 3]", query(index, 200.0));
+    Assert.assertEquals("[3]", query(index, 200.2));
+    Assert.assertEquals("[2]", query(index, 300.01));
+    Assert.assertEquals("[]", query(index, 98.0));
+    Assert.assertEquals("[]", query(index, 250.0));
+    Assert.assertEquals("[]", query(index, 400.0));
+  }
+
+  private String query(TargetIndex index, double mz) {
+    List<Integer> targets = new ArrayList<>();
+    index.forEachContaining(mz, targets::add);
+    Collections.sort(targets);
+    return targets.toString();
+  }
+
+}
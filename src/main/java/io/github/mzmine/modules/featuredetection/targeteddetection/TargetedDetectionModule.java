@@ -34,14 +34,13 @@ import org.slf4j.LoggerFactory;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonType;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.datamodel.rawdata.SeparationType;
 import io.github.msdk.util.IonTypeUtil;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
-import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
@@ -141,8 +140,7 @@ public class TargetedDetectionModule implements MZmineProcessingModule {
           ion.setAnnotationId(annotationId);
           ion.setExpectedMz(mz);
           ion.setDescription(name);
-          ion.setChromatographyInfo(
-              MSDKObjectBuilder.getChromatographyInfo1D(SeparationType.LC, (float) rt));
+          ion.setExpectedRetentionTime(rt);
           if (ionType != null)
             ion.setIonType(ionType);
           if (formula != null)
@@ -161,7 +159,7 @@ public class TargetedDetectionModule implements MZmineProcessingModule {
       DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
 
       // New targeted detection task which runs the following two methods:
-      // 1. TargetedDetectionMethod
+      // 1. MultiTargetDetectionMethod
       // 2. ChromatogramToFeatureTableMethod
       TargetedDetectionTask newTask = new TargetedDetectionTask("Targeted feature detection",
           rawDataFile.getName(), ionAnnotations, rawDataFile, dataStore, mzTolerance, rtTolerance,
@@ -33,10 +33,9 @@ import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
-import io.github.msdk.featdet.targeteddetection.TargetedDetectionMethod;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.taskcontrol.MZmineTask;
@@ -50,6 +49,8 @@ public class TargetedDetectionTask extends Task<Object> implements MZmineTask {
 
   private final @Nonnull List<IonAnnotation> ionAnnotations;
   private final @Nonnull RawDataFile rawDataFile;
+
+  // Data store of the created feature table, the chromatograms do not need one
   private final @Nonnull DataPointStore dataStore;
   private final @Nonnull MaximumMzTolerance mzTolerance;
   private final @Nonnull RTTolerance rtTolerance;
@@ -60,7 +61,7 @@ public class TargetedDetectionTask extends Task<Object> implements MZmineTask {
   private FeatureTable featureTable;
 
   private MSDKMethod<List<Chromatogram>> targetedDetectionMethod;
-  private MSDKMethod<?> chromatogramToFeatureTableMethod;
+  private volatile MSDKMethod<?> chromatogramToFeatureTableMethod;
 
   public TargetedDetectionTask(String title, @Nullable String message,
       @Nonnull List<IonAnnotation> ionAnnotations, @Nonnull RawDataFile rawDataFile,
@@ -79,7 +80,7 @@ public class TargetedDetectionTask extends Task<Object> implements MZmineTask {
     this.message = message;
 
     // Targeted detection method
-    targetedDetectionMethod = new TargetedDetectionMethod(ionAnnotations, rawDataFile, dataStore,
+    targetedDetectionMethod = new MultiTargetDetectionMethod(ionAnnotations, rawDataFile,
         mzTolerance, rtTolerance, intensityTolerance, minHeight);
 
     refreshStatus();
@@ -88,6 +89,8 @@ public class TargetedDetectionTask extends Task<Object> implements MZmineTask {
       @Override
       public void handle(WorkerStateEvent workerEvent) {
         targetedDetectionMethod.cancel();
+        if (chromatogramToFeatureTableMethod != null)
+          chromatogramToFeatureTableMethod.cancel();
       }
     };
 
@@ -121,6 +124,8 @@ public class TargetedDetectionTask extends Task<Object> implements MZmineTask {
   protected Object call() throws Exception {
     try {
       List<Chromatogram> detectedChromatograms = targetedDetectionMethod.execute();
+      if (detectedChromatograms == null)
+        return null;
 
       // Create a new feature table
       featureTable =
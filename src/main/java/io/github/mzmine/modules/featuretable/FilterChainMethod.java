@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.featuretable;
+
+import java.util.List;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.mzmine.datamodel.FeatureTableView;
+
+/**
+ * This class runs several filter steps on a feature table, each step on the result of the previous
+ * one. The filter methods return {@link FeatureTableView}s, so the intermediate results are views
+ * stacked on the source table and no intermediate table is copied. Only the result of the last
+ * step is materialized into an independent feature table.
+ */
+public class FilterChainMethod implements MSDKMethod<FeatureTable> {
+
+  private final @Nonnull FeatureTable featureTable;
+  private final @Nonnull DataPointStore dataStore;
+  private final @Nonnull String resultName;
+  private final @Nonnull List<Function<FeatureTable, MSDKMethod<FeatureTable>>> steps;
+
+  private volatile @Nullable MSDKMethod<FeatureTable> currentMethod;
+  private volatile int finishedSteps = 0;
+  private volatile boolean canceled = false;
+  private @Nullable FeatureTable result;
+
+  /**
+   * <p>
+   * Constructor for FilterChainMethod.
+   * </p>
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param dataStore a {@link io.github.msdk.datamodel.datastore.DataPointStore} object.
+   * @param resultName the name of the resulting feature table.
+   * @param steps functions which create the method of each step for the result of the previous
+   *        step, in order of execution.
+   */
+  public FilterChainMethod(@Nonnull FeatureTable featureTable, @Nonnull DataPointStore dataStore,
+      @Nonnull String resultName,
+      @Nonnull List<Function<FeatureTable, MSDKMethod<FeatureTable>>> steps) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkNotNull(dataStore);
+    Preconditions.checkNotNull(resultName);
+    this.featureTable = featureTable;
+    this.dataStore = dataStore;
+    this.resultName = resultName;
+    this.steps = ImmutableList.copyOf(steps);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable execute() throws MSDKException {
+    FeatureTable table = featureTable;
+
+    for (Function<FeatureTable, MSDKMethod<FeatureTable>> step : steps) {
+      if (canceled)
+        return null;
+      final MSDKMethod<FeatureTable> method = step.apply(table);
+      currentMethod = method;
+      table = method.execute();
+      currentMethod = null;
+      if (table == null)
+        return null;
+      finishedSteps++;
+    }
+
+    // Copy the final view into a new feature table
+    if (table instanceof FeatureTableView)
+      result = ((FeatureTableView) table).materialize(resultName, dataStore);
+    else
+      result = table;
+    finishedSteps++;
+
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    // The materialization counts as the last step
+    final int totalSteps = steps.size() + 1;
+    float finished = finishedSteps;
+    final MSDKMethod<FeatureTable> method = currentMethod;
+    if (method != null) {
+      final Float methodFinished = method.getFinishedPercentage();
+      if (methodFinished != null)
+        finished += methodFinished;
+    }
+    return finished / totalSteps;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public FeatureTable getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+    final MSDKMethod<FeatureTable> method = currentMethod;
+    if (method != null)
+      method.cancel();
+  }
+
+}
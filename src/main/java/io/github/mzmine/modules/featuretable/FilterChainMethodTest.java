@@ -0,0 +1,86 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.featuretable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.FeatureTableView;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.modules.featuretable.rowfilter.RowFilterMethod;
+
+public class FilterChainMethodTest {
+
+  @Test
+  public void testChain() throws MSDKException {
+
+    // Create the data structures
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("table", dataStore);
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Float> rtColumn = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    for (int i = 1; i <= 10; i++) {
+      FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, i);
+      row.setData(idColumn, i);
+      row.setData(mzColumn, 100.0 * i);
+      row.setData(rtColumn, 60f);
+      featureTable.addRow(row);
+    }
+
+    // Two row filter steps, keeping m/z 200-800 and then m/z 400-1000
+    List<Function<FeatureTable, MSDKMethod<FeatureTable>>> steps = new ArrayList<>();
+    steps.add(table -> createRowFilter(table, dataStore, Range.closed(200.0, 800.0)));
+    steps.add(table -> createRowFilter(table, dataStore, Range.closed(400.0, 1000.0)));
+    FilterChainMethod method = new FilterChainMethod(featureTable, dataStore, "filtered", steps);
+    FeatureTable result = method.execute();
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+
+    // Only the final table is materialized
+    Assert.assertNotNull(result);
+    Assert.assertFalse(result instanceof FeatureTableView);
+    Assert.assertEquals("filtered", result.getName());
+    Assert.assertEquals(5, result.getRows().size());
+    Assert.assertEquals(400.0, result.getRows().get(0).getMz(), 0.00001);
+    Assert.assertEquals(10, featureTable.getRows().size());
+
+    featureTable.dispose();
+  }
+
+  private MSDKMethod<FeatureTable> createRowFilter(FeatureTable featureTable,
+      DataPointStore dataStore, Range<Double> mzRange) {
+    return new RowFilterMethod(featureTable, dataStore, "", true, false, false, false, false, false,
+        false, mzRange, null, null, null, null, null, false, new MaximumMzTolerance(0.003, 5.0),
+        new RTTolerance(0.2f, false), false);
+  }
+
+}
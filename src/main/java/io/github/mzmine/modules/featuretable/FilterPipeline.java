@@ -0,0 +1,348 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.featuretable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.ColumnarFeatureTableRow;
+
+/**
+ * Set of row and feature criteria which are evaluated together on the rows of a feature table. The
+ * columns of the criteria are resolved and the ranges are converted to primitive bounds when the
+ * criteria are added, so the evaluation only reads the row values. Rows are evaluated in parallel
+ * chunks on the common {@link ForkJoinPool}.
+ *
+ * Row criteria decide if a row is kept. Feature criteria are checked for every sample of the table
+ * and decide if the feature of the sample is kept. If there are feature criteria, rows without any
+ * kept feature are not kept either.
+ *
+ * The criteria must not modify the rows, they may be called concurrently for different rows.
+ */
+public final class FilterPipeline {
+
+  private static final int CHUNK_SIZE = 256;
+
+  private final @Nonnull FeatureTable featureTable;
+  private final @Nonnull List<Sample> samples;
+  private final @Nonnull List<Predicate<FeatureTableRow>> rowCriteria = new ArrayList<>();
+  private final @Nonnull List<List<Predicate<FeatureTableRow>>> featureCriteria =
+      new ArrayList<>();
+  private final @Nonnull AtomicInteger processedRows = new AtomicInteger();
+  private volatile boolean canceled = false;
+
+  /**
+   * Creates an empty pipeline for the rows of a feature table.
+   *
+   * @param featureTable the {@link FeatureTable} whose columns the criteria refer to.
+   */
+  public FilterPipeline(@Nonnull FeatureTable featureTable) {
+    Preconditions.checkNotNull(featureTable);
+    this.featureTable = featureTable;
+    this.samples = ImmutableList.copyOf(featureTable.getSamples());
+    for (int i = 0; i < samples.size(); i++)
+      featureCriteria.add(new ArrayList<Predicate<FeatureTableRow>>());
+  }
+
+  /**
+   * Adds a row criterion.
+   *
+   * @param criterion a predicate which returns true if the row should be kept.
+   * @return this pipeline.
+   */
+  public @Nonnull FilterPipeline addRowCriterion(@Nonnull Predicate<FeatureTableRow> criterion) {
+    Preconditions.checkNotNull(criterion);
+    rowCriteria.add(criterion);
+    return this;
+  }
+
+  /**
+   * Adds a row criterion on the numeric value of a common column. If the table has no such column,
+   * all rows are treated as rows without a value.
+   *
+   * @param columnName the name of the common column.
+   * @param range the range of values which are kept.
+   * @param keepMissing whether rows without a value are kept.
+   * @return this pipeline.
+   */
+  public @Nonnull FilterPipeline addRowRange(@Nonnull ColumnName columnName,
+      @Nonnull Range<? extends Number> range, boolean keepMissing) {
+    FeatureTableColumn<? extends Number> column = featureTable.getColumn(columnName, null);
+    if (column == null) {
+      if (!keepMissing)
+        rowCriteria.add(row -> false);
+      return this;
+    }
+    rowCriteria.add(new RangeCriterion(column, range, keepMissing));
+    return this;
+  }
+
+  /**
+   * Adds a feature criterion on the numeric value of a sample column. Samples without such column
+   * keep their features.
+   *
+   * @param columnName the name of the sample column.
+   * @param range the range of values which are kept.
+   * @param keepMissing whether features without a value are kept.
+   * @return this pipeline.
+   */
+  public @Nonnull FilterPipeline addFeatureRange(@Nonnull ColumnName columnName,
+      @Nonnull Range<? extends Number> range, boolean keepMissing) {
+    for (int i = 0; i < samples.size(); i++) {
+      FeatureTableColumn<? extends Number> column =
+          featureTable.getColumn(columnName, samples.get(i));
+      if (column != null)
+        featureCriteria.get(i).add(new RangeCriterion(column, range, keepMissing));
+    }
+    return this;
+  }
+
+  /**
+   * Adds a feature criterion which only keeps the features with a value in the given sample
+   * column. Features of samples without such column are not kept.
+   *
+   * @param columnName the name of the sample column.
+   * @return this pipeline.
+   */
+  public @Nonnull FilterPipeline addFeatureRequired(@Nonnull ColumnName columnName) {
+    for (int i = 0; i < samples.size(); i++) {
+      final FeatureTableColumn<?> column = featureTable.getColumn(columnName, samples.get(i));
+      if (column == null)
+        featureCriteria.get(i).add(row -> false);
+      else
+        featureCriteria.get(i).add(row -> row.getData(column) != null);
+    }
+    return this;
+  }
+
+  /**
+   * Returns the samples of the table, in the order of {@link Result#getKeptFeatures(int)}.
+   *
+   * @return an immutable list of samples.
+   */
+  public @Nonnull List<Sample> getSamples() {
+    return samples;
+  }
+
+  /**
+   * Evaluates all criteria on the given rows.
+   *
+   * @param rows the rows to evaluate, e.g. all rows of the table.
+   * @return the kept rows and features, or null if the evaluation was canceled.
+   */
+  public @Nullable Result evaluate(@Nonnull List<FeatureTableRow> rows) {
+    Preconditions.checkNotNull(rows);
+    final FeatureTableRow rowArray[] = rows.toArray(new FeatureTableRow[rows.size()]);
+    final Result result = ForkJoinPool.commonPool().invoke(new Evaluation(rowArray, 0,
+        rowArray.length));
+    return canceled ? null : result;
+  }
+
+  /**
+   * Returns the number of rows evaluated so far.
+   *
+   * @return the number of evaluated rows.
+   */
+  public int getProcessedRows() {
+    return processedRows.get();
+  }
+
+  /**
+   * Stops a running evaluation.
+   */
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * Kept rows and features of an evaluation, by the position of the row in the evaluated list.
+   */
+  public static final class Result {
+
+    private final @Nonnull BitSet keptRows;
+    private final @Nonnull BitSet keptFeatures[];
+
+    Result(int sampleCount) {
+      keptRows = new BitSet();
+      keptFeatures = new BitSet[sampleCount];
+      for (int i = 0; i < sampleCount; i++)
+        keptFeatures[i] = new BitSet();
+    }
+
+    /**
+     * Returns the positions of the kept rows.
+     *
+     * @return a {@link BitSet} of row positions.
+     */
+    public @Nonnull BitSet getKeptRows() {
+      return keptRows;
+    }
+
+    /**
+     * Returns the positions of the rows whose feature of a sample is kept.
+     *
+     * @param sampleIndex the index of the sample in {@link FilterPipeline#getSamples()}.
+     * @return a {@link BitSet} of row positions.
+     */
+    public @Nonnull BitSet getKeptFeatures(int sampleIndex) {
+      return keptFeatures[sampleIndex];
+    }
+
+    private void or(@Nonnull Result other) {
+      keptRows.or(other.keptRows);
+      for (int i = 0; i < keptFeatures.length; i++)
+        keptFeatures[i].or(other.keptFeatures[i]);
+    }
+  }
+
+  /**
+   * Evaluates a range of rows, split into chunks which are evaluated in parallel.
+   */
+  @SuppressWarnings("serial")
+  private final class Evaluation extends RecursiveTask<Result> {
+
+    private final @Nonnull FeatureTableRow rows[];
+    private final int from, to;
+
+    Evaluation(@Nonnull FeatureTableRow rows[], int from, int to) {
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Result compute() {
+      if (to - from > CHUNK_SIZE) {
+        final int middle = (from + to) >>> 1;
+        Evaluation lower = new Evaluation(rows, from, middle);
+        lower.fork();
+        Result result = new Evaluation(rows, middle, to).compute();
+        result.or(lower.join());
+        return result;
+      }
+
+      final Result result = new Result(samples.size());
+      final boolean hasFeatureCriteria = hasFeatureCriteria();
+      rows: for (int position = from; position < to; position++) {
+        if (canceled)
+          break;
+        processedRows.incrementAndGet();
+
+        final FeatureTableRow row = rows[position];
+        for (Predicate<FeatureTableRow> criterion : rowCriteria) {
+          if (!criterion.test(row))
+            continue rows;
+        }
+
+        boolean anyFeature = false;
+        for (int i = 0; i < samples.size(); i++) {
+          if (testAll(featureCriteria.get(i), row)) {
+            result.keptFeatures[i].set(position);
+            anyFeature = true;
+          }
+        }
+        if (anyFeature || !hasFeatureCriteria)
+          result.keptRows.set(position);
+      }
+      return result;
+    }
+
+    private boolean hasFeatureCriteria() {
+      for (List<Predicate<FeatureTableRow>> criteria : featureCriteria) {
+        if (!criteria.isEmpty())
+          return true;
+      }
+      return false;
+    }
+
+    private boolean testAll(List<Predicate<FeatureTableRow>> criteria, FeatureTableRow row) {
+      for (Predicate<FeatureTableRow> criterion : criteria) {
+        if (!criterion.test(row))
+          return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Checks the value of a numeric column against primitive range bounds. The values of columnar
+   * feature tables are read without boxing them.
+   */
+  private static final class RangeCriterion implements Predicate<FeatureTableRow> {
+
+    private final @Nonnull FeatureTableColumn<? extends Number> column;
+    private final boolean keepMissing;
+    private final double lower, upper;
+    private final boolean hasLower, hasUpper, lowerOpen, upperOpen;
+    private final @Nonnull DoublePredicate inRange = this::contains;
+
+    RangeCriterion(@Nonnull FeatureTableColumn<? extends Number> column,
+        @Nonnull Range<? extends Number> range, boolean keepMissing) {
+      Preconditions.checkNotNull(range);
+      this.column = column;
+      this.keepMissing = keepMissing;
+      hasLower = range.hasLowerBound();
+      hasUpper = range.hasUpperBound();
+      lower = hasLower ? range.lowerEndpoint().doubleValue() : 0;
+      upper = hasUpper ? range.upperEndpoint().doubleValue() : 0;
+      lowerOpen = hasLower && range.lowerBoundType() == BoundType.OPEN;
+      upperOpen = hasUpper && range.upperBoundType() == BoundType.OPEN;
+    }
+
+    @Override
+    public boolean test(FeatureTableRow row) {
+      if (row instanceof ColumnarFeatureTableRow)
+        return ((ColumnarFeatureTableRow) row).testDouble(column, inRange, keepMissing);
+      final Number value = row.getData(column);
+      if (value == null)
+        return keepMissing;
+      return contains(value.doubleValue());
+    }
+
+    private boolean contains(double v) {
+      // Compare in the same way as Double.compareTo(), like Range.contains()
+      if (hasLower) {
+        final int c = Double.compare(v, lower);
+        if (c < 0 || (c == 0 && lowerOpen))
+          return false;
+      }
+      if (hasUpper) {
+        final int c = Double.compare(v, upper);
+        if (c > 0 || (c == 0 && upperOpen))
+          return false;
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.featuretable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.SimpleSample;
+import io.github.mzmine.util.FeatureTableUtil;
+
+public class FilterPipelineTest {
+
+  @Test
+  public void testEvaluate() {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    evaluate(MSDKObjectBuilder.getFeatureTable("test", dataStore));
+  }
+
+  @Test
+  public void testEvaluateColumnar() {
+    // The range criteria read the primitive values of the columnar table
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    evaluate(new ColumnarFeatureTable("test", dataStore));
+  }
+
+  private void evaluate(FeatureTable featureTable) {
+
+    // Create the data structures
+    Sample sample1 = new SimpleSample("sample1");
+    Sample sample2 = new SimpleSample("sample2");
+
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn1 =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.MZ, sample1);
+    FeatureTableColumn<Double> mzColumn2 =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.MZ, sample2);
+    FeatureTableColumn<Double> areaColumn1 =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.AREA, sample1);
+    FeatureTableColumn<Double> areaColumn2 =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.AREA, sample2);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(mzColumn1);
+    featureTable.addColumn(mzColumn2);
+    featureTable.addColumn(areaColumn1);
+    featureTable.addColumn(areaColumn2);
+
+    // Sample 2 has no area in row 3 and no feature at all in row 4
+    for (int i = 1; i <= 4; i++) {
+      FeatureTableRow row = FeatureTableUtil.createRow(featureTable, i);
+      row.setData(mzColumn, 100.0 * i);
+      row.setData(mzColumn1, 100.0 * i);
+      row.setData(areaColumn1, 1000.0 * i);
+      if (i < 4)
+        row.setData(mzColumn2, 100.0 * i);
+      if (i < 3)
+        row.setData(areaColumn2, 500.0 * i);
+      featureTable.addRow(row);
+    }
+
+    // Keep areas of at least 1000 and m/z values below 400
+    FilterPipeline pipeline = new FilterPipeline(featureTable);
+    pipeline.addRowRange(ColumnName.MZ, Range.lessThan(400.0), false);
+    pipeline.addFeatureRange(ColumnName.AREA, Range.atLeast(1000.0), true);
+    pipeline.addFeatureRequired(ColumnName.MZ);
+    FilterPipeline.Result result = pipeline.evaluate(featureTable.getRows());
+    Assert.assertNotNull(result);
+    Assert.assertEquals(4, pipeline.getProcessedRows());
+
+    int sample1Index = pipeline.getSamples().indexOf(sample1);
+    int sample2Index = pipeline.getSamples().indexOf(sample2);
+    Assert.assertEquals("{0, 1, 2}", result.getKeptRows().toString());
+    Assert.assertEquals("{0, 1, 2}", result.getKeptFeatures(sample1Index).toString());
+    Assert.assertEquals("{1, 2}", result.getKeptFeatures(sample2Index).toString());
+
+    featureTable.dispose();
+  }
+
+}
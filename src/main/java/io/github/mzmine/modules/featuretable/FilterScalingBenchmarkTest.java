@@ -0,0 +1,339 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.modules.featuretable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.SimpleFeatureTableColumn;
+import io.github.mzmine.datamodel.SimpleFeatureTableRow;
+import io.github.mzmine.datamodel.SimpleSample;
+import io.github.mzmine.modules.featuretable.filtering.FeatureFilterMethod;
+import io.github.mzmine.modules.featuretable.rowfilter.RowFilterMethod;
+import io.github.mzmine.util.FeatureTableUtil;
+
+/**
+ * Verifies that the feature and row filter methods scale linearly with the number of rows and
+ * samples of a table, and that the duplicate removal of the row filter scales linearly with the
+ * number of rows.
+ *
+ * The scaling tests count the column name lookups and the row comparisons, which do not depend on
+ * the speed of the machine. The wall-clock micro-benchmarks only run if the system property
+ * mzmine.benchmark is set to true.
+ */
+public class FilterScalingBenchmarkTest {
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private static final String BENCHMARK_PROPERTY = "mzmine.benchmark";
+
+  private static final int SAMPLES = 500;
+  private static final int ROWS = 100;
+  private static final int DUPLICATE_ROWS = 20000;
+
+  // Table size of the scaling tests
+  private static final int SCALING_SAMPLES = 50;
+  private static final int SCALING_ROWS = 50;
+
+  // Bound for doubling the table size, a linear search of the columns would quadruple the lookups
+  private static final double MAX_LOOKUP_RATIO = 2.5;
+
+  // Generous bound for doubling the number of rows, to tolerate timing noise
+  private static final double MAX_RATIO = 3.5;
+
+  // Number of name lookups of the counted columns
+  private final AtomicLong nameLookups = new AtomicLong();
+
+  // Number of ion annotation reads of the counted rows, one per compared row
+  private final AtomicLong annotationReads = new AtomicLong();
+
+  @Test
+  public void testFeatureFilterLookups() throws MSDKException {
+    long lookups = countLookups(true, SCALING_ROWS, SCALING_SAMPLES);
+    long rowLookups = countLookups(true, 2 * SCALING_ROWS, SCALING_SAMPLES);
+    long sampleLookups = countLookups(true, SCALING_ROWS, 2 * SCALING_SAMPLES);
+    Assert.assertTrue("Feature filter does not scale linearly with the rows",
+        rowLookups < MAX_LOOKUP_RATIO * lookups);
+    Assert.assertTrue("Feature filter does not scale linearly with the samples",
+        sampleLookups < MAX_LOOKUP_RATIO * lookups);
+  }
+
+  @Test
+  public void testRowFilterLookups() throws MSDKException {
+    long lookups = countLookups(false, SCALING_ROWS, SCALING_SAMPLES);
+    long rowLookups = countLookups(false, 2 * SCALING_ROWS, SCALING_SAMPLES);
+    long sampleLookups = countLookups(false, SCALING_ROWS, 2 * SCALING_SAMPLES);
+    Assert.assertTrue("Row filter does not scale linearly with the rows",
+        rowLookups < MAX_LOOKUP_RATIO * lookups);
+    Assert.assertTrue("Row filter does not scale linearly with the samples",
+        sampleLookups < MAX_LOOKUP_RATIO * lookups);
+  }
+
+  @Test
+  public void testDuplicateRemovalComparisons() throws MSDKException {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    FeatureTable featureTable = createDuplicateTable(DUPLICATE_ROWS, dataStore);
+    annotationReads.set(0);
+    RowFilterMethod method = createDuplicateFilter(featureTable, dataStore, true);
+    method.execute();
+
+    // Each row is only compared with the rows within the tolerances, instead of all other rows
+    Assert.assertEquals(DUPLICATE_ROWS / 2, method.getResult().getRows().size());
+    Assert.assertTrue("Duplicate removal compares too many rows",
+        annotationReads.get() <= 2 * DUPLICATE_ROWS);
+    featureTable.dispose();
+  }
+
+  @Test
+  public void testFeatureFilterScaling() throws MSDKException {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    long time1 = timeFeatureFilter(ROWS);
+    long time2 = timeFeatureFilter(2 * ROWS);
+    logger.info("Feature filter, " + SAMPLES + " samples: " + ROWS + " rows " + time1 / 1000000
+        + " ms, " + 2 * ROWS + " rows " + time2 / 1000000 + " ms");
+    Assert.assertTrue("Feature filter does not scale linearly",
+        time2 < MAX_RATIO * Math.max(time1, 1000000));
+  }
+
+  @Test
+  public void testRowFilterScaling() throws MSDKException {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    long time1 = timeRowFilter(ROWS);
+    long time2 = timeRowFilter(2 * ROWS);
+    logger.info("Row filter, " + SAMPLES + " samples: " + ROWS + " rows " + time1 / 1000000
+        + " ms, " + 2 * ROWS + " rows " + time2 / 1000000 + " ms");
+    Assert.assertTrue("Row filter does not scale linearly",
+        time2 < MAX_RATIO * Math.max(time1, 1000000));
+  }
+
+  @Test
+  public void testDuplicateRemovalScaling() throws MSDKException {
+    Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+    long time1 = timeDuplicateRemoval(DUPLICATE_ROWS);
+    long time2 = timeDuplicateRemoval(2 * DUPLICATE_ROWS);
+    logger.info("Duplicate removal: " + DUPLICATE_ROWS + " rows " + time1 / 1000000 + " ms, "
+        + 2 * DUPLICATE_ROWS + " rows " + time2 / 1000000 + " ms");
+    Assert.assertTrue("Duplicate removal does not scale linearly",
+        time2 < MAX_RATIO * Math.max(time1, 1000000));
+  }
+
+  /**
+   * Returns the number of column name lookups of the feature or row filter.
+   */
+  private long countLookups(boolean featureFilter, int rows, int samples) throws MSDKException {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    FeatureTable featureTable = createFeatureTable(rows, samples, dataStore);
+    nameLookups.set(0);
+    MSDKMethod<FeatureTable> method =
+        featureFilter ? createFeatureFilter(featureTable, dataStore)
+            : createRowFilter(featureTable, dataStore);
+    method.execute();
+    final long lookups = nameLookups.get();
+    Assert.assertEquals(rows, method.getResult().getRows().size());
+    featureTable.dispose();
+    return lookups;
+  }
+
+  private long timeFeatureFilter(int rows) throws MSDKException {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    FeatureTable featureTable = createFeatureTable(rows, SAMPLES, dataStore);
+    FeatureFilterMethod method = createFeatureFilter(featureTable, dataStore);
+    long time = time(method);
+    Assert.assertEquals(rows, method.getResult().getRows().size());
+    featureTable.dispose();
+    return time;
+  }
+
+  private long timeRowFilter(int rows) throws MSDKException {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    FeatureTable featureTable = createFeatureTable(rows, SAMPLES, dataStore);
+    RowFilterMethod method = createRowFilter(featureTable, dataStore);
+    long time = time(method);
+    Assert.assertEquals(rows, method.getResult().getRows().size());
+    featureTable.dispose();
+    return time;
+  }
+
+  /**
+   * Creates a feature filter which keeps all features of the table.
+   */
+  private FeatureFilterMethod createFeatureFilter(FeatureTable featureTable,
+      DataPointStore dataStore) {
+    Range<Double> areaRange = Range.closed(1E3, 1E9);
+    Range<Double> emptyRange = Range.closed(0.0, 0.0);
+    return new FeatureFilterMethod(featureTable, dataStore, false, true, false, false, false,
+        false, false, emptyRange, areaRange, emptyRange, Range.closed(0, 0), emptyRange,
+        emptyRange, emptyRange, "-Filtered");
+  }
+
+  /**
+   * Creates a row filter which keeps all rows of the table.
+   */
+  private RowFilterMethod createRowFilter(FeatureTable featureTable, DataPointStore dataStore) {
+    return new RowFilterMethod(featureTable, dataStore, "-rowFiltered", true, false, false, true,
+        false, false, false, Range.closed(0.0, 2000.0), null, null, 1, null, null, false,
+        new MaximumMzTolerance(0.003, 5.0), new RTTolerance(0.2f, false), false);
+  }
+
+  private long timeDuplicateRemoval(int rows) throws MSDKException {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    FeatureTable featureTable = createDuplicateTable(rows, dataStore);
+    RowFilterMethod method = createDuplicateFilter(featureTable, dataStore, false);
+    long time = time(method);
+    Assert.assertEquals(rows / 2, method.getResult().getRows().size());
+    featureTable.dispose();
+    return time;
+  }
+
+  /**
+   * Creates a row filter which only removes the duplicate rows.
+   */
+  private RowFilterMethod createDuplicateFilter(FeatureTable featureTable,
+      DataPointStore dataStore, boolean requireSameID) {
+    return new RowFilterMethod(featureTable, dataStore, "-rowFiltered", false, false, false, false,
+        false, false, false, null, null, null, null, null, null, true,
+        new MaximumMzTolerance(0.003, 5.0), new RTTolerance(0.2f, false), requireSameID);
+  }
+
+  /**
+   * Creates a feature table in which every two consecutive rows have the same m/z and RT. The ion
+   * annotation reads of the rows are counted.
+   */
+  private FeatureTable createDuplicateTable(int rows, DataPointStore dataStore) {
+    FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("benchmark", dataStore);
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    FeatureTableColumn<Float> rtColumn = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    featureTable.addColumn(MSDKObjectBuilder.getIonAnnotationFeatureTableColumn());
+    List<FeatureTableRow> newRows = new ArrayList<>();
+    for (int r = 0; r < rows; r++) {
+      FeatureTableRow row = new CountingRow(featureTable, r + 1);
+      row.setData(idColumn, r + 1);
+      row.setData(mzColumn, 100.0 + (r / 2) * 0.1);
+      row.setData(rtColumn, 60f + (r / 2) % 10);
+      newRows.add(row);
+    }
+    FeatureTableUtil.addRows(featureTable, newRows);
+    return featureTable;
+  }
+
+  private long time(MSDKMethod<?> method) throws MSDKException {
+    long start = System.nanoTime();
+    method.execute();
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Creates a feature table with m/z and area values for every sample. The name lookups of the
+   * sample columns are counted.
+   */
+  private FeatureTable createFeatureTable(int rows, int samples, DataPointStore dataStore) {
+    FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("benchmark", dataStore);
+    FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(MSDKObjectBuilder.getRetentionTimeFeatureTableColumn());
+
+    List<FeatureTableColumn<Double>> sampleMzColumns = new ArrayList<>();
+    List<FeatureTableColumn<Double>> sampleAreaColumns = new ArrayList<>();
+    for (int s = 0; s < samples; s++) {
+      Sample sample = new SimpleSample("Sample " + s);
+      FeatureTableColumn<Double> sampleMzColumn =
+          new CountingColumn<>(ColumnName.MZ.getName(), Double.class, sample);
+      FeatureTableColumn<Double> sampleAreaColumn =
+          new CountingColumn<>(ColumnName.AREA.getName(), Double.class, sample);
+      featureTable.addColumn(sampleMzColumn);
+      featureTable.addColumn(sampleAreaColumn);
+      sampleMzColumns.add(sampleMzColumn);
+      sampleAreaColumns.add(sampleAreaColumn);
+    }
+
+    for (int r = 1; r <= rows; r++) {
+      FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, r);
+      row.setData(idColumn, r);
+      row.setData(mzColumn, 100.0 + r);
+      for (int s = 0; s < samples; s++) {
+        row.setData(sampleMzColumns.get(s), 100.0 + r);
+        row.setData(sampleAreaColumns.get(s), 1E5 + s);
+      }
+      featureTable.addRow(row);
+    }
+    return featureTable;
+  }
+
+  /**
+   * Column which counts the lookups of its name.
+   */
+  private class CountingColumn<DataType> extends SimpleFeatureTableColumn<DataType> {
+
+    CountingColumn(@Nonnull String name, @Nonnull Class<DataType> dataTypeClass,
+        @Nullable Sample sample) {
+      super(name, dataTypeClass, sample);
+    }
+
+    @Override
+    public @Nonnull String getName() {
+      nameLookups.incrementAndGet();
+      return super.getName();
+    }
+
+  }
+
+  /**
+   * Row which counts the reads of its ion annotations.
+   */
+  private class CountingRow extends SimpleFeatureTableRow {
+
+    CountingRow(@Nonnull FeatureTable featureTable, int rowId) {
+      super(featureTable, rowId);
+    }
+
+    @Override
+    public <DATATYPE> DATATYPE getData(@Nonnull FeatureTableColumn<? extends DATATYPE> column) {
+      if (column == MSDKObjectBuilder.getIonAnnotationFeatureTableColumn())
+        annotationReads.incrementAndGet();
+      return super.getData(column);
+    }
+
+  }
+
+}
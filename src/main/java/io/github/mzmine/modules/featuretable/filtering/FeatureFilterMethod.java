@@ -13,6 +13,9 @@
 
 package io.github.mzmine.modules.featuretable.filtering;
 
+import java.util.BitSet;
+import java.util.List;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -22,16 +25,17 @@ import io.github.msdk.MSDKException;
 import io.github.msdk.MSDKMethod;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
-import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
 import io.github.msdk.datamodel.featuretables.FeatureTableRow;
 import io.github.msdk.datamodel.featuretables.Sample;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.mzmine.datamodel.ColumnName;
-import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.FeatureTableView;
+import io.github.mzmine.modules.featuretable.FilterPipeline;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * This class creates a filtered feature table based on a feature table and a set of feature
- * filters.
+ * filters. The result is a {@link FeatureTableView} on the source table, which can be copied into
+ * an independent table with {@link FeatureTableView#materialize(String, DataPointStore)}.
  */
 public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
 
@@ -57,9 +61,9 @@ public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
   private final @Nonnull FeatureTable featureTable;
   private final @Nonnull String nameSuffix;
   private final @Nonnull DataPointStore dataStore;
-  private final @Nonnull FeatureTable result;
-  private boolean canceled = false;
-  private int processedFeatures = 0, totalFeatures = 0;
+  private final @Nonnull FeatureTableView result;
+  private final @Nonnull FilterPipeline pipeline;
+  private int totalFeatures = 0;
 
   /**
    * <p>
@@ -110,31 +114,37 @@ public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
     this.asymmetryFactorRange = asymmetryFactorRange;
     this.nameSuffix = nameSuffix;
 
-    // Make a new feature table
-    result = MSDKObjectBuilder.getFeatureTable(featureTable.getName() + nameSuffix, dataStore);
+    // Make a new view on the feature table
+    result = new FeatureTableView(featureTable.getName() + nameSuffix, featureTable, dataStore);
+    pipeline = createPipeline();
   }
 
   /** {@inheritDoc} */
   @Override
   public FeatureTable execute() throws MSDKException {
     // Total features
-    totalFeatures = featureTable.getRows().size() * featureTable.getSamples().size();
-
-    // Add columns
-    for (FeatureTableColumn<?> column : featureTable.getColumns()) {
-      result.addColumn(column);
-    }
-
-    // Loop through all features
-    for (FeatureTableRow row : featureTable.getRows()) {
+    final List<FeatureTableRow> rows = result.getParentRows();
+    final List<Sample> samples = pipeline.getSamples();
+    totalFeatures = rows.size() * samples.size();
 
-      // Find samples which should keep the feature
-      boolean[] keepFeature = checkFeature(row);
+    // Find the features which fulfill the filter criteria
+    final FilterPipeline.Result kept = pipeline.evaluate(rows);
+    if (kept == null)
+      return null;
 
-      // Add the feature row to the table if it is not null
-      FeatureTableRow newRow = copyRow(row, keepFeature, result);
-      if (newRow != null)
-        result.addRow(newRow);
+    // Hide the features which do not fulfill the filter criteria and the
+    // rows without any remaining feature
+    for (int i = 0; i < samples.size(); i++) {
+      final BitSet keptFeatures = kept.getKeptFeatures(i);
+      for (int position = keptFeatures.nextClearBit(0); position < rows.size(); position =
+          keptFeatures.nextClearBit(position + 1)) {
+        result.setFeatureVisible(position, samples.get(i), false);
+      }
+    }
+    final BitSet keptRows = kept.getKeptRows();
+    for (int position = keptRows.nextClearBit(0); position < rows.size(); position =
+        keptRows.nextClearBit(position + 1)) {
+      result.setRowVisible(position, false);
     }
 
     // Re-calculate average row m/z and RT values
@@ -145,151 +155,40 @@ public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
   }
 
   /**
-   * Helper function to check which samples should keep the feature.
+   * Helper function to compile the filter criteria of the features.
    */
-  private boolean[] checkFeature(FeatureTableRow row) {
-
-    // Values for keeping track of features for a sample
-    boolean[] keepFeature = new boolean[featureTable.getSamples().size()];
-    int i = 0;
-
-    // Loop through all samples for the feature
-    for (Sample sample : featureTable.getSamples()) {
-
-      FeatureTableColumn<Object> column;
-      keepFeature[i] = true;
-
-      // Check Duration
-      if (filterByDuration && durationRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkDoubleValue(durationRange, ColumnName.DURATION, sample, row);
-
-      // Check Area
-      if (filterByArea && areaRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkDoubleValue(areaRange, ColumnName.AREA, sample, row);
-
-      // Check Height
-      if (filterByHeight && heightRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkFloatValue(heightRange, ColumnName.HEIGHT, sample, row);
-
-      // Check FWHM
-      if (filterByFWHM && fwhmRange != null && keepFeature[i] != false)
-        keepFeature[i] = checkDoubleValue(fwhmRange, ColumnName.FWHM, sample, row);
-
-      // Check Tailing Factor
-      if (filterByTailingFactor && tailingFactorRange != null && keepFeature[i] != false)
-        keepFeature[i] =
-            checkDoubleValue(tailingFactorRange, ColumnName.TAILINGFACTOR, sample, row);
-
-      // Check Asymmetry Factor
-      if (filterByAsymmetryFactor && asymmetryFactorRange != null && keepFeature[i] != false)
-        keepFeature[i] =
-            checkDoubleValue(asymmetryFactorRange, ColumnName.ASYMMETRYFACTOR, sample, row);
-
-      // Check # Data Points
-      if (filterByDataPoints && dataPointsRange != null) {
-        column = featureTable.getColumn(ColumnName.NUMBEROFDATAPOINTS, sample);
-        if (column != null) {
-          if (row.getData(column) != null) {
-            final Integer peakDataPoints = (Integer) row.getData(column);
-            if (!dataPointsRange.contains(peakDataPoints))
-              keepFeature[i] = false;
-          }
-        }
-      }
-
-      // If no value is found in the m/z column for the sample then
-      // the feature is not present for this sample
-      column = featureTable.getColumn(ColumnName.MZ, sample);
-      if (row.getData(column) == null) {
-        keepFeature[i] = false;
-      }
-
-      i++;
-      processedFeatures++;
-
-      if (canceled)
-        return null;
-    }
-
-    return keepFeature;
-  }
-
-  /**
-   * Helper function to check if a specific double value from a sample is within a given range.
-   */
-  private boolean checkDoubleValue(Range<Double> range, ColumnName columnName, Sample sample,
-      FeatureTableRow row) {
-
-    FeatureTableColumn<Double> column = featureTable.getColumn(columnName, sample);
-    if (column != null) {
-      if (row.getData(column) != null) {
-        final Double value = (Double) row.getData(column);
-        if (!range.contains(value))
-          return false;
-      }
-    }
-
-    return true;
-  }
-
-  /**
-   * Helper function to check if a specific float value from a sample is within a given range.
-   */
-  private boolean checkFloatValue(Range<Double> range, ColumnName columnName, Sample sample,
-      FeatureTableRow row) {
-
-    FeatureTableColumn<Float> column = featureTable.getColumn(columnName, sample);
-    if (column != null) {
-      if (row.getData(column) != null) {
-        final Float value = (Float) row.getData(column);
-        final Double doubleValue = (double) value;
-        if (!range.contains(doubleValue))
-          return false;
-      }
-    }
-
-    return true;
-  }
-
-  /**
-   * Create a copy of a peak list row.
-   */
-  private static FeatureTableRow copyRow(@Nonnull FeatureTableRow row,
-      @Nonnull boolean[] keepFeatures, @Nonnull FeatureTable result) {
-
-    // Return null if no sample has data for the feature
-    boolean noSamples = true;
-    for (boolean value : keepFeatures) {
-      if (value)
-        noSamples = false;
-    }
-    if (noSamples)
-      return null;
-
-    // Create a new row with the common feature data
-    final FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(result, row.getId());
-    FeatureTableUtil.copyCommonValues(row, newRow, false);
-
-    // Copy the feature data for the samples
-    int i = 0;
-    for (Sample sample : row.getFeatureTable().getSamples()) {
-
-      // Only keep feature data if it fulfills the filter criteria
-      if (keepFeatures[i]) {
-        FeatureTableUtil.copyFeatureValues(row, newRow, sample);
-      }
-      i++;
-
-    }
-
-    return newRow;
+  private FilterPipeline createPipeline() {
+    FilterPipeline pipeline = new FilterPipeline(featureTable);
+
+    if (filterByDuration && durationRange != null)
+      pipeline.addFeatureRange(ColumnName.DURATION, durationRange, true);
+    if (filterByArea && areaRange != null)
+      pipeline.addFeatureRange(ColumnName.AREA, areaRange, true);
+    if (filterByHeight && heightRange != null)
+      pipeline.addFeatureRange(ColumnName.HEIGHT, heightRange, true);
+    if (filterByFWHM && fwhmRange != null)
+      pipeline.addFeatureRange(ColumnName.FWHM, fwhmRange, true);
+    if (filterByTailingFactor && tailingFactorRange != null)
+      pipeline.addFeatureRange(ColumnName.TAILINGFACTOR, tailingFactorRange, true);
+    if (filterByAsymmetryFactor && asymmetryFactorRange != null)
+      pipeline.addFeatureRange(ColumnName.ASYMMETRYFACTOR, asymmetryFactorRange, true);
+    if (filterByDataPoints && dataPointsRange != null)
+      pipeline.addFeatureRange(ColumnName.NUMBEROFDATAPOINTS, dataPointsRange, true);
+
+    // If no value is found in the m/z column for the sample then
+    // the feature is not present for this sample
+    pipeline.addFeatureRequired(ColumnName.MZ);
+
+    return pipeline;
   }
 
   /** {@inheritDoc} */
   @Override
   @Nullable
   public Float getFinishedPercentage() {
-    return totalFeatures == 0 ? null : (float) processedFeatures / totalFeatures;
+    if (totalFeatures == 0)
+      return null;
+    return (float) pipeline.getProcessedRows() * pipeline.getSamples().size() / totalFeatures;
   }
 
   /** {@inheritDoc} */
@@ -302,7 +201,7 @@ public class FeatureFilterMethod implements MSDKMethod<FeatureTable> {
   /** {@inheritDoc} */
   @Override
   public void cancel() {
-    canceled = true;
+    pipeline.cancel();
   }
 
 }
@@ -14,8 +14,21 @@
 package io.github.mzmine.modules.featuretable.gapfilling;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -23,6 +36,8 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Preconditions;
+
 import io.github.msdk.MSDKException;
 import io.github.msdk.MSDKMethod;
 import io.github.msdk.datamodel.chromatograms.Chromatogram;
@@ -34,12 +49,12 @@ import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.featdet.chromatogramtofeaturetable.ChromatogramToFeatureTableMethod;
-import io.github.msdk.featdet.targeteddetection.TargetedDetectionMethod;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.msdk.util.tolerances.MzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ChromatogramToFeatureTableMethod;
 import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.modules.featuredetection.targeteddetection.MultiTargetDetectionMethod;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * This class fills in the missing gaps in a FeatureTable.
@@ -56,14 +71,20 @@ public class GapFillingMethod implements MSDKMethod<FeatureTable> {
   private final @Nonnull Double intensityTolerance;
   private final @Nonnull String nameSuffix;
 
+  private final int parallelFiles;
+
   // Helper variables
-  private boolean canceled = false;
-  private int processedGaps = 0, totalGaps = 0;
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedGaps = new AtomicInteger();
+  private int totalGaps = 0;
   private final @Nonnull FeatureTable result;
+  private final @Nonnull Set<MultiTargetDetectionMethod> runningMethods =
+      Collections.newSetFromMap(new ConcurrentHashMap<MultiTargetDetectionMethod, Boolean>());
 
   /**
    * <p>
-   * Constructor for GapFillingMethod.
+   * Constructor for GapFillingMethod. The raw data files are processed in parallel using as many
+   * threads as there are available processors.
    * </p>
    *
    * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
@@ -77,92 +98,214 @@ public class GapFillingMethod implements MSDKMethod<FeatureTable> {
   public GapFillingMethod(@Nonnull FeatureTable featureTable, @Nonnull DataPointStore dataStore,
       @Nonnull MzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance,
       @Nonnull Double intensityTolerance, @Nonnull String nameSuffix) {
+    this(featureTable, dataStore, mzTolerance, rtTolerance, intensityTolerance, nameSuffix,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * <p>
+   * Constructor for GapFillingMethod.
+   * </p>
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param dataStore the {@link io.github.msdk.datamodel.datastore.DataPointStore} of the result
+   *        table. The data points of the filled gaps are kept in their chromatograms.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   * @param intensityTolerance a {@link java.lang.Double} object.
+   * @param nameSuffix a {@link java.lang.String} object.
+   * @param parallelFiles the maximum number of raw data files which are processed in parallel.
+   */
+  public GapFillingMethod(@Nonnull FeatureTable featureTable, @Nonnull DataPointStore dataStore,
+      @Nonnull MzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance,
+      @Nonnull Double intensityTolerance, @Nonnull String nameSuffix, int parallelFiles) {
+    Preconditions.checkArgument(parallelFiles > 0);
     this.featureTable = featureTable;
     this.dataStore = dataStore;
     this.mzTolerance = mzTolerance;
     this.rtTolerance = rtTolerance;
     this.intensityTolerance = intensityTolerance;
     this.nameSuffix = nameSuffix;
+    this.parallelFiles = parallelFiles;
 
-    // Make a copy of the input feature table
-    result = FeatureTableUtil.clone(dataStore, featureTable, featureTable.getName() + nameSuffix);
-
-    // Copy ID values
-    FeatureTableUtil.copyIdValues(featureTable, result);
+    // Make a copy-on-write clone of the input feature table, only the
+    // storage pages of the filled gaps are copied
+    result = FeatureTableUtil.copyOnWriteClone(dataStore, featureTable,
+        featureTable.getName() + nameSuffix);
 
   }
 
   /** {@inheritDoc} */
   @Override
   public FeatureTable execute() throws MSDKException {
-    List<FeatureTableRow> gapRow = new ArrayList<FeatureTableRow>();
-    List<Sample> gapSample = new ArrayList<Sample>();
+    final List<Sample> samples = result.getSamples();
+    final FeatureTableColumn<Float> rtColumn =
+        result.getColumn(ColumnName.RT.getName(), null, Float.class);
 
-    // Total gaps
-    for (FeatureTableRow row : result.getRows()) {
-      for (Sample sample : result.getSamples()) {
-        FeatureTableColumn<Double> areaColumn = result.getColumn(ColumnName.AREA, sample);
+    // Group the gaps by the raw data file of their sample, so each file
+    // is searched only once for all of its gaps
+    final Map<RawDataFile, List<Gap>> fileGaps = new LinkedHashMap<>();
+    for (Sample sample : samples) {
+      final RawDataFile rawFile = sample.getRawDataFile();
+      if (rawFile == null) {
+        logger.warn("Sample '" + sample.getName() + "' has no raw data file, skipping its gaps");
+        continue;
+      }
+      final FeatureTableColumn<Double> areaColumn = result.getColumn(ColumnName.AREA, sample);
+      for (FeatureTableRow row : result.getRows()) {
         Double area = row.getData(areaColumn);
 
-        // Add the gap to arrays
+        // Add the gap to the list of its raw data file
         if (area == null) {
-          gapRow.add(row);
-          gapSample.add(sample);
+          List<Gap> gaps = fileGaps.get(rawFile);
+          if (gaps == null) {
+            gaps = new ArrayList<>();
+            fileGaps.put(rawFile, gaps);
+          }
+          gaps.add(new Gap(row, sample, row.getMz(), row.getData(rtColumn)));
         }
       }
     }
 
-    totalGaps = gapRow.size();
-    logger.info("Started gap filling " + totalGaps + " gap(s) in '" + featureTable.getName() + "'");
+    for (List<Gap> gaps : fileGaps.values())
+      totalGaps += gaps.size();
+    logger.info("Started gap filling " + totalGaps + " gap(s) in " + fileGaps.size()
+        + " raw data file(s) of '" + featureTable.getName() + "'");
 
     if (totalGaps == 0)
       return result;
 
-    // Iterate over all the gaps
-    for (int i = 0; i < totalGaps; i++) {
-      FeatureTableRow row = gapRow.get(i);
-      Sample sample = gapSample.get(i);
-      RawDataFile rawFile = sample.getRawDataFile();
+    // Add the sample columns before the files are processed in parallel
+    final Map<Sample, Map<ColumnName, FeatureTableColumn<Object>>> sampleColumns =
+        new HashMap<>();
+    for (List<Gap> gaps : fileGaps.values()) {
+      for (Gap gap : gaps) {
+        if (!sampleColumns.containsKey(gap.sample))
+          sampleColumns.put(gap.sample,
+              ChromatogramToFeatureTableMethod.addSampleColumns(result, gap.sample));
+      }
+    }
 
-      // Create an ion annotation
+    // Process the raw data files in parallel
+    final Set<FeatureTableRow> filledRows =
+        Collections.synchronizedSet(new LinkedHashSet<FeatureTableRow>());
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(parallelFiles, fileGaps.size()));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Map.Entry<RawDataFile, List<Gap>> entry : fileGaps.entrySet()) {
+        final RawDataFile rawFile = entry.getKey();
+        final List<Gap> gaps = entry.getValue();
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws MSDKException {
+            fillGaps(rawFile, gaps, sampleColumns, filledRows);
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw new MSDKException(e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new MSDKException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Cancel?
+    if (canceled)
+      return null;
+
+    // Recalculate average values of the filled rows, the other rows are unchanged
+    FeatureTableUtil.recalculateAverages(result, filledRows);
+
+    return result;
+  }
+
+  /**
+   * Detects the chromatograms of all gaps of one raw data file in a single pass over its scans.
+   */
+  private void fillGaps(@Nonnull RawDataFile rawFile, @Nonnull List<Gap> gaps,
+      @Nonnull Map<Sample, Map<ColumnName, FeatureTableColumn<Object>>> sampleColumns,
+      @Nonnull Set<FeatureTableRow> filledRows) throws MSDKException {
+
+    if (canceled)
+      return;
+
+    // Create an ion annotation for each gap, the chromatograms are matched
+    // to their gaps by the identity of the annotation
+    final List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>(gaps.size());
+    final Map<IonAnnotation, Gap> annotationGaps = new IdentityHashMap<>(gaps.size());
+    for (Gap gap : gaps) {
       SimpleIonAnnotation ion = new SimpleIonAnnotation();
-      ion.setAnnotationId(row.getId().toString());
-      FeatureTableColumn<Float> column =
-          result.getColumn(ColumnName.RT.getName(), null, Float.class);
-      ion.setExpectedMz(row.getMz());
-      ion.setExpectedRetentionTime(row.getData(column));
-      List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>();
+      ion.setAnnotationId(gap.row.getId().toString());
+      ion.setExpectedMz(gap.mz);
+      ion.setExpectedRetentionTime(gap.rt);
       ionAnnotations.add(ion);
+      annotationGaps.put(ion, gap);
+    }
 
-      TargetedDetectionMethod chromBuilder = new TargetedDetectionMethod(ionAnnotations, rawFile,
-          dataStore, mzTolerance, rtTolerance, intensityTolerance, 0.0);
-      final List<Chromatogram> chromatograms = chromBuilder.execute();
-
-      // Add the data to the feature table row
-      Chromatogram chromatogram = chromatograms.get(0);
-      // chromatogram.setIonAnnotation(null);
-      Map<ColumnName, FeatureTableColumn<Object>> tableColumns =
-          ChromatogramToFeatureTableMethod.addSampleColumns(result, sample);
-      ChromatogramToFeatureTableMethod.addDataToRow(row, chromatogram, tableColumns);
+    // Extract the chromatograms of all gaps in one pass over the scans
+    MultiTargetDetectionMethod chromBuilder = new MultiTargetDetectionMethod(ionAnnotations,
+        rawFile, mzTolerance, rtTolerance, intensityTolerance, 0.0);
+    final List<Chromatogram> chromatograms;
+    runningMethods.add(chromBuilder);
+    try {
+      chromatograms = chromBuilder.execute();
+    } finally {
+      runningMethods.remove(chromBuilder);
+    }
 
-      processedGaps++;
+    // Canceled?
+    if (chromatograms == null)
+      return;
 
-      // Cancel?
-      if (canceled)
-        return null;
+    // Add the data to the feature table rows, the gaps of one row may be
+    // filled by several files at the same time. Gaps without peak stay empty.
+    for (Chromatogram chromatogram : chromatograms) {
+      final Gap gap = annotationGaps.get(chromatogram.getIonAnnotation());
+      if (gap == null)
+        throw new MSDKException("Chromatogram of raw data file " + rawFile.getName()
+            + " does not belong to any gap");
+      synchronized (gap.row) {
+        ChromatogramToFeatureTableMethod.addDataToRow(gap.row, chromatogram,
+            sampleColumns.get(gap.sample));
+      }
+      filledRows.add(gap.row);
     }
+    processedGaps.addAndGet(gaps.size());
+  }
 
-    // Recalculate average values
-    FeatureTableUtil.recalculateAverages(result);
+  /**
+   * Missing feature of a row in a sample, with the expected m/z and RT of the row.
+   */
+  private static final class Gap {
 
-    return result;
+    final @Nonnull FeatureTableRow row;
+    final @Nonnull Sample sample;
+    final @Nullable Double mz;
+    final @Nullable Float rt;
+
+    Gap(@Nonnull FeatureTableRow row, @Nonnull Sample sample, @Nullable Double mz,
+        @Nullable Float rt) {
+      this.row = row;
+      this.sample = sample;
+      this.mz = mz;
+      this.rt = rt;
+    }
   }
 
   /** {@inheritDoc} */
   @Override
   @Nullable
   public Float getFinishedPercentage() {
-    return totalGaps == 0 ? null : (float) processedGaps / totalGaps;
+    return totalGaps == 0 ? null : (float) processedGaps.get() / totalGaps;
   }
 
   /** {@inheritDoc} */
@@ -176,6 +319,8 @@ public class GapFillingMethod implements MSDKMethod<FeatureTable> {
   @Override
   public void cancel() {
     canceled = true;
+    for (MultiTargetDetectionMethod method : runningMethods)
+      method.cancel();
   }
 
 }
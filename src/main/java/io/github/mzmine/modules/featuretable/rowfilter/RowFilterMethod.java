@@ -13,8 +13,14 @@
 
 package io.github.mzmine.modules.featuretable.rowfilter;
 
-import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -27,16 +33,19 @@ import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
 import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
 import io.github.msdk.datamodel.featuretables.FeatureTableRow;
-import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.msdk.util.tolerances.MzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
 import io.github.mzmine.datamodel.ColumnName;
-import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.FeatureTableView;
+import io.github.mzmine.datamodel.MzRtIndex;
+import io.github.mzmine.modules.featuretable.FilterPipeline;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * This class creates a filtered feature table based on a feature table and a set of row filters.
+ * The result is a {@link FeatureTableView} on the source table, which can be copied into an
+ * independent table with {@link FeatureTableView#materialize(String, DataPointStore)}.
  */
 public class RowFilterMethod implements MSDKMethod<FeatureTable> {
 
@@ -67,9 +76,11 @@ public class RowFilterMethod implements MSDKMethod<FeatureTable> {
   private final @Nonnull FeatureTable featureTable;
   private final @Nonnull String nameSuffix;
   private final @Nonnull DataPointStore dataStore;
-  private final @Nonnull FeatureTable result;
-  private boolean canceled = false;
-  private int processedRows = 0, totalRows = 0;
+  private final @Nonnull FeatureTableView result;
+  private final @Nonnull FilterPipeline pipeline;
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
 
   /**
    * <p>
@@ -127,8 +138,9 @@ public class RowFilterMethod implements MSDKMethod<FeatureTable> {
     this.duplicateRtTolerance = duplicateRtTolerance;
     this.duplicateRequireSameID = duplicateRequireSameID;
 
-    // Make a new feature table
-    result = MSDKObjectBuilder.getFeatureTable(featureTable.getName() + nameSuffix, dataStore);
+    // Make a new view on the feature table
+    result = new FeatureTableView(featureTable.getName() + nameSuffix, featureTable, dataStore);
+    pipeline = createPipeline();
   }
 
   /** {@inheritDoc} */
@@ -141,187 +153,207 @@ public class RowFilterMethod implements MSDKMethod<FeatureTable> {
     if (removeDuplicates)
       totalRows = totalRows * 2;
 
-    // Add columns
-    for (FeatureTableColumn<?> column : featureTable.getColumns()) {
-      result.addColumn(column);
+    // Find the rows which fulfill the filter criteria
+    final List<FeatureTableRow> parentRows = result.getParentRows();
+    final FilterPipeline.Result kept = pipeline.evaluate(parentRows);
+    if (kept == null)
+      return null;
+
+    // Hide the rows which do not fulfill the filter criteria
+    final BitSet keepRows = kept.getKeptRows();
+    for (int position = keepRows.nextClearBit(0); position < parentRows.size(); position =
+        keepRows.nextClearBit(position + 1)) {
+      result.setRowVisible(position, false);
     }
+    processedRows.addAndGet(parentRows.size());
 
-    // Loop through all features
-    for (FeatureTableRow row : featureTable.getRows()) {
-      FeatureTableColumn<Object> column;
-      processedRows++;
+    // Remove duplicate features?
+    if (removeDuplicates && duplicateMzTolerance != null) {
 
-      // Check m/z
-      if (filterByMz && mzRange != null) {
-        final Double mz = row.getMz();
-        if ((mz == null) || (!mzRange.contains(mz)))
-          continue;
-      }
+      final List<FeatureTableRow> rows = result.getRows();
+      final int rowCount = rows.size();
 
-      // Check RT
-      if (filterByRt && rtRange != null) {
-        Float rowRT = row.getRT();
-        if (rowRT!=null) {
-          if (!rtRange.contains(rowRT))
-            continue;
-        }
+      // Recalculate the remaining rows in the result feature table
+      totalRows = totalRows / 2 + rowCount;
+
+      // Position of each row, to only compare rows with the rows below them
+      final Map<FeatureTableRow, Integer> rowPositions = new IdentityHashMap<>();
+      for (int i = 0; i < rowCount; i++)
+        rowPositions.put(rows.get(i), i);
+
+      // Search the duplicates in parallel over partitions of the m/z sorted rows
+      final MzRtIndex index = MzRtIndex.forFeatureTable(result);
+      final DuplicateSearch search = new DuplicateSearch(index, rowPositions,
+          result.getColumn(ColumnName.IONANNOTATION, null), 0, index.size());
+      final BitSet removeRows = ForkJoinPool.commonPool().invoke(search);
+      if (canceled)
+        return null;
+
+      // Remove rows
+      for (int position = removeRows.nextSetBit(0); position >= 0; position =
+          removeRows.nextSetBit(position + 1)) {
+        result.removeRow(rows.get(position));
       }
 
-      // Check duration
-      if (filterByDuration && durationRange != null) {
+      processedRows.set(totalRows);
+    }
+
+    // Return the new feature table
+    return result;
+  }
+
+  /**
+   * Helper function to compile the filter criteria of the rows.
+   */
+  private FilterPipeline createPipeline() {
+    FilterPipeline pipeline = new FilterPipeline(featureTable);
+
+    // Check m/z
+    if (filterByMz && mzRange != null)
+      pipeline.addRowRange(ColumnName.MZ, mzRange, false);
+
+    // Check RT
+    if (filterByRt && rtRange != null)
+      pipeline.addRowRange(ColumnName.RT, rtRange, true);
+
+    // Check duration
+    if (filterByDuration && durationRange != null) {
+      pipeline.addRowCriterion(row -> {
         final Double averageDuration = FeatureTableUtil.getAverageFeatureDuration(row);
-        if (averageDuration == null)
-          continue;
-        if (!durationRange.contains(averageDuration))
-          continue;
-      }
+        return averageDuration != null && durationRange.contains(averageDuration);
+      });
+    }
 
-      // Check count
-      if (filterByCount && minCount != null) {
-        final int rowCount = FeatureTableUtil.getRowCount(row);
-        if (!(rowCount >= minCount))
-          continue;
-      }
+    // Check count
+    if (filterByCount && minCount != null)
+      pipeline.addRowCriterion(row -> FeatureTableUtil.getRowCount(row) >= minCount);
 
-      // Check isotopes
-      if (filterByIsotopes) {
-        /*
-         * TODO
-         */
-      }
+    // Check isotopes
+    if (filterByIsotopes) {
+      /*
+       * TODO
+       */
+    }
 
-      // Check ion annotation
-      if (filterByIonAnnotation && ionAnnotation != null) {
-        FeatureTableColumn<List<IonAnnotation>> ionColumn =
-            featureTable.getColumn(ColumnName.IONANNOTATION, null);
+    final FeatureTableColumn<List<IonAnnotation>> ionColumn =
+        featureTable.getColumn(ColumnName.IONANNOTATION, null);
+
+    // Check ion annotation
+    if (filterByIonAnnotation && ionAnnotation != null) {
+      pipeline.addRowCriterion(row -> {
         if (ionColumn == null)
-          continue;
-        if (row.getData(ionColumn) != null) {
-          final List<IonAnnotation> rowIonAnnotations = row.getData(ionColumn);
-          Boolean keep = false;
-          if (rowIonAnnotations != null) {
-            for (IonAnnotation rowIonAnnotation : rowIonAnnotations) {
-              String annotationId = rowIonAnnotation.getAnnotationId();
-              if (annotationId != null)
-                if (!annotationId.contains(ionAnnotation))
-                  keep = true;
-            }
-          }
-          if (!keep)
-            continue;
+          return false;
+        final List<IonAnnotation> rowIonAnnotations = row.getData(ionColumn);
+        if (rowIonAnnotations == null)
+          return true;
+        for (IonAnnotation rowIonAnnotation : rowIonAnnotations) {
+          String annotationId = rowIonAnnotation.getAnnotationId();
+          if (annotationId != null && !annotationId.contains(ionAnnotation))
+            return true;
         }
-      }
+        return false;
+      });
+    }
 
-      // Require ion annotation?
-      if (requireAnnotation) {
-        FeatureTableColumn<List<IonAnnotation>> ionColumn =
-            featureTable.getColumn(ColumnName.IONANNOTATION, null);
+    // Require ion annotation?
+    if (requireAnnotation) {
+      pipeline.addRowCriterion(row -> {
         if (ionColumn == null)
-          continue;
+          return false;
         final List<IonAnnotation> rowIonAnnotations = row.getData(ionColumn);
-        Boolean keep = false;
-        if (rowIonAnnotations != null) {
-          for (IonAnnotation rowIonAnnotation : rowIonAnnotations) {
-            if (rowIonAnnotation.getDescription() != null)
-              keep = true;
-          }
+        if (rowIonAnnotations == null)
+          return false;
+        for (IonAnnotation rowIonAnnotation : rowIonAnnotations) {
+          if (rowIonAnnotation.getDescription() != null)
+            return true;
         }
-        if (!keep)
-          continue;
-      }
-
-      // Add row if all filters are fulfilled
-      result.addRow(copyRow(row, result));
-
-      if (canceled)
-        return null;
+        return false;
+      });
     }
 
-    // Remove duplicate features?
-    if (removeDuplicates && duplicateMzTolerance != null) {
+    return pipeline;
+  }
 
-      final int rowCount = result.getRows().size();
-      List<FeatureTableRow> rows = result.getRows();
-      List<FeatureTableRow> removeRows = new ArrayList<FeatureTableRow>();
+  /**
+   * Searches the duplicates of the rows in a range of positions of an {@link MzRtIndex}. A row is a
+   * duplicate if a row above it in the table is within the m/z and RT tolerances and, if required,
+   * has the same identification. The result is a {@link BitSet} of the table positions of the
+   * duplicate rows.
+   */
+  @SuppressWarnings("serial")
+  private final class DuplicateSearch extends RecursiveTask<BitSet> {
+
+    private static final int PARTITION_SIZE = 1024;
+
+    private final @Nonnull MzRtIndex index;
+    private final @Nonnull Map<FeatureTableRow, Integer> rowPositions;
+    private final @Nullable FeatureTableColumn<List<IonAnnotation>> ionColumn;
+    private final int from, to;
+
+    DuplicateSearch(@Nonnull MzRtIndex index, @Nonnull Map<FeatureTableRow, Integer> rowPositions,
+        @Nullable FeatureTableColumn<List<IonAnnotation>> ionColumn, int from, int to) {
+      this.index = index;
+      this.rowPositions = rowPositions;
+      this.ionColumn = ionColumn;
+      this.from = from;
+      this.to = to;
+    }
 
-      // Recalculate the remaining rows in the result feature table
-      totalRows = totalRows / 2 + rowCount;
+    @Override
+    protected BitSet compute() {
+      if (to - from > PARTITION_SIZE) {
+        final int middle = (from + to) >>> 1;
+        DuplicateSearch lower = new DuplicateSearch(index, rowPositions, ionColumn, from, middle);
+        DuplicateSearch upper = new DuplicateSearch(index, rowPositions, ionColumn, middle, to);
+        lower.fork();
+        BitSet duplicates = upper.compute();
+        duplicates.or(lower.join());
+        return duplicates;
+      }
 
-      // Loop through all rows
-      for (int firstRowIndex = 0; firstRowIndex < rowCount; firstRowIndex++) {
-        FeatureTableRow firstRow = rows.get(firstRowIndex);
-        final Double mz = firstRow.getMz();
-        if (mz == null)
-          continue;
-
-        // Loop through all the rows below the current
-        for (int secondRowIndex = firstRowIndex + 1; secondRowIndex < rowCount; secondRowIndex++) {
-          FeatureTableRow secondRow = rows.get(secondRowIndex);
-          if (removeRows.contains(secondRow))
+      final BitSet duplicates = new BitSet();
+      for (int i = from; i < to; i++) {
+        if (canceled)
+          break;
+
+        final FeatureTableRow firstRow = index.getRow(i);
+        final int firstRowPosition = rowPositions.get(firstRow);
+        final float rt = index.getRT(i);
+
+        // Only the rows within the m/z and RT tolerances need to be compared
+        final Range<Float> duplicateRtRange =
+            duplicateRtTolerance == null ? Range.all() : duplicateRtTolerance.getToleranceRange(rt);
+        final List<IonAnnotation> ionAnnotation1 =
+            (duplicateRequireSameID && ionColumn != null) ? firstRow.getData(ionColumn) : null;
+        for (FeatureTableRow secondRow : index.getRowsInsideRange(duplicateRtRange,
+            duplicateMzTolerance.getToleranceRange(index.getMz(i)))) {
+          final int secondRowPosition = rowPositions.get(secondRow);
+          if (secondRowPosition <= firstRowPosition || duplicates.get(secondRowPosition))
             continue;
 
-          // Compare m/z
-          final boolean sameMz =
-              duplicateMzTolerance.getToleranceRange(mz).contains(secondRow.getMz());
-
-          // Compare retention time
-          Float rt1 = firstRow.getRT();
-          Float rt2 = secondRow.getRT();
-          boolean sameRt = duplicateRtTolerance.getToleranceRange(rt1)
-                .contains(rt2);
-
           // Compare identifications
-          FeatureTableColumn<List<IonAnnotation>> column =
-              result.getColumn(ColumnName.IONANNOTATION, null);
-          List<IonAnnotation> ionAnnotation1 = (List<IonAnnotation>) firstRow.getData(column);
-          List<IonAnnotation> ionAnnotation2 = (List<IonAnnotation>) secondRow.getData(column);
-          final boolean sameId = !duplicateRequireSameID || ionAnnotation1.equals(ionAnnotation2);
-
-          // Duplicate peaks?
-          if (sameMz && sameRt && sameId) {
-            if (!removeRows.contains(secondRow))
-              removeRows.add(secondRow);
+          if (duplicateRequireSameID) {
+            List<IonAnnotation> ionAnnotation2 =
+                ionColumn == null ? null : secondRow.getData(ionColumn);
+            if (!Objects.equals(ionAnnotation1, ionAnnotation2))
+              continue;
           }
 
-          if (canceled)
-            return null;
+          // Duplicate peaks
+          duplicates.set(secondRowPosition);
         }
 
-        processedRows++;
-
-      }
-
-      // Remove rows
-      for (FeatureTableRow row : removeRows) {
-        result.removeRow(row);
+        processedRows.incrementAndGet();
       }
-
-    }
-
-    // Return the new feature table
-    return result;
-  }
-
-  private static FeatureTableRow copyRow(@Nonnull FeatureTableRow row,
-      @Nonnull FeatureTable result) {
-
-    // Create a new row with the common feature data
-    final FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(result, row.getId());
-    FeatureTableUtil.copyCommonValues(row, newRow, false);
-
-    // Copy the feature data for the samples
-    for (Sample sample : row.getFeatureTable().getSamples()) {
-      FeatureTableUtil.copyFeatureValues(row, newRow, sample);
+      return duplicates;
     }
-
-    return newRow;
   }
 
   /** {@inheritDoc} */
   @Override
   @Nullable
   public Float getFinishedPercentage() {
-    return totalRows == 0 ? null : (float) processedRows / totalRows;
+    return totalRows == 0 ? null : (float) processedRows.get() / totalRows;
   }
 
   /** {@inheritDoc} */
@@ -335,6 +367,7 @@ public class RowFilterMethod implements MSDKMethod<FeatureTable> {
   @Override
   public void cancel() {
     canceled = true;
+    pipeline.cancel();
   }
 
 }
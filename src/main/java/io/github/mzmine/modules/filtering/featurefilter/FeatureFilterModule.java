@@ -30,9 +30,9 @@ import com.google.common.collect.Range;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
-import io.github.msdk.features.filtering.FeatureFilterMethod;
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.featuretable.filtering.FeatureFilterMethod;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
 import io.github.mzmine.project.MZmineProject;
@@ -64,50 +64,6 @@ public class FeatureFilterModule implements MZmineProcessingModule {
   public void runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
       @Nonnull Collection<Task<?>> tasks) {
 
-    // Boolean values
-    Boolean filterByDuration = parameters.getParameter(FeatureFilterParameters.duration).getValue();
-    Boolean filterByArea = parameters.getParameter(FeatureFilterParameters.area).getValue();
-    Boolean filterByHeight = parameters.getParameter(FeatureFilterParameters.height).getValue();
-    Boolean filterByDataPoints =
-        parameters.getParameter(FeatureFilterParameters.dataPoints).getValue();
-    Boolean filterByFWHM = parameters.getParameter(FeatureFilterParameters.fwhm).getValue();
-    Boolean filterByTailingFactor =
-        parameters.getParameter(FeatureFilterParameters.tailingFactor).getValue();
-    Boolean filterByAsymmetryFactor =
-        parameters.getParameter(FeatureFilterParameters.asymmetryFactor).getValue();
-
-    // Default values
-    if (filterByDuration == null)
-      filterByDuration = false;
-    if (filterByArea == null)
-      filterByArea = false;
-    if (filterByHeight == null)
-      filterByHeight = false;
-    if (filterByDataPoints == null)
-      filterByDataPoints = false;
-    if (filterByFWHM == null)
-      filterByFWHM = false;
-    if (filterByTailingFactor == null)
-      filterByTailingFactor = false;
-    if (filterByAsymmetryFactor == null)
-      filterByAsymmetryFactor = false;
-
-    // Embedded values
-    final Range<Double> durationRange =
-        parameters.getParameter(FeatureFilterParameters.duration).getEmbeddedParameter().getValue();
-    final Range<Double> areaRange =
-        parameters.getParameter(FeatureFilterParameters.area).getEmbeddedParameter().getValue();
-    final Range<Double> heightRange =
-        parameters.getParameter(FeatureFilterParameters.height).getEmbeddedParameter().getValue();
-    final Range<Integer> dataPointsRange = parameters
-        .getParameter(FeatureFilterParameters.dataPoints).getEmbeddedParameter().getValue();
-    final Range<Double> fwhmRange =
-        parameters.getParameter(FeatureFilterParameters.fwhm).getEmbeddedParameter().getValue();
-    final Range<Double> tailingFactorRange = parameters
-        .getParameter(FeatureFilterParameters.tailingFactor).getEmbeddedParameter().getValue();
-    final Range<Double> asymmetryFactorRange = parameters
-        .getParameter(FeatureFilterParameters.asymmetryFactor).getEmbeddedParameter().getValue();
-
     // Other values
     final FeatureTablesSelection featureTables =
         parameters.getParameter(FeatureFilterParameters.featureTables).getValue();
@@ -123,8 +79,7 @@ public class FeatureFilterModule implements MZmineProcessingModule {
     }
 
     // Check if at least one filter is selected
-    if (!filterByDuration && !filterByArea && !filterByHeight && !filterByDataPoints
-        && !filterByFWHM && !filterByTailingFactor && !filterByAsymmetryFactor) {
+    if (!isFilterSelected(parameters)) {
       MZmineGUI.displayMessage("Feature filter module started with no filter selected.");
       logger.warn("Feature filter module started with no filter selected.");
       return;
@@ -137,10 +92,7 @@ public class FeatureFilterModule implements MZmineProcessingModule {
       DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
 
       // New feature filter task
-      FeatureFilterMethod method = new FeatureFilterMethod(featureTable, dataStore,
-          filterByDuration, filterByArea, filterByHeight, filterByDataPoints, filterByFWHM,
-          filterByTailingFactor, filterByAsymmetryFactor, durationRange, areaRange, heightRange,
-          dataPointsRange, fwhmRange, tailingFactorRange, asymmetryFactorRange, nameSuffix);
+      FeatureFilterMethod method = createMethod(featureTable, dataStore, parameters, nameSuffix);
 
       MSDKTask newTask =
           new MSDKTask("Filtering features in tables", featureTable.getName(), method);
@@ -163,6 +115,88 @@ public class FeatureFilterModule implements MZmineProcessingModule {
 
   }
 
+  /**
+   * Checks if at least one filter is selected in the given parameters.
+   *
+   * @param parameters the {@link FeatureFilterParameters}.
+   * @return true if at least one filter is selected.
+   */
+  public static boolean isFilterSelected(@Nonnull ParameterSet parameters) {
+    return Boolean.TRUE.equals(parameters.getParameter(FeatureFilterParameters.duration).getValue())
+        || Boolean.TRUE.equals(parameters.getParameter(FeatureFilterParameters.area).getValue())
+        || Boolean.TRUE.equals(parameters.getParameter(FeatureFilterParameters.height).getValue())
+        || Boolean.TRUE
+            .equals(parameters.getParameter(FeatureFilterParameters.dataPoints).getValue())
+        || Boolean.TRUE.equals(parameters.getParameter(FeatureFilterParameters.fwhm).getValue())
+        || Boolean.TRUE
+            .equals(parameters.getParameter(FeatureFilterParameters.tailingFactor).getValue())
+        || Boolean.TRUE
+            .equals(parameters.getParameter(FeatureFilterParameters.asymmetryFactor).getValue());
+  }
+
+  /**
+   * Creates a feature filter method for a feature table from the given parameters.
+   *
+   * @param featureTable the {@link FeatureTable} to filter.
+   * @param dataStore the {@link DataPointStore} of the result.
+   * @param parameters the {@link FeatureFilterParameters}.
+   * @param nameSuffix the suffix to be added to the feature table name.
+   * @return a new {@link FeatureFilterMethod}.
+   */
+  public static @Nonnull FeatureFilterMethod createMethod(@Nonnull FeatureTable featureTable,
+      @Nonnull DataPointStore dataStore, @Nonnull ParameterSet parameters,
+      @Nonnull String nameSuffix) {
+
+    // Boolean values
+    Boolean filterByDuration = parameters.getParameter(FeatureFilterParameters.duration).getValue();
+    Boolean filterByArea = parameters.getParameter(FeatureFilterParameters.area).getValue();
+    Boolean filterByHeight = parameters.getParameter(FeatureFilterParameters.height).getValue();
+    Boolean filterByDataPoints =
+        parameters.getParameter(FeatureFilterParameters.dataPoints).getValue();
+    Boolean filterByFWHM = parameters.getParameter(FeatureFilterParameters.fwhm).getValue();
+    Boolean filterByTailingFactor =
+        parameters.getParameter(FeatureFilterParameters.tailingFactor).getValue();
+    Boolean filterByAsymmetryFactor =
+        parameters.getParameter(FeatureFilterParameters.asymmetryFactor).getValue();
+
+    // Default values
+    if (filterByDuration == null)
+      filterByDuration = false;
+    if (filterByArea == null)
+      filterByArea = false;
+    if (filterByHeight == null)
+      filterByHeight = false;
+    if (filterByDataPoints == null)
+      filterByDataPoints = false;
+    if (filterByFWHM == null)
+      filterByFWHM = false;
+    if (filterByTailingFactor == null)
+      filterByTailingFactor = false;
+    if (filterByAsymmetryFactor == null)
+      filterByAsymmetryFactor = false;
+
+    // Embedded values
+    final Range<Double> durationRange =
+        parameters.getParameter(FeatureFilterParameters.duration).getEmbeddedParameter().getValue();
+    final Range<Double> areaRange =
+        parameters.getParameter(FeatureFilterParameters.area).getEmbeddedParameter().getValue();
+    final Range<Double> heightRange =
+        parameters.getParameter(FeatureFilterParameters.height).getEmbeddedParameter().getValue();
+    final Range<Integer> dataPointsRange = parameters
+        .getParameter(FeatureFilterParameters.dataPoints).getEmbeddedParameter().getValue();
+    final Range<Double> fwhmRange =
+        parameters.getParameter(FeatureFilterParameters.fwhm).getEmbeddedParameter().getValue();
+    final Range<Double> tailingFactorRange = parameters
+        .getParameter(FeatureFilterParameters.tailingFactor).getEmbeddedParameter().getValue();
+    final Range<Double> asymmetryFactorRange = parameters
+        .getParameter(FeatureFilterParameters.asymmetryFactor).getEmbeddedParameter().getValue();
+
+    return new FeatureFilterMethod(featureTable, dataStore, filterByDuration, filterByArea,
+        filterByHeight, filterByDataPoints, filterByFWHM, filterByTailingFactor,
+        filterByAsymmetryFactor, durationRange, areaRange, heightRange, dataPointsRange, fwhmRange,
+        tailingFactorRange, asymmetryFactorRange, nameSuffix);
+  }
+
   @Override
   public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
     return FeatureFilterParameters.class;
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.filtering.filterchain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.featuretable.FilterChainMethod;
+import io.github.mzmine.modules.filtering.featurefilter.FeatureFilterModule;
+import io.github.mzmine.modules.filtering.rowfilter.RowFilterModule;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.taskcontrol.MSDKTask;
+import javafx.concurrent.Task;
+
+/**
+ * Filter chain module, which runs the feature filter and the row filter in one task and only adds
+ * the final feature table to the project
+ */
+public class FilterChainModule implements MZmineProcessingModule {
+
+  private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private static final String MODULE_NAME = "Filter chain";
+  private static final String MODULE_DESCRIPTION =
+      "This module runs the feature filter and the row filter without creating intermediate "
+          + "feature tables.";
+
+  @Override
+  public @Nonnull String getName() {
+    return MODULE_NAME;
+  }
+
+  @Override
+  public @Nonnull String getDescription() {
+    return MODULE_DESCRIPTION;
+  }
+
+  @Override
+  public void runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+      @Nonnull Collection<Task<?>> tasks) {
+
+    final FeatureTablesSelection featureTables =
+        parameters.getParameter(FilterChainParameters.featureTables).getValue();
+    final Boolean featureFilter =
+        parameters.getParameter(FilterChainParameters.featureFilter).getValue();
+    final ParameterSet featureFilterParameters =
+        parameters.getParameter(FilterChainParameters.featureFilter).getEmbeddedParameters();
+    final Boolean rowFilter = parameters.getParameter(FilterChainParameters.rowFilter).getValue();
+    final ParameterSet rowFilterParameters =
+        parameters.getParameter(FilterChainParameters.rowFilter).getEmbeddedParameters();
+    final String nameSuffix = parameters.getParameter(FilterChainParameters.nameSuffix).getValue();
+    final Boolean removeOldTable =
+        parameters.getParameter(FilterChainParameters.removeOldTable).getValue();
+
+    if (featureTables == null || featureTables.getMatchingFeatureTables().isEmpty()) {
+      logger.warn("Filter chain module started with no feature table selected");
+      return;
+    }
+
+    // The filter steps, in order of execution
+    final boolean useFeatureFilter = featureFilter != null && featureFilter
+        && FeatureFilterModule.isFilterSelected(featureFilterParameters);
+    final boolean useRowFilter = rowFilter != null && rowFilter;
+    if (!useFeatureFilter && !useRowFilter) {
+      logger.warn("Filter chain module started with no filter selected");
+      return;
+    }
+
+    // Add a task for each feature table
+    for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
+
+      // Create the data structures
+      final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+
+      // The intermediate results are views, which do not store any data points
+      List<Function<FeatureTable, MSDKMethod<FeatureTable>>> steps = new ArrayList<>();
+      if (useFeatureFilter)
+        steps.add(table -> FeatureFilterModule.createMethod(table, dataStore,
+            featureFilterParameters, ""));
+      if (useRowFilter)
+        steps.add(
+            table -> RowFilterModule.createMethod(table, dataStore, rowFilterParameters, ""));
+
+      FilterChainMethod method = new FilterChainMethod(featureTable, dataStore,
+          featureTable.getName() + nameSuffix, steps);
+
+      MSDKTask newTask = new MSDKTask("Filtering feature table", featureTable.getName(), method);
+
+      // Add the feature table to the project
+      newTask.setOnSucceeded(e -> {
+        FeatureTable newFeatureTable = method.getResult();
+        project.addFeatureTable(newFeatureTable);
+
+        // If selected, remove old feature table
+        if (removeOldTable != null && removeOldTable) {
+          project.removeFeatureTable(featureTable);
+        }
+      });
+
+      // Add the task to the queue
+      tasks.add(newTask);
+
+    }
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return FilterChainParameters.class;
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package io.github.mzmine.modules.filtering.filterchain;
+
+import io.github.mzmine.modules.filtering.featurefilter.FeatureFilterParameters;
+import io.github.mzmine.modules.filtering.rowfilter.RowFilterParameters;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
+import io.github.mzmine.parameters.parametertypes.OptionalModuleParameter;
+import io.github.mzmine.parameters.parametertypes.StringParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesParameter;
+
+public class FilterChainParameters extends ParameterSet {
+
+  public static final FeatureTablesParameter featureTables = new FeatureTablesParameter();
+
+  public static final OptionalModuleParameter featureFilter =
+      new OptionalModuleParameter("Feature filter",
+          "Filter the features of each sample.\nThe feature table, name suffix and output "
+              + "options of the step are not used.",
+          "Filters", new FeatureFilterParameters());
+
+  public static final OptionalModuleParameter rowFilter = new OptionalModuleParameter(
+      "Row filter",
+      "Filter the rows and remove duplicates after the feature filter.\nThe feature table, "
+          + "name suffix and output options of the step are not used.",
+      "Filters", new RowFilterParameters());
+
+  public static final StringParameter nameSuffix = new StringParameter("Name suffix",
+      "Suffix to be added to the feature table name.", "Output", " filtered");
+
+  public static final BooleanParameter removeOldTable =
+      new BooleanParameter("Remove original table?",
+          "If checked, the original feature table will be removed.", "Output", false);
+
+  /**
+   * Create the parameter set.
+   */
+  public FilterChainParameters() {
+    super(featureTables, featureFilter, rowFilter, nameSuffix, removeOldTable);
+  }
+
+}
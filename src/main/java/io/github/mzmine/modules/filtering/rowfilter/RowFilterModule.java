@@ -65,6 +65,60 @@ public class RowFilterModule implements MZmineProcessingModule {
   public void runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
       @Nonnull Collection<Task<?>> tasks) {
 
+    // Other values
+    final FeatureTablesSelection featureTables =
+        parameters.getParameter(RowFilterParameters.featureTables).getValue();
+    final Boolean removeOldTable =
+        parameters.getParameter(RowFilterParameters.removeOldTable).getValue();
+    final String nameSuffix = parameters.getParameter(RowFilterParameters.nameSuffix).getValue();
+
+    if (featureTables == null || featureTables.getMatchingFeatureTables().isEmpty()) {
+      logger.warn("Row filter module started with no feature table selected");
+      return;
+    }
+
+    // Add a task for each feature table
+    for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
+
+      // Create the data structures
+      DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+
+      // New row filter method
+      RowFilterMethod method = createMethod(featureTable, dataStore, parameters, nameSuffix);
+
+      MSDKTask newTask =
+          new MSDKTask("Row filtering features in table", featureTable.getName(), method);
+
+      // Add the feature table to the project
+      newTask.setOnSucceeded(e -> {
+        FeatureTable newFeatureTable = method.getResult();
+        project.addFeatureTable(newFeatureTable);
+
+        // If selected, remove old feature table
+        if (removeOldTable != null && removeOldTable) {
+          project.removeFeatureTable(featureTable);
+        }
+      });
+
+      // Add the task to the queue
+      tasks.add(newTask);
+
+    }
+  }
+
+  /**
+   * Creates a row filter method for a feature table from the given parameters.
+   *
+   * @param featureTable the {@link FeatureTable} to filter.
+   * @param dataStore the {@link DataPointStore} of the result.
+   * @param parameters the {@link RowFilterParameters}.
+   * @param nameSuffix the suffix to be added to the feature table name.
+   * @return a new {@link RowFilterMethod}.
+   */
+  public static @Nonnull RowFilterMethod createMethod(@Nonnull FeatureTable featureTable,
+      @Nonnull DataPointStore dataStore, @Nonnull ParameterSet parameters,
+      @Nonnull String nameSuffix) {
+
     // Boolean values
     Boolean filterByMz = parameters.getParameter(RowFilterParameters.mzRange).getValue();
     Boolean filterByRt = parameters.getParameter(RowFilterParameters.rtRange).getValue();
@@ -125,57 +179,25 @@ public class RowFilterModule implements MZmineProcessingModule {
     if (duplicateRequireSameID == null)
       duplicateRequireSameID = false;
 
-    // Other values
-    final FeatureTablesSelection featureTables =
-        parameters.getParameter(RowFilterParameters.featureTables).getValue();
-    final Boolean removeOldTable =
-        parameters.getParameter(RowFilterParameters.removeOldTable).getValue();
-    final String nameSuffix = parameters.getParameter(RowFilterParameters.nameSuffix).getValue();
-
-    if (featureTables == null || featureTables.getMatchingFeatureTables().isEmpty()) {
-      logger.warn("Row filter module started with no feature table selected");
-      return;
-    }
-
-    // Add a task for each feature table
-    for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
-
-      // Create the data structures
-      DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
-
-      // Handle < 1 values for minCount
-      if (minCount == null)
-        minCount = 0d;
-      if (minCount < 1)
-        minCount = featureTable.getSamples().size() * minCount;
-      // Round value down to nearest hole number
-      int intMinCount = (int) (long) (double) minCount;
-
-      // New row filter method
-      RowFilterMethod method = new RowFilterMethod(featureTable, dataStore, nameSuffix, filterByMz,
-          filterByRt, filterByDuration, filterByCount, filterByIsotopes, filterByIonAnnotation,
-          requireAnnotation, mzRange, rtRange, durationRange, intMinCount, minIsotopes,
-          ionAnnotation, removeDuplicates, duplicateMzTolerance, duplicateRtTolerance,
-          duplicateRequireSameID);
-
-      MSDKTask newTask =
-          new MSDKTask("Row filtering features in table", featureTable.getName(), method);
-
-      // Add the feature table to the project
-      newTask.setOnSucceeded(e -> {
-        FeatureTable newFeatureTable = method.getResult();
-        project.addFeatureTable(newFeatureTable);
-
-        // If selected, remove old feature table
-        if (removeOldTable != null && removeOldTable) {
-          project.removeFeatureTable(featureTable);
-        }
-      });
-
-      // Add the task to the queue
-      tasks.add(newTask);
-
-    }
+    // Handle < 1 values for minCount
+    if (minCount == null)
+      minCount = 0d;
+    if (minCount < 1)
+      minCount = featureTable.getSamples().size() * minCount;
+    // Round value down to nearest hole number
+    int intMinCount = (int) (long) (double) minCount;
+
+    // The feature table stores RT values as floats
+    Range<Float> floatRtRange = null;
+    if (rtRange != null)
+      floatRtRange = Range.range(rtRange.lowerEndpoint().floatValue(), rtRange.lowerBoundType(),
+          rtRange.upperEndpoint().floatValue(), rtRange.upperBoundType());
+
+    return new RowFilterMethod(featureTable, dataStore, nameSuffix, filterByMz, filterByRt,
+        filterByDuration, filterByCount, filterByIsotopes, filterByIonAnnotation,
+        requireAnnotation, mzRange, floatRtRange, durationRange, intMinCount, minIsotopes,
+        ionAnnotation, removeDuplicates, duplicateMzTolerance, duplicateRtTolerance,
+        duplicateRequireSameID);
   }
 
   @Override
@@ -74,6 +74,8 @@ public class PeakFinderModule implements MZmineProcessingModule {
         parameters.getParameter(PeakFinderParameters.intensityTolerance).getValue();
     Double intensityTolerance = parameters.getParameter(PeakFinderParameters.intensityTolerance)
         .getEmbeddedParameter().getValue();
+    final Integer parallelFiles =
+        parameters.getParameter(PeakFinderParameters.parallelFiles).getValue();
     final String nameSuffix = parameters.getParameter(PeakFinderParameters.nameSuffix).getValue();
     final Boolean removeOldTable =
         parameters.getParameter(PeakFinderParameters.removeOldTable).getValue();
@@ -97,7 +99,8 @@ public class PeakFinderModule implements MZmineProcessingModule {
 
       // New feature filter task
       GapFillingMethod method = new GapFillingMethod(featureTable, dataStore, mzTolerance,
-          rtTolerance, intensityTolerance, nameSuffix);
+          rtTolerance, intensityTolerance, nameSuffix,
+          parallelFiles == null || parallelFiles < 1 ? 1 : parallelFiles);
 
       MSDKTask newTask = new MSDKTask("Gap filling feature table", featureTable.getName(), method);
 
@@ -23,6 +23,7 @@ import io.github.msdk.util.tolerances.RTTolerance;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.ParameterValidator;
 import io.github.mzmine.parameters.parametertypes.BooleanParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.OptionalParameter;
 import io.github.mzmine.parameters.parametertypes.PercentParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
@@ -50,6 +51,12 @@ public class PeakFinderParameters extends ParameterSet {
           "Maximum allowed deviation of the peak chromatogram from the expected /\\ shape.",
           "Algorithm Parameters", ParameterValidator.createNonEmptyValidator(), 0.15));
 
+  public static final IntegerParameter parallelFiles = new IntegerParameter(
+      "Parallel raw data files",
+      "Maximum number of raw data files which are searched for missing peaks at the same time.",
+      "Algorithm Parameters", ParameterValidator.createNonEmptyValidator(),
+      Runtime.getRuntime().availableProcessors());
+
   public static final StringParameter nameSuffix = new StringParameter("Name suffix",
       "Suffix to be added to the feature table name.", "Output", " gapFilled");
 
@@ -61,7 +68,8 @@ public class PeakFinderParameters extends ParameterSet {
    * Create the parameter set.
    */
   public PeakFinderParameters() {
-    super(featureTables, mzTolerance, rtTolerance, intensityTolerance, nameSuffix, removeOldTable);
+    super(featureTables, mzTolerance, rtTolerance, intensityTolerance, parallelFiles, nameSuffix,
+        removeOldTable);
   }
 
 }
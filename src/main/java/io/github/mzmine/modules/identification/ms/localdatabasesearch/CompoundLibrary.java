@@ -0,0 +1,475 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.localdatabasesearch;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonType;
+import io.github.msdk.util.IonTypeUtil;
+
+/**
+ * Compound library compiled from the annotations text of the local database search. The library
+ * file holds the m/z values of the compounds in sorted order, their RT values, an index of the
+ * compounds in order of RT and the text fields of each compound. The file is memory-mapped, so
+ * loading a library does not read it, and a compound is only converted into an ion annotation
+ * with its formula and ion type when it is matched.
+ *
+ * A library is compiled once for each annotations text and separator, into a file in a temporary
+ * directory of the session. Later searches of the same text map the same file, and a file which
+ * cannot be loaded is compiled again. Only the files of the last few texts are kept, and all files
+ * are deleted when the JVM exits.
+ *
+ * The library is immutable and can be searched by several threads.
+ */
+public final class CompoundLibrary {
+
+  // File format: header, m/z values, RT values, RT index, text offsets and text
+  private static final int MAGIC = 0x4d5a4c42;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+
+  // Number of text fields of a compound: ID, name, formula and adduct
+  private static final int FIELDS = 4;
+
+  // Number of library files kept in the library directory
+  private static final int MAX_LIBRARY_FILES = 4;
+
+  private static final Logger logger = LoggerFactory.getLogger(CompoundLibrary.class);
+
+  // Lock for compiling the library files
+  private static final Object compileLock = new Object();
+
+  // Library files by separator and annotations text, in order of use. The
+  // key is compared by the cached hash code and the identity of the text of
+  // the parameter, so the text is not hashed again by each search.
+  private static final Map<List<String>, File> libraryFiles =
+      new LinkedHashMap<List<String>, File>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, File> eldest) {
+          if (size() <= MAX_LIBRARY_FILES)
+            return false;
+          eldest.getValue().delete();
+          return true;
+        }
+      };
+
+  // Temporary directory of the library files of this session
+  private static File libraryDirectory;
+  private static int libraryFileCount = 0;
+
+  private final int size;
+  private final @Nonnull DoubleBuffer mzValues;
+  private final @Nonnull FloatBuffer rtValues;
+  private final @Nonnull FloatBuffer sortedRtValues;
+  private final @Nonnull IntBuffer rtOrder;
+  private final @Nonnull IntBuffer textOffsets;
+  private final @Nonnull ByteBuffer text;
+
+  private CompoundLibrary(@Nonnull ByteBuffer buffer) throws IOException {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION)
+      throw new IOException("Not a compound library file");
+    size = buffer.getInt(8);
+    final int textLength = buffer.getInt(12);
+    final long expectedSize = HEADER_SIZE + size * 24L + 4L + textLength;
+    if (size < 0 || textLength < 0 || buffer.capacity() != expectedSize)
+      throw new IOException("Incomplete compound library file");
+
+    int offset = HEADER_SIZE;
+    mzValues = slice(buffer, offset, size * 8).asDoubleBuffer();
+    offset += size * 8;
+    rtValues = slice(buffer, offset, size * 4).asFloatBuffer();
+    offset += size * 4;
+    sortedRtValues = slice(buffer, offset, size * 4).asFloatBuffer();
+    offset += size * 4;
+    rtOrder = slice(buffer, offset, size * 4).asIntBuffer();
+    offset += size * 4;
+    textOffsets = slice(buffer, offset, (size + 1) * 4).asIntBuffer();
+    offset += (size + 1) * 4;
+    text = slice(buffer, offset, textLength);
+  }
+
+  /**
+   * Returns the library of an annotations text. The library is compiled into the library
+   * directory by the first search of the text, and memory-mapped by each search. A library file
+   * which cannot be loaded, because it is incomplete or of another version, is compiled again.
+   *
+   * @param annotations the annotations text, one compound per line.
+   * @param separator the regular expression which separates the fields of a line.
+   * @return the compound library.
+   * @throws IOException if the library cannot be compiled or loaded.
+   */
+  public static @Nonnull CompoundLibrary forAnnotations(@Nonnull String annotations,
+      @Nonnull String separator) throws IOException {
+    Preconditions.checkNotNull(annotations);
+    Preconditions.checkNotNull(separator);
+    synchronized (compileLock) {
+      final File libraryFile = getLibraryFile(annotations, separator);
+      if (libraryFile.exists()) {
+        try {
+          return load(libraryFile);
+        } catch (IOException e) {
+          logger.warn("Compiling compound library " + libraryFile + " again: " + e.getMessage());
+          libraryFile.delete();
+        }
+      }
+      compile(annotations, separator, libraryFile);
+      return load(libraryFile);
+    }
+  }
+
+  /**
+   * Returns the library file of an annotations text and separator in the library directory. The
+   * file of the least recently used text is deleted when too many files are kept.
+   */
+  static @Nonnull File getLibraryFile(@Nonnull String annotations, @Nonnull String separator)
+      throws IOException {
+    synchronized (compileLock) {
+      final List<String> key = Arrays.asList(separator, annotations);
+      File libraryFile = libraryFiles.get(key);
+      if (libraryFile == null) {
+        if (libraryDirectory == null) {
+          libraryDirectory = Files.createTempDirectory("mzmine-compound-libraries").toFile();
+          libraryDirectory.deleteOnExit();
+        }
+        libraryFile = new File(libraryDirectory, "library" + libraryFileCount++ + ".mzlib");
+        libraryFile.deleteOnExit();
+        libraryFiles.put(key, libraryFile);
+      }
+      return libraryFile;
+    }
+  }
+
+  /**
+   * Compiles an annotations text into a library file. Only lines which start with a digit are
+   * compounds, with the fields ID, m/z, retention time in minutes, name and the optional formula
+   * and adduct.
+   *
+   * @param annotations the annotations text, one compound per line.
+   * @param separator the regular expression which separates the fields of a line.
+   * @param libraryFile the library file to write.
+   * @throws IOException if a line cannot be parsed or the file cannot be written.
+   */
+  public static void compile(@Nonnull String annotations, @Nonnull String separator,
+      @Nonnull File libraryFile) throws IOException {
+
+    // Parse the compounds without creating their formulas and ion types
+    final Pattern separatorPattern = Pattern.compile(separator);
+    final List<String[]> fields = new ArrayList<>();
+    final List<Double> mzList = new ArrayList<>();
+    final List<Float> rtList = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new StringReader(annotations))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+
+        // Only process lines which start with an integer
+        if (line.isEmpty() || Character.digit(line.charAt(0), 10) < 0)
+          continue;
+        final String lineArray[] = separatorPattern.split(line);
+        try {
+          mzList.add(Double.parseDouble(lineArray[1]));
+          rtList.add(Float.parseFloat(lineArray[2]) * 60);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+          throw new IOException("Cannot parse compound: " + line, e);
+        }
+        final String compoundFields[] = new String[FIELDS];
+        compoundFields[0] = lineArray[0];
+        compoundFields[1] = lineArray.length > 3 ? lineArray[3] : "";
+        compoundFields[2] = lineArray.length > 4 ? lineArray[4] : "";
+        compoundFields[3] = lineArray.length > 5 ? lineArray[5] : "";
+        fields.add(compoundFields);
+      }
+    }
+
+    // Compounds in order of m/z and in order of RT
+    final int size = fields.size();
+    final Integer mzOrder[] = new Integer[size];
+    for (int i = 0; i < size; i++)
+      mzOrder[i] = i;
+    Arrays.sort(mzOrder, Comparator.comparingDouble((Integer i) -> mzList.get(i))
+        .thenComparingInt(i -> i));
+    final Integer rtIndex[] = new Integer[size];
+    for (int p = 0; p < size; p++)
+      rtIndex[p] = p;
+    Arrays.sort(rtIndex, Comparator.comparingDouble((Integer p) -> rtList.get(mzOrder[p]))
+        .thenComparingInt(p -> p));
+
+    // Text of the compounds in order of m/z
+    final byte texts[][] = new byte[size * FIELDS][];
+    int textLength = 0;
+    for (int p = 0; p < size; p++) {
+      for (int f = 0; f < FIELDS; f++) {
+        texts[p * FIELDS + f] = fields.get(mzOrder[p])[f].getBytes(StandardCharsets.UTF_8);
+        textLength += 4 + texts[p * FIELDS + f].length;
+      }
+    }
+
+    // Write a temporary file first, so an incomplete library file is never loaded
+    final File directory = libraryFile.getAbsoluteFile().getParentFile();
+    if (directory != null)
+      directory.mkdirs();
+    final File tmpFile = File.createTempFile("compounds", ".tmp", directory);
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        out.writeInt(textLength);
+        for (int p = 0; p < size; p++)
+          out.writeDouble(mzList.get(mzOrder[p]));
+        for (int p = 0; p < size; p++)
+          out.writeFloat(rtList.get(mzOrder[p]));
+        for (int r = 0; r < size; r++)
+          out.writeFloat(rtList.get(mzOrder[rtIndex[r]]));
+        for (int r = 0; r < size; r++)
+          out.writeInt(rtIndex[r]);
+        int textOffset = 0;
+        for (int p = 0; p < size; p++) {
+          out.writeInt(textOffset);
+          for (int f = 0; f < FIELDS; f++)
+            textOffset += 4 + texts[p * FIELDS + f].length;
+        }
+        out.writeInt(textOffset);
+        for (byte fieldText[] : texts) {
+          out.writeInt(fieldText.length);
+          out.write(fieldText);
+        }
+      }
+      Files.move(tmpFile.toPath(), libraryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  /**
+   * Memory-maps a library file.
+   *
+   * @param libraryFile the library file.
+   * @return the compound library.
+   * @throws IOException if the file cannot be mapped or is not a complete library file.
+   */
+  public static @Nonnull CompoundLibrary load(@Nonnull File libraryFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(libraryFile.toPath(), StandardOpenOption.READ)) {
+      return new CompoundLibrary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Returns the number of compounds.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the m/z value of a compound. The compounds are sorted by m/z.
+   */
+  public double getMz(int position) {
+    return mzValues.get(position);
+  }
+
+  /**
+   * Returns the RT value of a compound, in seconds.
+   */
+  public float getRt(int position) {
+    return rtValues.get(position);
+  }
+
+  public @Nonnull String getAnnotationId(int position) {
+    return getField(position, 0);
+  }
+
+  public @Nonnull String getName(int position) {
+    return getField(position, 1);
+  }
+
+  /**
+   * Finds the compounds inside the given ranges. The candidates are found by a binary search of
+   * the m/z values or of the RT index, whichever gives fewer candidates.
+   *
+   * @param mzRange the m/z range.
+   * @param rtRange the RT range.
+   * @return the positions of the compounds, in increasing order.
+   */
+  public @Nonnull int[] findMatches(@Nonnull Range<Double> mzRange,
+      @Nonnull Range<Float> rtRange) {
+    final int mzStart = lowerBound(mzValues, mzRange.lowerEndpoint());
+    final int mzEnd = upperBound(mzValues, mzRange.upperEndpoint());
+    final int rtStart = lowerBound(sortedRtValues, rtRange.lowerEndpoint());
+    final int rtEnd = upperBound(sortedRtValues, rtRange.upperEndpoint());
+
+    int matches[] = new int[Math.max(0, Math.min(mzEnd - mzStart, rtEnd - rtStart))];
+    int count = 0;
+    if (mzEnd - mzStart <= rtEnd - rtStart) {
+      for (int p = mzStart; p < mzEnd; p++) {
+        if (mzRange.contains(mzValues.get(p)) && rtRange.contains(rtValues.get(p)))
+          matches[count++] = p;
+      }
+    } else {
+      for (int r = rtStart; r < rtEnd; r++) {
+        final int p = rtOrder.get(r);
+        if (mzRange.contains(mzValues.get(p)) && rtRange.contains(rtValues.get(p)))
+          matches[count++] = p;
+      }
+      Arrays.sort(matches, 0, count);
+    }
+    return count == matches.length ? matches : Arrays.copyOf(matches, count);
+  }
+
+  /**
+   * Creates the ion annotation of a compound, with its formula and ion type. Each call returns a
+   * new annotation, so the rows which match the compound do not share it.
+   *
+   * @param position the position of the compound.
+   * @return the ion annotation of the compound.
+   */
+  public @Nonnull IonAnnotation createIonAnnotation(int position) {
+    SimpleIonAnnotation ion = new SimpleIonAnnotation();
+    ion.setAnnotationId(getField(position, 0));
+    ion.setExpectedMz(getMz(position));
+    ion.setDescription(getField(position, 1));
+    ion.setExpectedRetentionTime(getRt(position));
+
+    // If formula column is present then add chemical structure
+    final String formulaString = getField(position, 2);
+    if (!formulaString.isEmpty()) {
+      IMolecularFormula formula = MolecularFormulaManipulator
+          .getMolecularFormula(formulaString, DefaultChemObjectBuilder.getInstance());
+      if (formula != null)
+        ion.setFormula(formula);
+    }
+
+    // If adduct column is present then add ion type, expected format: [M+2H]2+
+    final String adductString = getField(position, 3);
+    if (!adductString.isEmpty()) {
+      IonType ionType = IonTypeUtil.createIonType(adductString);
+      if (ionType != null)
+        ion.setIonType(ionType);
+    }
+    return ion;
+  }
+
+  private @Nonnull String getField(int position, int field) {
+    int offset = textOffsets.get(position);
+    for (int f = 0; f < field; f++)
+      offset += 4 + text.getInt(offset);
+    final byte bytes[] = new byte[text.getInt(offset)];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = text.get(offset + 4 + i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static @Nonnull ByteBuffer slice(@Nonnull ByteBuffer buffer, int offset, int length) {
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice();
+  }
+
+  /**
+   * Returns the first position with a value not less than the given value.
+   */
+  private static int lowerBound(@Nonnull DoubleBuffer values, double value) {
+    int low = 0, high = values.limit();
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (values.get(middle) < value)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the first position with a value greater than the given value.
+   */
+  private static int upperBound(@Nonnull DoubleBuffer values, double value) {
+    int low = 0, high = values.limit();
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (values.get(middle) <= value)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  private static int lowerBound(@Nonnull FloatBuffer values, float value) {
+    int low = 0, high = values.limit();
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (values.get(middle) < value)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  private static int upperBound(@Nonnull FloatBuffer values, float value) {
+    int low = 0, high = values.limit();
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (values.get(middle) <= value)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.localdatabasesearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+
+/**
+ * This class annotates the rows of feature tables with the compounds of a {@link CompoundLibrary}
+ * within the m/z and RT tolerances. The library is compiled from the annotations text by the
+ * first search of the text. The rows of all tables are searched in parallel, and the matched
+ * compounds are added to the ion annotations of each row in order of m/z. Each row gets its own
+ * annotation objects, and compounds which the row is already annotated with are not added again.
+ */
+public class CompoundLibrarySearchMethod implements MSDKMethod<List<FeatureTable>> {
+
+  private final @Nonnull List<FeatureTable> featureTables;
+  private final @Nonnull String annotations;
+  private final @Nonnull String separator;
+  private final @Nonnull MzTolerance mzTolerance;
+  private final @Nonnull RTTolerance rtTolerance;
+
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
+  private List<FeatureTable> result;
+
+  /**
+   * <p>
+   * Constructor for CompoundLibrarySearchMethod.
+   * </p>
+   *
+   * @param featureTables a {@link java.util.List} of
+   *        {@link io.github.msdk.datamodel.featuretables.FeatureTable} objects.
+   * @param annotations the annotations text, one compound per line.
+   * @param separator the regular expression which separates the fields of a line.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   */
+  public CompoundLibrarySearchMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull String annotations, @Nonnull String separator, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance) {
+    Preconditions.checkNotNull(featureTables);
+    Preconditions.checkNotNull(annotations);
+    Preconditions.checkNotNull(separator);
+    this.featureTables = featureTables;
+    this.annotations = annotations;
+    this.separator = separator;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<FeatureTable> execute() throws MSDKException {
+
+    final CompoundLibrary library;
+    try {
+      library = CompoundLibrary.forAnnotations(annotations, separator);
+    } catch (IOException e) {
+      throw new MSDKException(e);
+    }
+
+    // Rows of all tables with the ion annotation column of their table
+    final List<FeatureTableRow> rows = new ArrayList<>();
+    final List<FeatureTableColumn<List<IonAnnotation>>> rowColumns = new ArrayList<>();
+    for (FeatureTable featureTable : featureTables) {
+      if (featureTable.getColumn(ColumnName.IONANNOTATION, null) == null)
+        featureTable.addColumn(MSDKObjectBuilder.getIonAnnotationFeatureTableColumn());
+      final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+          featureTable.getColumn(ColumnName.IONANNOTATION, null);
+      for (FeatureTableRow row : featureTable.getRows()) {
+        rows.add(row);
+        rowColumns.add(ionAnnotationColumn);
+      }
+    }
+    totalRows = rows.size();
+
+    // Search the library for each row, each row only writes its own annotations
+    IntStream.range(0, totalRows).parallel().forEach(i -> {
+      if (canceled)
+        return;
+      final FeatureTableRow row = rows.get(i);
+      final Double mz = row.getMz();
+      final Float rt = row.getRT();
+      processedRows.incrementAndGet();
+      if (mz == null || rt == null)
+        return;
+
+      final int matches[] = library.findMatches(mzTolerance.getToleranceRange(mz),
+          rtTolerance.getToleranceRange(rt));
+      if (matches.length == 0)
+        return;
+
+      final List<IonAnnotation> ionAnnotations = row.getData(rowColumns.get(i));
+      final List<IonAnnotation> newIonAnnotations = ionAnnotations == null
+          ? new ArrayList<>(matches.length) : new ArrayList<>(ionAnnotations);
+      for (int position : matches) {
+        final IonAnnotation ionAnnotation = library.createIonAnnotation(position);
+        if (!containsAnnotation(newIonAnnotations, ionAnnotation))
+          newIonAnnotations.add(ionAnnotation);
+      }
+      row.setData(rowColumns.get(i), newIonAnnotations);
+    });
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    result = featureTables;
+    return result;
+  }
+
+  /**
+   * Checks if an equal ion annotation is in the list.
+   */
+  private static boolean containsAnnotation(@Nonnull List<IonAnnotation> ionAnnotations,
+      @Nonnull IonAnnotation ionAnnotation) {
+    for (IonAnnotation existingIonAnnotation : ionAnnotations) {
+      if (existingIonAnnotation.compareTo(ionAnnotation) == 0)
+        return true;
+    }
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    return totalRows == 0 ? null : (float) processedRows.get() / totalRows;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public List<FeatureTable> getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.localdatabasesearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+
+public class CompoundLibrarySearchMethodTest {
+
+  private static final String ANNOTATIONS = "id,m/z,rt,name,formula,adduct\n" //
+      + "3,300.1,2.0,Compound C\n" //
+      + "1,100.05,1.0,Compound A\n" //
+      + "2,200.2,1.5,Compound B\n" //
+      + "4,300.1,5.0,Compound D\n" //
+      + "5,300.105,2.05,Compound E\n";
+
+  @Test
+  public void testIonAnnotations() throws MSDKException {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    final FeatureTable featureTable1 = createFeatureTable("Table 1", dataStore,
+        new double[] {100.05, 300.1, 300.1, 500.0}, new float[] {60f, 121f, 300f, 60f});
+    final FeatureTable featureTable2 =
+        createFeatureTable("Table 2", dataStore, new double[] {300.1}, new float[] {120f});
+    final List<FeatureTable> featureTables = Arrays.asList(featureTable1, featureTable2);
+
+    CompoundLibrarySearchMethod method = new CompoundLibrarySearchMethod(featureTables,
+        ANNOTATIONS, ",", new MaximumMzTolerance(0.01, 10.0), new RTTolerance(5f, false));
+    Assert.assertSame(featureTables, method.execute());
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+
+    // Matched compounds in order of m/z, rows without match have no annotations
+    final List<FeatureTableRow> rows1 = featureTable1.getRows();
+    final List<FeatureTableRow> rows2 = featureTable2.getRows();
+    Assert.assertEquals(Arrays.asList("1"), getAnnotationIds(rows1.get(0)));
+    Assert.assertEquals(Arrays.asList("3", "5"), getAnnotationIds(rows1.get(1)));
+    Assert.assertEquals(Arrays.asList("4"), getAnnotationIds(rows1.get(2)));
+    Assert.assertNull(getIonAnnotations(rows1.get(3)));
+    Assert.assertEquals(Arrays.asList("3", "5"), getAnnotationIds(rows2.get(0)));
+
+    // The annotations of a compound are not shared between rows
+    final IonAnnotation ionAnnotation = getIonAnnotations(rows1.get(1)).get(0);
+    Assert.assertEquals("Compound C", ionAnnotation.getDescription());
+    Assert.assertEquals(300.1, ionAnnotation.getExpectedMz(), 0.0);
+    Assert.assertNotSame(ionAnnotation, getIonAnnotations(rows2.get(0)).get(0));
+
+    // A second search does not add the compounds again
+    CompoundLibrarySearchMethod secondMethod = new CompoundLibrarySearchMethod(featureTables,
+        ANNOTATIONS, ",", new MaximumMzTolerance(0.01, 10.0), new RTTolerance(5f, false));
+    secondMethod.execute();
+    Assert.assertEquals(Arrays.asList("3", "5"), getAnnotationIds(rows1.get(1)));
+    Assert.assertEquals(Arrays.asList("3", "5"), getAnnotationIds(rows2.get(0)));
+  }
+
+  private FeatureTable createFeatureTable(String name, DataPointStore dataStore,
+      double mzValues[], float rtValues[]) {
+    final FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable(name, dataStore);
+    final FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    final FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    final FeatureTableColumn<Float> rtColumn =
+        MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    for (int i = 0; i < mzValues.length; i++) {
+      final FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, i + 1);
+      row.setData(idColumn, i + 1);
+      row.setData(mzColumn, mzValues[i]);
+      row.setData(rtColumn, rtValues[i]);
+      featureTable.addRow(row);
+    }
+    return featureTable;
+  }
+
+  private List<IonAnnotation> getIonAnnotations(FeatureTableRow row) {
+    final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+        row.getFeatureTable().getColumn(ColumnName.IONANNOTATION, null);
+    Assert.assertNotNull(ionAnnotationColumn);
+    return row.getData(ionAnnotationColumn);
+  }
+
+  private List<String> getAnnotationIds(FeatureTableRow row) {
+    final List<IonAnnotation> ionAnnotations = getIonAnnotations(row);
+    Assert.assertNotNull(ionAnnotations);
+    final List<String> annotationIds = new ArrayList<>();
+    for (IonAnnotation ionAnnotation : ionAnnotations)
+      annotationIds.add(ionAnnotation.getAnnotationId());
+    return annotationIds;
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.localdatabasesearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+import com.google.common.io.Files;
+
+public class CompoundLibraryTest {
+
+  private static final String ANNOTATIONS = "id,m/z,rt,name,formula,adduct\n" //
+      + "3,300.1,2.0,Compound C,C10H20O5\n" //
+      + "1,100.05,1.0,Compound A\n" //
+      + "2,200.2,1.5,Compound B,,[M+H]+\n" //
+      + "4,300.1,5.0,Compound D\n";
+
+  @Test
+  public void testCompileAndLoad() throws IOException {
+    File libraryFile = new File(Files.createTempDir(), "test.mzlib");
+    CompoundLibrary.compile(ANNOTATIONS, ",", libraryFile);
+    CompoundLibrary library = CompoundLibrary.load(libraryFile);
+
+    Assert.assertEquals(4, library.size());
+    Assert.assertEquals(100.05, library.getMz(0), 0.0);
+    Assert.assertEquals(60f, library.getRt(0), 0f);
+    Assert.assertEquals("1", library.getAnnotationId(0));
+    Assert.assertEquals("Compound A", library.getName(0));
+    Assert.assertEquals("2", library.getAnnotationId(1));
+    Assert.assertEquals("3", library.getAnnotationId(2));
+    Assert.assertEquals("Compound D", library.getName(3));
+    libraryFile.delete();
+  }
+
+  @Test
+  public void testFindMatches() throws IOException {
+    File libraryFile = new File(Files.createTempDir(), "test.mzlib");
+    CompoundLibrary.compile(ANNOTATIONS, ",", libraryFile);
+    CompoundLibrary library = CompoundLibrary.load(libraryFile);
+
+    // Narrow m/z range
+    Assert.assertArrayEquals(new int[] {2, 3},
+        library.findMatches(Range.closed(300.09, 300.11), Range.closed(0f, 600f)));
+    Assert.assertArrayEquals(new int[] {2},
+        library.findMatches(Range.closed(300.09, 300.11), Range.closed(110f, 130f)));
+
+    // Narrow RT range
+    Assert.assertArrayEquals(new int[] {1},
+        library.findMatches(Range.closed(0.0, 1000.0), Range.closed(85f, 95f)));
+    Assert.assertArrayEquals(new int[] {0, 1, 2},
+        library.findMatches(Range.closed(0.0, 1000.0), Range.closed(60f, 120f)));
+
+    Assert.assertArrayEquals(new int[0],
+        library.findMatches(Range.closed(400.0, 500.0), Range.closed(0f, 600f)));
+    libraryFile.delete();
+  }
+
+  @Test
+  public void testRecompileIncompleteFile() throws IOException {
+    final String annotations = "# " + System.nanoTime() + "\n" + ANNOTATIONS;
+    CompoundLibrary.forAnnotations(annotations, ",");
+    File libraryFile = CompoundLibrary.getLibraryFile(annotations, ",");
+    Assert.assertTrue(libraryFile.exists());
+
+    // A truncated library file is compiled again
+    final byte content[] = Files.toByteArray(libraryFile);
+    Files.write(Arrays.copyOf(content, content.length / 2), libraryFile);
+    CompoundLibrary library = CompoundLibrary.forAnnotations(annotations, ",");
+    Assert.assertEquals(4, library.size());
+    Assert.assertEquals("Compound D", library.getName(3));
+    Assert.assertEquals(content.length, libraryFile.length());
+    libraryFile.delete();
+  }
+
+  @Test
+  public void testDeleteLeastRecentlyUsedFiles() throws IOException {
+    final String firstAnnotations = "# " + System.nanoTime() + "\n" + ANNOTATIONS;
+    CompoundLibrary.forAnnotations(firstAnnotations, ",");
+    File firstFile = CompoundLibrary.getLibraryFile(firstAnnotations, ",");
+    Assert.assertTrue(firstFile.exists());
+
+    // Libraries of other texts replace the least recently used library file
+    for (int i = 0; i < 4; i++)
+      CompoundLibrary.forAnnotations("# " + i + " " + System.nanoTime() + "\n" + ANNOTATIONS, ",");
+    Assert.assertFalse(firstFile.exists());
+  }
+
+}
@@ -18,28 +18,15 @@
 
 package io.github.mzmine.modules.identification.ms.localdatabasesearch;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
-import java.util.Scanner;
 
 import javax.annotation.Nonnull;
 
-import org.openscience.cdk.DefaultChemObjectBuilder;
-import org.openscience.cdk.interfaces.IMolecularFormula;
-import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.github.msdk.datamodel.featuretables.FeatureTable;
-import io.github.msdk.datamodel.ionannotations.IonAnnotation;
-import io.github.msdk.datamodel.ionannotations.IonType;
-import io.github.msdk.datamodel.rawdata.SeparationType;
-import io.github.msdk.id.localdatabasesearch.LocalDatabaseSearchMethod;
-import io.github.msdk.util.IonTypeUtil;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
-import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
@@ -91,71 +78,20 @@ public class LocalDatabaseSearchModule implements MZmineProcessingModule {
       logger.warn("Local database search module started with no feature tables selected");
       return;
     }
-
-    // Convert the input annotations into ionAnnotations
-    List<IonAnnotation> ionAnnotations = new ArrayList<IonAnnotation>();
-    Scanner scanner = new Scanner(annotations);
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine();
-      if (line != null) {
-
-        // Only process lines which start with an integer
-        char firstChar = line.charAt(0);
-        if (Character.digit(firstChar, 10) >= 0) {
-          String[] lineArray = line.split(separator);
-
-          String annotationId = lineArray[0];
-          Double mz = Double.parseDouble(lineArray[1]);
-          Float rt = Float.parseFloat(lineArray[2]) * 60;
-          String name = lineArray[3];
-
-          // If formula column is present then add chemical structure
-          IMolecularFormula formula = null;
-          if (lineArray.length > 4) {
-            String formulaString = lineArray[4];
-            if (formulaString != null && !formulaString.equals(""))
-              formula = MolecularFormulaManipulator.getMolecularFormula(formulaString,
-                  DefaultChemObjectBuilder.getInstance());
-          }
-
-          // If adduct column is present then add ion type
-          IonType ionType = null;
-
-          if (lineArray.length > 5) {
-            // Expected string format: [M+2H]2+
-            String adductString = lineArray[5];
-            if (adductString != null && !adductString.equals(""))
-              ionType = IonTypeUtil.createIonType(adductString);
-          }
-
-          SimpleIonAnnotation ion = new SimpleIonAnnotation();
-          ion.setAnnotationId(annotationId);
-          ion.setExpectedMz(mz);
-          ion.setDescription(name);
-          ion.setChromatographyInfo(
-              MSDKObjectBuilder.getChromatographyInfo1D(SeparationType.LC, (float) rt));
-          if (ionType != null)
-            ion.setIonType(ionType);
-          if (formula != null)
-            ion.setFormula(formula);
-          ionAnnotations.add(ion);
-
-        }
-
-      }
+    if (annotations == null || separator == null) {
+      logger.warn("Local database search module started with no annotations");
+      return;
     }
-    scanner.close();
 
-    // Run LocalDatabaseSearchMethod
-    MSDKTask newTask = null;
-    for (FeatureTable featureTable : featureTables.getMatchingFeatureTables()) {
-      LocalDatabaseSearchMethod method =
-          new LocalDatabaseSearchMethod(featureTable, ionAnnotations, mzTolerance, rtTolerance);
+    // Search all feature tables in one task, the compound library is compiled on the first run
+    // with these annotations
+    CompoundLibrarySearchMethod method = new CompoundLibrarySearchMethod(
+        featureTables.getMatchingFeatureTables(), annotations, separator, mzTolerance,
+        rtTolerance);
 
-      newTask = new MSDKTask("Importing feature table file", featureTable.getName(), method);
+    MSDKTask newTask = new MSDKTask("Searching local database", null, method);
 
-      tasks.add(newTask);
-    }
+    tasks.add(newTask);
 
   }
 
@@ -0,0 +1,568 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.spectrallibrarysearch;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.ionannotations.IonType;
+import io.github.msdk.util.IonTypeUtil;
+
+/**
+ * MS/MS spectral library loaded from MGF and MSP files. The spectra are stored off-heap in order
+ * of their precursor m/z, each as a sparse vector of m/z bins with intensities normalized to unit
+ * length, so the cosine similarity of two spectra is the sum of the products of their common
+ * bins. The name, formula and adduct of a spectrum are only converted into an ion annotation when
+ * the spectrum is a hit.
+ *
+ * The library of the last searched files and bin width is kept for later searches, as long as the
+ * files are not changed. Only one library is kept, so searching other files or another bin width
+ * releases the buffers of the previous library. The files are read as UTF-8. The library is
+ * immutable and can be searched by several threads.
+ */
+public final class SpectralLibrary {
+
+  // Number of text fields of a spectrum: name, formula and adduct
+  private static final int FIELDS = 3;
+
+  // Lock for loading the libraries
+  private static final Object loadLock = new Object();
+
+  // Library of the last searched files and bin width
+  private static LoadedLibrary lastLibrary;
+
+  private final int size;
+  private final double binWidth;
+  private final @Nonnull DoubleBuffer precursorMzValues;
+  private final @Nonnull IntBuffer peakStarts;
+  private final @Nonnull IntBuffer peakBins;
+  private final @Nonnull FloatBuffer peakWeights;
+  private final @Nonnull IntBuffer textOffsets;
+  private final @Nonnull ByteBuffer text;
+
+  private SpectralLibrary(@Nonnull Builder builder) {
+    size = builder.size;
+    binWidth = builder.binWidth;
+
+    // Spectra in order of precursor m/z
+    final Integer order[] = new Integer[size];
+    for (int i = 0; i < size; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingDouble((Integer i) -> builder.precursorMzValues[i])
+        .thenComparingInt(i -> i));
+
+    precursorMzValues = ByteBuffer.allocateDirect(size * 8).asDoubleBuffer();
+    peakStarts = ByteBuffer.allocateDirect((size + 1) * 4).asIntBuffer();
+    peakBins = ByteBuffer.allocateDirect(builder.peakCount * 4).asIntBuffer();
+    peakWeights = ByteBuffer.allocateDirect(builder.peakCount * 4).asFloatBuffer();
+    textOffsets = ByteBuffer.allocateDirect((size + 1) * 4).asIntBuffer();
+    final byte builderText[] = builder.text.toByteArray();
+    text = ByteBuffer.allocateDirect(builderText.length);
+
+    for (int i : order) {
+      precursorMzValues.put(builder.precursorMzValues[i]);
+      peakStarts.put(peakBins.position());
+      final int peakStart = builder.peakStarts[i], peakEnd = builder.peakStarts[i + 1];
+      peakBins.put(builder.peakBins, peakStart, peakEnd - peakStart);
+      peakWeights.put(builder.peakWeights, peakStart, peakEnd - peakStart);
+      textOffsets.put(text.position());
+      final int textStart = builder.textOffsets[i], textEnd = builder.textOffsets[i + 1];
+      text.put(builderText, textStart, textEnd - textStart);
+    }
+    peakStarts.put(peakBins.position());
+    textOffsets.put(text.position());
+  }
+
+  /**
+   * Returns the library of the given files. The library is loaded by the first search of the
+   * files, and loaded again if other files or another bin width are searched, or if any of the
+   * files has been changed or replaced since. The previous library is released before the next
+   * one is loaded, and its off-heap buffers are freed once no search uses it.
+   *
+   * @param libraryFiles the MGF and MSP files, other extensions are read as MSP.
+   * @param binWidth the m/z width of the bins of the spectrum vectors.
+   * @return the spectral library.
+   * @throws IOException if a file cannot be read or parsed.
+   */
+  public static @Nonnull SpectralLibrary forFiles(@Nonnull List<File> libraryFiles,
+      double binWidth) throws IOException {
+    Preconditions.checkNotNull(libraryFiles);
+    Preconditions.checkArgument(binWidth > 0);
+    final StringBuilder key = new StringBuilder().append(binWidth);
+    for (File libraryFile : libraryFiles) {
+      final BasicFileAttributes attributes =
+          Files.readAttributes(libraryFile.toPath(), BasicFileAttributes.class);
+      key.append('\n').append(libraryFile.getAbsolutePath()).append('\t')
+          .append(attributes.size()).append('\t').append(attributes.lastModifiedTime())
+          .append('\t').append(attributes.fileKey());
+    }
+
+    synchronized (loadLock) {
+      if (lastLibrary != null && lastLibrary.key.equals(key.toString()))
+        return lastLibrary.library;
+      lastLibrary = null;
+      final SpectralLibrary library = load(libraryFiles, binWidth);
+      lastLibrary = new LoadedLibrary(key.toString(), library);
+      return library;
+    }
+  }
+
+  /**
+   * Loads the spectra of MGF and MSP files. Spectra without precursor m/z are skipped.
+   *
+   * @param libraryFiles the MGF and MSP files, other extensions are read as MSP.
+   * @param binWidth the m/z width of the bins of the spectrum vectors.
+   * @return the spectral library.
+   * @throws IOException if a file cannot be read or parsed.
+   */
+  public static @Nonnull SpectralLibrary load(@Nonnull List<File> libraryFiles, double binWidth)
+      throws IOException {
+    Preconditions.checkArgument(binWidth > 0);
+    final Builder builder = new Builder(binWidth);
+    for (File libraryFile : libraryFiles) {
+      if (libraryFile.getName().toLowerCase().endsWith(".mgf"))
+        builder.readMgf(libraryFile);
+      else
+        builder.readMsp(libraryFile);
+    }
+    return new SpectralLibrary(builder);
+  }
+
+  /**
+   * Converts the peaks of a spectrum, in order of m/z, into a vector of m/z bins with intensities
+   * normalized to unit length. Peaks in the same bin are summed.
+   *
+   * @param mzValues the m/z values of the peaks, in increasing order.
+   * @param intensityValues the intensities of the peaks.
+   * @param numberOfPeaks the number of peaks.
+   * @param binWidth the m/z width of the bins.
+   * @param bins receives the bins of the vector, must hold numberOfPeaks values.
+   * @param weights receives the weights of the vector, must hold numberOfPeaks values.
+   * @return the number of bins of the vector.
+   */
+  public static int toVector(@Nonnull double mzValues[], @Nonnull float intensityValues[],
+      int numberOfPeaks, double binWidth, @Nonnull int bins[], @Nonnull float weights[]) {
+    int count = 0;
+    for (int i = 0; i < numberOfPeaks; i++) {
+      if (!(intensityValues[i] > 0))
+        continue;
+      final int bin = (int) Math.floor(mzValues[i] / binWidth);
+      if (count > 0 && bins[count - 1] == bin) {
+        weights[count - 1] += intensityValues[i];
+      } else {
+        bins[count] = bin;
+        weights[count] = intensityValues[i];
+        count++;
+      }
+    }
+
+    double norm = 0;
+    for (int i = 0; i < count; i++)
+      norm += (double) weights[i] * weights[i];
+    norm = Math.sqrt(norm);
+    for (int i = 0; i < count; i++)
+      weights[i] = (float) (weights[i] / norm);
+    return count;
+  }
+
+  /**
+   * Returns the number of spectra.
+   */
+  public int size() {
+    return size;
+  }
+
+  public double getBinWidth() {
+    return binWidth;
+  }
+
+  /**
+   * Returns the precursor m/z value of a spectrum. The spectra are sorted by precursor m/z.
+   */
+  public double getPrecursorMz(int position) {
+    return precursorMzValues.get(position);
+  }
+
+  /**
+   * Returns the position of the first spectrum with a precursor m/z not less than the given value.
+   */
+  public int getFirstPosition(double minPrecursorMz) {
+    int low = 0, high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (precursorMzValues.get(middle) < minPrecursorMz)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the position after the last spectrum with a precursor m/z not greater than the given
+   * value.
+   */
+  public int getEndPosition(double maxPrecursorMz) {
+    int low = 0, high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (precursorMzValues.get(middle) <= maxPrecursorMz)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the cosine similarity of a spectrum and a vector made by
+   * {@link #toVector(double[], float[], int, double, int[], float[])} with the bin width of this
+   * library.
+   *
+   * @param position the position of the spectrum.
+   * @param bins the bins of the vector, in increasing order.
+   * @param weights the normalized weights of the vector.
+   * @param count the number of bins of the vector.
+   * @return the cosine similarity, from 0 to 1.
+   */
+  public double cosine(int position, @Nonnull int bins[], @Nonnull float weights[], int count) {
+    int p = peakStarts.get(position);
+    final int peakEnd = peakStarts.get(position + 1);
+    int q = 0;
+    double score = 0;
+    while (p < peakEnd && q < count) {
+      final int bin = peakBins.get(p);
+      if (bin < bins[q]) {
+        p++;
+      } else if (bin > bins[q]) {
+        q++;
+      } else {
+        score += (double) peakWeights.get(p) * weights[q];
+        p++;
+        q++;
+      }
+    }
+    return score;
+  }
+
+  public @Nonnull String getName(int position) {
+    return getField(position, 0);
+  }
+
+  /**
+   * Creates an ion annotation for a hit of a spectrum.
+   *
+   * @param position the position of the spectrum.
+   * @param score the cosine similarity of the hit.
+   * @return a new ion annotation.
+   */
+  public @Nonnull IonAnnotation createIonAnnotation(int position, double score) {
+    final String name = getField(position, 0);
+    SimpleIonAnnotation ion = new SimpleIonAnnotation();
+    ion.setAnnotationId(name);
+    ion.setExpectedMz(getPrecursorMz(position));
+    ion.setDescription(name + " (cosine " + String.format("%.3f", score) + ")");
+
+    // If formula is present then add chemical structure
+    final String formulaString = getField(position, 1);
+    if (!formulaString.isEmpty()) {
+      IMolecularFormula formula = MolecularFormulaManipulator.getMolecularFormula(formulaString,
+          DefaultChemObjectBuilder.getInstance());
+      if (formula != null)
+        ion.setFormula(formula);
+    }
+
+    // If adduct is present then add ion type, expected format: [M+2H]2+
+    final String adductString = getField(position, 2);
+    if (!adductString.isEmpty()) {
+      IonType ionType = IonTypeUtil.createIonType(adductString);
+      if (ionType != null)
+        ion.setIonType(ionType);
+    }
+    return ion;
+  }
+
+  private @Nonnull String getField(int position, int field) {
+    int offset = textOffsets.get(position);
+    for (int f = 0; f < field; f++)
+      offset += 4 + text.getInt(offset);
+    final byte bytes[] = new byte[text.getInt(offset)];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = text.get(offset + 4 + i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Library with its bin width and the paths, sizes, modification times and keys of its files
+   * when it was loaded.
+   */
+  private static final class LoadedLibrary {
+
+    private final @Nonnull String key;
+    private final @Nonnull SpectralLibrary library;
+
+    LoadedLibrary(@Nonnull String key, @Nonnull SpectralLibrary library) {
+      this.key = key;
+      this.library = library;
+    }
+  }
+
+  /**
+   * Collects the spectra of the library files on the heap before they are stored off-heap.
+   */
+  private static final class Builder {
+
+    private final double binWidth;
+    private int size = 0, peakCount = 0;
+    private double precursorMzValues[] = new double[64];
+    private int peakStarts[] = new int[65];
+    private int peakBins[] = new int[1024];
+    private float peakWeights[] = new float[1024];
+    private int textOffsets[] = new int[65];
+    private final ByteArrayOutputStream text = new ByteArrayOutputStream();
+    private final DataOutputStream textOut = new DataOutputStream(text);
+
+    // Spectrum which is being read
+    private @Nullable Double precursorMz;
+    private @Nonnull String fields[] = new String[FIELDS];
+    private double mzValues[] = new double[256];
+    private float intensityValues[] = new float[256];
+    private int numberOfPeaks = 0;
+
+    Builder(double binWidth) {
+      this.binWidth = binWidth;
+    }
+
+    /**
+     * Reads an MGF file, with the spectra between BEGIN IONS and END IONS lines.
+     */
+    void readMgf(@Nonnull File mgfFile) throws IOException {
+      try (BufferedReader reader =
+          Files.newBufferedReader(mgfFile.toPath(), StandardCharsets.UTF_8)) {
+        String line;
+        int lineNumber = 0;
+        boolean inSpectrum = false;
+        while ((line = reader.readLine()) != null) {
+          lineNumber++;
+          line = line.trim();
+          if (line.isEmpty() || line.startsWith("#"))
+            continue;
+          if (line.equalsIgnoreCase("BEGIN IONS")) {
+            startSpectrum();
+            inSpectrum = true;
+          } else if (line.equalsIgnoreCase("END IONS")) {
+            finishSpectrum();
+            inSpectrum = false;
+          } else if (inSpectrum && Character.isLetter(line.charAt(0)) && line.contains("=")) {
+            final String key = line.substring(0, line.indexOf('=')).trim().toUpperCase();
+            final String value = line.substring(line.indexOf('=') + 1).trim();
+            switch (key) {
+              case "PEPMASS":
+                precursorMz = parseNumber(value.split("\\s+")[0], mgfFile, lineNumber);
+                break;
+              case "TITLE":
+              case "NAME":
+                fields[0] = value;
+                break;
+              case "FORMULA":
+                fields[1] = value;
+                break;
+              case "ADDUCT":
+                fields[2] = value;
+                break;
+              default:
+                break;
+            }
+          } else if (inSpectrum) {
+            addPeak(line, mgfFile, lineNumber);
+          }
+        }
+      }
+    }
+
+    /**
+     * Reads an MSP file, with the spectra starting at Name lines and the peaks after the Num
+     * Peaks line.
+     */
+    void readMsp(@Nonnull File mspFile) throws IOException {
+      try (BufferedReader reader =
+          Files.newBufferedReader(mspFile.toPath(), StandardCharsets.UTF_8)) {
+        String line;
+        int lineNumber = 0;
+        boolean inSpectrum = false, inPeaks = false;
+        while ((line = reader.readLine()) != null) {
+          lineNumber++;
+          line = line.trim();
+          if (line.isEmpty()) {
+            if (inSpectrum)
+              finishSpectrum();
+            inSpectrum = false;
+            inPeaks = false;
+            continue;
+          }
+          final int colon = line.indexOf(':');
+          if (!inPeaks && colon > 0) {
+            final String key = line.substring(0, colon).trim().toUpperCase();
+            final String value = line.substring(colon + 1).trim();
+            if (key.equals("NAME")) {
+              if (inSpectrum)
+                finishSpectrum();
+              startSpectrum();
+              inSpectrum = true;
+            }
+            if (!inSpectrum)
+              continue;
+            switch (key) {
+              case "NAME":
+                fields[0] = value;
+                break;
+              case "PRECURSORMZ":
+                precursorMz = parseNumber(value, mspFile, lineNumber);
+                break;
+              case "FORMULA":
+                fields[1] = value;
+                break;
+              case "PRECURSOR_TYPE":
+              case "ADDUCT":
+                fields[2] = value;
+                break;
+              case "NUM PEAKS":
+                inPeaks = true;
+                break;
+              default:
+                break;
+            }
+          } else if (inPeaks) {
+
+            // Several peaks can be on one line, separated by semicolons
+            for (String peak : line.split(";")) {
+              if (!peak.trim().isEmpty())
+                addPeak(peak.trim(), mspFile, lineNumber);
+            }
+          }
+        }
+        if (inSpectrum)
+          finishSpectrum();
+      }
+    }
+
+    private void startSpectrum() {
+      precursorMz = null;
+      Arrays.fill(fields, "");
+      numberOfPeaks = 0;
+    }
+
+    private void addPeak(@Nonnull String line, @Nonnull File file, int lineNumber)
+        throws IOException {
+      final String tokens[] = line.split("\\s+");
+      if (tokens.length < 2)
+        throw new IOException("Cannot parse peak in " + file + " line " + lineNumber);
+      if (numberOfPeaks == mzValues.length) {
+        mzValues = Arrays.copyOf(mzValues, numberOfPeaks * 2);
+        intensityValues = Arrays.copyOf(intensityValues, numberOfPeaks * 2);
+      }
+      mzValues[numberOfPeaks] = parseNumber(tokens[0], file, lineNumber);
+      intensityValues[numberOfPeaks] = (float) parseNumber(tokens[1], file, lineNumber);
+      numberOfPeaks++;
+    }
+
+    private void finishSpectrum() throws IOException {
+      if (precursorMz == null)
+        return;
+
+      // Peaks in order of m/z
+      final Integer order[] = new Integer[numberOfPeaks];
+      for (int i = 0; i < numberOfPeaks; i++)
+        order[i] = i;
+      Arrays.sort(order, Comparator.comparingDouble((Integer i) -> mzValues[i]));
+      final double sortedMzValues[] = new double[numberOfPeaks];
+      final float sortedIntensityValues[] = new float[numberOfPeaks];
+      for (int i = 0; i < numberOfPeaks; i++) {
+        sortedMzValues[i] = mzValues[order[i]];
+        sortedIntensityValues[i] = intensityValues[order[i]];
+      }
+
+      if (size + 1 == peakStarts.length) {
+        precursorMzValues = Arrays.copyOf(precursorMzValues, size * 2);
+        peakStarts = Arrays.copyOf(peakStarts, size * 2 + 1);
+        textOffsets = Arrays.copyOf(textOffsets, size * 2 + 1);
+      }
+      if (peakCount + numberOfPeaks > peakBins.length) {
+        final int capacity = Math.max(peakBins.length * 2, peakCount + numberOfPeaks);
+        peakBins = Arrays.copyOf(peakBins, capacity);
+        peakWeights = Arrays.copyOf(peakWeights, capacity);
+      }
+
+      final int bins[] = new int[numberOfPeaks];
+      final float weights[] = new float[numberOfPeaks];
+      final int count = toVector(sortedMzValues, sortedIntensityValues, numberOfPeaks, binWidth,
+          bins, weights);
+      System.arraycopy(bins, 0, peakBins, peakCount, count);
+      System.arraycopy(weights, 0, peakWeights, peakCount, count);
+      peakCount += count;
+
+      for (String field : fields) {
+        final byte bytes[] = field.getBytes(StandardCharsets.UTF_8);
+        textOut.writeInt(bytes.length);
+        textOut.write(bytes);
+      }
+
+      precursorMzValues[size] = precursorMz;
+      size++;
+      peakStarts[size] = peakCount;
+      textOffsets[size] = text.size();
+    }
+
+    private static double parseNumber(@Nonnull String value, @Nonnull File file,
+        int lineNumber) throws IOException {
+      try {
+        return Double.parseDouble(value);
+      } catch (NumberFormatException e) {
+        throw new IOException("Cannot parse number '" + value + "' in " + file + " line "
+            + lineNumber, e);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.spectrallibrarysearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.rawdata.IsolationInfo;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+
+/**
+ * This class annotates the rows of feature tables with the spectra of a {@link SpectralLibrary}.
+ * For each row, the MS/MS scan of the row's samples with a precursor m/z within the m/z tolerance
+ * and the retention time closest to the row is compared with the library spectra with a precursor
+ * m/z within the same tolerance. The hits with the highest cosine similarity are added to the ion
+ * annotations of the row.
+ *
+ * The rows of all tables are searched in parallel. The scan and the cosine vectors of each thread
+ * are kept in reusable buffers, so the candidates of a row are scored without allocation.
+ */
+public class SpectralLibrarySearchMethod implements MSDKMethod<List<FeatureTable>> {
+
+  private static final ThreadLocal<double[]> mzBuffers =
+      ThreadLocal.withInitial(() -> new double[10000]);
+  private static final ThreadLocal<float[]> intensityBuffers =
+      ThreadLocal.withInitial(() -> new float[10000]);
+  private static final ThreadLocal<int[]> binBuffers =
+      ThreadLocal.withInitial(() -> new int[10000]);
+  private static final ThreadLocal<float[]> weightBuffers =
+      ThreadLocal.withInitial(() -> new float[10000]);
+
+  private final @Nonnull List<FeatureTable> featureTables;
+  private final @Nonnull List<File> libraryFiles;
+  private final @Nonnull MzTolerance mzTolerance;
+  private final @Nonnull RTTolerance rtTolerance;
+  private final double binWidth;
+  private final double minScore;
+  private final int maxHits;
+
+  // Best hits of each thread, in order of decreasing score
+  private final ThreadLocal<int[]> hitPositions;
+  private final ThreadLocal<double[]> hitScores;
+
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
+  private List<FeatureTable> result;
+
+  /**
+   * <p>
+   * Constructor for SpectralLibrarySearchMethod.
+   * </p>
+   *
+   * @param featureTables a {@link java.util.List} of
+   *        {@link io.github.msdk.datamodel.featuretables.FeatureTable} objects.
+   * @param libraryFiles the MGF and MSP library files.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface, used for precursor m/z.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object, used to
+   *        select the MS/MS scans of a row.
+   * @param binWidth the m/z width of the bins of the spectrum vectors.
+   * @param minScore the minimum cosine similarity of a hit.
+   * @param maxHits the maximum number of hits of a row.
+   */
+  public SpectralLibrarySearchMethod(@Nonnull List<FeatureTable> featureTables,
+      @Nonnull List<File> libraryFiles, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, double binWidth, double minScore, int maxHits) {
+    Preconditions.checkNotNull(featureTables);
+    Preconditions.checkNotNull(libraryFiles);
+    Preconditions.checkArgument(binWidth > 0);
+    Preconditions.checkArgument(maxHits > 0);
+    this.featureTables = featureTables;
+    this.libraryFiles = libraryFiles;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.binWidth = binWidth;
+    this.minScore = minScore;
+    this.maxHits = maxHits;
+    this.hitPositions = ThreadLocal.withInitial(() -> new int[maxHits]);
+    this.hitScores = ThreadLocal.withInitial(() -> new double[maxHits]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<FeatureTable> execute() throws MSDKException {
+
+    final SpectralLibrary library;
+    try {
+      library = SpectralLibrary.forFiles(libraryFiles, binWidth);
+    } catch (IOException e) {
+      throw new MSDKException(e);
+    }
+
+    // MS/MS scans of each raw data file, indexed once for all tables
+    final Map<RawDataFile, MsMsScans> rawDataFileScans = new HashMap<>();
+
+    // Rows of all tables with the ion annotation column and MS/MS scans of their table
+    final List<FeatureTableRow> rows = new ArrayList<>();
+    final List<FeatureTableColumn<List<IonAnnotation>>> rowColumns = new ArrayList<>();
+    final List<List<MsMsScans>> rowScans = new ArrayList<>();
+    for (FeatureTable featureTable : featureTables) {
+      if (featureTable.getColumn(ColumnName.IONANNOTATION, null) == null)
+        featureTable.addColumn(MSDKObjectBuilder.getIonAnnotationFeatureTableColumn());
+      final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+          featureTable.getColumn(ColumnName.IONANNOTATION, null);
+      final List<MsMsScans> tableScans = new ArrayList<>();
+      for (Sample sample : featureTable.getSamples()) {
+        final RawDataFile rawDataFile = sample.getRawDataFile();
+        if (rawDataFile != null)
+          tableScans.add(rawDataFileScans.computeIfAbsent(rawDataFile, MsMsScans::new));
+      }
+      for (FeatureTableRow row : featureTable.getRows()) {
+        rows.add(row);
+        rowColumns.add(ionAnnotationColumn);
+        rowScans.add(tableScans);
+      }
+    }
+    totalRows = rows.size();
+
+    // Search the library for each row, each row only writes its own annotations
+    IntStream.range(0, totalRows).parallel().forEach(i -> {
+      if (canceled)
+        return;
+      final FeatureTableRow row = rows.get(i);
+      final Double mz = row.getMz();
+      final Float rt = row.getRT();
+      processedRows.incrementAndGet();
+      if (mz == null || rt == null)
+        return;
+
+      final Range<Double> mzRange = mzTolerance.getToleranceRange(mz);
+      final MsScan scan = findMsMsScan(rowScans.get(i), mzRange, rt);
+      if (scan == null)
+        return;
+      final int hits = searchLibrary(library, scan, mzRange);
+      if (hits == 0)
+        return;
+
+      final int positions[] = hitPositions.get();
+      final double scores[] = hitScores.get();
+      final List<IonAnnotation> ionAnnotations = row.getData(rowColumns.get(i));
+      final List<IonAnnotation> newIonAnnotations = ionAnnotations == null
+          ? new ArrayList<>(hits) : new ArrayList<>(ionAnnotations);
+      for (int h = 0; h < hits; h++)
+        newIonAnnotations.add(library.createIonAnnotation(positions[h], scores[h]));
+      row.setData(rowColumns.get(i), newIonAnnotations);
+    });
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    result = featureTables;
+    return result;
+  }
+
+  /**
+   * Returns the MS/MS scan with a precursor m/z in the given range and the retention time closest
+   * to the given one, or null if there is no such scan within the RT tolerance.
+   */
+  private @Nullable MsScan findMsMsScan(@Nonnull List<MsMsScans> tableScans,
+      @Nonnull Range<Double> mzRange, float rt) {
+    final Range<Float> rtRange = rtTolerance.getToleranceRange(rt);
+    MsScan bestScan = null;
+    float bestDistance = Float.MAX_VALUE;
+    for (MsMsScans scans : tableScans) {
+      for (int s = scans.getFirstPosition(mzRange.lowerEndpoint()); s < scans.size; s++) {
+        if (scans.precursorMzValues[s] > mzRange.upperEndpoint())
+          break;
+        final float distance = Math.abs(scans.rtValues[s] - rt);
+        if (distance < bestDistance && rtRange.contains(scans.rtValues[s])) {
+          bestScan = scans.scans[s];
+          bestDistance = distance;
+        }
+      }
+    }
+    return bestScan;
+  }
+
+  /**
+   * Scores the library spectra with a precursor m/z in the given range against a scan, and keeps
+   * the best hits in the buffers of this thread.
+   *
+   * @return the number of hits.
+   */
+  private int searchLibrary(@Nonnull SpectralLibrary library, @Nonnull MsScan scan,
+      @Nonnull Range<Double> mzRange) {
+    final int first = library.getFirstPosition(mzRange.lowerEndpoint());
+    final int end = library.getEndPosition(mzRange.upperEndpoint());
+    if (first >= end)
+      return 0;
+
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    final double mzValues[] = scan.getMzValues(mzBuffers.get());
+    mzBuffers.set(mzValues);
+    final float intensityValues[] = scan.getIntensityValues(intensityBuffers.get());
+    intensityBuffers.set(intensityValues);
+    int bins[] = binBuffers.get();
+    float weights[] = weightBuffers.get();
+    if (bins.length < numOfDataPoints) {
+      bins = new int[numOfDataPoints];
+      weights = new float[numOfDataPoints];
+      binBuffers.set(bins);
+      weightBuffers.set(weights);
+    }
+    final int count = SpectralLibrary.toVector(mzValues, intensityValues, numOfDataPoints,
+        library.getBinWidth(), bins, weights);
+    if (count == 0)
+      return 0;
+
+    final int positions[] = hitPositions.get();
+    final double scores[] = hitScores.get();
+    int hits = 0;
+    for (int position = first; position < end; position++) {
+      final double score = library.cosine(position, bins, weights, count);
+      if (score < minScore || (hits == maxHits && score <= scores[hits - 1]))
+        continue;
+
+      // Insert the hit in order of decreasing score
+      int h = hits < maxHits ? hits++ : hits - 1;
+      while (h > 0 && scores[h - 1] < score) {
+        positions[h] = positions[h - 1];
+        scores[h] = scores[h - 1];
+        h--;
+      }
+      positions[h] = position;
+      scores[h] = score;
+    }
+    return hits;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    return totalRows == 0 ? null : (float) processedRows.get() / totalRows;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public List<FeatureTable> getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * MS/MS scans of a raw data file in order of precursor m/z.
+   */
+  private static final class MsMsScans {
+
+    private final int size;
+    private final double precursorMzValues[];
+    private final float rtValues[];
+    private final MsScan scans[];
+
+    MsMsScans(@Nonnull RawDataFile rawDataFile) {
+      final List<MsScan> msMsScans = new ArrayList<>();
+      for (MsScan scan : rawDataFile.getScans()) {
+        if (scan.getMsLevel() == null || scan.getMsLevel() < 2
+            || scan.getRetentionTime() == null)
+          continue;
+        final List<IsolationInfo> isolations = scan.getIsolations();
+        if (isolations.isEmpty() || isolations.get(0).getPrecursorMz() == null)
+          continue;
+        msMsScans.add(scan);
+      }
+      msMsScans.sort(Comparator.comparingDouble(s -> s.getIsolations().get(0).getPrecursorMz()));
+
+      size = msMsScans.size();
+      precursorMzValues = new double[size];
+      rtValues = new float[size];
+      scans = msMsScans.toArray(new MsScan[size]);
+      for (int s = 0; s < size; s++) {
+        precursorMzValues[s] = scans[s].getIsolations().get(0).getPrecursorMz();
+        rtValues[s] = scans[s].getRetentionTime();
+      }
+    }
+
+    int getFirstPosition(double minPrecursorMz) {
+      final int position = Arrays.binarySearch(precursorMzValues, minPrecursorMz);
+      if (position < 0)
+        return -position - 1;
+
+      // Move to the first of equal values
+      int first = position;
+      while (first > 0 && precursorMzValues[first - 1] == minPrecursorMz)
+        first--;
+      return first;
+    }
+
+  }
+
+}
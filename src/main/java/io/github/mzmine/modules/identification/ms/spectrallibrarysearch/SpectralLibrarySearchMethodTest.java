@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.spectrallibrarysearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+import com.google.common.io.Files;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.files.FileType;
+import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
+import io.github.msdk.datamodel.impl.SimpleIsolationInfo;
+import io.github.msdk.datamodel.ionannotations.IonAnnotation;
+import io.github.msdk.datamodel.rawdata.MsScan;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.SimpleSample;
+
+public class SpectralLibrarySearchMethodTest {
+
+  // Three compounds with the same precursor m/z, not in order of their scores
+  private static final String MGF = "BEGIN IONS\n" //
+      + "TITLE=Compound C\n" //
+      + "PEPMASS=250.1\n" //
+      + "120.05 30\n" //
+      + "200.0 10\n" //
+      + "END IONS\n" //
+      + "BEGIN IONS\n" //
+      + "TITLE=Compound B\n" //
+      + "PEPMASS=250.1\n" //
+      + "100.01 40\n" //
+      + "200.0 30\n" //
+      + "END IONS\n" //
+      + "BEGIN IONS\n" //
+      + "TITLE=Compound A\n" //
+      + "PEPMASS=250.1\n" //
+      + "100.01 40\n" //
+      + "120.05 30\n" //
+      + "END IONS\n";
+
+  @Test
+  public void testIonAnnotations() throws MSDKException, IOException {
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+
+    // The MS1 scan and the scan of another precursor have the spectrum of Compound A too
+    final RawDataFile rawDataFile =
+        MSDKObjectBuilder.getRawDataFile("Test", null, FileType.UNKNOWN, dataStore);
+    final double aMzValues[] = {100.01, 120.05};
+    final float aIntensityValues[] = {40f, 30f};
+    final double cMzValues[] = {120.05, 200.0};
+    final float cIntensityValues[] = {30f, 10f};
+    rawDataFile.addScan(createScan(dataStore, 1, 1, null, 60f, aMzValues, aIntensityValues));
+    rawDataFile.addScan(createScan(dataStore, 2, 2, 300.0, 60f, aMzValues, aIntensityValues));
+    rawDataFile.addScan(createScan(dataStore, 3, 2, 250.1, 61f, aMzValues, aIntensityValues));
+    rawDataFile.addScan(createScan(dataStore, 4, 2, 250.1, 75f, cMzValues, cIntensityValues));
+
+    // The last row has no MS/MS scan within the RT tolerance
+    final FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("Table", dataStore);
+    final FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    final FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    final FeatureTableColumn<Float> rtColumn =
+        MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+        MSDKObjectBuilder.getIonAnnotationFeatureTableColumn();
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    featureTable.addColumn(ionAnnotationColumn);
+    featureTable.addColumn(MSDKObjectBuilder.getFeatureTableColumn(ColumnName.HEIGHT,
+        new SimpleSample("Sample", rawDataFile)));
+    final float rtValues[] = {60f, 80f, 200f};
+    for (int i = 0; i < rtValues.length; i++) {
+      final FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, i + 1);
+      row.setData(idColumn, i + 1);
+      row.setData(mzColumn, 250.1);
+      row.setData(rtColumn, rtValues[i]);
+      featureTable.addRow(row);
+    }
+
+    // The annotations of a previous search are kept
+    final SimpleIonAnnotation previousAnnotation = new SimpleIonAnnotation();
+    previousAnnotation.setAnnotationId("Previous");
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    rows.get(1).setData(ionAnnotationColumn, Arrays.<IonAnnotation>asList(previousAnnotation));
+
+    final File directory = Files.createTempDir();
+    final File mgfFile = new File(directory, "test.mgf");
+    Files.write(MGF, mgfFile, StandardCharsets.UTF_8);
+    final List<FeatureTable> featureTables = Arrays.asList(featureTable);
+    SpectralLibrarySearchMethod method = new SpectralLibrarySearchMethod(featureTables,
+        Arrays.asList(mgfFile), new MaximumMzTolerance(0.01, 10.0), new RTTolerance(20f, false),
+        0.01, 0.5, 2);
+    try {
+      Assert.assertSame(featureTables, method.execute());
+    } finally {
+      mgfFile.delete();
+      directory.delete();
+    }
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+
+    // The scan closest in RT is searched, the two best hits in order of decreasing score
+    Assert.assertEquals(Arrays.asList("Compound A", "Compound B"),
+        getAnnotationIds(rows.get(0)));
+    Assert.assertEquals("Compound A (cosine 1.000)",
+        rows.get(0).getData(ionAnnotationColumn).get(0).getDescription());
+    Assert.assertEquals("Compound B (cosine 0.640)",
+        rows.get(0).getData(ionAnnotationColumn).get(1).getDescription());
+    Assert.assertEquals(250.1,
+        rows.get(0).getData(ionAnnotationColumn).get(0).getExpectedMz(), 0.0);
+    Assert.assertEquals(Arrays.asList("Previous", "Compound C", "Compound A"),
+        getAnnotationIds(rows.get(1)));
+    Assert.assertNull(rows.get(2).getData(ionAnnotationColumn));
+  }
+
+  private MsScan createScan(DataPointStore dataStore, int scanNumber, int msLevel,
+      Double precursorMz, float rt, double mzValues[], float intensityValues[]) {
+    MsScan scan = MSDKObjectBuilder.getMsScan(dataStore, scanNumber,
+        MSDKObjectBuilder.getMsFunction(null, msLevel));
+    scan.setRetentionTime(rt);
+    if (precursorMz != null)
+      scan.getIsolations().add(new SimpleIsolationInfo(Range.singleton(precursorMz), null,
+          precursorMz, null, null));
+    scan.setDataPoints(mzValues, intensityValues, mzValues.length);
+    return scan;
+  }
+
+  private List<String> getAnnotationIds(FeatureTableRow row) {
+    final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
+        row.getFeatureTable().getColumn(ColumnName.IONANNOTATION, null);
+    Assert.assertNotNull(ionAnnotationColumn);
+    final List<IonAnnotation> ionAnnotations = row.getData(ionAnnotationColumn);
+    Assert.assertNotNull(ionAnnotations);
+    final List<String> annotationIds = new ArrayList<>();
+    for (IonAnnotation ionAnnotation : ionAnnotations)
+      annotationIds.add(ionAnnotation.getAnnotationId());
+    return annotationIds;
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.spectrallibrarysearch;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesSelection;
+import io.github.mzmine.project.MZmineProject;
+import io.github.mzmine.taskcontrol.MSDKTask;
+import javafx.concurrent.Task;
+
+/**
+ * MS/MS spectral library search module
+ */
+public class SpectralLibrarySearchModule implements MZmineProcessingModule {
+
+  private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private static final String MODULE_NAME = "Spectral library search";
+  private static final String MODULE_DESCRIPTION =
+      "This module searches MS/MS spectral libraries (MGF or MSP files) using the MS/MS scans "
+          + "of the features.";
+
+  @Override
+  public @Nonnull String getName() {
+    return MODULE_NAME;
+  }
+
+  @Override
+  public @Nonnull String getDescription() {
+    return MODULE_DESCRIPTION;
+  }
+
+  @Override
+  public void runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+      @Nonnull Collection<Task<?>> tasks) {
+
+    final FeatureTablesSelection featureTables =
+        parameters.getParameter(SpectralLibrarySearchParameters.featureTables).getValue();
+
+    final List<File> libraryFiles =
+        parameters.getParameter(SpectralLibrarySearchParameters.libraryFiles).getValue();
+
+    final MaximumMzTolerance mzTolerance =
+        parameters.getParameter(SpectralLibrarySearchParameters.mzTolerance).getValue();
+
+    final RTTolerance rtTolerance =
+        parameters.getParameter(SpectralLibrarySearchParameters.rtTolerance).getValue();
+
+    final Double binWidth =
+        parameters.getParameter(SpectralLibrarySearchParameters.binWidth).getValue();
+
+    final Double minScore =
+        parameters.getParameter(SpectralLibrarySearchParameters.minScore).getValue();
+
+    final Integer maxHits =
+        parameters.getParameter(SpectralLibrarySearchParameters.maxHits).getValue();
+
+    if (featureTables == null || featureTables.getMatchingFeatureTables().isEmpty()) {
+      logger.warn("Spectral library search module started with no feature tables selected");
+      return;
+    }
+    if (libraryFiles == null || libraryFiles.isEmpty()) {
+      logger.warn("Spectral library search module started with no library files");
+      return;
+    }
+    if (binWidth == null || binWidth <= 0 || minScore == null || maxHits == null
+        || maxHits <= 0) {
+      logger.warn("Spectral library search module started with invalid parameters");
+      return;
+    }
+
+    // Search all feature tables in one task, the library is loaded on the first run with these
+    // files and bin width
+    SpectralLibrarySearchMethod method =
+        new SpectralLibrarySearchMethod(featureTables.getMatchingFeatureTables(), libraryFiles,
+            mzTolerance, rtTolerance, binWidth, minScore, maxHits);
+
+    MSDKTask newTask = new MSDKTask("Searching spectral libraries", null, method);
+
+    tasks.add(newTask);
+
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return SpectralLibrarySearchParameters.class;
+  }
+
+}
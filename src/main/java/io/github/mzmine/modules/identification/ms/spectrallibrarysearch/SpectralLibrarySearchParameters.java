@@ -0,0 +1,85 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.spectrallibrarysearch;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.ParameterValidator;
+import io.github.mzmine.parameters.parametertypes.DoubleParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
+import io.github.mzmine.parameters.parametertypes.filenames.FileNamesParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureTablesParameter;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZToleranceParameter;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTToleranceParameter;
+import javafx.stage.FileChooser.ExtensionFilter;
+
+public class SpectralLibrarySearchParameters extends ParameterSet {
+
+  public static final FeatureTablesParameter featureTables = new FeatureTablesParameter();
+
+  private static final ExtensionFilter filters[] =
+      new ExtensionFilter[] {new ExtensionFilter("All supported files", "*.mgf", "*.msp"),
+          new ExtensionFilter("MGF files", "*.mgf"), new ExtensionFilter("MSP files", "*.msp")};
+
+  public static final FileNamesParameter libraryFiles = new FileNamesParameter("Library files",
+      "MS/MS spectral libraries in MGF or MSP format", "Library",
+      ParameterValidator.createNonEmptyValidator(), Arrays.asList(filters));
+
+  public static final MZToleranceParameter mzTolerance = new MZToleranceParameter(
+      "Precursor m/z tolerance",
+      "Maximum allowed difference between the m/z of a feature, the precursor m/z of its MS/MS "
+          + "scan and the precursor m/z of a library spectrum.\n"
+          + "The tolerance range is calculated using maximum of the absolute and relative "
+          + "tolerances.",
+      "Algorithm Parameters", ParameterValidator.createNonEmptyValidator(),
+      new MaximumMzTolerance(0.01, 10.0));
+
+  public static final RTToleranceParameter rtTolerance = new RTToleranceParameter("RT tolerance",
+      "Maximum allowed retention time difference between a feature and its MS/MS scan.",
+      "Algorithm Parameters", ParameterValidator.createNonEmptyValidator(),
+      new RTTolerance(10, true));
+
+  public static final DoubleParameter binWidth = new DoubleParameter("m/z bin width",
+      "Width of the m/z bins in which the peaks of the spectra are compared. Peaks in the same "
+          + "bin are summed.",
+      "Algorithm Parameters", MZmineCore.getConfiguration().getMZFormat(),
+      ParameterValidator.createNonEmptyValidator(), 0.01);
+
+  public static final DoubleParameter minScore = new DoubleParameter("Minimum cosine score",
+      "Minimum cosine similarity (0 to 1) of the MS/MS scan and a library spectrum.",
+      "Algorithm Parameters", new DecimalFormat("0.00"),
+      ParameterValidator.createNonEmptyValidator(), 0.7);
+
+  public static final IntegerParameter maxHits = new IntegerParameter("Maximum hits",
+      "Maximum number of library hits added to the annotations of each feature.",
+      "Algorithm Parameters", ParameterValidator.createNonEmptyValidator(), 3);
+
+  /**
+   * Create the parameter set.
+   */
+  public SpectralLibrarySearchParameters() {
+    super(featureTables, libraryFiles, mzTolerance, rtTolerance, binWidth, minScore, maxHits);
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.identification.ms.spectrallibrarysearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class SpectralLibraryTest {
+
+  private static final String MGF = "BEGIN IONS\n" //
+      + "TITLE=Compound B\n" //
+      + "PEPMASS=250.1 1000\n" //
+      + "ADDUCT=[M+H]+\n" //
+      + "120.05 30\n" //
+      + "100.01 40\n" //
+      + "END IONS\n" //
+      + "BEGIN IONS\n" //
+      + "TITLE=No precursor\n" //
+      + "100.0 10\n" //
+      + "END IONS\n";
+
+  private static final String MSP = "Name: Compound A\n" //
+      + "PrecursorMZ: 150.05\n" //
+      + "Formula: C6H12O6\n" //
+      + "Num Peaks: 3\n" //
+      + "80.01 30; 60.02 40\n" //
+      + "60.024 10\n" //
+      + "\n" //
+      + "Name: Compound C\n" //
+      + "PRECURSORMZ: 250.1\n" //
+      + "Num Peaks: 1\n" //
+      + "200.0 5\n";
+
+  @Test
+  public void testLoad() throws IOException {
+    SpectralLibrary library = loadLibrary();
+
+    Assert.assertEquals(3, library.size());
+    Assert.assertEquals(150.05, library.getPrecursorMz(0), 0.0);
+    Assert.assertEquals("Compound A", library.getName(0));
+    Assert.assertEquals("Compound B", library.getName(1));
+    Assert.assertEquals("Compound C", library.getName(2));
+
+    Assert.assertEquals(1, library.getFirstPosition(250.1));
+    Assert.assertEquals(3, library.getEndPosition(250.1));
+    Assert.assertEquals(1, library.getEndPosition(250.0));
+  }
+
+  @Test
+  public void testCosine() throws IOException {
+    SpectralLibrary library = loadLibrary();
+
+    // Same peaks as Compound A, with the two peaks at m/z 60.02 in one bin
+    double mzValues[] = {60.02, 80.01};
+    float intensityValues[] = {50f, 30f};
+    int bins[] = new int[2];
+    float weights[] = new float[2];
+    int count = SpectralLibrary.toVector(mzValues, intensityValues, 2, 0.01, bins, weights);
+    Assert.assertEquals(2, count);
+    Assert.assertEquals(1.0, library.cosine(0, bins, weights, count), 1e-6);
+    Assert.assertEquals(0.0, library.cosine(2, bins, weights, count), 0.0);
+
+    // One common peak with Compound B
+    double bMzValues[] = {100.01, 200.0};
+    float bIntensityValues[] = {40f, 30f};
+    count = SpectralLibrary.toVector(bMzValues, bIntensityValues, 2, 0.01, bins, weights);
+    Assert.assertEquals(0.64, library.cosine(1, bins, weights, count), 1e-6);
+  }
+
+  @Test
+  public void testKeepLastLibrary() throws IOException {
+    File directory = Files.createTempDir();
+    File mgfFile = new File(directory, "test.mgf");
+    Files.write(MGF, mgfFile, StandardCharsets.UTF_8);
+
+    // The library is reused until another bin width is searched
+    SpectralLibrary library = SpectralLibrary.forFiles(Arrays.asList(mgfFile), 0.01);
+    Assert.assertSame(library, SpectralLibrary.forFiles(Arrays.asList(mgfFile), 0.01));
+    SpectralLibrary otherLibrary = SpectralLibrary.forFiles(Arrays.asList(mgfFile), 0.02);
+    Assert.assertNotSame(library, otherLibrary);
+    Assert.assertNotSame(library, SpectralLibrary.forFiles(Arrays.asList(mgfFile), 0.01));
+
+    // A changed file is loaded again
+    library = SpectralLibrary.forFiles(Arrays.asList(mgfFile), 0.01);
+    Files.write(MGF + MGF, mgfFile, StandardCharsets.UTF_8);
+    otherLibrary = SpectralLibrary.forFiles(Arrays.asList(mgfFile), 0.01);
+    Assert.assertNotSame(library, otherLibrary);
+    Assert.assertEquals(2, otherLibrary.size());
+    mgfFile.delete();
+    directory.delete();
+  }
+
+  private SpectralLibrary loadLibrary() throws IOException {
+    File directory = Files.createTempDir();
+    File mgfFile = new File(directory, "test.mgf");
+    File mspFile = new File(directory, "test.msp");
+    Files.write(MGF, mgfFile, StandardCharsets.UTF_8);
+    Files.write(MSP, mspFile, StandardCharsets.UTF_8);
+    SpectralLibrary library = SpectralLibrary.load(Arrays.asList(mgfFile, mspFile), 0.01);
+    mgfFile.delete();
+    mspFile.delete();
+    directory.delete();
+    return library;
+  }
+
+}
@@ -41,10 +41,10 @@ import io.github.msdk.datamodel.featuretables.FeatureTableRow;
 import io.github.msdk.datamodel.featuretables.Sample;
 import io.github.msdk.datamodel.impl.SimpleIonAnnotation;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
-import io.github.msdk.util.FeatureTableUtil;
 import io.github.mzmine.datamodel.ColumnName;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
 import io.github.mzmine.datamodel.SimpleSample;
+import io.github.mzmine.util.FeatureTableUtil;
 
 /**
  * <p>
@@ -112,6 +112,7 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
     totalLines = lines.size();
 
     int rowId = 0;
+    List<FeatureTableRow> newRows = new ArrayList<FeatureTableRow>(lines.size());
 
     boolean firstLine = true;
     for (String line : lines) {
@@ -164,7 +165,7 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
         // Feature table row
         rowId++;
         FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(newFeatureTable, rowId);
-        newFeatureTable.addRow(row);
+        newRows.add(row);
 
         // Split string based on separator
         String[] data = line.split(separator);
@@ -243,6 +244,9 @@ public class CsvFileImportMethod implements MSDKMethod<FeatureTable> {
 
     }
 
+    // Add all rows to the feature table at once
+    FeatureTableUtil.addRows(newFeatureTable, newRows);
+
     // Update average row m/z and RT values. This will also create the
     // columns if they are missing.
     FeatureTableUtil.recalculateAverages(newFeatureTable);
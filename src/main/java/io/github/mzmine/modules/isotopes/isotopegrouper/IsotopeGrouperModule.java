@@ -28,7 +28,6 @@ import org.slf4j.LoggerFactory;
 import io.github.msdk.datamodel.datastore.DataPointStore;
 import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
 import io.github.msdk.datamodel.featuretables.FeatureTable;
-import io.github.msdk.features.isotopegrouper.IsotopeGrouperMethod;
 import io.github.msdk.util.tolerances.MaximumMzTolerance;
 import io.github.msdk.util.tolerances.RTTolerance;
 import io.github.mzmine.modules.MZmineProcessingModule;
@@ -73,14 +72,13 @@ public class IsotopeGrouperModule implements MZmineProcessingModule {
     final RTTolerance rtTolerance =
         parameters.getParameter(IsotopeGrouperParameters.rtTolerance).getValue();
 
-    final Integer maximumCharge =
+    Integer maximumCharge =
         parameters.getParameter(IsotopeGrouperParameters.maximumCharge).getValue();
 
-    // final RepresentativeIsotope representativeIsotope = parameters
-    // .getParameter(IsotopeGrouperParameters.representativeIsotope)
-    // .getValue();
+    RepresentativeIsotope representativeIsotope =
+        parameters.getParameter(IsotopeGrouperParameters.representativeIsotope).getValue();
 
-    final Boolean monotonicShape =
+    Boolean monotonicShape =
         parameters.getParameter(IsotopeGrouperParameters.monotonicShape).getValue();
 
     final String nameSuffix =
@@ -89,6 +87,14 @@ public class IsotopeGrouperModule implements MZmineProcessingModule {
     final Boolean removeOldTable =
         parameters.getParameter(IsotopeGrouperParameters.removeOldTable).getValue();
 
+    // Default values
+    if (maximumCharge == null || maximumCharge < 1)
+      maximumCharge = 1;
+    if (representativeIsotope == null)
+      representativeIsotope = RepresentativeIsotope.MOST_INTENSE;
+    if (monotonicShape == null)
+      monotonicShape = false;
+
     if (featureTables == null || featureTables.getMatchingFeatureTables().isEmpty()) {
       logger.warn("Isotopic grouper module started with no feature table selected");
       return;
@@ -106,8 +112,9 @@ public class IsotopeGrouperModule implements MZmineProcessingModule {
         featureTableName += nameSuffix;
 
       // New isotope grouper method
-      IsotopeGrouperMethod method = new IsotopeGrouperMethod(featureTable, dataStore, mzTolerance,
-          rtTolerance, maximumCharge, monotonicShape, featureTableName);
+      ParallelIsotopeGrouperMethod method = new ParallelIsotopeGrouperMethod(featureTable,
+          dataStore, mzTolerance, rtTolerance, maximumCharge, monotonicShape,
+          representativeIsotope, featureTableName);
 
       MSDKTask newTask =
           new MSDKTask("Isotope grouping features in table", featureTable.getName(), method);
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.isotopes.isotopegrouper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Range;
+
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+
+/**
+ * Finds isotope patterns among features by their m/z and RT values. The features are sorted by m/z
+ * once, and the next and previous isotopes of each feature are found by a binary search for the
+ * expected isotope distance of each charge. The isotopes are searched in parallel, one task for
+ * each charge and slice of RT.
+ *
+ * The patterns are then built like the MSDK isotope grouper does: from the most intense feature
+ * down, each feature which is not part of a pattern yet seeds a pattern with the isotopes above
+ * it, and also below it unless the shape must be monotonic. The charge which gives the longest
+ * pattern is used, and equal lengths are resolved by the lower charge, so the result does not
+ * depend on the number of threads.
+ */
+final class IsotopePatternFinder {
+
+  // Mass difference between 13C and 12C
+  static final double ISOTOPE_DISTANCE = 1.0033548;
+
+  // Number of features in one RT slice
+  private static final int SLICE_SIZE = 4096;
+
+  private final int size;
+
+  // Features in order of m/z, with their index in the input arrays
+  private final @Nonnull double mzValues[];
+  private final @Nonnull float rtValues[];
+  private final @Nonnull float heights[];
+  private final @Nonnull int inputIndexes[];
+
+  // Results by input index
+  private final @Nonnull int representatives[];
+  private final @Nonnull int charges[];
+
+  private volatile boolean canceled = false;
+  private final AtomicInteger processedFeatures = new AtomicInteger();
+
+  /**
+   * Creates a finder for the given features. Features with an m/z or RT value of NaN are not
+   * grouped.
+   *
+   * @param mzValues the m/z value of each feature.
+   * @param rtValues the RT value of each feature.
+   * @param heights the height of each feature.
+   */
+  IsotopePatternFinder(@Nonnull double mzValues[], @Nonnull float rtValues[],
+      @Nonnull float heights[]) {
+    size = mzValues.length;
+    final Integer sortedIndexes[] = new Integer[size];
+    for (int i = 0; i < size; i++)
+      sortedIndexes[i] = i;
+    Arrays.sort(sortedIndexes, Comparator.comparingDouble((Integer i) -> mzValues[i])
+        .thenComparingInt(i -> i));
+
+    this.mzValues = new double[size];
+    this.rtValues = new float[size];
+    this.heights = new float[size];
+    inputIndexes = new int[size];
+    for (int k = 0; k < size; k++) {
+      final int i = sortedIndexes[k];
+      this.mzValues[k] = mzValues[i];
+      this.rtValues[k] = rtValues[i];
+      this.heights[k] = heights[i];
+      inputIndexes[k] = i;
+    }
+
+    representatives = new int[size];
+    charges = new int[size];
+    Arrays.fill(representatives, -1);
+  }
+
+  /**
+   * Finds the isotope patterns.
+   *
+   * @param mzTolerance the tolerance of the m/z distance between two isotopes.
+   * @param rtTolerance the tolerance of the RT difference between two isotopes.
+   * @param maximumCharge the highest charge to consider.
+   * @param monotonicShape if true, the most intense feature of a pattern must be its lowest m/z
+   *        isotope.
+   * @param representativeIsotope which feature represents a pattern.
+   */
+  void find(@Nonnull MzTolerance mzTolerance, @Nonnull RTTolerance rtTolerance,
+      int maximumCharge, boolean monotonicShape,
+      @Nonnull RepresentativeIsotope representativeIsotope) {
+
+    // Slices of the features in order of RT
+    final Integer rtOrder[] = new Integer[size];
+    for (int k = 0; k < size; k++)
+      rtOrder[k] = k;
+    Arrays.sort(rtOrder, Comparator.comparingDouble((Integer k) -> rtValues[k])
+        .thenComparingInt(k -> k));
+    final int sliceCount = (size + SLICE_SIZE - 1) / SLICE_SIZE;
+
+    // Next and previous isotope of each feature for each charge, or -1
+    final int nextIsotopes[][] = new int[maximumCharge][size];
+    final int previousIsotopes[][] = new int[monotonicShape ? 0 : maximumCharge][size];
+    IntStream.range(0, maximumCharge * sliceCount).parallel().forEach(task -> {
+      final int charge = task / sliceCount + 1;
+      final int sliceEnd = Math.min(size, (task % sliceCount + 1) * SLICE_SIZE);
+      for (int s = (task % sliceCount) * SLICE_SIZE; s < sliceEnd; s++) {
+        if (canceled)
+          return;
+        final int k = rtOrder[s];
+        nextIsotopes[charge - 1][k] = findIsotope(k, charge, 1, mzTolerance, rtTolerance);
+        if (!monotonicShape)
+          previousIsotopes[charge - 1][k] = findIsotope(k, charge, -1, mzTolerance, rtTolerance);
+        processedFeatures.incrementAndGet();
+      }
+    });
+
+    if (canceled)
+      return;
+
+    // Seed the patterns from the most intense feature down
+    final Integer heightOrder[] = new Integer[size];
+    for (int k = 0; k < size; k++)
+      heightOrder[k] = k;
+    Arrays.sort(heightOrder, Comparator.comparingDouble((Integer k) -> -heights[k])
+        .thenComparingInt(k -> k));
+
+    final boolean assigned[] = new boolean[size];
+    for (int k : heightOrder) {
+      if (assigned[k])
+        continue;
+
+      int bestCharge = 0, bestLength = 1;
+      for (int charge = 1; charge <= maximumCharge; charge++) {
+        int length = 1 + getChainLength(nextIsotopes[charge - 1], k, assigned);
+        if (!monotonicShape)
+          length += getChainLength(previousIsotopes[charge - 1], k, assigned);
+        if (length > bestLength) {
+          bestCharge = charge;
+          bestLength = length;
+        }
+      }
+      if (bestCharge == 0)
+        continue;
+
+      // Isotopes of the pattern, the seed is the most intense one
+      final List<Integer> pattern = new ArrayList<>(bestLength);
+      pattern.add(k);
+      int lowestIsotope = k;
+      for (int isotope = nextIsotope(nextIsotopes[bestCharge - 1], k, assigned); isotope >= 0;
+          isotope = nextIsotope(nextIsotopes[bestCharge - 1], isotope, assigned))
+        pattern.add(isotope);
+      if (!monotonicShape) {
+        final int isotopes[] = previousIsotopes[bestCharge - 1];
+        for (int isotope = nextIsotope(isotopes, k, assigned); isotope >= 0;
+            isotope = nextIsotope(isotopes, isotope, assigned)) {
+          pattern.add(isotope);
+          lowestIsotope = isotope;
+        }
+      }
+      final int representative =
+          representativeIsotope == RepresentativeIsotope.LOWEST_MZ ? lowestIsotope : k;
+
+      for (int isotope : pattern) {
+        assigned[isotope] = true;
+        representatives[inputIndexes[isotope]] = inputIndexes[representative];
+        charges[inputIndexes[isotope]] = bestCharge;
+      }
+    }
+  }
+
+  /**
+   * Returns the closest feature to the expected m/z of the next isotope above or below a feature,
+   * within the RT tolerance.
+   *
+   * @param direction 1 for the next isotope above the feature, -1 for the one below.
+   */
+  private int findIsotope(int k, int charge, int direction, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance) {
+    if (Double.isNaN(mzValues[k]) || Float.isNaN(rtValues[k]))
+      return -1;
+
+    final double expectedMz = mzValues[k] + direction * ISOTOPE_DISTANCE / charge;
+    final Range<Double> mzRange = mzTolerance.getToleranceRange(expectedMz);
+    final Range<Float> rtRange = rtTolerance.getToleranceRange(rtValues[k]);
+    int isotope = -1;
+    double isotopeDiff = Double.MAX_VALUE;
+    for (int j = lowerBound(mzRange.lowerEndpoint()); j < size
+        && mzValues[j] <= mzRange.upperEndpoint(); j++) {
+      if (j == k || !mzRange.contains(mzValues[j]) || !rtRange.contains(rtValues[j]))
+        continue;
+      final double diff = Math.abs(mzValues[j] - expectedMz);
+      if (diff < isotopeDiff) {
+        isotope = j;
+        isotopeDiff = diff;
+      }
+    }
+    return isotope;
+  }
+
+  /**
+   * Returns the linked isotope of a feature if it is not part of a pattern yet, otherwise -1.
+   */
+  private int nextIsotope(@Nonnull int isotopes[], int k, @Nonnull boolean assigned[]) {
+    final int isotope = isotopes[k];
+    if (isotope < 0 || assigned[isotope])
+      return -1;
+    return isotope;
+  }
+
+  /**
+   * Returns the number of isotopes which can be followed from a feature in one direction.
+   */
+  private int getChainLength(@Nonnull int isotopes[], int k, @Nonnull boolean assigned[]) {
+    int length = 0;
+    for (int isotope = nextIsotope(isotopes, k, assigned); isotope >= 0;
+        isotope = nextIsotope(isotopes, isotope, assigned))
+      length++;
+    return length;
+  }
+
+  /**
+   * Returns the first position with an m/z value not less than the given value.
+   */
+  private int lowerBound(double mz) {
+    int low = 0, high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (mzValues[middle] < mz)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of the representative feature of the pattern of a feature, or -1 if the
+   * feature is not part of a pattern. The representative of a pattern is its own representative.
+   */
+  int getRepresentative(int index) {
+    return representatives[index];
+  }
+
+  /**
+   * Returns the charge of the pattern of a feature, or 0 if the feature is not part of a pattern.
+   */
+  int getCharge(int index) {
+    return charges[index];
+  }
+
+  /**
+   * Returns the number of next isotope searches done so far, which is the number of features
+   * multiplied by the maximum charge when all searches are done.
+   */
+  int getProcessedFeatures() {
+    return processedFeatures.get();
+  }
+
+  void cancel() {
+    canceled = true;
+  }
+
+}
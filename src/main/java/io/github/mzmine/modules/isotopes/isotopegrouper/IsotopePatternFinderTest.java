@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.isotopes.isotopegrouper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+
+public class IsotopePatternFinderTest {
+
+  private static final double D = IsotopePatternFinder.ISOTOPE_DISTANCE;
+
+  private final MaximumMzTolerance mzTolerance = new MaximumMzTolerance(0.002, 5.0);
+  private final RTTolerance rtTolerance = new RTTolerance(0.1f, true);
+
+  @Test
+  public void testPatterns() {
+
+    // Charge 1 pattern (0, 2, 4), charge 2 pattern (1, 3), a single feature (5) and an isotope
+    // distance outside the RT tolerance (6)
+    double mzValues[] = {300.0, 500.0, 300.0 + D, 500.0 + D / 2, 300.0 + 2 * D, 700.0,
+        700.0 + D};
+    float rtValues[] = {10f, 20f, 10.02f, 20f, 10f, 30f, 31f};
+    float heights[] = {100f, 50f, 300f, 40f, 20f, 10f, 10f};
+
+    IsotopePatternFinder finder = new IsotopePatternFinder(mzValues, rtValues, heights);
+    finder.find(mzTolerance, rtTolerance, 2, false, RepresentativeIsotope.MOST_INTENSE);
+
+    Assert.assertArrayEquals(new int[] {2, 1, 2, 1, 2, -1, -1}, getRepresentatives(finder, 7));
+    Assert.assertArrayEquals(new int[] {1, 2, 1, 2, 1, 0, 0}, getCharges(finder, 7));
+    Assert.assertEquals(14, finder.getProcessedFeatures());
+  }
+
+  @Test
+  public void testMonotonicShapeAndLowestMz() {
+
+    // The second isotope is the most intense one
+    double mzValues[] = {400.0 + 2 * D, 400.0 + D, 400.0};
+    float rtValues[] = {5f, 5f, 5f};
+    float heights[] = {30f, 100f, 50f};
+
+    IsotopePatternFinder finder = new IsotopePatternFinder(mzValues, rtValues, heights);
+    finder.find(mzTolerance, rtTolerance, 1, true, RepresentativeIsotope.LOWEST_MZ);
+    Assert.assertArrayEquals(new int[] {1, 1, -1}, getRepresentatives(finder, 3));
+
+    finder = new IsotopePatternFinder(mzValues, rtValues, heights);
+    finder.find(mzTolerance, rtTolerance, 1, false, RepresentativeIsotope.LOWEST_MZ);
+    Assert.assertArrayEquals(new int[] {2, 2, 2}, getRepresentatives(finder, 3));
+  }
+
+  @Test
+  public void testMostIntenseSeed() {
+
+    // A weak feature one isotope distance below a charge 2 pattern (1, 2, 3, 4) does not take
+    // the pattern, as it would when the patterns are built from the lowest m/z up
+    double mzValues[] = {300.0, 300.0 + D, 300.0 + 1.5 * D, 300.0 + 2 * D, 300.0 + 2.5 * D};
+    float rtValues[] = {10f, 10f, 10f, 10f, 10f};
+    float heights[] = {5f, 100f, 50f, 20f, 10f};
+
+    IsotopePatternFinder finder = new IsotopePatternFinder(mzValues, rtValues, heights);
+    finder.find(mzTolerance, rtTolerance, 2, false, RepresentativeIsotope.MOST_INTENSE);
+    Assert.assertArrayEquals(new int[] {-1, 1, 1, 1, 1}, getRepresentatives(finder, 5));
+    Assert.assertArrayEquals(new int[] {0, 2, 2, 2, 2}, getCharges(finder, 5));
+  }
+
+  private int[] getRepresentatives(IsotopePatternFinder finder, int size) {
+    int representatives[] = new int[size];
+    for (int i = 0; i < size; i++)
+      representatives[i] = finder.getRepresentative(i);
+    return representatives;
+  }
+
+  private int[] getCharges(IsotopePatternFinder finder, int size) {
+    int charges[] = new int[size];
+    for (int i = 0; i < size; i++)
+      charges[i] = finder.getCharge(i);
+    return charges;
+  }
+
+}
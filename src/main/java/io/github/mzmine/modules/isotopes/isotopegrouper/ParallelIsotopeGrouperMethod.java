@@ -0,0 +1,250 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.isotopes.isotopegrouper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.util.ColumnMappingPlan;
+import io.github.mzmine.util.FeatureTableUtil;
+
+/**
+ * This class groups the rows of a feature table into isotope patterns, using an
+ * {@link IsotopePatternFinder} on the average m/z and RT values and the highest feature height of
+ * each row.
+ *
+ * The result is a copy of the feature table with the charge of each pattern and the ID of its
+ * representative row in the group ID column of the other rows of the pattern. Group IDs of the
+ * source table are not copied. The other rows are
+ * placed right after their representative row, so the feature table view shows them as children
+ * of the representative.
+ */
+public class ParallelIsotopeGrouperMethod implements MSDKMethod<FeatureTable> {
+
+  private final @Nonnull FeatureTable featureTable;
+  private final @Nonnull DataPointStore dataStore;
+  private final @Nonnull MzTolerance mzTolerance;
+  private final @Nonnull RTTolerance rtTolerance;
+  private final int maximumCharge;
+  private final boolean monotonicShape;
+  private final @Nonnull RepresentativeIsotope representativeIsotope;
+  private final @Nonnull String featureTableName;
+
+  private volatile boolean canceled = false;
+  private volatile IsotopePatternFinder finder;
+  private final AtomicInteger copiedRows = new AtomicInteger();
+  private int totalRows = 0;
+  private FeatureTable result;
+
+  /**
+   * <p>
+   * Constructor for ParallelIsotopeGrouperMethod.
+   * </p>
+   *
+   * @param featureTable a {@link io.github.msdk.datamodel.featuretables.FeatureTable} object.
+   * @param dataStore a {@link io.github.msdk.datamodel.datastore.DataPointStore} object.
+   * @param mzTolerance an object that implements the
+   *        {@link io.github.msdk.util.tolerances.MzTolerance} interface.
+   * @param rtTolerance a {@link io.github.msdk.util.tolerances.RTTolerance} object.
+   * @param maximumCharge the highest charge to consider.
+   * @param monotonicShape if true, the most intense row of a pattern must be its lowest m/z
+   *        isotope.
+   * @param representativeIsotope which row represents a pattern.
+   * @param featureTableName the name of the new feature table.
+   */
+  public ParallelIsotopeGrouperMethod(@Nonnull FeatureTable featureTable,
+      @Nonnull DataPointStore dataStore, @Nonnull MzTolerance mzTolerance,
+      @Nonnull RTTolerance rtTolerance, int maximumCharge, boolean monotonicShape,
+      @Nonnull RepresentativeIsotope representativeIsotope, @Nonnull String featureTableName) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkArgument(maximumCharge > 0);
+    this.featureTable = featureTable;
+    this.dataStore = dataStore;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.maximumCharge = maximumCharge;
+    this.monotonicShape = monotonicShape;
+    this.representativeIsotope = representativeIsotope;
+    this.featureTableName = featureTableName;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public FeatureTable execute() throws MSDKException {
+
+    final List<FeatureTableRow> rows = featureTable.getRows();
+    totalRows = rows.size();
+
+    // Height columns of the samples
+    final List<FeatureTableColumn<Float>> heightColumns = new ArrayList<>();
+    for (Sample sample : featureTable.getSamples()) {
+      FeatureTableColumn<Float> heightColumn = featureTable.getColumn(ColumnName.HEIGHT, sample);
+      if (heightColumn != null)
+        heightColumns.add(heightColumn);
+    }
+
+    // Values of the rows, rows without m/z or RT are not grouped
+    final double mzValues[] = new double[totalRows];
+    final float rtValues[] = new float[totalRows];
+    final float heights[] = new float[totalRows];
+    for (int i = 0; i < totalRows; i++) {
+      final FeatureTableRow row = rows.get(i);
+      final Double mz = row.getMz();
+      final Float rt = row.getRT();
+      mzValues[i] = mz == null ? Double.NaN : mz;
+      rtValues[i] = rt == null ? Float.NaN : rt;
+      for (FeatureTableColumn<Float> heightColumn : heightColumns) {
+        final Float height = row.getData(heightColumn);
+        if (height != null)
+          heights[i] = Math.max(heights[i], height);
+      }
+    }
+
+    finder = new IsotopePatternFinder(mzValues, rtValues, heights);
+    if (canceled)
+      return null;
+    finder.find(mzTolerance, rtTolerance, maximumCharge, monotonicShape, representativeIsotope);
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    // Other rows of each pattern, as linked lists in row order
+    final int firstIsotopes[] = new int[totalRows];
+    final int lastIsotopes[] = new int[totalRows];
+    final int nextIsotopes[] = new int[totalRows];
+    Arrays.fill(firstIsotopes, -1);
+    Arrays.fill(nextIsotopes, -1);
+    for (int i = 0; i < totalRows; i++) {
+      final int representative = finder.getRepresentative(i);
+      if (representative < 0 || representative == i)
+        continue;
+      if (firstIsotopes[representative] < 0)
+        firstIsotopes[representative] = i;
+      else
+        nextIsotopes[lastIsotopes[representative]] = i;
+      lastIsotopes[representative] = i;
+    }
+
+    // Row order of the result, each representative followed by its pattern
+    final int order[] = new int[totalRows];
+    int position = 0;
+    for (int i = 0; i < totalRows; i++) {
+      final int representative = finder.getRepresentative(i);
+      if (representative >= 0 && representative != i)
+        continue;
+      order[position++] = i;
+      for (int isotope = firstIsotopes[i]; isotope >= 0; isotope = nextIsotopes[isotope])
+        order[position++] = isotope;
+    }
+
+    // New feature table with copies of the columns of the source table. The
+    // group IDs of the source table are not copied, only the isotopes found
+    // here get a group ID.
+    result = MSDKObjectBuilder.getFeatureTable(featureTableName, dataStore);
+    final FeatureTableColumn<Integer> sourceGroupIdColumn =
+        featureTable.getColumn(ColumnName.GROUPID, null);
+    for (FeatureTableColumn<?> column : featureTable.getColumns()) {
+      if (column != sourceGroupIdColumn)
+        result.addColumn(FeatureTableUtil.copyColumn(column));
+    }
+    if (result.getColumn(ColumnName.CHARGE, null) == null)
+      result.addColumn(MSDKObjectBuilder.getFeatureTableColumn(ColumnName.CHARGE, null));
+    final ColumnMappingPlan mappingPlan = new ColumnMappingPlan(featureTable, result);
+    final FeatureTableColumn<Integer> groupIdColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.GROUPID, null);
+    result.addColumn(groupIdColumn);
+    final FeatureTableColumn<Integer> chargeColumn = result.getColumn(ColumnName.CHARGE, null);
+
+    // Copy the rows in parallel and add them at once
+    final FeatureTableRow newRows[] = new FeatureTableRow[totalRows];
+    Arrays.stream(order).parallel().forEach(i -> {
+      if (canceled)
+        return;
+      final FeatureTableRow row = rows.get(i);
+      final FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(result, row.getId());
+      mappingPlan.copyRow(row, newRow);
+      final int representative = finder.getRepresentative(i);
+      if (representative >= 0) {
+        newRow.setData(chargeColumn, finder.getCharge(i));
+        if (representative != i)
+          newRow.setData(groupIdColumn, rows.get(representative).getId());
+      }
+      newRows[i] = newRow;
+      copiedRows.incrementAndGet();
+    });
+
+    if (canceled)
+      return null;
+
+    final List<FeatureTableRow> orderedRows = new ArrayList<>(totalRows);
+    for (int i : order)
+      orderedRows.add(newRows[i]);
+    FeatureTableUtil.addRows(result, orderedRows);
+
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    if (totalRows == 0)
+      return null;
+    final IsotopePatternFinder currentFinder = finder;
+    final int processedFeatures =
+        currentFinder == null ? 0 : currentFinder.getProcessedFeatures();
+    return (float) (processedFeatures + copiedRows.get()) / (totalRows * (maximumCharge + 1));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public FeatureTable getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+    final IsotopePatternFinder currentFinder = finder;
+    if (currentFinder != null)
+      currentFinder.cancel();
+  }
+
+}
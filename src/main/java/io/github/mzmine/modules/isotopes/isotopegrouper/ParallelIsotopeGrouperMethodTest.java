@@ -0,0 +1,144 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.isotopes.isotopegrouper;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.msdk.features.isotopegrouper.IsotopeGrouperMethod;
+import io.github.msdk.util.tolerances.MaximumMzTolerance;
+import io.github.msdk.util.tolerances.MzTolerance;
+import io.github.msdk.util.tolerances.RTTolerance;
+import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.SimpleSample;
+
+public class ParallelIsotopeGrouperMethodTest {
+
+  private static final double D = IsotopePatternFinder.ISOTOPE_DISTANCE;
+
+  private final MzTolerance mzTolerance = new MaximumMzTolerance(0.002, 5.0);
+  private final RTTolerance rtTolerance = new RTTolerance(0.1f, false);
+
+  @Test
+  public void testSamePatternsAsMsdk() throws MSDKException {
+
+    final DataPointStore dataStore = DataPointStoreFactory.getMemoryDataStore();
+    final FeatureTable featureTable = createFeatureTable(dataStore);
+
+    for (boolean monotonicShape : new boolean[] {false, true}) {
+
+      // Patterns of the MSDK method
+      IsotopeGrouperMethod msdkMethod = new IsotopeGrouperMethod(featureTable, dataStore,
+          mzTolerance, rtTolerance, 2, monotonicShape, "MSDK grouped");
+      final FeatureTable expectedTable = msdkMethod.execute();
+      Assert.assertNotNull(expectedTable);
+
+      ParallelIsotopeGrouperMethod method = new ParallelIsotopeGrouperMethod(featureTable,
+          dataStore, mzTolerance, rtTolerance, 2, monotonicShape,
+          RepresentativeIsotope.MOST_INTENSE, "Grouped");
+      final FeatureTable groupedTable = method.execute();
+      Assert.assertNotNull(groupedTable);
+      Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+      Assert.assertEquals(featureTable.getRows().size(), groupedTable.getRows().size());
+
+      // The same rows are grouped with the same representative rows
+      Assert.assertEquals(getPatterns(expectedTable), getPatterns(groupedTable));
+    }
+  }
+
+  /**
+   * Returns the IDs of the rows of each pattern by the ID of its representative row. Rows without
+   * a group ID are their own representative.
+   */
+  private Map<Integer, Set<Integer>> getPatterns(FeatureTable featureTable) {
+    final FeatureTableColumn<Integer> groupIdColumn =
+        featureTable.getColumn(ColumnName.GROUPID, null);
+    final Map<Integer, Set<Integer>> patterns = new HashMap<>();
+    for (FeatureTableRow row : featureTable.getRows()) {
+      final Integer groupId = groupIdColumn == null ? null : row.getData(groupIdColumn);
+      final int representative = groupId == null ? row.getId() : groupId;
+      patterns.computeIfAbsent(representative, id -> new HashSet<>()).add(row.getId());
+    }
+    return patterns;
+  }
+
+  /**
+   * Creates a table with a charge 1 pattern, a charge 2 pattern with a weak feature one isotope
+   * distance below it, a pattern whose second isotope is the most intense one and single features.
+   */
+  private FeatureTable createFeatureTable(DataPointStore dataStore) {
+    final double features[][] = {
+        // Charge 1 pattern
+        {300.0, 10.0, 1000.0}, {300.0 + D, 10.02, 300.0}, {300.0 + 2 * D, 10.0, 50.0},
+        // Weak feature below a charge 2 pattern
+        {500.0, 20.0, 5.0}, {500.0 + D, 20.0, 800.0}, {500.0 + 1.5 * D, 20.0, 400.0},
+        {500.0 + 2 * D, 20.0, 100.0}, {500.0 + 2.5 * D, 20.0, 20.0},
+        // The second isotope is the most intense one
+        {700.0, 30.0, 200.0}, {700.0 + D, 30.0, 600.0}, {700.0 + 2 * D, 30.0, 100.0},
+        // Single features, the second one is outside the RT tolerance
+        {900.0, 40.0, 100.0}, {900.0 + D, 41.0, 100.0}};
+
+    final FeatureTable featureTable = MSDKObjectBuilder.getFeatureTable("Sample", dataStore);
+    final Sample sample = new SimpleSample("Sample");
+    final FeatureTableColumn<Integer> idColumn = MSDKObjectBuilder.getIdFeatureTableColumn();
+    final FeatureTableColumn<Double> mzColumn = MSDKObjectBuilder.getMzFeatureTableColumn();
+    final FeatureTableColumn<Float> rtColumn =
+        MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
+    final FeatureTableColumn<Double> sampleMzColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.MZ, sample);
+    final FeatureTableColumn<Float> sampleRtColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.RT, sample);
+    final FeatureTableColumn<Float> sampleHeightColumn =
+        MSDKObjectBuilder.getFeatureTableColumn(ColumnName.HEIGHT, sample);
+    featureTable.addColumn(idColumn);
+    featureTable.addColumn(mzColumn);
+    featureTable.addColumn(rtColumn);
+    featureTable.addColumn(sampleMzColumn);
+    featureTable.addColumn(sampleRtColumn);
+    featureTable.addColumn(sampleHeightColumn);
+
+    int rowID = 1;
+    for (double feature[] : features) {
+      final FeatureTableRow row = MSDKObjectBuilder.getFeatureTableRow(featureTable, rowID);
+      row.setData(idColumn, rowID);
+      row.setData(mzColumn, feature[0]);
+      row.setData(rtColumn, (float) feature[1]);
+      row.setData(sampleMzColumn, feature[0]);
+      row.setData(sampleRtColumn, (float) feature[1]);
+      row.setData(sampleHeightColumn, (float) feature[2]);
+      featureTable.addRow(row);
+      rowID++;
+    }
+    return featureTable;
+  }
+
+}
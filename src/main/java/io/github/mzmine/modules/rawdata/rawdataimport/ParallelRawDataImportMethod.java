@@ -0,0 +1,357 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.rawdata.rawdataimport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.MSDKMethod;
+import io.github.msdk.datamodel.datastore.DataPointStore;
+import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+import io.github.msdk.io.RawDataFileImportMethod;
+
+/**
+ * This class imports many raw data files with separate limits for reading and parsing. The reading
+ * threads prefetch each file with large sequential reads, so its bytes are in the operating
+ * system's file cache when a parsing thread imports it. The size of the files which are prefetched
+ * but not yet imported is bounded, so the prefetched bytes are not evicted before they are parsed.
+ * A file which is larger than the bound is prefetched alone.
+ *
+ * A file which cannot be imported is logged and skipped, the other files are still imported. Each
+ * imported file is passed to the imported file handler as soon as it is finished.
+ */
+public class ParallelRawDataImportMethod implements MSDKMethod<List<RawDataFile>> {
+
+  // Size of the sequential reads of the prefetching
+  private static final int READ_BUFFER_SIZE = 8 * 1024 * 1024;
+
+  // Default size of the files which are prefetched or parsed at the same time
+  private static final long DEFAULT_PREFETCH_BYTES = 1024L * 1024 * 1024;
+
+  // Unit of the prefetch permits
+  private static final long PERMIT_BYTES = 1024 * 1024;
+
+  private static final ThreadLocal<ByteBuffer> readBuffers =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+  private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull List<File> files;
+  private final int readingThreads;
+  private final int parsingThreads;
+  private final long prefetchBytes;
+  private final @Nullable BiConsumer<File, RawDataFile> importedFileHandler;
+
+  private final Set<RawDataFileImportMethod> runningMethods = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger processedFiles = new AtomicInteger();
+  private final AtomicInteger failedFiles = new AtomicInteger();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong importedScans = new AtomicLong();
+  private volatile long startTime = 0;
+  private volatile boolean canceled = false;
+  private List<RawDataFile> result;
+
+  /**
+   * <p>
+   * Constructor for ParallelRawDataImportMethod.
+   * </p>
+   *
+   * @param files the raw data files or folders to import.
+   * @param readingThreads the maximum number of files which are read at the same time.
+   * @param parsingThreads the maximum number of files which are parsed at the same time.
+   * @param importedFileHandler receives each file and its imported raw data file from the parsing
+   *        thread, may be null.
+   */
+  public ParallelRawDataImportMethod(@Nonnull List<File> files, int readingThreads,
+      int parsingThreads, @Nullable BiConsumer<File, RawDataFile> importedFileHandler) {
+    this(files, readingThreads, parsingThreads, DEFAULT_PREFETCH_BYTES, importedFileHandler);
+  }
+
+  /**
+   * <p>
+   * Constructor for ParallelRawDataImportMethod.
+   * </p>
+   *
+   * @param files the raw data files or folders to import.
+   * @param readingThreads the maximum number of files which are read at the same time.
+   * @param parsingThreads the maximum number of files which are parsed at the same time.
+   * @param prefetchBytes the maximum size of the files which are prefetched but not yet imported.
+   * @param importedFileHandler receives each file and its imported raw data file from the parsing
+   *        thread, may be null.
+   */
+  public ParallelRawDataImportMethod(@Nonnull List<File> files, int readingThreads,
+      int parsingThreads, long prefetchBytes,
+      @Nullable BiConsumer<File, RawDataFile> importedFileHandler) {
+    Preconditions.checkNotNull(files);
+    Preconditions.checkArgument(readingThreads > 0);
+    Preconditions.checkArgument(parsingThreads > 0);
+    Preconditions.checkArgument(prefetchBytes > 0);
+    this.files = files;
+    this.readingThreads = readingThreads;
+    this.parsingThreads = parsingThreads;
+    this.prefetchBytes = prefetchBytes;
+    this.importedFileHandler = importedFileHandler;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<RawDataFile> execute() throws MSDKException {
+
+    startTime = System.nanoTime();
+    final List<RawDataFile> rawDataFiles = Collections.synchronizedList(new ArrayList<>());
+    if (files.isEmpty()) {
+      result = rawDataFiles;
+      return result;
+    }
+
+    // Megabytes of the files which are prefetched or parsed, the reading threads wait for the
+    // permits of the next file in order before they prefetch it
+    final int totalPermits = (int) Math.max(1,
+        Math.min(Integer.MAX_VALUE, prefetchBytes / PERMIT_BYTES));
+    final Semaphore prefetchPermits = new Semaphore(totalPermits, true);
+
+    final ExecutorService readingExecutor =
+        Executors.newFixedThreadPool(Math.min(readingThreads, files.size()));
+    final ExecutorService parsingExecutor =
+        Executors.newFixedThreadPool(Math.min(parsingThreads, files.size()));
+    try {
+
+      // Prefetch the files in order, and import each file once it is prefetched
+      final List<Future<Future<?>>> futures = new ArrayList<>();
+      for (File file : files) {
+        futures.add(readingExecutor.submit(() -> {
+          final List<Path> paths = getPaths(file);
+          long fileBytes = 0;
+          for (Path path : paths)
+            fileBytes += path.toFile().length();
+          final int permits = (int) Math.max(1,
+              Math.min(totalPermits, (fileBytes + PERMIT_BYTES - 1) / PERMIT_BYTES));
+          prefetchPermits.acquire(permits);
+
+          // The parsing task releases the permits, or this task if it does not submit it
+          boolean submitted = false;
+          try {
+            if (!canceled)
+              prefetch(paths);
+            final Future<?> parsing = parsingExecutor.submit(() -> {
+              try {
+                if (!canceled)
+                  importFile(file, rawDataFiles);
+              } finally {
+                prefetchPermits.release(permits);
+              }
+            });
+            submitted = true;
+            return parsing;
+          } finally {
+            if (!submitted)
+              prefetchPermits.release(permits);
+          }
+        }));
+      }
+      for (Future<Future<?>> future : futures) {
+        try {
+          future.get().get();
+        } catch (ExecutionException e) {
+          throw new MSDKException(e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+
+      // Interrupting the waiting thread cancels the import
+      cancel();
+      Thread.currentThread().interrupt();
+    } finally {
+      readingExecutor.shutdownNow();
+      parsingExecutor.shutdownNow();
+    }
+
+    logger.info("Imported " + rawDataFiles.size() + " of " + files.size() + " raw data file(s), "
+        + bytesRead.get() / (1024 * 1024) + " MB and " + importedScans.get() + " scans in "
+        + String.format("%.1f", getElapsedSeconds()) + " s");
+
+    // Check if cancel is requested
+    if (canceled)
+      return null;
+
+    result = rawDataFiles;
+    return result;
+  }
+
+  /**
+   * Returns the path of a file, or the paths of all files in a folder. A folder which cannot be
+   * listed has no paths, the parsing reports the file if it cannot be read.
+   */
+  private @Nonnull List<Path> getPaths(@Nonnull File file) {
+    if (!file.isDirectory())
+      return Collections.singletonList(file.toPath());
+    try (Stream<Path> folderPaths = Files.walk(file.toPath())) {
+      return folderPaths.filter(Files::isRegularFile).collect(Collectors.toList());
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Cannot prefetch folder " + file + ": " + e.getMessage());
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Reads all bytes of the given files with large sequential reads. The bytes are discarded, they
+   * are kept in the operating system's file cache for the parsing.
+   */
+  private void prefetch(@Nonnull List<Path> paths) {
+    final ByteBuffer buffer = readBuffers.get();
+    for (Path path : paths) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        int read;
+        do {
+          if (canceled)
+            return;
+          buffer.clear();
+          read = channel.read(buffer);
+          if (read > 0)
+            bytesRead.addAndGet(read);
+        } while (read >= 0);
+      } catch (IOException | RuntimeException e) {
+
+        // The parsing reports the file if it cannot be read
+        logger.warn("Cannot prefetch file " + path + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Imports one file, failures are logged so that the other files are still imported.
+   */
+  private void importFile(@Nonnull File file, @Nonnull List<RawDataFile> rawDataFiles) {
+    final DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
+    final RawDataFileImportMethod method = new RawDataFileImportMethod(file, dataStore);
+    runningMethods.add(method);
+    try {
+      final RawDataFile rawDataFile = method.execute();
+      if (rawDataFile == null)
+        return;
+      importedScans.addAndGet(rawDataFile.getScans().size());
+      rawDataFiles.add(rawDataFile);
+      if (importedFileHandler != null)
+        importedFileHandler.accept(file, rawDataFile);
+    } catch (Exception e) {
+      failedFiles.incrementAndGet();
+      logger.error("Cannot import raw data file " + file + ": " + e.getMessage(), e);
+    } finally {
+      runningMethods.remove(method);
+      processedFiles.incrementAndGet();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public Float getFinishedPercentage() {
+    if (files.isEmpty())
+      return null;
+    float finished = processedFiles.get();
+    for (RawDataFileImportMethod method : runningMethods) {
+      final Float methodPercent = method.getFinishedPercentage();
+      if (methodPercent != null)
+        finished += methodPercent;
+    }
+    return Math.min(1f, finished / files.size());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @Nullable
+  public List<RawDataFile> getResult() {
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cancel() {
+    canceled = true;
+    for (RawDataFileImportMethod method : runningMethods)
+      method.cancel();
+  }
+
+  /**
+   * Returns the number of files which are imported or failed.
+   */
+  public int getProcessedFiles() {
+    return processedFiles.get();
+  }
+
+  public int getFailedFiles() {
+    return failedFiles.get();
+  }
+
+  public int getTotalFiles() {
+    return files.size();
+  }
+
+  /**
+   * Returns the number of bytes prefetched so far.
+   */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /**
+   * Returns the number of scans of the files imported so far.
+   */
+  public long getImportedScans() {
+    return importedScans.get();
+  }
+
+  /**
+   * Returns the number of seconds since the import started, or 0 if it has not started.
+   */
+  public double getElapsedSeconds() {
+    return startTime == 0 ? 0 : (System.nanoTime() - startTime) / 1e9;
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ *
+ * This file is part of MZmine 3.
+ *
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.rawdata.rawdataimport;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+import io.github.msdk.MSDKException;
+import io.github.msdk.datamodel.rawdata.RawDataFile;
+
+public class ParallelRawDataImportMethodTest {
+
+  private static final String TEST_DATA_PATH = "src/test/resources/";
+
+  @Test
+  public void testSkipFailedFiles() throws MSDKException {
+    final File mzmlFile = new File(TEST_DATA_PATH + "orbitrap_300-600mz.mzML");
+    final File otherMzmlFile = new File(TEST_DATA_PATH + "msms.mzML");
+    Assert.assertTrue("Cannot read test data", mzmlFile.canRead());
+    Assert.assertTrue("Cannot read test data", otherMzmlFile.canRead());
+    final File missingFile = new File(TEST_DATA_PATH + "missing.mzML");
+    final File folder = Files.createTempDir();
+
+    // The missing file and the folder, which is not a raw data folder, are skipped. The prefetch
+    // limit of one byte prefetches one file at a time.
+    final List<File> importedFiles = Collections.synchronizedList(new ArrayList<>());
+    ParallelRawDataImportMethod method = new ParallelRawDataImportMethod(
+        Arrays.asList(mzmlFile, missingFile, folder, otherMzmlFile), 2, 2, 1,
+        (file, rawDataFile) -> importedFiles.add(file));
+    final List<RawDataFile> rawDataFiles = method.execute();
+    folder.delete();
+
+    Assert.assertNotNull(rawDataFiles);
+    Assert.assertEquals(2, rawDataFiles.size());
+    Assert.assertEquals(4, method.getProcessedFiles());
+    Assert.assertEquals(2, method.getFailedFiles());
+    Assert.assertEquals(1.0, method.getFinishedPercentage(), 0.0001);
+    Assert.assertEquals(mzmlFile.length() + otherMzmlFile.length(), method.getBytesRead());
+    Assert.assertTrue(importedFiles.contains(mzmlFile));
+    Assert.assertTrue(importedFiles.contains(otherMzmlFile));
+  }
+
+  @Test
+  public void testCancel() throws MSDKException {
+    final File mzmlFile = new File(TEST_DATA_PATH + "orbitrap_300-600mz.mzML");
+    Assert.assertTrue("Cannot read test data", mzmlFile.canRead());
+
+    // Canceled by the handler of the first imported file, the other files are not imported
+    final ParallelRawDataImportMethod methods[] = new ParallelRawDataImportMethod[1];
+    methods[0] = new ParallelRawDataImportMethod(Arrays.asList(mzmlFile, mzmlFile, mzmlFile), 1,
+        1, (file, rawDataFile) -> methods[0].cancel());
+    Assert.assertNull(methods[0].execute());
+    Assert.assertNull(methods[0].getResult());
+    Assert.assertEquals(1, methods[0].getProcessedFiles());
+    Assert.assertEquals(0, methods[0].getFailedFiles());
+  }
+
+}
@@ -19,6 +19,7 @@
 package io.github.mzmine.modules.rawdata.rawdataimport;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -30,15 +31,10 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
 
-import io.github.msdk.datamodel.datastore.DataPointStore;
-import io.github.msdk.datamodel.datastore.DataPointStoreFactory;
-import io.github.msdk.datamodel.rawdata.RawDataFile;
-import io.github.msdk.io.RawDataFileImportMethod;
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.MZmineProject;
-import io.github.mzmine.taskcontrol.MSDKTask;
 import javafx.concurrent.Task;
 
 /**
@@ -73,10 +69,22 @@ public class RawDataImportModule implements MZmineProcessingModule {
     final String removeSuffix =
         parameters.getParameter(RawDataImportParameters.removeSuffix).getValue();
 
+    final Integer readingThreads =
+        parameters.getParameter(RawDataImportParameters.readingThreads).getValue();
+    final Integer parsingThreads =
+        parameters.getParameter(RawDataImportParameters.parsingThreads).getValue();
+
     if (fileNames == null) {
       logger.warn("Raw data import module started with no filenames");
       return;
     }
+    if (readingThreads == null || readingThreads <= 0 || parsingThreads == null
+        || parsingThreads <= 0) {
+      logger.warn("Raw data import module started with invalid number of threads");
+      return;
+    }
+
+    final List<File> readableFiles = new ArrayList<>(fileNames.size());
     for (File fileName : fileNames) {
 
       if ((!fileName.exists()) || (!fileName.canRead())) {
@@ -84,41 +92,40 @@ public class RawDataImportModule implements MZmineProcessingModule {
         logger.warn("Cannot read file " + fileName);
         continue;
       }
-
-      DataPointStore dataStore = DataPointStoreFactory.getTmpFileDataStore();
-
-      RawDataFileImportMethod method = new RawDataFileImportMethod(fileName, dataStore);
-      MSDKTask newTask = new MSDKTask("Importing raw data file", fileName.getName(), method);
-      newTask.setOnSucceeded(e -> {
-        RawDataFile rawDataFile = method.getResult();
-        if (rawDataFile == null)
-          return;
-
-        // Remove common prefix
-        if (!Strings.isNullOrEmpty(removePrefix)) {
-          String name = rawDataFile.getName();
-          if (name.startsWith(removePrefix))
-            name = name.substring(removePrefix.length());
-          rawDataFile.setName(name);
-        }
-
-        // Remove common suffix
-        if (!Strings.isNullOrEmpty(removeSuffix)) {
-          String fileExtension = FilenameUtils.getExtension(fileName.getAbsolutePath());
-          String suffix = removeSuffix;
-          if (suffix.equals(".*"))
-            suffix = "." + fileExtension;
-          String name = rawDataFile.getName();
-          if (name.endsWith(suffix))
-            name = name.substring(0, name.length() - suffix.length());
-          rawDataFile.setName(name);
-        }
-
-        project.addFile(rawDataFile);
-      });
-      tasks.add(newTask);
-
+      readableFiles.add(fileName);
     }
+    if (readableFiles.isEmpty())
+      return;
+
+    // Import all files in one task with its own reading and parsing threads, each file is added
+    // to the project as soon as it is imported
+    ParallelRawDataImportMethod method = new ParallelRawDataImportMethod(readableFiles,
+        readingThreads, parsingThreads, (fileName, rawDataFile) -> {
+
+          // Remove common prefix
+          if (!Strings.isNullOrEmpty(removePrefix)) {
+            String name = rawDataFile.getName();
+            if (name.startsWith(removePrefix))
+              name = name.substring(removePrefix.length());
+            rawDataFile.setName(name);
+          }
+
+          // Remove common suffix
+          if (!Strings.isNullOrEmpty(removeSuffix)) {
+            String fileExtension = FilenameUtils.getExtension(fileName.getAbsolutePath());
+            String suffix = removeSuffix;
+            if (suffix.equals(".*"))
+              suffix = "." + fileExtension;
+            String name = rawDataFile.getName();
+            if (name.endsWith(suffix))
+              name = name.substring(0, name.length() - suffix.length());
+            rawDataFile.setName(name);
+          }
+
+          project.addFile(rawDataFile);
+        });
+    RawDataImportTask newTask = new RawDataImportTask("Importing raw data files", method);
+    tasks.add(newTask);
 
   }
 
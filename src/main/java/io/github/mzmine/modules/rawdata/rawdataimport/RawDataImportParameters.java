@@ -30,6 +30,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.ParameterSheetView;
 import io.github.mzmine.parameters.ParameterValidator;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNamesParameter;
 import io.github.mzmine.util.FileNameUtil;
@@ -64,9 +65,22 @@ public class RawDataImportParameters extends ParameterSet {
   public static final StringParameter removeSuffix =
       new StringParameter("Remove suffix", "Suffix to be removed from file names", "Prefixes");
 
+  public static final IntegerParameter readingThreads = new IntegerParameter(
+      "Parallel file reads",
+      "Maximum number of files which are read from disk at the same time. "
+          + "Use 1 for hard disks and more for SSDs or network storage.",
+      "Performance", ParameterValidator.createNonEmptyValidator(), 1);
+
+  public static final IntegerParameter parsingThreads = new IntegerParameter(
+      "Parallel file parsing",
+      "Maximum number of files which are parsed at the same time, "
+          + "after they were read from disk.",
+      "Performance", ParameterValidator.createNonEmptyValidator(),
+      Runtime.getRuntime().availableProcessors());
+
   public RawDataImportParameters() {
 
-    super(fileNames, importMode, removePrefix, removeSuffix);
+    super(fileNames, importMode, removePrefix, removeSuffix, readingThreads, parsingThreads);
 
     removePrefix.setAutoSetAction(e -> {
 
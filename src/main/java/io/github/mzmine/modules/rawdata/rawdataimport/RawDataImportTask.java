@@ -0,0 +1,91 @@
+/*
+ * Copyright 2006-2016 The MZmine 3 Development Team
+ * 
+ * This file is part of MZmine 3.
+ * 
+ * MZmine 3 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 3 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 3; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.rawdata.rawdataimport;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.mzmine.gui.MZmineGUI;
+import io.github.mzmine.taskcontrol.MZmineTask;
+import javafx.concurrent.Task;
+
+/**
+ * Task of the raw data import, which shows the aggregate throughput of all files in its message.
+ */
+public class RawDataImportTask extends Task<Object> implements MZmineTask {
+
+  private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+  private final @Nonnull String title;
+  private final @Nonnull ParallelRawDataImportMethod method;
+
+  public RawDataImportTask(@Nonnull String title, @Nonnull ParallelRawDataImportMethod method) {
+    this.title = title;
+    this.method = method;
+    refreshStatus();
+
+    setOnCancelled(event -> method.cancel());
+  }
+
+  @Override
+  public void refreshStatus() {
+
+    // Progress
+    final Float finishedPerc = method.getFinishedPercentage();
+    if (finishedPerc != null)
+      updateProgress(finishedPerc.doubleValue(), 1.0);
+
+    // Title and message with the throughput since the start
+    updateTitle(title);
+    final double seconds = method.getElapsedSeconds();
+    String message = method.getProcessedFiles() + "/" + method.getTotalFiles() + " files";
+    if (seconds > 0) {
+      message += String.format(", %.1f MB/s, %.0f scans/s",
+          method.getBytesRead() / (1024.0 * 1024.0) / seconds,
+          method.getImportedScans() / seconds);
+    }
+    if (method.getFailedFiles() > 0)
+      message += ", " + method.getFailedFiles() + " failed";
+    updateMessage(message);
+  }
+
+  @Override
+  protected Object call() throws Exception {
+    Object result = null;
+    try {
+      result = method.execute();
+      if (!isCancelled() && method.getFailedFiles() > 0) {
+        MZmineGUI.displayMessage(
+            method.getFailedFiles() + " raw data file(s) could not be imported, see the log");
+      }
+    } catch (Throwable e) {
+
+      // Canceling the task interrupts the import, which is not an error
+      if (isCancelled())
+        return null;
+      final String msg = "Error executing task " + title + ": " + e.getMessage();
+      logger.error(msg, e);
+      MZmineGUI.displayMessage(msg);
+    }
+    return result;
+  }
+
+}
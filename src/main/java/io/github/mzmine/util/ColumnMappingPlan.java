@@ -0,0 +1,209 @@
+/*
+ * (C) Copyright 2015-2017 by MSDK Development Team
+ *
+ * This software is dual-licensed under either
+ *
+ * (a) the terms of the GNU Lesser General Public License version 2.1 as published by the Free
+ * Software Foundation
+ *
+ * or (per the licensee's choosing)
+ *
+ * (b) the terms of the Eclipse Public License v1.0 as published by the Eclipse Foundation.
+ */
+
+package io.github.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import io.github.msdk.datamodel.featuretables.FeatureTable;
+import io.github.msdk.datamodel.featuretables.FeatureTableColumn;
+import io.github.msdk.datamodel.featuretables.FeatureTableRow;
+import io.github.msdk.datamodel.featuretables.Sample;
+import io.github.mzmine.datamodel.ColumnName;
+
+/**
+ * Mapping of the columns of a source feature table to the columns of a target feature table.
+ * Columns are matched by their name and the name of their sample, in the same way as
+ * {@link FeatureTableUtil#copyCommonValues(FeatureTableRow, FeatureTableRow, Boolean)} and
+ * {@link FeatureTableUtil#copyFeatureValues(FeatureTableRow, FeatureTableRow, Sample)} do for
+ * every row. The plan is computed once for a pair of tables and then copies the values of each row
+ * by array index. Source columns without a matching target column are not copied.
+ *
+ * The plan reflects the columns of both tables at the time it was created.
+ */
+public final class ColumnMappingPlan {
+
+  private final @Nullable FeatureTableColumn<?> idSourceColumn, idTargetColumn;
+  private final @Nonnull FeatureTableColumn<?> commonSourceColumns[], commonTargetColumns[];
+  private final @Nonnull List<Sample> samples;
+  private final @Nonnull Map<Sample, Integer> sampleIndexes;
+  private final @Nonnull FeatureTableColumn<?> sampleSourceColumns[][], sampleTargetColumns[][];
+
+  /**
+   * Computes the column mapping between two feature tables.
+   *
+   * @param source the {@link FeatureTable} to copy values from.
+   * @param target the {@link FeatureTable} to copy values to.
+   */
+  public ColumnMappingPlan(@Nonnull FeatureTable source, @Nonnull FeatureTable target) {
+    this(source, Preconditions.checkNotNull(target).getColumns());
+  }
+
+  /**
+   * Computes the column mapping between a feature table and the given target columns, which may
+   * not have been added to their table yet.
+   *
+   * @param source the {@link FeatureTable} to copy values from.
+   * @param target the columns to copy values to.
+   */
+  public ColumnMappingPlan(@Nonnull FeatureTable source,
+      @Nonnull Collection<? extends FeatureTableColumn<?>> target) {
+    Preconditions.checkNotNull(source);
+    Preconditions.checkNotNull(target);
+
+    // Index the target columns by name and sample name, the last matching column is used
+    Map<String, FeatureTableColumn<?>> targetColumns = new HashMap<>();
+    for (FeatureTableColumn<?> column : target)
+      targetColumns.put(getKey(column), column);
+
+    FeatureTableColumn<?> idSource = null, idTarget = null;
+    List<FeatureTableColumn<?>> commonSources = new ArrayList<>();
+    List<FeatureTableColumn<?>> commonTargets = new ArrayList<>();
+    samples = ImmutableList.copyOf(source.getSamples());
+    List<List<FeatureTableColumn<?>>> sampleSources = new ArrayList<>();
+    List<List<FeatureTableColumn<?>>> sampleTargets = new ArrayList<>();
+    sampleIndexes = new HashMap<>();
+    for (int i = 0; i < samples.size(); i++) {
+      sampleSources.add(new ArrayList<FeatureTableColumn<?>>());
+      sampleTargets.add(new ArrayList<FeatureTableColumn<?>>());
+      sampleIndexes.put(samples.get(i), i);
+    }
+
+    for (FeatureTableColumn<?> sourceColumn : source.getColumns()) {
+      FeatureTableColumn<?> targetColumn = targetColumns.get(getKey(sourceColumn));
+      if (targetColumn == null)
+        continue;
+
+      Sample sample = sourceColumn.getSample();
+      if (sample == null) {
+        if (sourceColumn.getName().equals(ColumnName.ID.getName())) {
+          if (idSource == null) {
+            idSource = sourceColumn;
+            idTarget = targetColumn;
+          }
+        } else {
+          commonSources.add(sourceColumn);
+          commonTargets.add(targetColumn);
+        }
+      } else {
+        final int sampleIndex = sampleIndexes.get(sample);
+        sampleSources.get(sampleIndex).add(sourceColumn);
+        sampleTargets.get(sampleIndex).add(targetColumn);
+      }
+    }
+
+    idSourceColumn = idSource;
+    idTargetColumn = idTarget;
+    commonSourceColumns = commonSources.toArray(new FeatureTableColumn<?>[0]);
+    commonTargetColumns = commonTargets.toArray(new FeatureTableColumn<?>[0]);
+    sampleSourceColumns = new FeatureTableColumn<?>[samples.size()][];
+    sampleTargetColumns = new FeatureTableColumn<?>[samples.size()][];
+    for (int i = 0; i < samples.size(); i++) {
+      sampleSourceColumns[i] = sampleSources.get(i).toArray(new FeatureTableColumn<?>[0]);
+      sampleTargetColumns[i] = sampleTargets.get(i).toArray(new FeatureTableColumn<?>[0]);
+    }
+  }
+
+  /**
+   * Returns the samples of the source table, in the order used by
+   * {@link #copyFeatureValues(FeatureTableRow, FeatureTableRow, int)}.
+   *
+   * @return an immutable list of samples.
+   */
+  public @Nonnull List<Sample> getSamples() {
+    return samples;
+  }
+
+  /**
+   * Copies all mapped values, including the ID, from the source row to the target row.
+   *
+   * @param sourceRow a row of the source table.
+   * @param targetRow a row of the target table.
+   */
+  public void copyRow(@Nonnull FeatureTableRow sourceRow, @Nonnull FeatureTableRow targetRow) {
+    if (idSourceColumn != null)
+      copyValue(sourceRow, idSourceColumn, targetRow, idTargetColumn);
+    copyCommonValues(sourceRow, targetRow);
+    for (int i = 0; i < samples.size(); i++)
+      copyFeatureValues(sourceRow, targetRow, i);
+  }
+
+  /**
+   * Copies the values of the common columns, except the ID column, from the source row to the
+   * target row.
+   *
+   * @param sourceRow a row of the source table.
+   * @param targetRow a row of the target table.
+   */
+  public void copyCommonValues(@Nonnull FeatureTableRow sourceRow,
+      @Nonnull FeatureTableRow targetRow) {
+    for (int i = 0; i < commonSourceColumns.length; i++)
+      copyValue(sourceRow, commonSourceColumns[i], targetRow, commonTargetColumns[i]);
+  }
+
+  /**
+   * Copies the feature values of a sample from the source row to the target row.
+   *
+   * @param sourceRow a row of the source table.
+   * @param targetRow a row of the target table.
+   * @param sampleIndex the index of the sample in {@link #getSamples()}.
+   */
+  public void copyFeatureValues(@Nonnull FeatureTableRow sourceRow,
+      @Nonnull FeatureTableRow targetRow, int sampleIndex) {
+    final FeatureTableColumn<?> sourceColumns[] = sampleSourceColumns[sampleIndex];
+    final FeatureTableColumn<?> targetColumns[] = sampleTargetColumns[sampleIndex];
+    for (int i = 0; i < sourceColumns.length; i++)
+      copyValue(sourceRow, sourceColumns[i], targetRow, targetColumns[i]);
+  }
+
+  /**
+   * Copies the feature values of a sample from the source row to the target row. Nothing is copied
+   * if the sample does not belong to the source table.
+   *
+   * @param sourceRow a row of the source table.
+   * @param targetRow a row of the target table.
+   * @param sample a sample of the source table.
+   */
+  public void copyFeatureValues(@Nonnull FeatureTableRow sourceRow,
+      @Nonnull FeatureTableRow targetRow, @Nonnull Sample sample) {
+    final Integer sampleIndex = sampleIndexes.get(sample);
+    if (sampleIndex != null)
+      copyFeatureValues(sourceRow, targetRow, sampleIndex);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static void copyValue(FeatureTableRow sourceRow, FeatureTableColumn sourceColumn,
+      FeatureTableRow targetRow, FeatureTableColumn targetColumn) {
+    Object value = sourceRow.getData(sourceColumn);
+    if (value != null)
+      targetRow.setData(targetColumn, value);
+  }
+
+  private static String getKey(FeatureTableColumn<?> column) {
+    Sample sample = column.getSample();
+    if (sample == null)
+      return column.getName();
+    return column.getName() + '\u0000' + sample.getName();
+  }
+
+}
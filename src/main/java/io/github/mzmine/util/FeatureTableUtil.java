@@ -13,7 +13,11 @@ package io.github.mzmine.util;
  */
 
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.annotation.Nonnull;
 
@@ -29,7 +33,9 @@ import io.github.msdk.datamodel.impl.converter.CopyConverter;
 import io.github.msdk.datamodel.impl.converter.IonAnnotationConverter;
 import io.github.msdk.datamodel.ionannotations.IonAnnotation;
 import io.github.mzmine.datamodel.ColumnName;
+import io.github.mzmine.datamodel.ColumnarFeatureTable;
 import io.github.mzmine.datamodel.MSDKObjectBuilder;
+import io.github.mzmine.datamodel.MZmineFeatureTable;
 
 /**
  * <p>
@@ -38,6 +44,11 @@ import io.github.mzmine.datamodel.MSDKObjectBuilder;
  */
 public class FeatureTableUtil {
 
+  /**
+   * Minimum number of rows for which the averages are re-calculated in parallel.
+   */
+  private static final int PARALLEL_ROW_THRESHOLD = 2048;
+
   /**
    * Re-calculates the average m/z and RT values for a feature table
    *
@@ -45,15 +56,66 @@ public class FeatureTableUtil {
    *        the recalculation on.
    */
   public static void recalculateAverages(@Nonnull FeatureTable featureTable) {
+    recalculateAverages(featureTable, featureTable.getRows());
+  }
 
-    List<FeatureTableRow> rows = featureTable.getRows();
-    Double mz;
-    Float rt;
-    double totalMz;
-    float totalRt;
-    int mzCount, rtCount;
+  /**
+   * Re-calculates the average m/z and RT values for some rows of a feature table, e.g. the rows
+   * which have been changed since the averages were last calculated. The columns are resolved once
+   * for all rows. Large numbers of rows of MZmine feature tables are processed in parallel on the
+   * common {@link java.util.concurrent.ForkJoinPool}.
+   *
+   * A row without sample m/z or RT values keeps its average m/z or RT value, or has none.
+   *
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} to apply
+   *        the recalculation on.
+   * @param rows the rows of the table to re-calculate.
+   */
+  public static void recalculateAverages(@Nonnull FeatureTable featureTable,
+      @Nonnull Collection<? extends FeatureTableRow> rows) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkNotNull(rows);
+
+    addAverageColumns(featureTable);
+    final AveragesKernel kernel = new AveragesKernel(featureTable);
+    final FeatureTableRow rowArray[] = rows.toArray(new FeatureTableRow[rows.size()]);
 
-    // Create row m/z and RT columns is they are missing in the table
+    // Other FeatureTable implementations might not support concurrent writes
+    if (rowArray.length < PARALLEL_ROW_THRESHOLD || !(featureTable instanceof MZmineFeatureTable)) {
+      kernel.apply(rowArray, 0, rowArray.length);
+    } else {
+      ForkJoinPool.commonPool().invoke(new AveragesAction(kernel, rowArray, 0, rowArray.length));
+    }
+  }
+
+  /**
+   * Sets the average m/z and RT values of rows which have been calculated by the caller, e.g. from
+   * running sums which are updated as features are added to the rows. The ppm difference to the
+   * ion annotations is updated as by {@link #recalculateAverages(FeatureTable, Collection)}.
+   * A NaN value is not written and the row keeps its previous value, so callers pass NaN for rows
+   * without sample values.
+   *
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} of the
+   *        rows.
+   * @param rows the rows to update.
+   * @param mzValues the average m/z value of each row.
+   * @param rtValues the average RT value of each row.
+   */
+  public static void setAverages(@Nonnull FeatureTable featureTable,
+      @Nonnull List<? extends FeatureTableRow> rows, @Nonnull double mzValues[],
+      @Nonnull float rtValues[]) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkArgument(mzValues.length >= rows.size() && rtValues.length >= rows.size());
+    addAverageColumns(featureTable);
+    final AveragesKernel kernel = new AveragesKernel(featureTable);
+    for (int i = 0; i < rows.size(); i++)
+      kernel.setAverages(rows.get(i), mzValues[i], rtValues[i]);
+  }
+
+  /**
+   * Creates the row m/z and RT columns if they are missing in the table.
+   */
+  private static void addAverageColumns(@Nonnull FeatureTable featureTable) {
     FeatureTableColumn<?> column;
     if (featureTable.getColumn(ColumnName.MZ, null) == null) {
       column = MSDKObjectBuilder.getMzFeatureTableColumn();
@@ -63,78 +125,149 @@ public class FeatureTableUtil {
       column = MSDKObjectBuilder.getRetentionTimeFeatureTableColumn();
       featureTable.addColumn(column);
     }
+  }
 
-    for (FeatureTableRow row : rows) {
-      List<Sample> samples = featureTable.getSamples();
-
-      totalMz = 0;
-      totalRt = 0;
-      mzCount = 0;
-      rtCount = 0;
-      for (Sample sample : samples) {
-        FeatureTableColumn<Double> mzColumn = featureTable.getColumn(ColumnName.MZ, sample);
-        if (mzColumn != null) {
-          mz = row.getData(mzColumn);
-          if (mz != null) {
-            totalMz += mz;
-            mzCount++;
-          }
-        }
+  /**
+   * Re-calculates the average values of rows, using the columns of a feature table which are
+   * resolved once when the kernel is created.
+   */
+  private static final class AveragesKernel {
+
+    private final FeatureTableColumn<Double> sampleMzColumns[];
+    private final FeatureTableColumn<Float> sampleRtColumns[];
+    private final FeatureTableColumn<Double> mzColumn, ppmColumn;
+    private final FeatureTableColumn<Float> rtColumn;
+    private final FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn;
+
+    @SuppressWarnings("unchecked")
+    AveragesKernel(@Nonnull FeatureTable featureTable) {
+      List<FeatureTableColumn<Double>> mzColumns = new ArrayList<>();
+      List<FeatureTableColumn<Float>> rtColumns = new ArrayList<>();
+      for (Sample sample : featureTable.getSamples()) {
+        FeatureTableColumn<Double> sampleMzColumn = featureTable.getColumn(ColumnName.MZ, sample);
+        if (sampleMzColumn != null)
+          mzColumns.add(sampleMzColumn);
+        FeatureTableColumn<Float> sampleRtColumn = featureTable.getColumn(ColumnName.RT, sample);
+        if (sampleRtColumn != null)
+          rtColumns.add(sampleRtColumn);
+      }
+      sampleMzColumns = mzColumns.toArray(new FeatureTableColumn[mzColumns.size()]);
+      sampleRtColumns = rtColumns.toArray(new FeatureTableColumn[rtColumns.size()]);
+      mzColumn = featureTable.getColumn(ColumnName.MZ, null);
+      rtColumn = featureTable.getColumn(ColumnName.RT, null);
+      ppmColumn = featureTable.getColumn(ColumnName.PPM, null);
+      ionAnnotationColumn = featureTable.getColumn(ColumnName.IONANNOTATION, null);
+    }
 
-        FeatureTableColumn<Float> rtColumn =
-            featureTable.getColumn(ColumnName.RT, sample);
-        if (rtColumn != null) {
-            rt = row.getData(rtColumn);
-            if (rt != null) {
-              totalRt += rt;
-              rtCount++;
-            }
-          }
+    void apply(@Nonnull FeatureTableRow rows[], int from, int to) {
+      for (int i = from; i < to; i++)
+        apply(rows[i]);
+    }
+
+    private void apply(@Nonnull FeatureTableRow row) {
+      double totalMz = 0;
+      float totalRt = 0;
+      int mzCount = 0, rtCount = 0;
+
+      for (FeatureTableColumn<Double> sampleMzColumn : sampleMzColumns) {
+        Double mz = row.getData(sampleMzColumn);
+        if (mz != null) {
+          totalMz += mz;
+          mzCount++;
+        }
       }
+      for (FeatureTableColumn<Float> sampleRtColumn : sampleRtColumns) {
+        Float rt = row.getData(sampleRtColumn);
+        if (rt != null) {
+          totalRt += rt;
+          rtCount++;
+        }
+      }
+
+      // Rows without sample values keep their average values
+      setAverages(row, mzCount > 0 ? totalMz / mzCount : Double.NaN,
+          rtCount > 0 ? totalRt / rtCount : Float.NaN);
+    }
+
+    /**
+     * Sets the average values of a row, NaN values are not written.
+     */
+    void setAverages(@Nonnull FeatureTableRow row, double newMz, float newRt) {
 
       // Update m/z
-      FeatureTableColumn<Double> mzColumn = featureTable.getColumn(ColumnName.MZ, null);
-      Double newMz = totalMz / mzCount;
-      row.setData(mzColumn, newMz);
+      if (!Double.isNaN(newMz)) {
+        row.setData(mzColumn, newMz);
+        updatePpm(row, newMz);
+      }
+
+      // Update RT
+      if (rtColumn != null && !Float.isNaN(newRt)) {
+        row.setData(rtColumn, newRt);
+      }
+    }
+
+    private void updatePpm(@Nonnull FeatureTableRow row, double newMz) {
 
       // Update ppm
-      FeatureTableColumn<List<IonAnnotation>> ionAnnotationColumn =
-          featureTable.getColumn(ColumnName.IONANNOTATION, null);
-      if (ionAnnotationColumn != null) {
+      if (ionAnnotationColumn != null && ppmColumn != null) {
         List<IonAnnotation> ionAnnotations = row.getData(ionAnnotationColumn);
         if (ionAnnotations != null) {
-          Double totalIonMz = 0d;
-          Integer counter = 0;
+          double totalIonMz = 0;
+          int counter = 0;
           for (IonAnnotation ionAnnotation : ionAnnotations) {
             if (ionAnnotation != null) {
               Double ionMz = ionAnnotation.getExpectedMz();
               if (ionMz != null) {
-                totalIonMz = totalIonMz + ionMz;
+                totalIonMz += ionMz;
                 counter++;
               }
             }
           }
           if (counter > 0) {
-            Double ionMz = totalIonMz / counter;
-            FeatureTableColumn<Double> ppmColumn = featureTable.getColumn(ColumnName.PPM, null);
-            Double diff = Math.abs(newMz - ionMz);
+            double ionMz = totalIonMz / counter;
+            double diff = Math.abs(newMz - ionMz);
             row.setData(ppmColumn, (diff / ionMz) * 1000000);
           }
         }
       }
+    }
+  }
 
-      // Update RT
-      FeatureTableColumn<Float> rtColumn  =
-          featureTable.getColumn("RetentionTime", null, Float.class);
-      if (rtColumn != null) {
-        row.setData(rtColumn, totalRt / rtCount);
+  /**
+   * Splits a range of rows until it is small enough to be processed by a single thread.
+   */
+  @SuppressWarnings("serial")
+  private static final class AveragesAction extends RecursiveAction {
+
+    private static final int CHUNK_SIZE = 512;
+
+    private final AveragesKernel kernel;
+    private final FeatureTableRow rows[];
+    private final int from, to;
+
+    AveragesAction(AveragesKernel kernel, FeatureTableRow rows[], int from, int to) {
+      this.kernel = kernel;
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= CHUNK_SIZE) {
+        kernel.apply(rows, from, to);
+        return;
       }
+      final int middle = (from + to) >>> 1;
+      invokeAll(new AveragesAction(kernel, rows, from, middle),
+          new AveragesAction(kernel, rows, middle, to));
     }
   }
 
   /**
    * Copies common values such as identification results and comments from the source row to the
-   * target row.
+   * target row. To copy the values of many rows between the same tables, use a
+   * {@link ColumnMappingPlan}.
    *
    * @param sourceFeatureTableRow the source
    *        {@link io.github.msdk.datamodel.featuretables.FeatureTableRow} to copy the common values
@@ -198,7 +331,8 @@ public class FeatureTableUtil {
   }
 
   /**
-   * Copies sample specific feature values from the source row to the target row.
+   * Copies sample specific feature values from the source row to the target row. To copy the
+   * values of many rows between the same tables, use a {@link ColumnMappingPlan}.
    *
    * @param sourceFeatureTableRow the source
    *        {@link io.github.msdk.datamodel.featuretables.FeatureTableRow} to copy the common values
@@ -361,26 +495,72 @@ public class FeatureTableUtil {
     }
 
     // Copy rows
+    final ColumnMappingPlan mappingPlan = new ColumnMappingPlan(featureTable, newFeatureTable);
+    final FeatureTableColumn<Integer> idColumn = featureTable.getColumn(ColumnName.ID, null);
+    List<FeatureTableRow> newRows = new ArrayList<>();
     for (FeatureTableRow row : featureTable.getRows()) {
 
       // Create a new row with the common feature data
       FeatureTableRow newRow = MSDKObjectBuilder.getFeatureTableRow(newFeatureTable, row.getId());
-      copyCommonValues(row, newRow, false);
+      mappingPlan.copyCommonValues(row, newRow);
 
       // ID column
-      FeatureTableColumn<Integer> column = featureTable.getColumn(ColumnName.ID, null);
-      newRow.setData(column, row.getId());
+      newRow.setData(idColumn, row.getId());
 
       // Copy the feature data for the samples
-      for (Sample sample : row.getFeatureTable().getSamples()) {
-        copyFeatureValues(row, newRow, sample);
+      for (int i = 0; i < mappingPlan.getSamples().size(); i++) {
+        mappingPlan.copyFeatureValues(row, newRow, i);
       }
 
       // Add the feature row to the table if it is not null
       if (newRow != null)
-        newFeatureTable.addRow(newRow);
+        newRows.add(newRow);
     }
+    addRows(newFeatureTable, newRows);
+
+    return newFeatureTable;
+  }
 
+  /**
+   * Creates a copy-on-write clone of a feature table. A {@link ColumnarFeatureTable} shares its
+   * column storage with the clone page by page, and a shared page is only copied when either table
+   * writes to it. The values of other tables are copied into a new ColumnarFeatureTable. Either
+   * way, changes of the source table are not visible in the clone and vice versa.
+   *
+   * @param dataStore the {@link io.github.msdk.datamodel.datastore.DataPointStore} of the clone.
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} to clone.
+   * @param newName the name of the clone.
+   * @return a {@link io.github.mzmine.datamodel.ColumnarFeatureTable} with the rows of the source
+   *         table.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static @Nonnull ColumnarFeatureTable copyOnWriteClone(@Nonnull DataPointStore dataStore,
+      @Nonnull FeatureTable featureTable, @Nonnull String newName) {
+    Preconditions.checkNotNull(dataStore);
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkNotNull(newName);
+    if (featureTable instanceof ColumnarFeatureTable)
+      return ((ColumnarFeatureTable) featureTable).copyOnWriteClone(newName, dataStore);
+
+    final ColumnarFeatureTable newFeatureTable = new ColumnarFeatureTable(newName, dataStore);
+    final List<FeatureTableColumn<?>> columns = featureTable.getColumns();
+    final List<FeatureTableColumn<?>> newColumns = new ArrayList<>(columns.size());
+    for (FeatureTableColumn<?> column : columns) {
+      final FeatureTableColumn<?> newColumn = copyColumn(column);
+      newFeatureTable.addColumn(newColumn);
+      newColumns.add(newColumn);
+    }
+    final List<FeatureTableRow> newRows = new ArrayList<>();
+    for (FeatureTableRow row : featureTable.getRows()) {
+      final FeatureTableRow newRow = newFeatureTable.createRow(row.getId());
+      for (int i = 0; i < columns.size(); i++) {
+        final Object value = row.getData(columns.get(i));
+        if (value != null)
+          newRow.setData((FeatureTableColumn) newColumns.get(i), value);
+      }
+      newRows.add(newRow);
+    }
+    newFeatureTable.addRows(newRows);
     return newFeatureTable;
   }
 
@@ -459,14 +639,92 @@ public class FeatureTableUtil {
     // Copy rows
     List<FeatureTableRow> sourceRows = featureTable.getRows();
     List<FeatureTableRow> targetRows = result.getRows();
+    FeatureTableColumn<Integer> sourceIdColumn = featureTable.getColumn(ColumnName.ID, null);
+    FeatureTableColumn<Integer> targetIdColumn = result.getColumn(ColumnName.ID, null);
+    CopyConverter converter = new CopyConverter();
     for (int i = 0; i < sourceRows.size(); i++) {
-      FeatureTableColumn<Integer> sourceIdColumn = featureTable.getColumn(ColumnName.ID, null);
-      FeatureTableColumn<Integer> targetIdColumn = result.getColumn(ColumnName.ID, null);
-      new CopyConverter().apply(sourceRows.get(i), sourceIdColumn, targetRows.get(i),
-          targetIdColumn);
+      converter.apply(sourceRows.get(i), sourceIdColumn, targetRows.get(i), targetIdColumn);
+    }
+
+  }
 
+  /**
+   * Adds rows to a feature table. MZmine feature tables add all rows as a single modification,
+   * other tables add the rows one by one.
+   *
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} to add
+   *        the rows to.
+   * @param rows the rows to add.
+   */
+  public static void addRows(@Nonnull FeatureTable featureTable,
+      @Nonnull Collection<? extends FeatureTableRow> rows) {
+    Preconditions.checkNotNull(featureTable);
+    Preconditions.checkNotNull(rows);
+    if (featureTable instanceof MZmineFeatureTable) {
+      ((MZmineFeatureTable) featureTable).addRows(rows);
+    } else {
+      for (FeatureTableRow row : rows)
+        featureTable.addRow(row);
     }
+  }
+
+  /**
+   * Creates a new row for a feature table. The rows of a {@link ColumnarFeatureTable} are created
+   * by the table, so the created row is the row which is part of the table once it is added.
+   *
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} the row
+   *        will be added to.
+   * @param rowId the ID of the new row.
+   * @return the new row.
+   */
+  public static @Nonnull FeatureTableRow createRow(@Nonnull FeatureTable featureTable,
+      int rowId) {
+    Preconditions.checkNotNull(featureTable);
+    if (featureTable instanceof ColumnarFeatureTable)
+      return ((ColumnarFeatureTable) featureTable).createRow(rowId);
+    return MSDKObjectBuilder.getFeatureTableRow(featureTable, rowId);
+  }
+
+  /**
+   * Reserves a block of consecutive row IDs which are not used by any row of a feature table.
+   * MZmine feature tables reserve the IDs atomically, so several methods can create rows for the
+   * same table concurrently. For other tables the IDs follow the highest ID in the table.
+   *
+   * @param featureTable the {@link io.github.msdk.datamodel.featuretables.FeatureTable} the rows
+   *        will be added to.
+   * @param count the number of IDs to reserve.
+   * @return the first reserved ID.
+   */
+  public static int allocateRowIds(@Nonnull FeatureTable featureTable, int count) {
+    Preconditions.checkNotNull(featureTable);
+    if (featureTable instanceof MZmineFeatureTable)
+      return ((MZmineFeatureTable) featureTable).allocateRowIds(count);
+    int lastId = 0;
+    for (FeatureTableRow row : featureTable.getRows())
+      lastId = Math.max(lastId, row.getId());
+    return lastId + 1;
+  }
 
+  /**
+   * Creates a new column with the name, data type and sample of a column, so that renaming one of
+   * them does not rename the other. The common columns of {@link MSDKObjectBuilder} are shared by
+   * all feature tables and are returned as they are.
+   *
+   * @param column the {@link io.github.msdk.datamodel.featuretables.FeatureTableColumn} to copy.
+   * @return the new column, or the given column if it is a common column.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static @Nonnull FeatureTableColumn<?> copyColumn(@Nonnull FeatureTableColumn<?> column) {
+    Preconditions.checkNotNull(column);
+    if (column == MSDKObjectBuilder.getIdFeatureTableColumn()
+        || column == MSDKObjectBuilder.getMzFeatureTableColumn()
+        || column == MSDKObjectBuilder.getRetentionTimeFeatureTableColumn()
+        || column == MSDKObjectBuilder.getPpmFeatureTableColumn()
+        || column == MSDKObjectBuilder.getChargeFeatureTableColumn()
+        || column == MSDKObjectBuilder.getIonAnnotationFeatureTableColumn())
+      return column;
+    return MSDKObjectBuilder.getFeatureTableColumn(column.getName(),
+        (Class) column.getDataTypeClass(), column.getSample());
   }
 
 }